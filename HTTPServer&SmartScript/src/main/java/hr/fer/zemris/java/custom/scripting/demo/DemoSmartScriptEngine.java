@@ -47,10 +47,12 @@ public class DemoSmartScriptEngine {
 		Map<String,String> parameters = new HashMap<String, String>();
 		Map<String,String> persistentParameters = new HashMap<String, String>();
 		List<RCCookie> cookies = new ArrayList<RequestContext.RCCookie>();
+		RequestContext context = new RequestContext(System.out, parameters, persistentParameters, cookies);
 		// create engine and execute it
 		new SmartScriptEngine(
 		new SmartScriptParser(documentBody).getDocumentNode(),
-		new RequestContext(System.out, parameters, persistentParameters, cookies)
+		context
 		).execute();
+		context.finish();
 	}
 }
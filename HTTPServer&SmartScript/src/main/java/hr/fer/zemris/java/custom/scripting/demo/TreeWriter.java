@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
@@ -86,6 +87,28 @@ public class TreeWriter {
 			System.out.print(text.toString());
 		}
 
+		/**
+		 * Reproduces original part of the document representing cache node
+		 * @param node node whose text representation should be outputed
+		 */
+		@Override
+		public void visitCacheNode(CacheNode node) {
+			StringBuilder text = new StringBuilder("{$ CACHE " + node.getTimeToLive());
+			
+			for (Element i : node.getKeyElements()) {
+				text.append(" " + i.toString());
+			}
+			
+			text.append(" $}");
+			System.out.print(text.toString());
+			
+			for (int i = 0, sz = node.numberOfChildren(); i < sz; ++i) {
+				node.getChild(i).accept(this);
+			}
+			
+			System.out.print("{$ END $}");
+		}
+
 		/**
 		 * Reproduces original part of the document representing document node
 		 * @param node node whose text representation should be outputed
@@ -0,0 +1,315 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Functions available to every script. Arguments are listed in the order they are
+ * pushed, so <code>{$= 2 10 @pow $}</code> raises 2 to the power of 10.
+ * <ul>
+ * <li>math: <code>sin, cos, tan, sqrt, abs, pow, round, floor, ceil, min, max</code></li>
+ * <li>stack: <code>dup, swap</code></li>
+ * <li>text: <code>decfmt, format, upper, lower, trim, length, concat, htmlEscape</code></li>
+ * <li>context: <code>setMimeType, paramGet, pparamGet, pparamSet, pparamDel,
+ * tparamGet, tparamSet, tparamDel</code></li>
+ * </ul>
+ * @author ltomic
+ *
+ */
+enum BuiltinFunction implements SmartScriptFunction {
+
+	/** Sine of the angle in radians **/
+	SIN("sin") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(Math.sin(stack.popNumber().doubleValue()));
+		}
+	},
+	/** Cosine of the angle in radians **/
+	COS("cos") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(Math.cos(stack.popNumber().doubleValue()));
+		}
+	},
+	/** Tangent of the angle in radians **/
+	TAN("tan") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(Math.tan(stack.popNumber().doubleValue()));
+		}
+	},
+	/** Square root **/
+	SQRT("sqrt") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(Math.sqrt(stack.popNumber().doubleValue()));
+		}
+	},
+	/** Absolute value, keeping integers whole **/
+	ABS("abs") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Number value = stack.popNumber();
+			if (value instanceof Integer && value.intValue() != Integer.MIN_VALUE) {
+				stack.push(Math.abs(value.intValue()));
+			} else {
+				stack.push(Math.abs(value.doubleValue()));
+			}
+		}
+	},
+	/** Base raised to the exponent, whole if both are integers and the result fits **/
+	POW("pow") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Number exponent = stack.popNumber();
+			Number base = stack.popNumber();
+			double result = Math.pow(base.doubleValue(), exponent.doubleValue());
+			boolean integers = base instanceof Integer && exponent instanceof Integer;
+			stack.push(integers && exponent.intValue() >= 0 ? whole(result) : result);
+		}
+	},
+	/** Closest integer **/
+	ROUND("round") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(whole(Math.rint(stack.popNumber().doubleValue())));
+		}
+	},
+	/** Largest integer not greater than the value **/
+	FLOOR("floor") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(whole(Math.floor(stack.popNumber().doubleValue())));
+		}
+	},
+	/** Smallest integer not less than the value **/
+	CEIL("ceil") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(whole(Math.ceil(stack.popNumber().doubleValue())));
+		}
+	},
+	/** Smaller of two numbers **/
+	MIN("min") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Number second = stack.popNumber();
+			Number first = stack.popNumber();
+			stack.push(second.doubleValue() < first.doubleValue() ? second : first);
+		}
+	},
+	/** Larger of two numbers **/
+	MAX("max") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Number second = stack.popNumber();
+			Number first = stack.popNumber();
+			stack.push(second.doubleValue() > first.doubleValue() ? second : first);
+		}
+	},
+	/** Duplicates the value on top of the stack **/
+	DUP("dup") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Object top = stack.pop();
+			stack.push(top);
+			stack.push(top);
+		}
+	},
+	/** Swaps two values on top of the stack **/
+	SWAP("swap") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Object first = stack.pop();
+			Object second = stack.pop();
+			stack.push(first);
+			stack.push(second);
+		}
+	},
+	/** Formats the value with a {@link java.text.DecimalFormat} pattern, see {@link DecimalFormats} **/
+	DECFMT("decfmt") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			String pattern = stack.popString();
+			stack.push(DecimalFormats.format(pattern, stack.popValue()));
+		}
+	},
+	/** Formats the value with a {@link String#format(String, Object...)} pattern **/
+	FORMAT("format") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			String pattern = stack.popString();
+			stack.push(String.format(pattern, stack.popValue()));
+		}
+	},
+	/** Text in upper case **/
+	UPPER("upper") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(stack.popString().toUpperCase());
+		}
+	},
+	/** Text in lower case **/
+	LOWER("lower") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(stack.popString().toLowerCase());
+		}
+	},
+	/** Text without leading and trailing whitespace **/
+	TRIM("trim") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(stack.popString().trim());
+		}
+	},
+	/** Number of characters of the text **/
+	LENGTH("length") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(stack.popString().length());
+		}
+	},
+	/** Two texts joined together **/
+	CONCAT("concat") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			String second = stack.popString();
+			stack.push(stack.popString().concat(second));
+		}
+	},
+	/** Text with the characters that have meaning in HTML replaced by references **/
+	HTML_ESCAPE("htmlEscape") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(escapeHtml(stack.popString()));
+		}
+	},
+	/** Sets mime type of the response **/
+	SET_MIME_TYPE("setMimeType") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			context.setMimeType(stack.popString());
+		}
+	},
+	/** Value of a request parameter, or the default value **/
+	PARAM_GET("paramGet") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Object defaultValue = stack.pop();
+			Object value = context.getParameter(stack.popString());
+			stack.push(value == null ? defaultValue : value);
+		}
+	},
+	/** Value of a persistent parameter, or the default value **/
+	PERSISTENT_PARAMETER_GET("pparamGet") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Object defaultValue = stack.pop();
+			Object value = context.getPersistentParameter(stack.popString());
+			stack.push(value == null ? defaultValue : value);
+		}
+	},
+	/** Sets a persistent parameter **/
+	PERSISTENT_PARAMETER_SET("pparamSet") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			String name = stack.popString();
+			context.setPersistentParameter(name, stack.popString());
+		}
+	},
+	/** Removes a persistent parameter **/
+	PERSISTENT_PARAMETER_DELETE("pparamDel") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			context.removePersistentParameter(stack.popString());
+		}
+	},
+	/** Value of a temporary parameter, or the default value **/
+	TEMPORARY_PARAMETER_GET("tparamGet") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			Object defaultValue = stack.pop();
+			Object value = context.getTemporaryParameter(stack.popString());
+			stack.push(value == null ? defaultValue : value);
+		}
+	},
+	/** Sets a temporary parameter **/
+	TEMPORARY_PARAMETER_SET("tparamSet") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			String name = stack.popString();
+			context.setTemporaryParameter(name, stack.popString());
+		}
+	},
+	/** Removes a temporary parameter **/
+	TEMPORARY_PARAMETER_DELETE("tparamDel") {
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			context.removeTemporaryParameter(stack.popString());
+		}
+	};
+
+	/** Name of the function in scripts **/
+	private final String name;
+
+	/**
+	 * Constructs a {@link BuiltinFunction} called by the provided name
+	 * @param name - name of the function in scripts
+	 */
+	private BuiltinFunction(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns a whole number as an integer if it fits, else as a double
+	 * @param value - value to convert
+	 * @return value as an integer if possible
+	 */
+	private static Number whole(double value) {
+		if (value == Math.rint(value) && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+			return Integer.valueOf((int) value);
+		}
+		return value;
+	}
+
+	/**
+	 * Replaces characters that have meaning in HTML with character references
+	 * @param text - text to escape
+	 * @return escaped text
+	 */
+	static String escapeHtml(String text) {
+		StringBuilder sb = null;
+		for (int i = 0, length = text.length(); i < length; ++i) {
+			String reference;
+			switch (text.charAt(i)) {
+			case '&':
+				reference = "&amp;";
+				break;
+			case '<':
+				reference = "&lt;";
+				break;
+			case '>':
+				reference = "&gt;";
+				break;
+			case '"':
+				reference = "&quot;";
+				break;
+			case '\'':
+				reference = "&#39;";
+				break;
+			default:
+				if (sb != null) sb.append(text.charAt(i));
+				continue;
+			}
+			if (sb == null) sb = new StringBuilder(length + 16).append(text, 0, i);
+			sb.append(reference);
+		}
+		return sb == null ? text : sb.toString();
+	}
+}
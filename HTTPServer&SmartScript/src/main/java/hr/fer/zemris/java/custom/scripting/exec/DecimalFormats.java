@@ -0,0 +1,154 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats numbers with {@link DecimalFormat} patterns, as the <code>@decfmt</code>
+ * function does, without compiling the pattern on every call.
+ * Compiled formats are kept per thread, since {@link DecimalFormat} is not thread
+ * safe, and dropped when the default locale changes. Fixed-point patterns like
+ * <code>0.000</code> are formatted without {@link DecimalFormat}, producing the same
+ * text: values whose rounding could depend on digits a double does not hold, those
+ * close to half of the last shown digit, are left to {@link DecimalFormat}.
+ * Formatting can be used from multiple threads.
+ * @author ltomic
+ *
+ */
+public class DecimalFormats {
+
+	/** Largest number of decimals formatted without {@link DecimalFormat} **/
+	private static final int MAX_FAST_DECIMALS = 9;
+	/** Powers of ten by exponent **/
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+	/**
+	 * Scaled values at least this large are left to {@link DecimalFormat}; below it
+	 * scaling is accurate to far less than {@link #HALF_TOLERANCE}
+	 */
+	private static final double FAST_LIMIT = 1e9;
+	/** Distance from half of the last digit within which rounding is left to {@link DecimalFormat} **/
+	private static final double HALF_TOLERANCE = 1e-5;
+	/** Maximum number of formats kept by a thread **/
+	private static final int MAX_CACHED_FORMATS = 64;
+
+	/** Formats of the current thread **/
+	private static final ThreadLocal<ThreadFormats> FORMATS = ThreadLocal.withInitial(ThreadFormats::new);
+
+	/**
+	 * Formats the value with the pattern in the default locale
+	 * @param pattern - {@link DecimalFormat} pattern
+	 * @param value - value to format
+	 * @return formatted value
+	 * @throws IllegalArgumentException if the pattern is not valid or the value is not
+	 * a number
+	 */
+	public static String format(String pattern, Object value) {
+		ThreadFormats formats = FORMATS.get();
+		formats.checkLocale();
+
+		if (value instanceof Double || value instanceof Integer) {
+			int decimals = fixedDecimals(pattern);
+			if (decimals >= 0) {
+				String formatted = formats.formatFixed(((Number) value).doubleValue(), decimals);
+				if (formatted != null) return formatted;
+			}
+		}
+		return formats.get(pattern).format(value);
+	}
+
+	/**
+	 * Returns number of decimals of a fixed-point pattern: <code>0</code> or
+	 * <code>0.</code> followed by zeros
+	 * @param pattern - pattern
+	 * @return number of decimals, -1 if the pattern is not a fixed-point pattern
+	 */
+	static int fixedDecimals(String pattern) {
+		int length = pattern.length();
+		if (length == 0 || pattern.charAt(0) != '0') return -1;
+		if (length == 1) return 0;
+		if (length == 2 || pattern.charAt(1) != '.' || length - 2 > MAX_FAST_DECIMALS) return -1;
+		for (int i = 2; i < length; ++i) {
+			if (pattern.charAt(i) != '0') return -1;
+		}
+		return length - 2;
+	}
+
+	/**
+	 * Formats and compiled formats of a single thread
+	 * @author ltomic
+	 *
+	 */
+	private static class ThreadFormats {
+		/** Locale the formats were compiled for **/
+		private Locale locale;
+		/** Symbols of the locale **/
+		private DecimalFormatSymbols symbols;
+		/** Compiled formats by pattern **/
+		private Map<String, DecimalFormat> formats = new HashMap<>();
+		/** Buffer the fixed-point values are formatted in **/
+		private char[] buffer = new char[32];
+
+		/**
+		 * Drops the formats if the default locale changed since they were compiled
+		 */
+		void checkLocale() {
+			Locale current = Locale.getDefault(Locale.Category.FORMAT);
+			if (current.equals(locale)) return;
+			locale = current;
+			symbols = DecimalFormatSymbols.getInstance(current);
+			formats.clear();
+		}
+
+		/**
+		 * Returns the compiled format of the pattern, compiling it if necessary
+		 * @param pattern - pattern
+		 * @return compiled format
+		 */
+		DecimalFormat get(String pattern) {
+			DecimalFormat format = formats.get(pattern);
+			if (format == null) {
+				format = new DecimalFormat(pattern, symbols);
+				if (formats.size() >= MAX_CACHED_FORMATS) formats.clear();
+				formats.put(pattern, format);
+			}
+			return format;
+		}
+
+		/**
+		 * Formats the value with the provided number of decimals and at least one
+		 * integer digit, rounding half to even
+		 * @param value - value to format
+		 * @param decimals - number of decimals
+		 * @return formatted value, null if the value should be formatted by
+		 * {@link DecimalFormat}
+		 */
+		String formatFixed(double value, int decimals) {
+			if (Double.isNaN(value) || Double.isInfinite(value)) return null;
+			boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+			double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+			if (scaled >= FAST_LIMIT) return null;
+
+			double floor = Math.floor(scaled);
+			double fraction = scaled - floor;
+			if (Math.abs(fraction - 0.5) < HALF_TOLERANCE) return null;
+			long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+
+			char zero = symbols.getZeroDigit();
+			int position = buffer.length;
+			for (int i = 0; i < decimals; ++i) {
+				buffer[--position] = (char) (zero + units % 10);
+				units /= 10;
+			}
+			if (decimals > 0) buffer[--position] = symbols.getDecimalSeparator();
+			do {
+				buffer[--position] = (char) (zero + units % 10);
+				units /= 10;
+			} while (units > 0);
+			if (negative) buffer[--position] = symbols.getMinusSign();
+			return new String(buffer, position, buffer.length - position);
+		}
+	}
+}
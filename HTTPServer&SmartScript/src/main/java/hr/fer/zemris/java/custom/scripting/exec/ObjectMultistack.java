@@ -19,6 +19,10 @@ public class ObjectMultistack {
 	 * Map where stacks are stored under key
 	 */
 	private Map<String, MultistackEntry> map;
+	/**
+	 * Entries removed by {@link #discard(String)}, reused by {@link #pushValue(String, Object)}
+	 */
+	private MultistackEntry free;
 
 	/**
 	 * Default constructor
@@ -47,6 +51,52 @@ public class ObjectMultistack {
 		}
 	}
 	
+	/**
+	 * Adds a new value to the stack stored under the given key <code>name</code>, wrapping
+	 * it in a {@link ValueWrapper}. Wrappers and entries released by {@link #discard(String)}
+	 * are reused, so a value that is repeatedly pushed and discarded, like a loop
+	 * variable, does not allocate new objects.
+	 * @param name key of the stack on to which the value should be added
+	 * @param value value to be added
+	 * @return wrapper holding the added value
+	 */
+	public ValueWrapper pushValue(String name, Object value) {
+		Objects.requireNonNull(name, "name cannot be null");
+
+		MultistackEntry entry = free;
+		if (entry == null) {
+			entry = new MultistackEntry(new ValueWrapper(value));
+		} else {
+			free = entry.next;
+			entry.value.setValue(value);
+		}
+		entry.next = map.get(name);
+		map.put(name, entry);
+		return entry.value;
+	}
+
+	/**
+	 * Removes the latest added object on the stack with given key and keeps its entry
+	 * and wrapper for reuse. Should be used only for values pushed by
+	 * {@link #pushValue(String, Object)} whose wrappers are not referenced elsewhere.
+	 * @param name key under which the stack from which the object should be removed
+	 */
+	public void discard(String name) {
+		Objects.requireNonNull(name, "name cannot be null");
+
+		MultistackEntry entry = map.get(name);
+
+		if (entry == null) throw new EmptyStackException();
+
+		if (entry.next == null) {
+			map.remove(name);
+		} else {
+			map.put(name, entry.next);
+		}
+		entry.next = free;
+		free = entry;
+	}
+
 	/**
 	 * Returns and removes the latest added object on the stack with given key
 	 * @param name key under which the stack from which the object should be fetched and removed
@@ -59,10 +109,11 @@ public class ObjectMultistack {
 		
 		if (entry == null) throw new EmptyStackException();
 		
-		map.remove(name);
 		MultistackEntry nextEntry = entry.next;
 		
-		if (nextEntry != null) {
+		if (nextEntry == null) {
+			map.remove(name);
+		} else {
 			map.put(name, nextEntry);
 		}
 		
@@ -0,0 +1,100 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Arrays;
+
+/**
+ * Operand stack of the {@link SmartScriptEngine}, shared by all echo tags of a script.
+ * Values pushed by an echo tag are written when the tag ends. Functions take their
+ * arguments from the stack and push their results onto it, see
+ * {@link SmartScriptFunction}.
+ * @author ltomic
+ *
+ */
+public class OperandStack {
+
+	/** Values on the stack, from bottom to top **/
+	private Object[] values;
+	/** Number of values on the stack **/
+	private int size;
+
+	/**
+	 * Constructs an empty {@link OperandStack}
+	 * @param capacity - number of values the stack holds before it grows
+	 */
+	public OperandStack(int capacity) {
+		values = new Object[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Pushes the value to the stack
+	 * @param value - value to push
+	 */
+	public void push(Object value) {
+		if (size == values.length) values = Arrays.copyOf(values, values.length * 2);
+		values[size++] = value;
+	}
+
+	/**
+	 * Removes and returns the value on top of the stack
+	 * @return value on top of the stack
+	 * @throws RuntimeException if the stack is empty
+	 */
+	public Object pop() {
+		if (size == 0) throw new RuntimeException("Operand stack is empty");
+		Object value = values[--size];
+		values[size] = null;
+		return value;
+	}
+
+	/**
+	 * Removes the value on top of the stack and returns the value it holds, unwrapping
+	 * {@link ValueWrapper}s
+	 * @return value on top of the stack
+	 */
+	public Object popValue() {
+		Object value = pop();
+		return value instanceof ValueWrapper ? ((ValueWrapper) value).getValue() : value;
+	}
+
+	/**
+	 * Removes the value on top of the stack and returns it as a number, parsing strings
+	 * @return value on top of the stack as a number
+	 */
+	public Number popNumber() {
+		return ValueWrapper.toNumber(popValue());
+	}
+
+	/**
+	 * Removes the value on top of the stack and returns it as a string
+	 * @return value on top of the stack as a string
+	 */
+	public String popString() {
+		return String.valueOf(popValue());
+	}
+
+	/**
+	 * Gets the value at the provided position, counting from the bottom of the stack
+	 * @param index - position of the value
+	 * @return value at the position
+	 */
+	public Object get(int index) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index);
+		return values[index];
+	}
+
+	/**
+	 * Gets number of values on the stack
+	 * @return number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all values from the stack
+	 */
+	public void clear() {
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+}
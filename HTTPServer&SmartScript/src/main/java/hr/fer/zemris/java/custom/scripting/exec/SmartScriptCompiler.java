@@ -0,0 +1,386 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.elems.IElementVisitor;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Fragment;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Loop;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Text;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.VariableReference;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+
+/**
+ * Lowers a parsed SmartScript document into a {@link SmartScriptProgram}. Text nodes
+ * become text output instructions, adjacent ones merged into a single instruction
+ * writing the text encoded in advance, echo tags become their stack operations followed
+ * by an instruction writing the stack, for loops become a pair of instructions
+ * enclosing the loop body and cache tags their key expression followed by a pair of
+ * instructions enclosing the cached fragment. Functions are resolved when the document is compiled and
+ * stored in the program, see {@link SmartScriptFunctions}.
+ * @author ltomic
+ *
+ */
+public class SmartScriptCompiler {
+
+	/** Step used by for loops without a step expression **/
+	private static final Integer DEFAULT_STEP = Integer.valueOf(1);
+
+	/** Instructions emitted so far **/
+	private int[] code = new int[32];
+	/** Number of used slots in the code array **/
+	private int length;
+	/** Constant pool **/
+	private List<Object> constants = new ArrayList<>();
+	/** Indexes of constants already in the pool **/
+	private Map<Object, Integer> constantIndexes = new HashMap<>();
+	/** Current depth of the operand stack **/
+	private int stackDepth;
+	/** Largest depth of the operand stack **/
+	private int maxStack;
+	/** Text of the text nodes visited since the last instruction **/
+	private StringBuilder pendingText = new StringBuilder();
+	/** Functions the calls are resolved with **/
+	private SmartScriptFunctions functions;
+
+	/**
+	 * Constructs a {@link SmartScriptCompiler} resolving calls with the provided functions
+	 * @param functions - functions scripts can call
+	 */
+	private SmartScriptCompiler(SmartScriptFunctions functions) {
+		this.functions = functions;
+	}
+
+	/**
+	 * Compiles the provided document
+	 * @param document - head node of the document
+	 * @return compiled program
+	 */
+	public static SmartScriptProgram compile(DocumentNode document) {
+		return compile(document, SmartScriptFunctions.getDefault());
+	}
+
+	/**
+	 * Compiles a single node of a document, like a top-level node returned by an
+	 * incremental parser
+	 * @param node - node to compile, with its children
+	 * @return compiled program
+	 */
+	public static SmartScriptProgram compile(Node node) {
+		return compile(node, SmartScriptFunctions.getDefault());
+	}
+
+	/**
+	 * Compiles the provided node, resolving function calls with the provided functions
+	 * @param node - node to compile, with its children
+	 * @param functions - functions scripts can call
+	 * @return compiled program
+	 * @throws SmartScriptParserException if the node calls an unknown function
+	 */
+	public static SmartScriptProgram compile(Node node, SmartScriptFunctions functions) {
+		SmartScriptCompiler compiler = new SmartScriptCompiler(Objects.requireNonNull(functions));
+		node.accept(compiler.nodeVisitor);
+		return compiler.toProgram();
+	}
+
+	/**
+	 * Creates the program from the emitted instructions
+	 * @return compiled program
+	 */
+	private SmartScriptProgram toProgram() {
+		flushText();
+		return new SmartScriptProgram(Arrays.copyOf(code, length), constants.toArray(), maxStack);
+	}
+
+	/**
+	 * Appends an instruction
+	 * @param opcode - operation code
+	 * @param operand - operand of the instruction
+	 */
+	private void emit(int opcode, int operand) {
+		if (opcode != SmartScriptProgram.EMIT_TEXT) flushText();
+		if (length + 2 > code.length) code = Arrays.copyOf(code, code.length * 2);
+		code[length++] = opcode;
+		code[length++] = operand;
+	}
+
+	/**
+	 * Emits a single instruction writing the text of the text nodes visited since the
+	 * last instruction, if there are any. Instructions are never placed between
+	 * adjacent text nodes, so no jump can land inside the merged text.
+	 */
+	private void flushText() {
+		if (pendingText.length() == 0) return;
+		Text text = new Text(pendingText.toString());
+		pendingText.setLength(0);
+		emit(SmartScriptProgram.EMIT_TEXT, constant(text));
+	}
+
+	/**
+	 * Returns index of the constant in the pool, adding it if necessary. Loop
+	 * descriptors are never shared.
+	 * @param constant - constant to add
+	 * @return index of the constant
+	 */
+	private int constant(Object constant) {
+		if (constant instanceof Loop) {
+			constants.add(constant);
+			return constants.size() - 1;
+		}
+		// keys include the class so that equal integers and doubles are kept apart
+		List<Object> key = Arrays.asList(constant.getClass(), constant);
+		Integer index = constantIndexes.get(key);
+		if (index == null) {
+			index = constants.size();
+			constants.add(constant);
+			constantIndexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Tracks the depth of the operand stack
+	 * @param change - number of values pushed, negative if popped
+	 */
+	private void stack(int change) {
+		stackDepth = Math.max(0, stackDepth + change);
+		maxStack = Math.max(maxStack, stackDepth);
+	}
+
+	/**
+	 * Returns the value of a for loop argument known at compile time, or a reference
+	 * to the variable holding it
+	 * @param element - for loop argument
+	 * @return value of the argument
+	 */
+	private static Object loopArgument(Element element) {
+		if (element == null) return DEFAULT_STEP;
+		if (element instanceof ElementVariable) {
+			return new VariableReference(((ElementVariable) element).getName());
+		}
+		if (element instanceof ElementConstantInteger) {
+			return ((ElementConstantInteger) element).getValue();
+		}
+		if (element instanceof ElementConstantDouble) {
+			return ((ElementConstantDouble) element).getValue();
+		}
+		if (element instanceof ElementString) {
+			return ((ElementString) element).getValue();
+		}
+		return element.toString();
+	}
+
+	/**
+	 * Converts the time to live of a cache tag to milliseconds
+	 * @param element - time to live in seconds
+	 * @return time to live in milliseconds, at least 1
+	 */
+	private static long timeToLiveMillis(Element element) {
+		double seconds = element instanceof ElementConstantInteger
+				? ((ElementConstantInteger) element).getValue()
+				: ((ElementConstantDouble) element).getValue();
+		return Math.max(1, Math.round(seconds * 1000));
+	}
+
+	/**
+	 * Computes a digest of the emitted instructions in the provided range, independent
+	 * of their position in the program
+	 * @param from - index of the first slot of the range
+	 * @param to - index of the first slot after the range
+	 * @return digest as a hexadecimal string
+	 */
+	private String digest(int from, int to) {
+		StringBuilder signature = new StringBuilder();
+		for (int pc = from; pc < to; pc += 2) {
+			signature.append(code[pc]);
+			if (SmartScriptProgram.hasOperand(code[pc])) {
+				signature.append(' ').append(describe(constants.get(code[pc + 1])));
+			}
+			signature.append('\n');
+		}
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256")
+					.digest(signature.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Describes a constant by its type and value, leaving out positions of instructions
+	 * @param constant - constant to describe
+	 * @return description of the constant
+	 */
+	private static String describe(Object constant) {
+		if (constant instanceof Loop) {
+			Loop loop = (Loop) constant;
+			return "loop " + loop.variable + " " + describe(loop.start) + " " + describe(loop.end)
+					+ " " + describe(loop.step);
+		}
+		if (constant instanceof Fragment) {
+			Fragment fragment = (Fragment) constant;
+			return "fragment " + fragment.id + " " + fragment.timeToLiveMillis;
+		}
+		if (constant instanceof SmartScriptFunction) {
+			return "@" + ((SmartScriptFunction) constant).getName();
+		}
+		return constant.getClass().getSimpleName() + " " + constant;
+	}
+
+	/**
+	 * {@link INodeVisitor} emitting instructions for nodes of the document
+	 */
+	private INodeVisitor nodeVisitor = new INodeVisitor() {
+
+		@Override
+		public void visitTextNode(TextNode node) {
+			pendingText.append(node.getText());
+		}
+
+		@Override
+		public void visitForLoopNode(ForLoopNode node) {
+			Loop loop = new Loop(node.getVariable().getName(),
+					loopArgument(node.getStartExpression()),
+					loopArgument(node.getEndExpression()),
+					loopArgument(node.getStepExpression()));
+			int index = constant(loop);
+
+			emit(SmartScriptProgram.LOOP_BEGIN, index);
+			loop.bodyStart = length;
+			visitChildren(node);
+			emit(SmartScriptProgram.LOOP_END, index);
+			loop.exit = length;
+		}
+
+		@Override
+		public void visitEchoNode(EchoNode node) {
+			for (Element element : node.getElements()) {
+				element.accept(elementVisitor);
+			}
+			emit(SmartScriptProgram.EMIT_STACK, 0);
+			stackDepth = 0;
+		}
+
+		@Override
+		public void visitCacheNode(CacheNode node) {
+			flushText();
+			int start = length;
+			for (Element element : node.getKeyElements()) {
+				element.accept(elementVisitor);
+			}
+			Fragment fragment = new Fragment(timeToLiveMillis(node.getTimeToLive()));
+			int index = constant(fragment);
+
+			emit(SmartScriptProgram.CACHE_BEGIN, index);
+			stackDepth = 0;
+			visitChildren(node);
+			emit(SmartScriptProgram.CACHE_END, index);
+			fragment.exit = length;
+			fragment.id = digest(start, length);
+		}
+
+		@Override
+		public void visitDocumentNode(DocumentNode node) {
+			visitChildren(node);
+		}
+
+		/**
+		 * Visits all children of the provided node
+		 * @param node - node whose children are visited
+		 */
+		private void visitChildren(Node node) {
+			for (int i = 0, sz = node.numberOfChildren(); i < sz; ++i) {
+				node.getChild(i).accept(this);
+			}
+		}
+	};
+
+	/**
+	 * {@link IElementVisitor} emitting instructions for elements of echo tags
+	 */
+	private IElementVisitor elementVisitor = new IElementVisitor() {
+
+		@Override
+		public void visitElementVariable(ElementVariable element) {
+			emit(SmartScriptProgram.LOAD_VAR, constant(element.getName()));
+			stack(1);
+		}
+
+		@Override
+		public void visitElementString(ElementString element) {
+			emit(SmartScriptProgram.PUSH_CONST, constant(element.getValue()));
+			stack(1);
+		}
+
+		@Override
+		public void visitElementOperator(ElementOperator element) {
+			switch (element.getSymbol()) {
+			case "+":
+				emit(SmartScriptProgram.ADD, 0);
+				break;
+			case "-":
+				emit(SmartScriptProgram.SUB, 0);
+				break;
+			case "*":
+				emit(SmartScriptProgram.MUL, 0);
+				break;
+			case "/":
+				emit(SmartScriptProgram.DIV, 0);
+				break;
+			default:
+				emit(SmartScriptProgram.NO_OPERATION, 0);
+			}
+			stack(-1);
+		}
+
+		@Override
+		public void visitElementFunction(ElementFunction element) {
+			SmartScriptFunction function = functions.get(element.getName());
+			if (function == null) {
+				throw new SmartScriptParserException("Unknown function @" + element.getName());
+			}
+			emit(SmartScriptProgram.CALL_FUNCTION, constant(function));
+			// functions push at most one value more than they pop
+			stack(1);
+		}
+
+		@Override
+		public void visitElementConstantInteger(ElementConstantInteger element) {
+			emit(SmartScriptProgram.PUSH_CONST, constant(element.getValue()));
+			stack(1);
+		}
+
+		@Override
+		public void visitElementConstantDouble(ElementConstantDouble element) {
+			emit(SmartScriptProgram.PUSH_CONST, constant(element.getValue()));
+			stack(1);
+		}
+	};
+}
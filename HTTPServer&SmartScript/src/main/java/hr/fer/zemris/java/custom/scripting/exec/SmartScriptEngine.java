@@ -1,242 +1,289 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.Stack;
-
-import hr.fer.zemris.java.custom.scripting.elems.Element;
-import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
-import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
-import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
-import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
-import hr.fer.zemris.java.custom.scripting.elems.ElementString;
-import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
-import hr.fer.zemris.java.custom.scripting.elems.IElementVisitor;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Fragment;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Loop;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Text;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.VariableReference;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
-import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
-import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
-import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
-import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.FragmentCache;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
  * Executes the SmartScript file given as DocumentNode, putting information in provided
- * {@link RequestContext}.
+ * {@link RequestContext}. Document is first compiled into a {@link SmartScriptProgram}
+ * which is then executed instruction by instruction over a single operand stack.
+ * Script can also be executed while it is read, see
+ * {@link #SmartScriptEngine(Reader, RequestContext)}.
+ * Output of fragments in cache tags is stored in the {@link FragmentCache} of the
+ * context and written from it while it is valid, without executing the fragment, so
+ * only the output of a fragment is reused, not its other effects. Without a fragment
+ * cache the fragments are always executed.
  * @author ltomic
  *
  */
 public class SmartScriptEngine {
 	
-	/** Sine function SmartScript name **/
-	private static final String SIN_FUNCTION = "sin";
-	/** Decimal format function SmartScript name **/
-	private static final String DECFMT_FUNCTION = "decfmt";
-	/** Duplicate variable function SmartScript name **/
-	private static final String DUP_FUNCTION = "dup";
-	/** Swap function SmartScript name **/
-	private static final String SWAP_FUNCTION = "swap";
-	/** Set mime type function SmartScript name **/
-	private static final String SET_MIME_TYPE_FUNCTION = "setMimeType";
-	/** Get parameter function SmartScript name **/
-	private static final String PARAM_GET_FUNCTION = "paramGet";
-	/** Get persistent parameter function SmartScript name **/
-	private static final String PERSISTENT_PARAMETER_GET_FUNCTION = "pparamGet";
-	/** Set persistent parameter function SmartScript name **/
-	private static final String PERSISTENT_PARAMETER_SET_FUNCTION = "pparamSet";
-	/** Delete persistent parameter function SmartScript name **/
-	private static final String PERSISTENT_PARAMETER_DELETE_FUNCTION = "pparamDel";
-	/** Get temporary parameter function SmartScript name **/
-	private static final String TEMPORARY_PARAMETER_GET_FUNCTION = "tparamGet";
-	/** Set temporary parameter function SmartScript name **/
-	private static final String TEMPORARY_PARAMETER_SET_FUNCTION = "tparamSet";
-	/** Delete temporary parameter function SmartScript name **/
-	private static final String TEMPORARY_PARAMETER_DELETE_FUNCTION = "tparamDel";
-
-	/** SmartScript document head node **/
-	private DocumentNode documentNode;
+	/** Program to execute, null if executing while parsing **/
+	private SmartScriptProgram program;
+	/** Parser of the script executed while parsing, null if executing a program **/
+	private SmartScriptParser parser;
 	/** Context used **/
 	private RequestContext requestContext;
 	/** Stack keeping track of variable values **/
 	private ObjectMultistack multistack = new ObjectMultistack();
-	
+
+	/** Operand stack shared by all echo tags **/
+	private OperandStack stack;
+	/** Wrapper reused for computing results of operators **/
+	private ValueWrapper operatorResult = new ValueWrapper(null);
+	/** Keys of the fragments whose output is being recorded, innermost first **/
+	private Deque<String> fragmentKeys = new ArrayDeque<>();
+
 	/**
 	 * Constructs {@link SmartScriptEngine} with provided arguments
 	 * @param documentNode - head node of the SmartScript document to execute
 	 * @param requestContext - context to use
 	 */
 	public SmartScriptEngine(DocumentNode documentNode, RequestContext requestContext) {
-		this.documentNode = documentNode;
+		this(SmartScriptCompiler.compile(documentNode), requestContext);
+	}
+
+	/**
+	 * Constructs {@link SmartScriptEngine} executing already compiled program
+	 * @param program - compiled SmartScript document
+	 * @param requestContext - context to use
+	 */
+	public SmartScriptEngine(SmartScriptProgram program, RequestContext requestContext) {
+		this.program = program;
 		this.requestContext = requestContext;
+		this.stack = new OperandStack(Math.max(4, program.getMaxStack()));
 	}
 
 	/**
-	 * {@link INodeVisitor} that executes nodes of the document
+	 * Constructs {@link SmartScriptEngine} executing the script read from the provided
+	 * reader. Every top-level node is compiled and executed as soon as it is parsed, so
+	 * output starts before the script is read to the end and memory used does not
+	 * depend on the size of the script. Output written before an error in the script
+	 * is found is not taken back. Reader is not closed by the engine.
+	 * @param script - reader of the SmartScript document to execute
+	 * @param requestContext - context to use
 	 */
-	private INodeVisitor visitor = new INodeVisitor() {
-
-		@Override
-		public void visitTextNode(TextNode node) {
-			try {
-				requestContext.write(node.getText() );
-			} catch (IOException ex) {
-				System.err.println("Could not write to context");
-			}
+	public SmartScriptEngine(Reader script, RequestContext requestContext) {
+		this.parser = SmartScriptParser.incremental(script);
+		this.requestContext = requestContext;
+		this.stack = new OperandStack(4);
+	}
+
+	/**
+	 * Initiates script execution
+	 * @throws hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException if
+	 * the script read from a reader is not valid
+	 */
+	public void execute() {
+		if (parser == null) {
+			execute(program);
+			return;
 		}
+		Node node;
+		while ((node = parser.nextNode()) != null) {
+			execute(SmartScriptCompiler.compile(node));
+		}
+	}
 
-		@Override
-		public void visitForLoopNode(ForLoopNode node) {
-			ElementVariable variable = node.getVariable();
-			multistack.push(variable.getName(), new ValueWrapper(node.getStartExpression().toString()));
+	/**
+	 * Executes the program, keeping variables and the operand stack of the engine
+	 * @param program - program to execute
+	 */
+	private void execute(SmartScriptProgram program) {
+		int[] code = program.getCode();
+		Object[] constants = program.getConstants();
 
-			while (multistack.peek(variable.getName()).numCompare(node.getEndExpression().toString()) != 1) {
-				for (int i = 0, sz = node.numberOfChildren(); i < sz; ++i) {
-					node.getChild(i).accept(this);
+		int pc = 0;
+		while (pc < code.length) {
+			int opcode = code[pc];
+			int operand = code[pc + 1];
+			pc += 2;
+
+			switch (opcode) {
+			case SmartScriptProgram.EMIT_TEXT:
+				write((Text) constants[operand]);
+				break;
+			case SmartScriptProgram.PUSH_CONST:
+				stack.push(constants[operand]);
+				break;
+			case SmartScriptProgram.LOAD_VAR:
+				stack.push(multistack.peek((String) constants[operand]).getValue());
+				break;
+			case SmartScriptProgram.ADD:
+			case SmartScriptProgram.SUB:
+			case SmartScriptProgram.MUL:
+			case SmartScriptProgram.DIV:
+			case SmartScriptProgram.NO_OPERATION:
+				applyOperator(opcode);
+				break;
+			case SmartScriptProgram.CALL_FUNCTION:
+				((SmartScriptFunction) constants[operand]).execute(stack, requestContext);
+				break;
+			case SmartScriptProgram.EMIT_STACK:
+				for (int i = 0, size = stack.size(); i < size; ++i) {
+					write(stack.get(i).toString());
+				}
+				stack.clear();
+				break;
+			case SmartScriptProgram.LOOP_BEGIN:
+				Loop loop = (Loop) constants[operand];
+				ValueWrapper variable = multistack.pushValue(loop.variable, resolve(loop.start));
+				if (variable.numCompare(resolve(loop.end)) == 1) {
+					multistack.discard(loop.variable);
+					pc = loop.exit;
 				}
-				multistack.peek(variable.getName()).add(node.getStepExpression().toString());
+				break;
+			case SmartScriptProgram.LOOP_END:
+				loop = (Loop) constants[operand];
+				variable = multistack.peek(loop.variable);
+				variable.add(resolve(loop.step));
+				if (variable.numCompare(resolve(loop.end)) != 1) {
+					pc = loop.bodyStart;
+				} else {
+					multistack.discard(loop.variable);
+				}
+				break;
+			case SmartScriptProgram.CACHE_BEGIN:
+				pc = beginFragment((Fragment) constants[operand], pc);
+				break;
+			case SmartScriptProgram.CACHE_END:
+				endFragment((Fragment) constants[operand]);
+				break;
+			default:
+				throw new IllegalStateException("Unknown instruction " + opcode);
 			}
-
-			multistack.pop(variable.getName());
 		}
+	}
 
-		@Override
-		public void visitEchoNode(EchoNode node) {
-			Stack<Object> tempStack = new Stack<>();
-			IElementVisitor elementVisitor = new IElementVisitor() {
-
-				@Override
-				public void visitElementVariable(ElementVariable element) {
-					tempStack.push(multistack.peek(element.getName()).getValue());
-				}
+	/**
+	 * Replaces two values on top of the stack with the result of the operator. The
+	 * topmost value is the left operand and the value below it the right operand.
+	 * @param opcode - operation code of the operator
+	 */
+	private void applyOperator(int opcode) {
+		ValueWrapper value = operatorResult;
+		value.setValue(stack.popValue());
+		Object second = stack.popValue();
 
-				@Override
-				public void visitElementString(ElementString element) {
-					tempStack.push(element.getValue());
-				}
+		switch (opcode) {
+		case SmartScriptProgram.ADD:
+			value.add(second);
+			break;
+		case SmartScriptProgram.SUB:
+			value.sub(second);
+			break;
+		case SmartScriptProgram.MUL:
+			value.mul(second);
+			break;
+		case SmartScriptProgram.DIV:
+			value.div(second);
+			break;
+		default:
+			System.err.println("No matching operator");
+		}
 
-				@Override
-				public void visitElementOperator(ElementOperator element) {
-					Object first = tempStack.pop();
-					Object second = tempStack.pop();
-
-					ValueWrapper value = new ValueWrapper(first.toString());
-
-					switch (element.getSymbol()) {
-					case "+":
-						value.add(second.toString());
-						break;
-					case "-":
-						value.sub(second.toString());
-						break;
-					case "*":
-						value.mul(second.toString());
-						break;
-					case "/":
-						value.div(second.toString());
-						break;
-					default:
-						System.err.println("No matching operator");
-					}
-					
-					tempStack.push(value);
-				}
+		stack.push(value.getValue());
+	}
 
-				@Override
-				public void visitElementFunction(ElementFunction element) {
-					switch (element.getName()) {
-					case SIN_FUNCTION:
-						double doubleValue = ((Number)((ValueWrapper) tempStack.pop()).getValue()).doubleValue();
-						tempStack.push(Math.sin(doubleValue));
-						break;
-					case DECFMT_FUNCTION:
-						NumberFormat formatter = new DecimalFormat((String) tempStack.pop());
-						tempStack.push(formatter.format(tempStack.pop()));
-						break;
-					case DUP_FUNCTION:
-						tempStack.push(tempStack.peek());
-						break;
-					case SWAP_FUNCTION:
-						Object first = tempStack.pop();
-						Object second = tempStack.pop();
-						tempStack.push(first);
-						tempStack.push(second);
-						break;
-					case SET_MIME_TYPE_FUNCTION:
-						requestContext.setMimeType((String) tempStack.pop());
-						break;
-					case PARAM_GET_FUNCTION:
-						Object defaultValue = tempStack.pop();
-						Object value = requestContext.getParameter((String) tempStack.pop());
-						tempStack.push(value == null ? defaultValue : value);
-						break;
-					case PERSISTENT_PARAMETER_GET_FUNCTION:
-						defaultValue = tempStack.pop();
-						value = requestContext.getPersistentParameter((String) tempStack.pop());
-						tempStack.push(value == null ? defaultValue : value);
-						break;
-					case PERSISTENT_PARAMETER_SET_FUNCTION:
-						String name = (String) tempStack.pop();
-						requestContext.setPersistentParameter(name, tempStack.pop().toString());
-						break;
-					case PERSISTENT_PARAMETER_DELETE_FUNCTION:
-						requestContext.removePersistentParameter((String) tempStack.pop());
-						break;
-					case TEMPORARY_PARAMETER_GET_FUNCTION:
-						defaultValue = tempStack.pop();
-						value = requestContext.getTemporaryParameter((String) tempStack.pop());
-						tempStack.push(value == null ? defaultValue : value);
-						break;
-					case TEMPORARY_PARAMETER_SET_FUNCTION:
-						name = (String) tempStack.pop();
-						requestContext.setTemporaryParameter(name, tempStack.pop().toString());
-						break;
-					case TEMPORARY_PARAMETER_DELETE_FUNCTION:
-						requestContext.removeTemporaryParameter((String) tempStack.pop());
-						break;
-					}
-				}
+	/**
+	 * Returns the value of a loop argument, reading it from the variable it refers to
+	 * @param argument - loop argument
+	 * @return value of the argument
+	 */
+	private Object resolve(Object argument) {
+		if (argument instanceof VariableReference) {
+			return multistack.peek(((VariableReference) argument).name).getValue();
+		}
+		return argument;
+	}
 
-				@Override
-				public void visitElementConstantInteger(ElementConstantInteger element) {
-					tempStack.push(element.getValue());
-				}
+	/**
+	 * Starts the cached fragment, taking its key from the operand stack. If output of
+	 * the fragment is cached it is written and the fragment is skipped, else recording
+	 * of the output starts.
+	 * @param fragment - fragment to start
+	 * @param pc - index of the first instruction of the fragment
+	 * @return index of the next instruction to execute
+	 */
+	private int beginFragment(Fragment fragment, int pc) {
+		FragmentCache cache = requestContext.getFragmentCache();
+		if (cache == null) {
+			stack.clear();
+			return pc;
+		}
 
-				@Override
-				public void visitElementConstantDouble(ElementConstantDouble element) {
-					tempStack.push(element.getValue());
-				}
-			};
+		// output is cached encoded, so the encoding is a part of the key; header is not
+		// fixed yet, so the fragment can still change it
+		StringBuilder key = new StringBuilder(fragment.id).append('\0')
+				.append(requestContext.getEncoding());
+		for (int i = 0, size = stack.size(); i < size; ++i) {
+			key.append('\0').append(stack.get(i));
+		}
+		stack.clear();
 
-			for (Element i : node.getElements()) {
-				i.accept(elementVisitor);
-			}
-			
-			ArrayList<Object> toWrite = new ArrayList<Object>(tempStack);
-			
-			toWrite.forEach((value) -> {
-				try {
-					requestContext.write(value.toString());
-				} catch (IOException ex) {
-					System.err.println("Could not write to context");
-				}
-			});
+		byte[] body = cache.get(key.toString());
+		if (body != null) {
+			write(body);
+			return fragment.exit;
 		}
+		fragmentKeys.push(key.toString());
+		requestContext.startCapture();
+		return pc;
+	}
 
-		@Override
-		public void visitDocumentNode(DocumentNode node) {
-			for (int i = 0, sz = node.numberOfChildren(); i < sz; ++i) {
-				node.getChild(i).accept(this);
-			}
+	/**
+	 * Ends the cached fragment, caching its recorded output
+	 * @param fragment - fragment to end
+	 */
+	private void endFragment(Fragment fragment) {
+		FragmentCache cache = requestContext.getFragmentCache();
+		if (cache == null) return;
+		cache.put(fragmentKeys.pop(), requestContext.endCapture(), fragment.timeToLiveMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the text to the context
+	 * @param text - text to write
+	 */
+	private void write(String text) {
+		try {
+			requestContext.write(text);
+		} catch (IOException ex) {
+			System.err.println("Could not write to context");
 		}
+	}
 
-	};
+	/**
+	 * Writes the text to the context, copying the text encoded in advance
+	 * @param text - text to write
+	 */
+	private void write(Text text) {
+		write(text.encode(requestContext.getBodyCharset()));
+	}
 
 	/**
-	 * Initiates script execution
+	 * Writes the bytes to the context
+	 * @param data - bytes to write
 	 */
-	public void execute() {
-		documentNode.accept(visitor);
-		System.out.println();
+	private void write(byte[] data) {
+		try {
+			requestContext.write(data);
+		} catch (IOException ex) {
+			System.err.println("Could not write to context");
+		}
 	}
-}
\ No newline at end of file
+}
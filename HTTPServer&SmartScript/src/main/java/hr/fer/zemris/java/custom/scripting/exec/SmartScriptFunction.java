@@ -0,0 +1,31 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Function callable from SmartScript echo tags as <code>@name</code>. Function pops
+ * its arguments from the {@link OperandStack}, the last argument first, and pushes its
+ * result, if any. Functions may push at most one value more than they pop.
+ * Functions are resolved by name when a script is compiled, see
+ * {@link SmartScriptFunctions}, so a single instance is called from many scripts and
+ * threads at once and should keep no state.
+ * Additional functions are provided by listing the implementing classes in
+ * <code>META-INF/services/hr.fer.zemris.java.custom.scripting.exec.SmartScriptFunction</code>.
+ * @author ltomic
+ *
+ */
+public interface SmartScriptFunction {
+
+	/**
+	 * Gets name the function is called by in scripts, without the <code>@</code>
+	 * @return name of the function
+	 */
+	public String getName();
+
+	/**
+	 * Executes the function
+	 * @param stack - operand stack holding the arguments
+	 * @param context - context of the request the script is executed for
+	 */
+	public void execute(OperandStack stack, RequestContext context);
+}
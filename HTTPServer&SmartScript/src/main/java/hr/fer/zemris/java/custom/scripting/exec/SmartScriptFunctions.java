@@ -0,0 +1,91 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link SmartScriptFunction}s scripts can call, by name. Compiler
+ * resolves every function call of a script once, so executing the call does not
+ * look the function up again.
+ * Default registry holds the built-in functions and the functions found with
+ * {@link ServiceLoader}; a function found that way replaces the built-in function of
+ * the same name.
+ * @author ltomic
+ *
+ */
+public class SmartScriptFunctions {
+
+	/** Functions by name **/
+	private Map<String, SmartScriptFunction> functions = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs an empty {@link SmartScriptFunctions}
+	 */
+	public SmartScriptFunctions() {
+	}
+
+	/**
+	 * Gets the registry used when no other is provided, loading it on first use
+	 * @return default registry
+	 */
+	public static SmartScriptFunctions getDefault() {
+		return DefaultHolder.DEFAULT;
+	}
+
+	/**
+	 * Creates a registry with the built-in functions and the functions provided to the
+	 * class loader
+	 * @param loader - class loader used to find the functions, null for the system
+	 * class loader
+	 * @return created registry
+	 */
+	public static SmartScriptFunctions load(ClassLoader loader) {
+		SmartScriptFunctions registry = new SmartScriptFunctions();
+		for (BuiltinFunction function : BuiltinFunction.values()) {
+			registry.register(function);
+		}
+		for (SmartScriptFunction function : ServiceLoader.load(SmartScriptFunction.class, loader)) {
+			registry.register(function);
+		}
+		return registry;
+	}
+
+	/**
+	 * Adds the function, replacing the function of the same name
+	 * @param function - function to add
+	 */
+	public void register(SmartScriptFunction function) {
+		functions.put(Objects.requireNonNull(function.getName()), function);
+	}
+
+	/**
+	 * Finds the function with the provided name
+	 * @param name - name of the function, without the <code>@</code>
+	 * @return function, null if there is no function with that name
+	 */
+	public SmartScriptFunction get(String name) {
+		return functions.get(name);
+	}
+
+	/**
+	 * Gets names of the registered functions
+	 * @return sorted names of the functions
+	 */
+	public Set<String> getNames() {
+		return new TreeSet<>(functions.keySet());
+	}
+
+	/**
+	 * Holds the default registry, so that it is loaded only when first used
+	 * @author ltomic
+	 *
+	 */
+	private static class DefaultHolder {
+		/** Default registry **/
+		private static final SmartScriptFunctions DEFAULT = load(SmartScriptFunctions.class.getClassLoader());
+	}
+}
@@ -0,0 +1,296 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SmartScript document lowered to a flat array of instructions. Every instruction
+ * takes two slots of the code array : operation code and a single operand, which is
+ * usually an index into the constant pool. Programs are immutable and can be executed
+ * by multiple {@link SmartScriptEngine}s at the same time.
+ * Programs are created by {@link SmartScriptCompiler}.
+ * @author ltomic
+ *
+ */
+public class SmartScriptProgram {
+
+	/** Writes the {@link Text} stored in the constant pool under the operand **/
+	public static final int EMIT_TEXT = 0;
+	/** Pushes the constant stored under the operand to the operand stack **/
+	public static final int PUSH_CONST = 1;
+	/** Pushes the value of the variable whose name is stored under the operand **/
+	public static final int LOAD_VAR = 2;
+	/** Replaces two values on top of the stack with their sum **/
+	public static final int ADD = 3;
+	/** Replaces two values on top of the stack with their difference **/
+	public static final int SUB = 4;
+	/** Replaces two values on top of the stack with their product **/
+	public static final int MUL = 5;
+	/** Replaces two values on top of the stack with their quotient **/
+	public static final int DIV = 6;
+	/** Replaces two values on top of the stack with the topmost, for unsupported operators **/
+	public static final int NO_OPERATION = 7;
+	/** Calls the {@link SmartScriptFunction} stored under the operand **/
+	public static final int CALL_FUNCTION = 8;
+	/** Writes all values on the stack from the bottom up and empties it **/
+	public static final int EMIT_STACK = 9;
+	/** Starts the loop described by the {@link Loop} stored under the operand **/
+	public static final int LOOP_BEGIN = 10;
+	/** Steps the loop described by the {@link Loop} stored under the operand **/
+	public static final int LOOP_END = 11;
+	/**
+	 * Takes the key of the {@link Fragment} stored under the operand from the stack and
+	 * writes its cached output, skipping the fragment, or starts recording its output
+	 **/
+	public static final int CACHE_BEGIN = 12;
+	/** Caches the recorded output of the {@link Fragment} stored under the operand **/
+	public static final int CACHE_END = 13;
+
+	/** Names of the operation codes, used for printing the program **/
+	private static final String[] NAMES = { "EMIT_TEXT", "PUSH_CONST", "LOAD_VAR", "ADD", "SUB",
+			"MUL", "DIV", "NO_OPERATION", "CALL_FUNCTION", "EMIT_STACK", "LOOP_BEGIN", "LOOP_END",
+			"CACHE_BEGIN", "CACHE_END" };
+
+	/** Instructions, operation code followed by operand **/
+	private final int[] code;
+	/** Constant pool **/
+	private final Object[] constants;
+	/** Largest number of values on the operand stack at any time **/
+	private final int maxStack;
+
+	/**
+	 * Constructs a {@link SmartScriptProgram} with provided arguments
+	 * @param code - instructions, operation code followed by operand
+	 * @param constants - constant pool
+	 * @param maxStack - largest number of values on the operand stack
+	 */
+	SmartScriptProgram(int[] code, Object[] constants, int maxStack) {
+		this.code = Objects.requireNonNull(code);
+		this.constants = Objects.requireNonNull(constants);
+		this.maxStack = maxStack;
+	}
+
+	/**
+	 * Gets instructions of the program
+	 * @return instructions, operation code followed by operand
+	 */
+	int[] getCode() {
+		return code;
+	}
+
+	/**
+	 * Gets constant pool of the program
+	 * @return constant pool
+	 */
+	Object[] getConstants() {
+		return constants;
+	}
+
+	/**
+	 * Gets largest number of values on the operand stack at any time
+	 * @return largest number of values on the operand stack
+	 */
+	int getMaxStack() {
+		return maxStack;
+	}
+
+	/**
+	 * Gets number of instructions in the program
+	 * @return number of instructions
+	 */
+	public int size() {
+		return code.length / 2;
+	}
+
+	/**
+	 * Returns the program listing, one instruction per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder listing = new StringBuilder();
+		for (int pc = 0; pc < code.length; pc += 2) {
+			listing.append(String.format("%4d %-14s", pc / 2, NAMES[code[pc]]));
+			if (hasOperand(code[pc])) {
+				Object constant = constants[code[pc + 1]];
+				if (constant instanceof SmartScriptFunction) {
+					constant = "@" + ((SmartScriptFunction) constant).getName();
+				}
+				listing.append(' ').append(constant);
+			}
+			listing.append('\n');
+		}
+		return listing.toString();
+	}
+
+	/**
+	 * Checks if the operand of the instruction refers to the constant pool
+	 * @param opcode - operation code of the instruction
+	 * @return true if operand is used, else false
+	 */
+	static boolean hasOperand(int opcode) {
+		switch (opcode) {
+		case EMIT_TEXT:
+		case PUSH_CONST:
+		case LOAD_VAR:
+		case CALL_FUNCTION:
+		case LOOP_BEGIN:
+		case LOOP_END:
+		case CACHE_BEGIN:
+		case CACHE_END:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Describes a single for loop of the program. Start, end and step are either
+	 * constant values or names of variables wrapped in {@link VariableReference}.
+	 * @author ltomic
+	 *
+	 */
+	static class Loop {
+		/** Name of the loop variable **/
+		final String variable;
+		/** Initial value of the loop variable **/
+		final Object start;
+		/** Value after which the loop stops **/
+		final Object end;
+		/** Value added to the loop variable after each iteration **/
+		final Object step;
+		/** Index of the first instruction of the loop body **/
+		int bodyStart;
+		/** Index of the first instruction after the loop **/
+		int exit;
+
+		/**
+		 * Constructs a {@link Loop} with provided arguments
+		 * @param variable - name of the loop variable
+		 * @param start - initial value
+		 * @param end - value after which the loop stops
+		 * @param step - value added after each iteration
+		 */
+		Loop(String variable, Object start, Object end, Object step) {
+			this.variable = variable;
+			this.start = start;
+			this.end = end;
+			this.step = step;
+		}
+
+		@Override
+		public String toString() {
+			return variable + " " + start + " " + end + " " + step + " -> " + exit / 2;
+		}
+	}
+
+	/**
+	 * Describes a single cached fragment of the program. Fragment is identified by a
+	 * digest of its instructions, so the same fragment compiled again, even in
+	 * another program, shares the cached output while a changed fragment does not.
+	 * @author ltomic
+	 *
+	 */
+	static class Fragment {
+		/** Milliseconds the output of the fragment is reused for **/
+		final long timeToLiveMillis;
+		/** Digest of the fragment instructions **/
+		String id;
+		/** Index of the first instruction after the fragment **/
+		int exit;
+
+		/**
+		 * Constructs a {@link Fragment} with provided time to live
+		 * @param timeToLiveMillis - milliseconds the output is reused for
+		 */
+		Fragment(long timeToLiveMillis) {
+			this.timeToLiveMillis = timeToLiveMillis;
+		}
+
+		@Override
+		public String toString() {
+			return (id == null ? "?" : id.substring(0, 8)) + " " + timeToLiveMillis + "ms -> " + exit / 2;
+		}
+	}
+
+	/**
+	 * Text written by the program, kept encoded so that writing it only copies bytes.
+	 * Text is encoded in UTF-8 when the program is compiled and in other charsets the
+	 * first time a response in that charset writes it.
+	 * @author ltomic
+	 *
+	 */
+	static class Text {
+		/** Text **/
+		final String text;
+		/** Text encoded in UTF-8, the charset of most responses **/
+		private final byte[] utf8;
+		/** Text encoded in other charsets **/
+		private final Map<Charset, byte[]> encoded = new ConcurrentHashMap<>(2);
+
+		/**
+		 * Constructs a {@link Text} encoding the provided text
+		 * @param text - text
+		 */
+		Text(String text) {
+			this.text = Objects.requireNonNull(text);
+			this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Returns the text encoded with the provided charset. Returned array must not
+		 * be modified.
+		 * @param charset - charset
+		 * @return encoded text
+		 */
+		byte[] encode(Charset charset) {
+			if (charset.equals(StandardCharsets.UTF_8)) return utf8;
+			byte[] bytes = encoded.get(charset);
+			if (bytes == null) {
+				bytes = text.getBytes(charset);
+				encoded.put(charset, bytes);
+			}
+			return bytes;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Text && ((Text) other).text.equals(text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/**
+	 * Loop argument whose value is read from a variable when the loop executes
+	 * @author ltomic
+	 *
+	 */
+	static class VariableReference {
+		/** Name of the variable **/
+		final String name;
+
+		/**
+		 * Constructs a {@link VariableReference} to the provided variable
+		 * @param name - name of the variable
+		 */
+		VariableReference(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
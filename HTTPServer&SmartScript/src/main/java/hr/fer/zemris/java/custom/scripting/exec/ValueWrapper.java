@@ -1,6 +1,5 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.Scanner;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.Predicate;
 
@@ -10,15 +9,49 @@ import java.util.function.Predicate;
  * multiplication and division, but they are supported only if arguments are one
  * of the following : double, integer or a String which can be parsed as a decimal number.
  * It also supports comparison on previously mentioned arguments.
+ * Numeric form of the value is parsed only once and kept as a primitive, results of
+ * arithmetic operations are boxed only when the value is requested.
  * @author ltomic
  *
  */
 public class ValueWrapper {
 	
 	/**
-	 * Value stored
+	 * Value stored, valid only if <code>valueCurrent</code> is set
 	 */
 	private Object value;
+	/**
+	 * Is <code>value</code> up to date with the numeric form
+	 */
+	private boolean valueCurrent;
+	/**
+	 * Kind of the numeric form of the value
+	 */
+	private int kind;
+	/**
+	 * Numeric form of the value if it is an integer
+	 */
+	private int intValue;
+	/**
+	 * Numeric form of the value if it is a decimal number
+	 */
+	private double doubleValue;
+
+	/** Numeric form of the value has not been determined yet **/
+	private static final int UNPARSED = 0;
+	/** Value is an integer **/
+	private static final int INTEGER = 1;
+	/** Value is a decimal number **/
+	private static final int DOUBLE = 2;
+
+	/** Addition **/
+	private static final int ADD = 0;
+	/** Subtraction **/
+	private static final int SUB = 1;
+	/** Multiplication **/
+	private static final int MUL = 2;
+	/** Division **/
+	private static final int DIV = 3;
 	
 	/**
 	 * Test if given object can be an Integer
@@ -32,7 +65,7 @@ public class ValueWrapper {
 	 */
 	public ValueWrapper(Object value) {
 		super();
-		this.value = value;
+		setValue(value);
 	}
 	
 	/**
@@ -40,6 +73,10 @@ public class ValueWrapper {
 	 * @return wrapped value
 	 */
 	public Object getValue() {
+		if (!valueCurrent) {
+			value = kind == INTEGER ? (Object) Integer.valueOf(intValue) : (Object) Double.valueOf(doubleValue);
+			valueCurrent = true;
+		}
 		return value;
 	}
 
@@ -49,6 +86,54 @@ public class ValueWrapper {
 	 */
 	public void setValue(Object value) {
 		this.value = value;
+		this.valueCurrent = true;
+		if (value == null) {
+			kind = INTEGER;
+			intValue = 0;
+		} else if (value.getClass() == Integer.class) {
+			kind = INTEGER;
+			intValue = (Integer) value;
+		} else if (value.getClass() == Double.class) {
+			kind = DOUBLE;
+			doubleValue = (Double) value;
+		} else {
+			kind = UNPARSED;
+		}
+	}
+
+	/**
+	 * Checks if the value is an integer (or null) and not a decimal number
+	 * @return true if value is an integer, else false
+	 * @throws RuntimeException if value is not a number
+	 */
+	public boolean isInteger() {
+		parse();
+		return kind == INTEGER;
+	}
+
+	/**
+	 * Returns the value as a decimal number
+	 * @return value as a decimal number
+	 * @throws RuntimeException if value is not a number
+	 */
+	public double doubleValue() {
+		parse();
+		return kind == INTEGER ? intValue : doubleValue;
+	}
+
+	/**
+	 * Determines the numeric form of the stored value if it was not determined yet
+	 */
+	private void parse() {
+		if (kind != UNPARSED) return;
+		Number number = toNumber(value);
+		if (number.getClass() == Integer.class) {
+			kind = INTEGER;
+			intValue = number.intValue();
+		} else {
+			kind = DOUBLE;
+			doubleValue = number.doubleValue();
+		}
 	}
 
 	/**
@@ -72,6 +157,54 @@ public class ValueWrapper {
 		
 		return result;
 	}
+
+	/**
+	 * Applies the operation to the stored value and the given operand without boxing
+	 * the result. Result is an integer if both values are integers, as in
+	 * {@link #applyOperation(Object, Object, DoubleBinaryOperator)}.
+	 * @param operand - right operand : integer, double or String that can be parsed
+	 * 			as a decimal number
+	 * @param operation - operation to apply
+	 */
+	private void apply(Object operand, int operation) {
+		parse();
+		boolean operandInteger;
+		double right;
+		if (operand == null) {
+			operandInteger = true;
+			right = 0;
+		} else if (operand.getClass() == Integer.class) {
+			operandInteger = true;
+			right = (Integer) operand;
+		} else if (operand.getClass() == Double.class) {
+			operandInteger = false;
+			right = (Double) operand;
+		} else {
+			Number number = toNumber(operand);
+			operandInteger = number.getClass() == Integer.class;
+			right = number.doubleValue();
+		}
+
+		if (operation == DIV && Math.abs(right) < 1E-6)
+			throw new ArithmeticException("Cannot divide by zero");
+
+		double left = kind == INTEGER ? intValue : doubleValue;
+		double result;
+		switch (operation) {
+		case ADD: result = left + right; break;
+		case SUB: result = left - right; break;
+		case MUL: result = left * right; break;
+		default: result = left / right; break;
+		}
+
+		if (kind == INTEGER && operandInteger) {
+			intValue = (int) result;
+		} else {
+			kind = DOUBLE;
+			doubleValue = result;
+		}
+		valueCurrent = false;
+	}
 	
 	/**
 	 * Adds given value to the stored value. Given value must be : integer, 
@@ -80,7 +213,7 @@ public class ValueWrapper {
 	 * 			can be parsed as a decimal number.
 	 */
 	public void add(Object incValue) {
-		this.value = applyOperation(this.value, incValue, (left, right) -> left+right);
+		apply(incValue, ADD);
 	}
 	
 	
@@ -91,7 +224,7 @@ public class ValueWrapper {
 	 * 			can be parsed as a decimal number.
 	 */
 	public void sub(Object decValue) {
-		this.value = applyOperation(this.value, decValue, (left, right) -> left-right);
+		apply(decValue, SUB);
 	}
 	
 	
@@ -102,7 +235,7 @@ public class ValueWrapper {
 	 * 			can be parsed as a decimal number.
 	 */
 	public void mul(Object mulValue) {
-		this.value = applyOperation(this.value, mulValue, (left, right) -> left*right);
+		apply(mulValue, MUL);
 	}
 	
 	
@@ -113,10 +246,7 @@ public class ValueWrapper {
 	 * 			can be parsed as a decimal number.
 	 */
 	public void div(Object divValue) {
-		if (Math.abs(toNumber(divValue).doubleValue()) < 1E-6) 
-			throw new ArithmeticException("Cannot divide by zero");
-
-		this.value = applyOperation(this.value, divValue, (left, right) -> left/right);
+		apply(divValue, DIV);
 	}
 
 	/**
@@ -128,8 +258,15 @@ public class ValueWrapper {
 	 * 		   +1 if stored value is greater then given value
 	 */
 	public int numCompare(Object withValue) {
-		double firstValue = toNumber(this.value).doubleValue();
-		double secondValue  = toNumber(withValue).doubleValue();
+		double firstValue = doubleValue();
+		double secondValue;
+		if (withValue != null && withValue.getClass() == Integer.class) {
+			secondValue = (Integer) withValue;
+		} else if (withValue != null && withValue.getClass() == Double.class) {
+			secondValue = (Double) withValue;
+		} else {
+			secondValue = toNumber(withValue).doubleValue();
+		}
 		
 		if (firstValue == secondValue) return 0;
 		
@@ -155,22 +292,49 @@ public class ValueWrapper {
 	}
 	
 	/**
-	 * Parses a string to a number
+	 * Parses a string to a number. Strings holding a whole number that fits in an
+	 * integer are parsed as Integer, other numbers as Double.
 	 * @param value value to be parsed
 	 * @return parsed value
 	 */
 	private static Number stringToNumber(String value) {
-		try (Scanner scanner = new Scanner(value)) {
-			if (scanner.hasNextInt()) return scanner.nextInt();
-			if (scanner.hasNextBigDecimal()) return scanner.nextBigDecimal().doubleValue();
-			throw new RuntimeException("Operation called on string that is not a number."
-					+ "Given :" + value);
+		String number = value.trim();
+		int length = number.length();
+		int start = length > 0 && (number.charAt(0) == '-' || number.charAt(0) == '+') ? 1 : 0;
+
+		boolean integer = start < length;
+		boolean digits = false;
+		for (int i = start; i < length; ++i) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits = true;
+			} else if (c == '.' || c == 'e' || c == 'E'
+					|| ((c == '-' || c == '+') && (number.charAt(i - 1) == 'e' || number.charAt(i - 1) == 'E'))) {
+				integer = false;
+			} else {
+				digits = false;
+				break;
+			}
+		}
+
+		if (digits) {
+			try {
+				if (integer && length - start <= 10) {
+					long parsed = Long.parseLong(number);
+					if (parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE) {
+						return Integer.valueOf((int) parsed);
+					}
+				}
+				return Double.valueOf(number);
+			} catch (NumberFormatException ignorable) {}
 		}
+		throw new RuntimeException("Operation called on string that is not a number."
+				+ "Given :" + value);
 	}
 	
 	@Override
 	public String toString() {
-		return value.toString();
+		return getValue().toString();
 	}
 	
 }
@@ -2,26 +2,53 @@ package hr.fer.zemris.java.custom.scripting.lexer;
 
 import static java.lang.Character.isDigit;
 
+import java.io.IOException;
+import java.io.Reader;
+
 /**
  * This class implements a lexer for SmartScriptParser. It is a "lazy"
  * parser(that means it acquires one token each time a function to get
  * token is called). 
+ * Text can be given as a string or read from a {@link Reader}. Reader is read
+ * incrementally into a fixed window as tokens are requested, and long text between
+ * tags is split into tokens of at most {@value #MAX_TEXT_LENGTH} characters, so
+ * tokenizing a script of any size takes constant memory.
  * @author ltomic
  *
  */
 
 public class SmartScriptLexer {
 	
+	/** Largest number of characters of a single text token **/
+	public static final int MAX_TEXT_LENGTH = 8192;
+	/** Size of the window of characters read from a reader **/
+	private static final int WINDOW_SIZE = 8192;
+	/** Returned by {@link #charAt(int)} past the end of the text **/
+	private static final int EOF = -1;
+
 	/**
-	 * Text which is parsed stored in a character array.
+	 * Text which is parsed stored in a character array. When reading from a reader it
+	 * holds only the window of the text around the current position.
 	 */
 	private char[] data;
+	/**
+	 * Number of characters of the text in the array.
+	 */
+	private int limit;
+	/**
+	 * Position in text of the first character in the array.
+	 */
+	private int offset;
+	/**
+	 * Reader the rest of the text is read from, null if whole text is in the array.
+	 */
+	private Reader reader;
 	/**
 	 * Last generated token.
 	 */
 	private Token token;
 	/**
-	 * Current position in text of lexer.
+	 * Current position of lexer in the character array.
 	 */
 	private int currentIndex;
 	/**
@@ -37,16 +64,30 @@ public class SmartScriptLexer {
 	public SmartScriptLexer(String text) {
 		if (text == null) throw new NullPointerException("text cannot be null.");
 		data = text.toCharArray();
+		limit = data.length;
+		currentIndex = 0;
+		state = LexerState.BASIC;
+	}
+	
+	/**
+	 * Constructs a new lexer reading text to be tokenized from <code>reader</code>.
+	 * Reader is not closed by the lexer. Begin state of lexer is <code>BASIC</code>.
+	 * @param reader reader of the text to tokenize
+	 */
+	public SmartScriptLexer(Reader reader) {
+		if (reader == null) throw new NullPointerException("reader cannot be null.");
+		this.reader = reader;
+		data = new char[WINDOW_SIZE];
 		currentIndex = 0;
 		state = LexerState.BASIC;
 	}
 	
 	/**
-	 * Getter for property currentIndex.
-	 * @return currentIndex
+	 * Returns current position of lexer in text.
+	 * @return current position in text
 	 */
 	public int getCurrentIndex() {
-		return currentIndex;
+		return offset + currentIndex;
 	}
 	
 	/**
@@ -76,7 +117,7 @@ public class SmartScriptLexer {
 		if (token != null && token.getType() == TokenType.EOF) {
 			throw new LexerException("Lexer has already reached the end of file");
 		}
-		if (currentIndex >= data.length) return token = new Token(TokenType.EOF, null);
+		if (charAt(0) == EOF) return token = new Token(TokenType.EOF, null);
 		
 		if (state == LexerState.BASIC) {
 			token = getBasicNextToken();
@@ -106,7 +147,7 @@ public class SmartScriptLexer {
 		}
 
 		StringBuilder text = new StringBuilder();
-		for ( ; currentIndex < data.length; currentIndex++) {
+		for ( ; charAt(0) != EOF && text.length() < MAX_TEXT_LENGTH; currentIndex++) {
 			if (isStartOfTag()) break;
 			if (data[currentIndex] == '\\') {
 				currentIndex++;
@@ -126,8 +167,10 @@ public class SmartScriptLexer {
 	 */
 	private Token getTagNextToken() {
 		skipWhitespace();
+		if (charAt(0) == EOF)
+			throw new LexerException("Expected end of tag at " + getCurrentIndex());
 		if (data[currentIndex] == '-') {
-			if (currentIndex+1 >= data.length || isDigit(data[currentIndex+1]))
+			if (charAt(1) == EOF || isDigit(charAt(1)))
 				return getTokenNumber();
 		}
 		
@@ -166,7 +209,7 @@ public class SmartScriptLexer {
 	private String getString() {		
 		StringBuilder string = new StringBuilder();
 		
-		for ( ; currentIndex < data.length; currentIndex++) {
+		for ( ; charAt(0) != EOF; currentIndex++) {
 			if (data[currentIndex] == '\"') break;
 			if (data[currentIndex] == '\\') {
 				currentIndex++;
@@ -177,8 +220,8 @@ public class SmartScriptLexer {
 			string.append(data[currentIndex]);
 		}
 		
-		if (currentIndex == data.length) 
-			throw new LexerException("Expected end of string at " + currentIndex);
+		if (charAt(0) == EOF) 
+			throw new LexerException("Expected end of string at " + getCurrentIndex());
 		
 		currentIndex++;
 		
@@ -192,15 +235,15 @@ public class SmartScriptLexer {
 	 * @return string equal to an escaped character
 	 */
 	private String escapedCharacterInText() {
-		if (currentIndex >= data.length) 
-			throw new LexerException("Invalid escaping at position " + currentIndex);
+		if (charAt(0) == EOF) 
+			throw new LexerException("Invalid escaping at position " + getCurrentIndex());
 
 		char current = data[currentIndex];
 		
 		if (current == '\\') return "\\";
 		if (current == '{') return "{";
 		
-		throw new LexerException("Invalid escaping at position " + currentIndex);
+		throw new LexerException("Invalid escaping at position " + getCurrentIndex());
 	}
 	
 	/**
@@ -210,8 +253,8 @@ public class SmartScriptLexer {
 	 * @return string equal to an escaped character
 	 */
 	private String escapedCharacterInString() {
-		if (currentIndex >= data.length) 
-			throw new LexerException("Invalid escaping at position " + currentIndex);
+		if (charAt(0) == EOF) 
+			throw new LexerException("Invalid escaping at position " + getCurrentIndex());
 		
 		char current = data[currentIndex];
 		
@@ -221,7 +264,7 @@ public class SmartScriptLexer {
 		if (current == '\"') return "\"";
 		if (current == '\\') return "\\";
 		
-		throw new LexerException("Invalid escaping at position " + currentIndex);
+		throw new LexerException("Invalid escaping at position " + getCurrentIndex());
 	}
 	
 	/**
@@ -229,12 +272,12 @@ public class SmartScriptLexer {
 	 * @return string equal to a processed word(function or variable name)
 	 */
 	private String getWord() {
-		if (currentIndex >= data.length || Character.isWhitespace(data[currentIndex]))
-			throw new LexerException("Expected beginning of variable at " + currentIndex);
+		if (charAt(0) == EOF || Character.isWhitespace(data[currentIndex]))
+			throw new LexerException("Expected beginning of variable at " + getCurrentIndex());
 		
 		StringBuilder word = new StringBuilder();
 		
-		for ( ; currentIndex < data.length; currentIndex++) {
+		for ( ; charAt(0) != EOF; currentIndex++) {
 			char current = data[currentIndex];
 			if (!Character.isLetter(current) && !isDigit(current) && current != '_') break;
 			word.append(current);
@@ -257,21 +300,22 @@ public class SmartScriptLexer {
 			currentIndex++;
 		}
 		
-		int startIndex = currentIndex;
-		while (currentIndex < data.length && (isDigit(data[currentIndex]) || data[currentIndex] == '.')) {
-			if (data[currentIndex] == '.' && currentIndex+1 < data.length &&
-					isDigit(data[currentIndex+1])) 
+		int startIndex = getCurrentIndex();
+		StringBuilder digits = new StringBuilder();
+		while (charAt(0) != EOF && (isDigit(data[currentIndex]) || data[currentIndex] == '.')) {
+			if (data[currentIndex] == '.' && isDigit(charAt(1))) 
 				hasDecimalPoint = true;
+			digits.append(data[currentIndex]);
 			currentIndex++;
 		}
 	
 		
-		if (data[startIndex] == '0' && startIndex+1 < currentIndex && isDigit(data[startIndex+1]))
+		if (digits.length() > 1 && digits.charAt(0) == '0' && isDigit(digits.charAt(1)))
 			throw new LexerException("Format of a number invalid at position " + startIndex);
 		
 		double number;
 		try {
-			number = Double.parseDouble(new String(data, startIndex, currentIndex-startIndex));
+			number = Double.parseDouble(digits.toString());
 		} catch (NumberFormatException ex) {
 			throw new LexerException("Format of a number invalid at position " + startIndex);
 		}
@@ -288,8 +332,7 @@ public class SmartScriptLexer {
 	 * @return <code>true</code> if lexer is currently on start of a tag
 	 */
 	private boolean isStartOfTag() {
-		return currentIndex+1 < data.length && data[currentIndex] == '{' &&
-				data[currentIndex+1] == '$';
+		return charAt(0) == '{' && charAt(1) == '$';
 	}
 	
 	/**
@@ -297,15 +340,55 @@ public class SmartScriptLexer {
 	 * @return <code>true</code> if lexer is currently on end of a tag
 	 */
 	private boolean isEndOfTag() {
-		return currentIndex+1 < data.length && data[currentIndex] == '$' &&
-				data[currentIndex+1] == '}';
+		return charAt(0) == '$' && charAt(1) == '}';
 	}
 	
 	/**
 	 * Increments currentIndex until character that is not whitespace is encountered.
 	 */
 	private void skipWhitespace() {
-		while (currentIndex < data.length && Character.isWhitespace(data[currentIndex])) 
+		while (charAt(0) != EOF && Character.isWhitespace(data[currentIndex])) 
 			currentIndex++;
 	}
+	
+	/**
+	 * Returns the character <code>ahead</code> positions after the current one, reading
+	 * more of the text from the reader if necessary. Characters before the current one
+	 * may be dropped from the array when reading.
+	 * @param ahead number of characters after the current one, less than the window size
+	 * @return character or {@value #EOF} if the text ends before it
+	 */
+	private int charAt(int ahead) {
+		int index = currentIndex + ahead;
+		while (index >= limit) {
+			if (reader == null) return EOF;
+			fill();
+			index = currentIndex + ahead;
+		}
+		return data[index];
+	}
+	
+	/**
+	 * Moves the characters from the current one on to the start of the array and
+	 * reads more of the text after them.
+	 * @throws LexerException if reading fails
+	 */
+	private void fill() {
+		if (currentIndex > 0) {
+			System.arraycopy(data, currentIndex, data, 0, limit - currentIndex);
+			offset += currentIndex;
+			limit -= currentIndex;
+			currentIndex = 0;
+		}
+		try {
+			int read = reader.read(data, limit, data.length - limit);
+			if (read == -1) {
+				reader = null;
+			} else {
+				limit += read;
+			}
+		} catch (IOException ex) {
+			throw new LexerException("Could not read text at position " + (offset + limit), ex);
+		}
+	}
 }
@@ -0,0 +1,113 @@
+package hr.fer.zemris.java.custom.scripting.nodes;
+
+import java.util.Objects;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+
+/**
+ * CacheNode represents a fragment of the document whose output is cached. Fragment
+ * starts with a tag with name CACHE, a time to live in seconds and a key expression
+ * {@see #timeToLive #keyElements}, and ends with a tag whose name is END. Children of
+ * a CacheNode are the cached part of the document. Fragment output is reused while
+ * the key expression evaluates to the same values and its time to live has not
+ * passed.
+ * @author ltomic
+ *
+ */
+public class CacheNode extends Node {
+
+	/**
+	 * Seconds the output of the fragment is reused for
+	 */
+	private Element timeToLive;
+	/**
+	 * Expression whose values the output of the fragment depends on, may be empty
+	 */
+	private Element[] keyElements;
+
+	/**
+	 * Constructs a CacheNode with appropriate variables.
+	 * @param timeToLive seconds the output is reused for
+	 * @param keyElements expression the output depends on
+	 */
+	public CacheNode(Element timeToLive, Element[] keyElements) {
+		this.timeToLive = Objects.requireNonNull(timeToLive);
+		this.keyElements = Objects.requireNonNull(keyElements);
+	}
+
+	/**
+	 * Getter for property timeToLive.
+	 * @return timeToLive
+	 */
+	public Element getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Getter for property keyElements.
+	 * @return keyElements
+	 */
+	public Element[] getKeyElements() {
+		return keyElements;
+	}
+
+	/**
+	 * @return <code>true</code> If time to live, key expression and children of
+	 * 							 <code>other</code> are equal to those of this node.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof CacheNode)) return false;
+		CacheNode otherCache = (CacheNode)other;
+
+		if (this.timeToLive.equals(otherCache.getTimeToLive()) == false) return false;
+
+		Element[] otherElements = otherCache.getKeyElements();
+		if (keyElements.length != otherElements.length) return false;
+		for (int i = 0; i < keyElements.length; ++i) {
+			if (keyElements[i].equals(otherElements[i]) == false) return false;
+		}
+
+		int size = this.numberOfChildren();
+		if (size != otherCache.numberOfChildren()) return false;
+
+		for (int i = 0; i < size; ++i) {
+			if (this.getChild(i).equals(otherCache.getChild(i)) == false) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Elements and nodes are compared by value without hash codes of their own (double
+	 * constants even within a tolerance), so only the kinds of the time to live and the
+	 * key expression and the number of children are hashed.
+	 * @return hash code consistent with {@link #equals(Object)}
+	 */
+	@Override
+	public int hashCode() {
+		int hash = timeToLive.getClass().getName().hashCode();
+		for (Element element : keyElements) {
+			hash = 31 * hash + element.getClass().getName().hashCode();
+		}
+		return 31 * hash + numberOfChildren();
+	}
+
+	/**
+	 * Returns a text representation of a node: its time to live and key expression
+	 * @return "CacheNode: " followed by the time to live and key expression
+	 */
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder("CacheNode: ").append(timeToLive);
+		for (Element element : keyElements) {
+			str.append(' ').append(element);
+		}
+		return str.toString();
+	}
+
+	@Override
+	public void accept(INodeVisitor visitor) {
+		visitor.visitCacheNode(this);
+	}
+}
@@ -24,7 +24,13 @@ public interface INodeVisitor {
 	 * @param node - node to visit
 	 */
 	public void visitEchoNode(EchoNode node);
-	
+
+	/**
+	 * Visits {@link CacheNode}
+	 * @param node - node to visit
+	 */
+	public void visitCacheNode(CacheNode node);
+
 	/**
 	 * Visits {@link DocumentNode
 	 * @param node - node to visit
@@ -1,5 +1,6 @@
 package hr.fer.zemris.java.custom.scripting.parser;
 
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EmptyStackException;
@@ -17,6 +18,7 @@ import hr.fer.zemris.java.custom.scripting.lexer.LexerState;
 import hr.fer.zemris.java.custom.scripting.lexer.SmartScriptLexer;
 import hr.fer.zemris.java.custom.scripting.lexer.Token;
 import hr.fer.zemris.java.custom.scripting.lexer.TokenType;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
@@ -28,6 +30,9 @@ import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
  * in homework pdf). The parser produces a tree which represents the document
  * structure with nodes being constructs of the document. Parser uses SmartScriptLexer
  * as a lexer and works with Token class. Root of the tree is always a DocumentNode
+ * Document can also be parsed incrementally from a {@link Reader}, see
+ * {@link #incremental(Reader)}, getting top-level nodes one at a time as soon as
+ * they are complete, without keeping the whole document in memory.
  * @author ltomic
  */
 public class SmartScriptParser {
@@ -44,11 +49,17 @@ public class SmartScriptParser {
 	 * Allowed array of operators in tag
 	 */
 	private ArrayList<Object> operators;
+	/**
+	 * Nodes whose children are being parsed, document on the bottom
+	 */
+	private Stack<Node> stack = new Stack<>();
 	
 	/** For tag name **/
 	public static final String FOR_TAG_NAME = "for";
 	/** End tag name **/
 	public static final String END_TAG_NAME = "end"; 
+	/** Cache tag name **/
+	public static final String CACHE_TAG_NAME = "cache";
 
 	/**
 	 * Constructs a SmartScriptParser with <code>body</code> as a document to process
@@ -57,18 +68,45 @@ public class SmartScriptParser {
 	 * @throws SmartScriptParserException if invalid string document is given
 	 */
 	public SmartScriptParser(String body) {
+		this(new SmartScriptLexer(body));
+		parse();
+	}
+	
+	/**
+	 * Constructs a SmartScriptParser processing the document read from <code>reader</code>
+	 * and initializes the <code>operators</code>. Reader is not closed by the parser.
+	 * @param reader reader of the document to process
+	 * @throws SmartScriptParserException if invalid document is read
+	 */
+	public SmartScriptParser(Reader reader) {
+		this(new SmartScriptLexer(reader));
+		parse();
+	}
+	
+	/**
+	 * Constructs a SmartScriptParser using the provided lexer without processing the
+	 * document
+	 * @param lexer lexer of the document
+	 */
+	private SmartScriptParser(SmartScriptLexer lexer) {
 		operators = new ArrayList<>();
 		addOperators();
 		
-		this.lexer = new SmartScriptLexer(body);
-		
-		try {
-			parse();
-		} catch (LexerException ex) {
-			throw new SmartScriptParserException(ex.getMessage());
-		} catch (EmptyStackException ex) {
-			throw new SmartScriptParserException("Invalid closing of non-empty tags");
-		}
+		this.lexer = lexer;
+		head = new DocumentNode();
+		stack.push(head);
+	}
+	
+	/**
+	 * Creates a SmartScriptParser processing the document read from <code>reader</code>
+	 * one top-level node at a time, see {@link #nextNode()}. Such parser does not build
+	 * the document tree, its document node stays empty. Reader is not closed by the
+	 * parser.
+	 * @param reader reader of the document to process
+	 * @return parser of the document
+	 */
+	public static SmartScriptParser incremental(Reader reader) {
+		return new SmartScriptParser(new SmartScriptLexer(reader));
 	}
 	
 	/**
@@ -104,22 +142,46 @@ public class SmartScriptParser {
 	 * tags correct. This method is only called once to parse the document.
 	 */
 	private void parse() {
-		head = new DocumentNode();
-		Stack<Object> stack = new Stack<>();
-		stack.push(head);
-		
-		Node front = (Node)stack.peek();
+		Node node;
+		while ((node = nextNode()) != null) {
+			head.addChildNode(node);
+		}
+	}
+	
+	/**
+	 * Parses the document until the next top-level node is complete and returns it.
+	 * Top-level for loop or cache tag is returned once its end tag is parsed, together
+	 * with all of its children.
+	 * @return next top-level node of the document or null if the document has ended
+	 * @throws SmartScriptParserException if invalid document is given
+	 */
+	public Node nextNode() {
+		try {
+			return parseNextNode();
+		} catch (LexerException ex) {
+			throw new SmartScriptParserException(ex.getMessage());
+		} catch (EmptyStackException ex) {
+			throw new SmartScriptParserException("Invalid closing of non-empty tags");
+		}
+	}
+	
+	/**
+	 * Parses the document until the next top-level node is complete and returns it.
+	 * @return next top-level node of the document or null if the document has ended
+	 */
+	private Node parseNextNode() {
 		while (true) {
 			Token token = lexer.nextToken();
 			
-			if (token.getType() == TokenType.EOF) break;
-			
-			if (token.getType() == TokenType.STRING) {
-				front.addChildNode(new TextNode((String)token.getValue()));
-				continue;
+			if (token.getType() == TokenType.EOF) {
+				if (stack.size() != 1) throw new SmartScriptParserException("Invalid enclosing of tags");
+				return null;
 			}
 			
-			if (token.getType() == TokenType.STARTTAG) {
+			Node completed = null;
+			if (token.getType() == TokenType.STRING) {
+				completed = new TextNode((String)token.getValue());
+			} else if (token.getType() == TokenType.STARTTAG) {
 				lexer.setState(LexerState.TAG);
 				token = lexer.nextToken();
 				
@@ -131,26 +193,33 @@ public class SmartScriptParser {
 						if (token.getType() != TokenType.ENDTAG)
 							throw new SmartScriptParserException("Invalid tag at "
 									+ lexer.getCurrentIndex());
-						stack.pop();
-						front = (Node)stack.peek();
+						if (stack.size() == 1) throw new EmptyStackException();
+						Node closed = stack.pop();
+						if (stack.size() == 1) completed = closed;
 					} else if (name.equals(FOR_TAG_NAME)) {
-						stack.push(createForTag());
-						front.addChildNode((Node)stack.peek());
-						front = (Node)stack.peek();
+						ForLoopNode loop = createForTag();
+						if (stack.size() > 1) stack.peek().addChildNode(loop);
+						stack.push(loop);
+					} else if (name.equals(CACHE_TAG_NAME)) {
+						CacheNode cache = createCacheTag();
+						if (stack.size() > 1) stack.peek().addChildNode(cache);
+						stack.push(cache);
 					} else {
-						front.addChildNode(createEchoTag(token));
+						completed = createEchoTag(token);
 					}
 				} else if (token.getType() == TokenType.SYMBOL && token.getValue().equals('=')) {
-					front.addChildNode(createEchoTag(token));
+					completed = createEchoTag(token);
 				} else {
 					throw new SmartScriptParserException("Invalid tag at " + lexer.getCurrentIndex());
 				}
 				
 				lexer.setState(LexerState.BASIC);
 			}
+			
+			if (completed == null) continue;
+			if (stack.size() == 1) return completed;
+			stack.peek().addChildNode(completed);
 		}
-	
-		if (stack.size() != 1) throw new SmartScriptParserException("Invalid enclosing of tags");
 	}
 	
 	/**
@@ -195,6 +264,35 @@ public class SmartScriptParser {
 		return new ForLoopNode(Arg1, Arg2, Arg3, Arg4);
 	}
 	
+	/**
+	 * Creates and returns CacheNode that is processed. Called when cache tag is
+	 * encountered. First argument is a positive number of seconds, the rest is the key
+	 * expression.
+	 * @return CacheNode representing the cache tag from the document that was processed
+	 */
+	private CacheNode createCacheTag() {
+		Element timeToLive = getElement(lexer.nextToken());
+		double seconds;
+		if (timeToLive instanceof ElementConstantInteger) {
+			seconds = ((ElementConstantInteger)timeToLive).getValue();
+		} else if (timeToLive instanceof ElementConstantDouble) {
+			seconds = ((ElementConstantDouble)timeToLive).getValue();
+		} else {
+			throw new SmartScriptParserException("First argument of cache-tag must be" +
+					" a number, at " + lexer.getCurrentIndex());
+		}
+		if (!(seconds > 0)) throw new SmartScriptParserException("Time to live of cache-tag" +
+				" must be positive, at " + lexer.getCurrentIndex());
+		
+		ArrayList<Element> keyElements = new ArrayList<>();
+		Token token;
+		while ((token = lexer.nextToken()).getType() != TokenType.ENDTAG) {
+			keyElements.add(getElement(token));
+		}
+		
+		return new CacheNode(timeToLive, keyElements.toArray(new Element[0]));
+	}
+	
 	/**
 	 * Creates and return ElementVariable that is processed. Called when expecting a variable.
 	 * @param token current token
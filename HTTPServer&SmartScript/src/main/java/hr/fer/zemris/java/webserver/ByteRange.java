@@ -0,0 +1,108 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Single range of bytes requested by the <code>Range</code> header. Only single
+ * ranges in bytes are supported, other values of the header are ignored and the
+ * whole content is sent, as allowed by the protocol.
+ * @author ltomic
+ *
+ */
+public class ByteRange {
+
+	/** Range returned when no byte of the requested range exists in the content **/
+	public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	/** Prefix of the supported ranges **/
+	private static final String BYTES_PREFIX = "bytes=";
+
+	/** Position of the first byte in the range **/
+	private final long start;
+	/** Position of the last byte in the range **/
+	private final long end;
+
+	/**
+	 * Constructs a {@link ByteRange} with provided first and last byte
+	 * @param start - position of the first byte
+	 * @param end - position of the last byte
+	 */
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses the value of the <code>Range</code> header for the content of the
+	 * provided size.
+	 * @param header - value of the header, may be null
+	 * @param size - size of the content
+	 * @return requested range, {@link #UNSATISFIABLE} if the range is outside of the
+	 * content or null if the whole content should be sent
+	 */
+	public static ByteRange parse(String header, long size) {
+		if (header == null || !header.startsWith(BYTES_PREFIX)) return null;
+
+		String spec = header.substring(BYTES_PREFIX.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1 || spec.indexOf(',') != -1) return null;
+
+		long first;
+		long last;
+		try {
+			String firstPart = spec.substring(0, dash).trim();
+			String lastPart = spec.substring(dash + 1).trim();
+
+			if (firstPart.isEmpty()) {
+				if (lastPart.isEmpty()) return null;
+				long suffix = Long.parseLong(lastPart);
+				if (suffix < 0) return null;
+				if (suffix == 0 || size == 0) return UNSATISFIABLE;
+				first = Math.max(0, size - suffix);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(firstPart);
+				last = lastPart.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastPart);
+				if (first < 0 || last < first) return null;
+				if (first >= size) return UNSATISFIABLE;
+				last = Math.min(last, size - 1);
+			}
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+
+		return new ByteRange(first, last);
+	}
+
+	/**
+	 * Gets position of the first byte
+	 * @return position of the first byte
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Gets position of the last byte
+	 * @return position of the last byte
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Gets number of bytes in the range
+	 * @return number of bytes in the range
+	 */
+	public long length() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Generates value of the <code>Content-Range</code> header describing this range
+	 * @param size - size of the whole content
+	 * @return value of the <code>Content-Range</code> header
+	 */
+	public String toContentRange(long size) {
+		if (this == UNSATISFIABLE) return "bytes */" + size;
+		return "bytes " + start + "-" + end + "/" + size;
+	}
+}
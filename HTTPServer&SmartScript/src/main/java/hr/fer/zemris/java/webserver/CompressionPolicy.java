@@ -0,0 +1,177 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides which responses are compressed and with which content coding. Configured
+ * by a properties file like <code>config/compression.properties</code>:
+ * <ul>
+ * <li><code>enabled</code> - are responses compressed at all,</li>
+ * <li><code>minSize</code> - smallest response, in bytes, worth compressing,</li>
+ * <li><code>level</code> - deflate compression level, 1 (fastest) to 9 (smallest),</li>
+ * <li><code>types</code> - comma separated mime types to compress, a type ending with
+ * <code>/*</code> matches all its subtypes.</li>
+ * </ul>
+ * Supported content codings are <code>gzip</code> and <code>deflate</code>.
+ * @author ltomic
+ *
+ */
+public class CompressionPolicy {
+
+	/** Gzip content coding **/
+	public static final String GZIP = "gzip";
+	/** Deflate (zlib) content coding **/
+	public static final String DEFLATE = "deflate";
+
+	/** Default smallest response worth compressing **/
+	private static final int DEFAULT_MIN_SIZE = 1024;
+	/** Default mime types compressed **/
+	private static final String DEFAULT_TYPES = "text/*, application/javascript, application/json, image/svg+xml";
+
+	/** Are responses compressed **/
+	private boolean enabled;
+	/** Smallest response worth compressing **/
+	private int minSize;
+	/** Deflate compression level **/
+	private int level;
+	/** Mime types compressed **/
+	private Set<String> types = new HashSet<>();
+	/** Prefixes of mime types compressed, like <code>text/</code> **/
+	private List<String> typePrefixes = new ArrayList<>();
+
+	/**
+	 * Constructs a {@link CompressionPolicy} from the provided configuration. Missing
+	 * keys get their default values.
+	 * @param prop - compression configuration
+	 * @throws IllegalArgumentException if a value is not valid
+	 */
+	public CompressionPolicy(Properties prop) {
+		enabled = Boolean.parseBoolean(prop.getProperty("enabled", "true").trim());
+		minSize = Integer.parseInt(prop.getProperty("minSize", String.valueOf(DEFAULT_MIN_SIZE)).trim());
+		level = Integer.parseInt(prop.getProperty("level", String.valueOf(Deflater.DEFAULT_COMPRESSION)).trim());
+		if (minSize < 0) throw new IllegalArgumentException("minSize cannot be negative");
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < 1 || level > 9)) {
+			throw new IllegalArgumentException("level must be between 1 and 9");
+		}
+
+		for (String type : prop.getProperty("types", DEFAULT_TYPES).split(",")) {
+			type = type.trim().toLowerCase();
+			if (type.isEmpty()) continue;
+			if (type.endsWith("/*")) {
+				typePrefixes.add(type.substring(0, type.length() - 1));
+			} else {
+				types.add(type);
+			}
+		}
+	}
+
+	/**
+	 * Creates a policy that never compresses
+	 * @return disabled policy
+	 */
+	public static CompressionPolicy disabled() {
+		Properties prop = new Properties();
+		prop.setProperty("enabled", "false");
+		return new CompressionPolicy(prop);
+	}
+
+	/**
+	 * Chooses the content coding for a client sending the provided
+	 * <code>Accept-Encoding</code> header. Coding with the highest quality wins, gzip
+	 * is preferred when they are equal.
+	 * @param acceptEncoding - value of the header, may be null
+	 * @return chosen coding or null if the response should not be compressed
+	 */
+	public String negotiate(String acceptEncoding) {
+		if (!enabled || acceptEncoding == null) return null;
+		double gzip = quality(acceptEncoding, GZIP);
+		double deflate = quality(acceptEncoding, DEFLATE);
+		if (gzip <= 0 && deflate <= 0) return null;
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * Checks if the client sending the provided <code>Accept-Encoding</code> header
+	 * accepts the provided coding
+	 * @param acceptEncoding - value of the header, may be null
+	 * @param coding - content coding
+	 * @return true if the coding is accepted and compression is enabled, else false
+	 */
+	public boolean accepts(String acceptEncoding, String coding) {
+		return enabled && acceptEncoding != null && quality(acceptEncoding, coding) > 0;
+	}
+
+	/**
+	 * Finds the quality of the coding in the <code>Accept-Encoding</code> header. Coding
+	 * not listed gets the quality of <code>*</code>, or 0 if that is not listed either.
+	 * @param acceptEncoding - value of the header
+	 * @param coding - content coding
+	 * @return quality between 0 and 1
+	 */
+	private static double quality(String acceptEncoding, String coding) {
+		double wildcard = 0;
+		for (String element : acceptEncoding.split(",")) {
+			int separator = element.indexOf(';');
+			String name = (separator == -1 ? element : element.substring(0, separator)).trim();
+			double q = 1;
+			if (separator != -1) {
+				String parameter = element.substring(separator + 1).trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException ex) {
+						q = 0;
+					}
+				}
+			}
+			if (name.equalsIgnoreCase(coding)) return q;
+			if (name.equals("*")) wildcard = q;
+		}
+		return wildcard;
+	}
+
+	/**
+	 * Checks if responses of the provided mime type are compressed
+	 * @param mimeType - mime type, parameters like charset are ignored
+	 * @return true if responses of the type are compressed, else false
+	 */
+	public boolean isCompressible(String mimeType) {
+		if (!enabled || mimeType == null) return false;
+		int separator = mimeType.indexOf(';');
+		String type = (separator == -1 ? mimeType : mimeType.substring(0, separator)).trim().toLowerCase();
+		if (types.contains(type)) return true;
+		for (String prefix : typePrefixes) {
+			if (type.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if responses are compressed
+	 * @return true if responses are compressed, else false
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Gets smallest response worth compressing
+	 * @return smallest response size in bytes
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * Gets deflate compression level
+	 * @return compression level
+	 */
+	public int getLevel() {
+		return level;
+	}
+}
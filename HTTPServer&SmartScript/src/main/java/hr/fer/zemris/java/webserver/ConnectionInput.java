@@ -0,0 +1,133 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input of a client connection. Request header is read into the buffer and
+ * parsed in place, so it has to start at the beginning of the buffer and stay there
+ * while the request is processed. Request body is read after it, bytes of the body
+ * already in the buffer are returned first and larger reads go directly to the
+ * source. Bytes read past the end of the request (pipelined requests) stay in the
+ * buffer and are moved to its beginning by {@link #compact()} before the next request.
+ * @author ltomic
+ *
+ */
+public class ConnectionInput extends InputStream {
+
+	/** Buffer holding bytes read from the client **/
+	private byte[] buffer;
+	/** Position of the next unread byte **/
+	private int position;
+	/** Position after the last byte read **/
+	private int limit;
+	/** Position below which the buffer is not reused, end of the current header **/
+	private int floor;
+	/** Source of the bytes, may be null while bytes are read by somebody else **/
+	private InputStream source;
+
+	/**
+	 * Constructs a {@link ConnectionInput} with provided buffer and source
+	 * @param buffer - buffer holding bytes read from the client
+	 * @param source - source of the bytes, may be null
+	 */
+	public ConnectionInput(byte[] buffer, InputStream source) {
+		this.buffer = buffer;
+		this.source = source;
+	}
+
+	/**
+	 * Reads more bytes from the source into the free part of the buffer. If all bytes
+	 * above the floor were consumed, they are overwritten.
+	 * @return false if the source has no more bytes, else true
+	 * @throws IOException if the buffer is full or reading fails
+	 */
+	public boolean fill() throws IOException {
+		if (position == limit && position > floor) {
+			position = floor;
+			limit = floor;
+		}
+		if (limit == buffer.length) throw new IOException("Request header too large");
+		int r = source.read(buffer, limit, buffer.length - limit);
+		if (r == -1) return false;
+		limit += r;
+		return true;
+	}
+
+	/**
+	 * Moves unread bytes to the beginning of the buffer. Should be called only between
+	 * requests, since the parsed header is overwritten.
+	 */
+	public void compact() {
+		System.arraycopy(buffer, position, buffer, 0, limit - position);
+		limit -= position;
+		position = 0;
+		floor = 0;
+	}
+
+	/**
+	 * Marks the bytes up to the provided position as consumed and protects them from
+	 * being overwritten until the next {@link #compact()}
+	 * @param end - position after the end of the request header
+	 */
+	public void skipHeader(int end) {
+		position = end;
+		floor = end;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == limit && !fill()) return -1;
+		return buffer[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (position < limit) {
+			len = Math.min(len, limit - position);
+			System.arraycopy(buffer, position, b, off, len);
+			position += len;
+			return len;
+		}
+		return source.read(b, off, len);
+	}
+
+	@Override
+	public int available() throws IOException {
+		return limit - position;
+	}
+
+	/**
+	 * Gets the buffer
+	 * @return buffer holding bytes read from the client
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gets position after the last byte read
+	 * @return position after the last byte read
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets position after the last byte read, used when bytes are read into the buffer
+	 * by somebody else
+	 * @param limit - position after the last byte read
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Sets source of the bytes
+	 * @param source - source of the bytes
+	 */
+	public void setSource(InputStream source) {
+		this.source = source;
+	}
+}
@@ -44,6 +44,8 @@ public class DemoRequestContext {
 		rc.setStatusText("Idemo dalje");
 		// Only at this point will header be created and written...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// ...and sent together with the message
+		rc.finish();
 		os.close();
 	}
 
@@ -65,6 +67,8 @@ public class DemoRequestContext {
 		rc.addRCCookie(new RCCookie("zgrada", "B4", null, null, "/"));
 		// Only at this point will header be created and written...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// ...and sent together with the message
+		rc.finish();
 		os.close();
 	}
 }
@@ -0,0 +1,395 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session store keeping the sessions in memory, like {@link InMemorySessionStore},
+ * and saving them to the provided directory so they survive restarts of the server.
+ * Changed sessions are appended to a log after the request that changed them. All
+ * sessions are periodically written to a memory-mapped snapshot file, after which
+ * the log is started anew. On startup the snapshot is loaded and the log replayed,
+ * skipping sessions that have expired in the meantime.
+ * <p>
+ * Log and snapshot consist of records, each holding the whole state of a single
+ * session and preceded by its length, so a record cut off by a crash is recognized
+ * and ignored. Texts in a record are written as their length followed by their UTF-8
+ * bytes, so parameters of any size can be saved.
+ * @author ltomic
+ *
+ */
+public class FileSessionStore implements SessionStore {
+
+	/** Name of the snapshot file **/
+	private static final String SNAPSHOT_FILE = "sessions.snapshot";
+	/** Name of the log file **/
+	private static final String LOG_FILE = "sessions.log";
+	/** Size of the mapped regions of the snapshot file when writing **/
+	private static final int SNAPSHOT_REGION_SIZE = 1024 * 1024;
+	/** Default time between snapshots in seconds **/
+	private static final long DEFAULT_SNAPSHOT_INTERVAL = 60;
+
+	/** Sessions **/
+	private InMemorySessionStore memory;
+	/** Directory holding the snapshot and the log **/
+	private Path directory;
+	/** Log of changed sessions **/
+	private OutputStream log;
+	/** Buffer the records are prepared in before they are written **/
+	private ByteArrayOutputStream record = new ByteArrayOutputStream();
+	/** Smallest renewal of a session that is saved **/
+	private long renewalPrecision;
+	/** Time between snapshots in seconds **/
+	private long snapshotInterval;
+	/** Time of the last snapshot in seconds **/
+	private long lastSnapshot;
+	/** Were any sessions logged since the last snapshot **/
+	private boolean logged;
+	/** Is the store closed **/
+	private boolean closed;
+
+	/**
+	 * Constructs a {@link FileSessionStore} saving to the provided directory and loads
+	 * the sessions saved in it
+	 * @param directory - directory of the saved sessions, created if it does not exist
+	 * @param timeout - duration of the sessions in seconds
+	 * @throws IOException if saved sessions cannot be read
+	 */
+	public FileSessionStore(Path directory, long timeout) throws IOException {
+		this(directory, timeout, DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * Constructs a {@link FileSessionStore} saving to the provided directory and loads
+	 * the sessions saved in it
+	 * @param directory - directory of the saved sessions, created if it does not exist
+	 * @param timeout - duration of the sessions in seconds
+	 * @param snapshotInterval - time between snapshots in seconds
+	 * @throws IOException if saved sessions cannot be read
+	 */
+	public FileSessionStore(Path directory, long timeout, long snapshotInterval) throws IOException {
+		this.memory = new InMemorySessionStore(timeout);
+		this.directory = directory;
+		this.renewalPrecision = Math.max(1, timeout / 10);
+		this.snapshotInterval = snapshotInterval;
+
+		Files.createDirectories(directory);
+		long now = System.currentTimeMillis() / 1000;
+		Map<String, SessionMapEntry> loaded = new ConcurrentHashMap<>();
+		load(directory.resolve(SNAPSHOT_FILE), loaded, true);
+		load(directory.resolve(LOG_FILE), loaded, false);
+		for (SessionMapEntry session : loaded.values()) {
+			if (!session.isExpired(now)) memory.restore(session);
+		}
+
+		snapshot(now);
+	}
+
+	@Override
+	public SessionMapEntry get(String sid, String host, long now) {
+		return memory.get(sid, host, now);
+	}
+
+	@Override
+	public SessionMapEntry create(String host, long now) {
+		return memory.create(host, now);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Appends the session to the log if its storage changed or it was renewed by at
+	 * least a tenth of the session duration since it was last saved.
+	 */
+	@Override
+	public void update(SessionMapEntry session) {
+		if (!session.isChanged(renewalPrecision)) return;
+		synchronized (this) {
+			if (closed) return;
+			try {
+				append(session);
+				logged = true;
+			} catch (IOException ex) {
+				System.err.println("Could not save session: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Also writes a new snapshot if the snapshot interval passed and sessions were
+	 * logged since the last one.
+	 */
+	@Override
+	public int expire(long now) {
+		int removed = memory.expire(now);
+		synchronized (this) {
+			if (!closed && logged && now - lastSnapshot >= snapshotInterval) {
+				try {
+					snapshot(now);
+				} catch (IOException ex) {
+					// retried after the next interval, not on every call
+					lastSnapshot = now;
+					System.err.println("Could not save sessions: " + ex.getMessage());
+				}
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public int size() {
+		return memory.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Writes the final snapshot.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		try {
+			snapshot(System.currentTimeMillis() / 1000);
+		} finally {
+			closed = true;
+			log.close();
+		}
+	}
+
+	/**
+	 * Appends the session to the log
+	 * @param session - session to append
+	 * @throws IOException
+	 */
+	private void append(SessionMapEntry session) throws IOException {
+		log.write(prepareRecord(session));
+		log.flush();
+	}
+
+	/**
+	 * Writes all sessions to a new snapshot file, replaces the old snapshot with it and
+	 * starts a new log. Snapshot is written to the file through mapped regions. Session
+	 * that cannot be written is left out, so it does not prevent saving the others.
+	 * @param now - current time in seconds
+	 * @throws IOException
+	 */
+	private void snapshot(long now) throws IOException {
+		Path snapshot = directory.resolve(SNAPSHOT_FILE);
+		Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long position = 0;
+			MappedByteBuffer region = null;
+			for (SessionMapEntry session : memory.sessions()) {
+				if (session.isExpired(now)) continue;
+				byte[] bytes;
+				try {
+					bytes = prepareRecord(session);
+				} catch (IOException | RuntimeException ex) {
+					System.err.println("Could not save session: " + ex.getMessage());
+					continue;
+				}
+
+				int written = 0;
+				while (written < bytes.length) {
+					if (region == null || !region.hasRemaining()) {
+						if (region != null) region.force();
+						region = channel.map(MapMode.READ_WRITE, position, SNAPSHOT_REGION_SIZE);
+					}
+					int length = Math.min(bytes.length - written, region.remaining());
+					region.put(bytes, written, length);
+					written += length;
+					position += length;
+				}
+			}
+			if (region != null) region.force();
+			channel.truncate(position);
+		}
+		Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if (log != null) log.close();
+		log = Files.newOutputStream(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		lastSnapshot = now;
+		logged = false;
+	}
+
+	/**
+	 * Prepares the record holding the state of the session, preceded by its length, and
+	 * marks the session as saved
+	 * @param session - session to write
+	 * @return record bytes
+	 * @throws IOException if the session cannot be written
+	 */
+	private byte[] prepareRecord(SessionMapEntry session) throws IOException {
+		record.reset();
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeInt(0);
+		writeString(out, session.getSid());
+		writeString(out, session.getHost());
+		long validUntil = session.getValidUntil();
+		out.writeLong(validUntil);
+
+		Map<String, String> map = session.getMap();
+		int hash = map.hashCode();
+		Object[] entries = map.entrySet().toArray();
+		out.writeInt(entries.length);
+		for (Object entry : entries) {
+			@SuppressWarnings("unchecked")
+			Map.Entry<String, String> parameter = (Map.Entry<String, String>) entry;
+			writeString(out, parameter.getKey());
+			writeString(out, parameter.getValue());
+		}
+		out.flush();
+
+		byte[] bytes = record.toByteArray();
+		int length = bytes.length - Integer.BYTES;
+		for (int i = 0; i < Integer.BYTES; ++i) {
+			bytes[i] = (byte) (length >>> (8 * (Integer.BYTES - 1 - i)));
+		}
+		session.markSaved(hash, validUntil);
+		return bytes;
+	}
+
+	/**
+	 * Writes the text as its length in bytes followed by its UTF-8 bytes
+	 * @param out - output to write to
+	 * @param text - text to write
+	 * @throws IOException
+	 */
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a text written by {@link #writeString(DataOutputStream, String)}
+	 * @param in - record holding the text
+	 * @return read text
+	 * @throws IOException if the record ends before the text
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) throw new EOFException();
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Loads the sessions saved in the provided file. Later records of a session replace
+	 * earlier ones. Loading stops at the first incomplete or invalid record.
+	 * @param file - file to load, ignored if it does not exist
+	 * @param sessions - map to which loaded sessions are added
+	 * @param mapped - should the file be read through a mapped buffer
+	 * @throws IOException if file cannot be read
+	 */
+	private static void load(Path file, Map<String, SessionMapEntry> sessions, boolean mapped)
+			throws IOException {
+		if (!Files.isRegularFile(file)) return;
+
+		long size = Files.size(file);
+		try (DataInputStream in = new DataInputStream(open(file, mapped))) {
+			while (true) {
+				try {
+					int length = in.readInt();
+					if (length < 0 || length > size) return;
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					SessionMapEntry session = readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+					sessions.put(session.getSid(), session);
+				} catch (EOFException ex) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the provided file for reading
+	 * @param file - file to open
+	 * @param mapped - should the file be read through a mapped buffer
+	 * @return stream reading the file
+	 * @throws IOException if file cannot be opened
+	 */
+	private static InputStream open(Path file, boolean mapped) throws IOException {
+		if (!mapped) return new BufferedInputStream(Files.newInputStream(file));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new MappedInputStream(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads a single session
+	 * @param in - record holding the session
+	 * @return read session
+	 * @throws IOException if the record is not valid
+	 */
+	private static SessionMapEntry readRecord(DataInputStream in) throws IOException {
+		String sid = readString(in);
+		String host = readString(in);
+		long validUntil = in.readLong();
+		SessionMapEntry session = new SessionMapEntry(sid, host, validUntil);
+
+		int size = in.readInt();
+		for (int i = 0; i < size; ++i) {
+			session.getMap().put(readString(in), readString(in));
+		}
+		session.markSaved(session.getMap().hashCode(), validUntil);
+		return session;
+	}
+
+	/**
+	 * Input stream reading from a mapped buffer
+	 * @author ltomic
+	 *
+	 */
+	private static class MappedInputStream extends InputStream {
+		/** Buffer read **/
+		private MappedByteBuffer buffer;
+
+		/**
+		 * Constructs a {@link MappedInputStream} reading the provided buffer
+		 * @param buffer - buffer to read
+		 */
+		public MappedInputStream(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
+}
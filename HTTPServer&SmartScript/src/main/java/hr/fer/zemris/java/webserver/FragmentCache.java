@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the output of script fragments enclosed in <code>CACHE</code> tags, bounded
+ * by the total number of cached bytes. Output is stored under a key describing the
+ * fragment and the values it depends on, and is reused until its time to live passes.
+ * Keys usually hold request parameters, so every entry is counted as its output, its
+ * key and a fixed overhead, and expired entries are periodically removed when output
+ * is stored. When the cache is full expired output is evicted first, then the least
+ * recently used.
+ * Cache can be used concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public class FragmentCache {
+
+	/** Estimated number of bytes taken by an entry besides its output and key **/
+	static final int ENTRY_OVERHEAD = 64;
+	/** Minimum time between removals of expired entries in nanoseconds **/
+	private static final long PURGE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** Maximum number of cached bytes **/
+	private long capacity;
+	/** Cached output **/
+	private Map<String, CachedFragment> fragments = new ConcurrentHashMap<>();
+	/** Number of cached bytes **/
+	private AtomicLong bytes = new AtomicLong();
+	/** Logical clock used to track output usage **/
+	private AtomicLong clock = new AtomicLong();
+	/** Value of {@link System#nanoTime()} after which expired entries are removed again **/
+	private AtomicLong nextPurge = new AtomicLong(System.nanoTime());
+
+	/** Number of times cached output was reused **/
+	private LongAdder hits = new LongAdder();
+	/** Number of times output was not cached or had expired **/
+	private LongAdder misses = new LongAdder();
+	/** Number of outputs evicted because the cache was full **/
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a {@link FragmentCache} holding at most <code>capacity</code> bytes
+	 * @param capacity - maximum number of cached bytes, 0 disables caching
+	 */
+	public FragmentCache(long capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the output stored under the provided key if its time to live has not
+	 * passed. Returned array must not be modified.
+	 * @param key - key describing the fragment and the values it depends on
+	 * @return cached output, null if there is none
+	 */
+	public byte[] get(String key) {
+		CachedFragment cached = fragments.get(key);
+		if (cached != null) {
+			if (!cached.isExpired(System.nanoTime())) {
+				hits.increment();
+				cached.lastUsed = clock.incrementAndGet();
+				return cached.body;
+			}
+			remove(key, cached);
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Stores the output under the provided key
+	 * @param key - key describing the fragment and the values it depends on
+	 * @param body - output of the fragment
+	 * @param timeToLive - time the output is reused for
+	 * @param unit - unit of the time to live
+	 */
+	public void put(String key, byte[] body, long timeToLive, TimeUnit unit) {
+		long size = sizeOf(key, body.length);
+		if (size > capacity) return;
+		long now = System.nanoTime();
+		purge(now);
+		CachedFragment cached = new CachedFragment(body, size, now + unit.toNanos(timeToLive));
+		cached.lastUsed = clock.incrementAndGet();
+
+		CachedFragment previous = fragments.put(key, cached);
+		if (previous != null) bytes.addAndGet(-previous.size);
+		bytes.addAndGet(size);
+		while (bytes.get() > capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * Estimates the number of bytes taken by an entry
+	 * @param key - key of the entry
+	 * @param bodyLength - length of the output
+	 * @return estimated size of the entry
+	 */
+	static long sizeOf(String key, int bodyLength) {
+		return (long) bodyLength + key.length() + ENTRY_OVERHEAD;
+	}
+
+	/**
+	 * Removes all expired entries, unless they were removed less than the purge
+	 * interval ago or another thread is removing them
+	 * @param now - current value of {@link System#nanoTime()}
+	 */
+	private void purge(long now) {
+		long next = nextPurge.get();
+		if (now - next < 0 || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL)) return;
+		for (Map.Entry<String, CachedFragment> entry : fragments.entrySet()) {
+			if (entry.getValue().isExpired(now)) remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes an expired output if there is one, else the least recently used output
+	 */
+	private void evict() {
+		long now = System.nanoTime();
+		Map.Entry<String, CachedFragment> eldest = null;
+		for (Map.Entry<String, CachedFragment> entry : fragments.entrySet()) {
+			if (entry.getValue().isExpired(now)) {
+				eldest = entry;
+				break;
+			}
+			if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+				eldest = entry;
+			}
+		}
+		if (eldest == null) {
+			bytes.set(0);
+		} else if (remove(eldest.getKey(), eldest.getValue())) {
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes the output stored under the key if it was not replaced
+	 * @param key - key of the output
+	 * @param cached - output to remove
+	 * @return true if the output was removed, else false
+	 */
+	private boolean remove(String key, CachedFragment cached) {
+		if (!fragments.remove(key, cached)) return false;
+		bytes.addAndGet(-cached.size);
+		return true;
+	}
+
+	/**
+	 * Removes all output from the cache
+	 */
+	public void clear() {
+		fragments.clear();
+		bytes.set(0);
+	}
+
+	/**
+	 * Gets number of cached outputs
+	 * @return number of cached outputs
+	 */
+	public int size() {
+		return fragments.size();
+	}
+
+	/**
+	 * Gets estimated number of bytes taken by the cached outputs and their keys
+	 * @return number of cached bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Gets number of times cached output was reused
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets number of times output was not cached or had expired
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets number of outputs evicted because the cache was full
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Output of a fragment with the time it expires at
+	 * @author ltomic
+	 *
+	 */
+	private static class CachedFragment {
+		/** Output of the fragment **/
+		private byte[] body;
+		/** Estimated size of the entry in bytes **/
+		private long size;
+		/** Value of {@link System#nanoTime()} after which the output is expired **/
+		private long expiresAt;
+		/** Logical time of the last use **/
+		private volatile long lastUsed;
+
+		/**
+		 * Constructs a {@link CachedFragment} with provided arguments
+		 * @param body - output of the fragment
+		 * @param size - estimated size of the entry in bytes
+		 * @param expiresAt - value of {@link System#nanoTime()} after which the output is expired
+		 */
+		private CachedFragment(byte[] body, long size, long expiresAt) {
+			this.body = body;
+			this.size = size;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * Checks if the output is expired
+		 * @param now - current value of {@link System#nanoTime()}
+		 * @return true if the output is expired, else false
+		 */
+		private boolean isExpired(long now) {
+			return now - expiresAt > 0;
+		}
+	}
+}
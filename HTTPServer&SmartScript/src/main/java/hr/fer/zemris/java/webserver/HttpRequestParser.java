@@ -0,0 +1,469 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser of the HTTP request header. Parser scans the bytes of the
+ * request as they arrive, line by line, and only records where the request line parts
+ * and the header names and values are in the buffer. Strings are created only when a
+ * part of the request is asked for, and cookies and query are searched only on demand.
+ * A parser is meant to be reused for all requests on a connection by calling
+ * {@link #reset(byte[], int)} before each of them.
+ * <p>
+ * Lines may end with <code>CRLF</code> or just <code>LF</code>, empty lines before the
+ * request line are skipped and header lines starting with a space or a tab continue
+ * the previous header.
+ * @author ltomic
+ *
+ */
+public class HttpRequestParser {
+
+	/** Maximum size of the request header **/
+	public static final int MAX_HEADER_SIZE = 8192;
+
+	/** Number of offsets stored for each header **/
+	private static final int HEADER_FIELDS = 4;
+
+	/** Buffer holding the request **/
+	private byte[] data;
+	/** Position of the first byte of the request **/
+	private int start;
+	/** Position up to which the buffer was scanned **/
+	private int position;
+	/** Position of the first byte of the current line **/
+	private int lineStart;
+	/** Position after the end of the header, -1 if the header is not complete **/
+	private int end = -1;
+
+	/** Was the request line found **/
+	private boolean requestLineFound;
+	/** Does the request line consist of the method, target and version **/
+	private boolean requestLineValid;
+	/** Bounds of the method **/
+	private int methodStart, methodEnd;
+	/** Bounds of the request target **/
+	private int targetStart, targetEnd;
+	/** Bounds of the version **/
+	private int versionStart, versionEnd;
+
+	/** Name start, name end, value start and value end of each header **/
+	private int[] headers = new int[16 * HEADER_FIELDS];
+	/** Number of headers **/
+	private int headerCount;
+
+	/** Path of the request target, created on first use **/
+	private String path;
+
+	/**
+	 * Prepares the parser for a new request starting at the provided position of the
+	 * buffer
+	 * @param data - buffer holding the request
+	 * @param start - position of the first byte of the request
+	 */
+	public void reset(byte[] data, int start) {
+		this.data = data;
+		this.start = start;
+		this.position = start;
+		this.lineStart = start;
+		this.end = -1;
+		this.requestLineFound = false;
+		this.requestLineValid = false;
+		this.headerCount = 0;
+		this.path = null;
+	}
+
+	/**
+	 * Continues parsing with the bytes of the buffer up to the provided position. Bytes
+	 * already scanned are not scanned again.
+	 * @param limit - position after the last byte available in the buffer
+	 * @return true if the header is complete, else false
+	 */
+	public boolean parse(int limit) {
+		if (end != -1) return true;
+		for (; position < limit; ++position) {
+			if (data[position] != '\n') continue;
+
+			int lineEnd = position;
+			if (lineEnd > lineStart && data[lineEnd - 1] == '\r') lineEnd--;
+			int nextLine = position + 1;
+
+			if (lineEnd == lineStart) {
+				if (requestLineFound) {
+					end = nextLine;
+					position = nextLine;
+					return true;
+				}
+			} else if (!requestLineFound) {
+				parseRequestLine(lineStart, lineEnd);
+			} else {
+				parseHeaderLine(lineStart, lineEnd);
+			}
+			lineStart = nextLine;
+		}
+		return false;
+	}
+
+	/**
+	 * Records the parts of the request line
+	 * @param from - start of the line
+	 * @param to - end of the line, without the line terminator
+	 */
+	private void parseRequestLine(int from, int to) {
+		requestLineFound = true;
+		int firstSpace = indexOf(' ', from, to);
+		int secondSpace = firstSpace == -1 ? -1 : indexOf(' ', firstSpace + 1, to);
+		if (secondSpace == -1 || indexOf(' ', secondSpace + 1, to) != -1) return;
+
+		methodStart = from;
+		methodEnd = firstSpace;
+		targetStart = firstSpace + 1;
+		targetEnd = secondSpace;
+		versionStart = secondSpace + 1;
+		versionEnd = to;
+		requestLineValid = methodEnd > methodStart && targetEnd > targetStart && versionEnd > versionStart;
+	}
+
+	/**
+	 * Records the name and value of the header line, or extends the previous header if
+	 * the line continues it. Lines without a colon are ignored.
+	 * @param from - start of the line
+	 * @param to - end of the line, without the line terminator
+	 */
+	private void parseHeaderLine(int from, int to) {
+		if (data[from] == ' ' || data[from] == '\t') {
+			if (headerCount > 0) headers[(headerCount - 1) * HEADER_FIELDS + 3] = trimEnd(from, to);
+			return;
+		}
+
+		int colon = indexOf(':', from, to);
+		if (colon == -1) return;
+
+		if (headerCount * HEADER_FIELDS == headers.length) {
+			headers = Arrays.copyOf(headers, headers.length * 2);
+		}
+		int valueStart = colon + 1;
+		while (valueStart < to && (data[valueStart] == ' ' || data[valueStart] == '\t')) valueStart++;
+
+		int offset = headerCount++ * HEADER_FIELDS;
+		headers[offset] = from;
+		headers[offset + 1] = colon;
+		headers[offset + 2] = valueStart;
+		headers[offset + 3] = trimEnd(valueStart, to);
+	}
+
+	/**
+	 * Finds the end of the provided range without trailing spaces and tabs
+	 * @param from - start of the range
+	 * @param to - end of the range
+	 * @return end of the range without trailing whitespace
+	 */
+	private int trimEnd(int from, int to) {
+		while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) to--;
+		return to;
+	}
+
+	/**
+	 * Finds the first occurrence of the provided byte in the range
+	 * @param b - byte to find
+	 * @param from - start of the range
+	 * @param to - end of the range
+	 * @return position of the byte or -1 if range does not contain it
+	 */
+	private int indexOf(char b, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (data[i] == b) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the range of the buffer is equal to the provided text, ignoring case
+	 * @param from - start of the range
+	 * @param to - end of the range
+	 * @param text - text to compare with
+	 * @return true if the range is equal to the text, else false
+	 */
+	private boolean equalsIgnoreCase(int from, int to, String text) {
+		if (to - from != text.length()) return false;
+		for (int i = 0; i < text.length(); ++i) {
+			char a = (char) (data[from + i] & 0xFF);
+			char b = text.charAt(i);
+			if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a string from the range of the buffer. Folded header lines are joined
+	 * by leaving out the line terminators.
+	 * @param from - start of the range
+	 * @param to - end of the range
+	 * @return string from the range
+	 */
+	private String string(int from, int to) {
+		int terminator = from;
+		while (terminator < to && data[terminator] != '\r' && data[terminator] != '\n') terminator++;
+		if (terminator == to) return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+
+		StringBuilder sb = new StringBuilder(to - from);
+		for (int i = from; i < to; ++i) {
+			if (data[i] != '\r' && data[i] != '\n') sb.append((char) (data[i] & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets position after the end of the header
+	 * @return position after the end of the header, -1 if header is not complete
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Gets position of the first byte of the request
+	 * @return position of the first byte of the request
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Checks if the request line consists of the method, target and version separated
+	 * by single spaces
+	 * @return true if request line is valid, else false
+	 */
+	public boolean isRequestLineValid() {
+		return requestLineValid;
+	}
+
+	/**
+	 * Checks if the request method is equal to the provided one, ignoring case
+	 * @param method - method to compare with
+	 * @return true if the method is equal, else false
+	 */
+	public boolean isMethod(String method) {
+		return requestLineValid && equalsIgnoreCase(methodStart, methodEnd, method);
+	}
+
+	/**
+	 * Checks if the request version is equal to the provided one, ignoring case
+	 * @param version - version to compare with
+	 * @return true if the version is equal, else false
+	 */
+	public boolean isVersion(String version) {
+		return requestLineValid && equalsIgnoreCase(versionStart, versionEnd, version);
+	}
+
+	/**
+	 * Gets request method
+	 * @return request method
+	 */
+	public String getMethod() {
+		return requestLineValid ? string(methodStart, methodEnd) : null;
+	}
+
+	/**
+	 * Gets request target, including the query
+	 * @return request target
+	 */
+	public String getTarget() {
+		return requestLineValid ? string(targetStart, targetEnd) : null;
+	}
+
+	/**
+	 * Gets request version
+	 * @return request version
+	 */
+	public String getVersion() {
+		return requestLineValid ? string(versionStart, versionEnd) : null;
+	}
+
+	/**
+	 * Gets path of the request target, without the query and the fragment
+	 * @return request path
+	 */
+	public String getPath() {
+		if (!requestLineValid) return null;
+		if (path == null) path = string(targetStart, pathEnd());
+		return path;
+	}
+
+	/**
+	 * Gets query of the request target, without the leading <code>?</code>
+	 * @return query or null if the target has no query
+	 */
+	public String getQuery() {
+		if (!requestLineValid) return null;
+		int pathEnd = pathEnd();
+		if (pathEnd == targetEnd || data[pathEnd] != '?') return null;
+		int fragment = indexOf('#', pathEnd, targetEnd);
+		return string(pathEnd + 1, fragment == -1 ? targetEnd : fragment);
+	}
+
+	/**
+	 * Finds the end of the path in the request target
+	 * @return position of the first <code>?</code> or <code>#</code>, or the end of the target
+	 */
+	private int pathEnd() {
+		for (int i = targetStart; i < targetEnd; ++i) {
+			if (data[i] == '?' || data[i] == '#') return i;
+		}
+		return targetEnd;
+	}
+
+	/**
+	 * Gets number of headers
+	 * @return number of headers
+	 */
+	public int getHeaderCount() {
+		return headerCount;
+	}
+
+	/**
+	 * Gets name of the header at the provided index
+	 * @param index - index of the header
+	 * @return header name
+	 */
+	public String getHeaderName(int index) {
+		int offset = headerOffset(index);
+		return string(headers[offset], headers[offset + 1]);
+	}
+
+	/**
+	 * Gets value of the header at the provided index
+	 * @param index - index of the header
+	 * @return header value
+	 */
+	public String getHeaderValue(int index) {
+		int offset = headerOffset(index);
+		return string(headers[offset + 2], headers[offset + 3]);
+	}
+
+	/**
+	 * Checks the index and returns the position of the offsets of the header
+	 * @param index - index of the header
+	 * @return position of the header offsets
+	 */
+	private int headerOffset(int index) {
+		if (index < 0 || index >= headerCount) throw new IndexOutOfBoundsException("Invalid header index: " + index);
+		return index * HEADER_FIELDS;
+	}
+
+	/**
+	 * Finds the index of the first header with the provided name, ignoring case
+	 * @param name - header name
+	 * @return index of the header or -1 if there is no such header
+	 */
+	private int findHeader(String name) {
+		for (int i = 0; i < headerCount; ++i) {
+			int offset = i * HEADER_FIELDS;
+			if (equalsIgnoreCase(headers[offset], headers[offset + 1], name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets value of the first header with the provided name, ignoring case of the name
+	 * @param name - header name
+	 * @return header value or null if there is no such header
+	 */
+	public String getHeader(String name) {
+		int index = findHeader(name);
+		return index == -1 ? null : getHeaderValue(index);
+	}
+
+	/**
+	 * Checks if any header with the provided name contains the provided token in its
+	 * comma separated list of values, ignoring case
+	 * @param name - header name
+	 * @param token - token to find
+	 * @return true if the token is found, else false
+	 */
+	public boolean hasHeaderToken(String name, String token) {
+		for (int i = 0; i < headerCount; ++i) {
+			int offset = i * HEADER_FIELDS;
+			if (!equalsIgnoreCase(headers[offset], headers[offset + 1], name)) continue;
+
+			int to = headers[offset + 3];
+			int from = headers[offset + 2];
+			while (from < to) {
+				int comma = indexOf(',', from, to);
+				int tokenEnd = comma == -1 ? to : comma;
+				int tokenStart = from;
+				while (tokenStart < tokenEnd && isWhitespace(data[tokenStart])) tokenStart++;
+				int trimmedEnd = tokenEnd;
+				while (trimmedEnd > tokenStart && isWhitespace(data[trimmedEnd - 1])) trimmedEnd--;
+				if (equalsIgnoreCase(tokenStart, trimmedEnd, token)) return true;
+				from = tokenEnd + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the value of the cookie with the provided name in the <code>Cookie</code>
+	 * headers. Surrounding quotes of the value are removed. If the cookie is sent more
+	 * than once the last value is returned.
+	 * @param name - cookie name
+	 * @return cookie value or null if the request does not contain the cookie
+	 */
+	public String getCookie(String name) {
+		String value = null;
+		for (int i = 0; i < headerCount; ++i) {
+			int offset = i * HEADER_FIELDS;
+			if (!equalsIgnoreCase(headers[offset], headers[offset + 1], "Cookie")) continue;
+
+			int to = headers[offset + 3];
+			int from = headers[offset + 2];
+			while (from < to) {
+				int separator = from;
+				while (separator < to && data[separator] != ';' && data[separator] != ',') separator++;
+
+				int nameStart = from;
+				while (nameStart < separator && isWhitespace(data[nameStart])) nameStart++;
+				int equals = indexOf('=', nameStart, separator);
+				if (equals != -1) {
+					int nameEnd = equals;
+					while (nameEnd > nameStart && isWhitespace(data[nameEnd - 1])) nameEnd--;
+					if (nameEnd - nameStart == name.length() && regionEquals(nameStart, name)) {
+						int valueStart = equals + 1;
+						int valueEnd = separator;
+						while (valueStart < valueEnd && isWhitespace(data[valueStart])) valueStart++;
+						while (valueEnd > valueStart && isWhitespace(data[valueEnd - 1])) valueEnd--;
+						if (valueEnd - valueStart >= 2 && data[valueStart] == '"' && data[valueEnd - 1] == '"') {
+							valueStart++;
+							valueEnd--;
+						}
+						value = string(valueStart, valueEnd);
+					}
+				}
+				from = separator + 1;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Checks if the buffer starting at the provided position holds the provided text
+	 * @param from - start of the range
+	 * @param text - text to compare with
+	 * @return true if the buffer holds the text, else false
+	 */
+	private boolean regionEquals(int from, String text) {
+		for (int i = 0; i < text.length(); ++i) {
+			if ((data[from + i] & 0xFF) != text.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the byte is a space or a tab
+	 * @param b - byte to check
+	 * @return true if the byte is whitespace, else false
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+}
@@ -1,5 +1,8 @@
 package hr.fer.zemris.java.webserver;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * Processes a certain type of request creating content for the client.
  * @author ltomic
@@ -13,4 +16,31 @@ public interface IWebWorker {
 	 * @throws Exception
 	 */
 	public void processRequest(RequestContext context) throws Exception;
+
+	/**
+	 * Starts processing the request it represents in the provided {@link RequestContext}
+	 * and returns a stage completed when the response is written. Server thread is
+	 * released while the stage is incomplete, so workers waiting for something slow
+	 * should override this method and write to the context when the awaited result
+	 * arrives, from any thread. Context must not be used after the stage is completed,
+	 * nor from two threads at once. If the request timeout passes first the connection
+	 * is closed and the stage is ignored.
+	 * When the request is dispatched from another worker or a script the server waits
+	 * for the stage. Workers overriding this method can implement
+	 * {@link #processRequest(RequestContext)} by waiting for the stage as well.
+	 * By default the request is processed synchronously with
+	 * {@link #processRequest(RequestContext)}.
+	 * @param context - context to use
+	 * @return stage completed when the response is written, exceptionally if it fails
+	 */
+	public default CompletionStage<Void> processRequestAsync(RequestContext context) {
+		CompletableFuture<Void> response = new CompletableFuture<>();
+		try {
+			processRequest(context);
+			response.complete(null);
+		} catch (Exception ex) {
+			response.completeExceptionally(ex);
+		}
+		return response;
+	}
 }
@@ -0,0 +1,254 @@
+package hr.fer.zemris.java.webserver;
+
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Cache of encoded images generated by workers, bounded by the total number of cached
+ * bytes. Images are stored under a key describing everything the image depends on,
+ * like the worker and its parameters, and are rendered and encoded only when the key
+ * is not cached. When the cache is full the least recently used images are evicted.
+ * Every image carries an entity tag computed from its content, used for conditional
+ * requests.
+ * Image writers are expensive to look up, so they are kept in a pool per format and
+ * reused; images are encoded in memory, never through temporary files.
+ * Cache can be used concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public class ImageCache {
+
+	/** Maximum number of writers of a format kept for reuse **/
+	private static final int WRITER_POOL_CAPACITY = 16;
+	/** Writers released after encoding, by format **/
+	private static final Map<String, BlockingQueue<ImageWriter>> WRITER_POOLS = new ConcurrentHashMap<>();
+
+	/** Maximum number of cached bytes **/
+	private long capacity;
+	/** Cached images **/
+	private Map<String, CachedImage> images = new ConcurrentHashMap<>();
+	/** Number of cached bytes **/
+	private AtomicLong bytes = new AtomicLong();
+	/** Logical clock used to track image usage **/
+	private AtomicLong clock = new AtomicLong();
+
+	/** Number of images returned from the cache **/
+	private LongAdder hits = new LongAdder();
+	/** Number of images that had to be rendered **/
+	private LongAdder misses = new LongAdder();
+	/** Number of images evicted because the cache was full **/
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs an {@link ImageCache} holding at most <code>capacity</code> bytes
+	 * @param capacity - maximum number of cached bytes, 0 disables caching
+	 */
+	public ImageCache(long capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the image stored under the provided key, rendering and encoding it if it
+	 * is not cached. Image should depend only on the key.
+	 * @param key - key describing the image
+	 * @param format - informal name of the format, like <code>png</code>
+	 * @param renderer - renders the image
+	 * @return encoded image
+	 * @throws Exception if rendering or encoding fails
+	 */
+	public CachedImage get(String key, String format, Callable<? extends RenderedImage> renderer) throws Exception {
+		CachedImage cached = images.get(key);
+		if (cached != null && cached.format.equals(format)) {
+			hits.increment();
+			cached.lastUsed = clock.incrementAndGet();
+			return cached;
+		}
+
+		misses.increment();
+		cached = encode(renderer.call(), format);
+		if (cached.body.length > capacity) return cached;
+		cached.lastUsed = clock.incrementAndGet();
+
+		CachedImage previous = images.put(key, cached);
+		if (previous != null) bytes.addAndGet(-previous.body.length);
+		bytes.addAndGet(cached.body.length);
+		while (bytes.get() > capacity) {
+			evictLeastRecentlyUsed();
+		}
+		return cached;
+	}
+
+	/**
+	 * Removes the least recently used image from the cache
+	 */
+	private void evictLeastRecentlyUsed() {
+		Map.Entry<String, CachedImage> eldest = null;
+		for (Map.Entry<String, CachedImage> entry : images.entrySet()) {
+			if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+				eldest = entry;
+			}
+		}
+		if (eldest == null) {
+			bytes.set(0);
+		} else if (images.remove(eldest.getKey(), eldest.getValue())) {
+			bytes.addAndGet(-eldest.getValue().body.length);
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Encodes the image in the provided format with a pooled writer
+	 * @param image - image to encode
+	 * @param format - informal name of the format, like <code>png</code>
+	 * @return encoded image, not cached
+	 * @throws IOException if encoding fails
+	 * @throws IllegalArgumentException if there is no writer for the format
+	 */
+	public static CachedImage encode(RenderedImage image, String format) throws IOException {
+		BlockingQueue<ImageWriter> pool = WRITER_POOLS.computeIfAbsent(format,
+				f -> new ArrayBlockingQueue<>(WRITER_POOL_CAPACITY));
+		ImageWriter writer = pool.poll();
+		if (writer == null) {
+			Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+			if (!writers.hasNext()) throw new IllegalArgumentException("No writer for image format " + format);
+			writer = writers.next();
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ImageOutputStream output = new MemoryCacheImageOutputStream(bos)) {
+			writer.setOutput(output);
+			writer.write(image);
+		} finally {
+			writer.reset();
+			if (!pool.offer(writer)) writer.dispose();
+		}
+		return new CachedImage(format, bos.toByteArray());
+	}
+
+	/**
+	 * Removes all images from the cache
+	 */
+	public void clear() {
+		images.clear();
+		bytes.set(0);
+	}
+
+	/**
+	 * Gets number of cached images
+	 * @return number of cached images
+	 */
+	public int size() {
+		return images.size();
+	}
+
+	/**
+	 * Gets number of cached bytes
+	 * @return number of cached bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Gets number of images returned from the cache
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets number of images that had to be rendered
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets number of images evicted because the cache was full
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Encoded image with its entity tag
+	 * @author ltomic
+	 *
+	 */
+	public static class CachedImage {
+
+		/** Informal name of the format **/
+		private String format;
+		/** Encoded image **/
+		private byte[] body;
+		/** Entity tag computed from the encoded image **/
+		private String eTag;
+		/** Logical time of the last use **/
+		private volatile long lastUsed;
+
+		/**
+		 * Constructs a {@link CachedImage} with provided arguments
+		 * @param format - informal name of the format
+		 * @param body - encoded image
+		 */
+		private CachedImage(String format, byte[] body) {
+			this.format = format;
+			this.body = body;
+			CRC32 crc = new CRC32();
+			crc.update(body, 0, body.length);
+			this.eTag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+		}
+
+		/**
+		 * Checks if the client already has this image
+		 * @param ifNoneMatch - value of the <code>If-None-Match</code> header, may be null
+		 * @return true if the client has this image, else false
+		 */
+		public boolean isNotModified(String ifNoneMatch) {
+			return StaticFileCache.matchesETag(ifNoneMatch, eTag);
+		}
+
+		/**
+		 * Gets mime type of the image
+		 * @return mime type
+		 */
+		public String getMimeType() {
+			return "image/" + format;
+		}
+
+		/**
+		 * Gets encoded image
+		 * @return encoded image
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets entity tag of the image
+		 * @return entity tag
+		 */
+		public String getETag() {
+			return eTag;
+		}
+	}
+}
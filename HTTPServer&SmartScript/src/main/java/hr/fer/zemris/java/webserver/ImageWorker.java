@@ -0,0 +1,77 @@
+package hr.fer.zemris.java.webserver;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.TreeMap;
+
+import hr.fer.zemris.java.webserver.ImageCache.CachedImage;
+
+/**
+ * Base of the workers responding with a generated image. Subclass only renders the
+ * image; it is encoded, cached in the server {@link ImageCache} under the worker class
+ * and {@link #cacheKey(RequestContext)}, and sent with its mime type and entity tag.
+ * Request whose <code>If-None-Match</code> header lists the entity tag is answered with
+ * 304 without a body.
+ * @author ltomic
+ *
+ */
+public abstract class ImageWorker implements IWebWorker {
+
+	/** Format of the images if not overridden **/
+	public static final String DEFAULT_FORMAT = "png";
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		String key = cacheKey(context);
+		ImageCache cache = context.getImageCache();
+		CachedImage image;
+		if (key == null || cache == null) {
+			image = ImageCache.encode(render(context), getFormat());
+		} else {
+			image = cache.get(getClass().getName() + "?" + key, getFormat(), () -> render(context));
+		}
+
+		context.setMimeType(image.getMimeType());
+		context.addHeader("ETag", image.getETag());
+		context.addHeader("Cache-Control", "no-cache");
+		if (image.isNotModified(context.getHeader("If-None-Match"))) {
+			context.setStatusCode(304);
+			context.setStatusText("Not Modified");
+			context.setContentLength((long) image.getBody().length);
+			return;
+		}
+		context.setContentLength((long) image.getBody().length);
+		context.write(image.getBody());
+	}
+
+	/**
+	 * Renders the image for the request
+	 * @param context - context of the request
+	 * @return rendered image
+	 * @throws Exception if rendering fails
+	 */
+	protected abstract BufferedImage render(RequestContext context) throws Exception;
+
+	/**
+	 * Returns a key describing everything the image depends on besides the worker. By
+	 * default the image depends on the request parameters, sorted by name.
+	 * @param context - context of the request
+	 * @return key of the image, null if the image should not be cached
+	 */
+	protected String cacheKey(RequestContext context) {
+		Map<String, String> parameters = new TreeMap<>();
+		for (String name : context.getParameterNames()) {
+			parameters.put(name, context.getParameter(name));
+		}
+		return parameters.toString();
+	}
+
+	/**
+	 * Returns informal name of the format the images are encoded in, like
+	 * <code>png</code>
+	 * @return image format
+	 */
+	protected String getFormat() {
+		return DEFAULT_FORMAT;
+	}
+}
@@ -0,0 +1,181 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Session store keeping sessions in a {@link ConcurrentHashMap}, so lookups of
+ * different sessions do not contend and renewals only update the session itself.
+ * Expired sessions are removed incrementally by a hashed timing wheel: each session
+ * is placed in the slot of the second in which it expires and {@link #expire(long)}
+ * only visits the slots of the seconds that have passed since its last call. Sessions
+ * renewed in the meantime are moved to the slot of their new expiry time when
+ * visited.
+ * @author ltomic
+ *
+ */
+public class InMemorySessionStore implements SessionStore {
+
+	/** Default number of slots of the timing wheel **/
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+	/** Length of the generated session IDs **/
+	private static final int SID_LENGTH = 20;
+
+	/** Stored sessions **/
+	private Map<String, SessionMapEntry> sessions = new ConcurrentHashMap<>();
+	/** Slots of the timing wheel, one for each second modulo the wheel size **/
+	private Queue<SessionMapEntry>[] wheel;
+	/** Duration of the sessions in seconds **/
+	private long timeout;
+	/** Last second processed by {@link #expire(long)} **/
+	private long lastExpired = -1;
+
+	/**
+	 * Constructs an {@link InMemorySessionStore} with sessions lasting for the provided
+	 * number of seconds
+	 * @param timeout - duration of the sessions in seconds
+	 */
+	public InMemorySessionStore(long timeout) {
+		this(timeout, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Constructs an {@link InMemorySessionStore} with the timing wheel of the provided size
+	 * @param timeout - duration of the sessions in seconds
+	 * @param wheelSize - number of slots of the timing wheel
+	 */
+	public InMemorySessionStore(long timeout, int wheelSize) {
+		if (timeout < 0) throw new IllegalArgumentException("Timeout cannot be negative");
+		if (wheelSize < 1) throw new IllegalArgumentException("Wheel size must be positive");
+		this.timeout = timeout;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Queue<SessionMapEntry>[] slots = new Queue[wheelSize];
+		for (int i = 0; i < wheelSize; ++i) {
+			slots[i] = new ConcurrentLinkedQueue<>();
+		}
+		this.wheel = slots;
+	}
+
+	/**
+	 * Returns the session with the provided ID belonging to the provided host and
+	 * renews it. Expired sessions are removed.
+	 * @param sid - session ID
+	 * @param host - host of the client
+	 * @param now - current time in seconds
+	 * @return session or null if there is no valid session with the ID for the host
+	 */
+	@Override
+	public SessionMapEntry get(String sid, String host, long now) {
+		SessionMapEntry session = sessions.get(sid);
+		if (session == null || !host.equals(session.getHost())) return null;
+
+		if (!session.renew(now, timeout)) {
+			sessions.remove(sid, session);
+			return null;
+		}
+		return session;
+	}
+
+	/**
+	 * Creates a new session for the provided host
+	 * @param host - host of the client
+	 * @param now - current time in seconds
+	 * @return new session
+	 */
+	@Override
+	public SessionMapEntry create(String host, long now) {
+		Objects.requireNonNull(host, "host cannot be null");
+		while (true) {
+			SessionMapEntry session = new SessionMapEntry(generateSid(), host, now + timeout);
+			if (sessions.putIfAbsent(session.getSid(), session) == null) {
+				schedule(session);
+				return session;
+			}
+		}
+	}
+
+	/**
+	 * Adds an existing session, for example one loaded from a persistent storage.
+	 * Session replaces a stored session with the same ID.
+	 * @param session - session to add
+	 */
+	void restore(SessionMapEntry session) {
+		sessions.put(session.getSid(), session);
+		schedule(session);
+	}
+
+	/**
+	 * Gets the stored sessions. Returned collection reflects later changes of the store.
+	 * @return stored sessions
+	 */
+	Collection<SessionMapEntry> sessions() {
+		return sessions.values();
+	}
+
+	/**
+	 * Generates a new session ID
+	 * @return session ID
+	 */
+	private static String generateSid() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		StringBuilder sidBuilder = new StringBuilder();
+		for (int i = 0; i < SID_LENGTH; ++i) {
+			sidBuilder.append((char) ('A' + random.nextInt(26)));
+		}
+		return sidBuilder.toString();
+	}
+
+	/**
+	 * Places the session in the slot of the second after its expiry time
+	 * @param session - session to place
+	 */
+	private void schedule(SessionMapEntry session) {
+		int slot = Math.floorMod(session.getValidUntil() + 1, wheel.length);
+		wheel[slot].add(session);
+	}
+
+	/**
+	 * Removes sessions expired before the provided time. Only slots of the seconds
+	 * passed since the previous call are visited.
+	 * @param now - current time in seconds
+	 * @return number of removed sessions
+	 */
+	@Override
+	public synchronized int expire(long now) {
+		long from = lastExpired < 0 ? now : lastExpired + 1;
+		from = Math.max(from, now - wheel.length + 1);
+		lastExpired = now;
+
+		int removed = 0;
+		for (long second = from; second <= now; ++second) {
+			int slot = Math.floorMod(second, wheel.length);
+			Queue<SessionMapEntry> due = wheel[slot];
+			// sessions added after the marker belong to the next revolution of the wheel
+			SessionMapEntry marker = new SessionMapEntry(null, null, 0, null);
+			due.add(marker);
+			for (SessionMapEntry session = due.poll(); session != marker; session = due.poll()) {
+				if (sessions.get(session.getSid()) != session) continue;
+				if (session.isExpired(now)) {
+					if (sessions.remove(session.getSid(), session)) removed++;
+				} else {
+					schedule(session);
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets number of stored sessions
+	 * @return number of stored sessions
+	 */
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+}
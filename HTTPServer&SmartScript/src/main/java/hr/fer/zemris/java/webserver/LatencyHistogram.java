@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets, in the manner of
+ * HdrHistogram. Values below 32 have a bucket each, larger values are split into
+ * powers of two and every power of two into 16 buckets of equal width, so any
+ * recorded value is reported with an error below 1/16 of it while the histogram
+ * keeps a fixed number of counters. Recording is lock-free and can be done
+ * concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public class LatencyHistogram {
+
+	/** Number of bits of a value kept exactly **/
+	private static final int SUB_BUCKET_BITS = 4;
+	/** Number of buckets every power of two is split into **/
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Largest value told apart, larger values are counted as this one (about 19 hours) **/
+	public static final long MAX_VALUE = (1L << 36) - 1;
+	/** Number of buckets **/
+	private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+	/** Number of values in each bucket **/
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/** Number of recorded values **/
+	private LongAdder count = new LongAdder();
+	/** Sum of recorded values **/
+	private LongAdder sum = new LongAdder();
+	/** Largest recorded value **/
+	private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a latency
+	 * @param nanos - latency in nanoseconds
+	 */
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+
+	/**
+	 * Records a latency
+	 * @param micros - latency in microseconds
+	 */
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		if (micros > MAX_VALUE) micros = MAX_VALUE;
+		counts.incrementAndGet(bucketIndex(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+
+	/**
+	 * Finds the value at the provided quantile, like 0.99 for the 99th percentile.
+	 * Reported value is the largest value of the bucket holding it, but never larger
+	 * than the largest recorded value.
+	 * @param quantile - quantile between 0 and 1
+	 * @return value at the quantile in microseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("Quantile must be between 0 and 1");
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(bucketUpperBound(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets number of recorded values
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets sum of recorded values
+	 * @return sum of recorded values in microseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Gets largest recorded value
+	 * @return largest recorded value in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Finds the bucket of the provided value
+	 * @param value - value between 0 and {@link #MAX_VALUE}
+	 * @return index of the bucket
+	 */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		// value shifted right keeps its top SUB_BUCKET_BITS + 1 bits, between 16 and 31
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Finds the largest value counted in the provided bucket
+	 * @param index - index of the bucket
+	 * @return largest value of the bucket
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < 2 * SUB_BUCKETS) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index - shift * SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,313 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming parser of <code>multipart/form-data</code> bodies. Parts are read one by
+ * one; headers of the current part are available after {@link #nextPart()} and its
+ * content is copied to the provided stream by {@link #readPart(OutputStream, long)},
+ * so content of any size passes through a buffer of fixed size.
+ * @author ltomic
+ *
+ */
+public class MultipartParser {
+
+	/** Size of the read buffer **/
+	private static final int BUFFER_SIZE = 16 * 1024;
+	/** Maximum length of a part header line **/
+	private static final int MAX_LINE_LENGTH = 4096;
+	/** Message issued when the body is not valid **/
+	private static final String INVALID_BODY_MESSAGE = "Invalid multipart body";
+	/** Stream discarding skipped content **/
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	/** Body being parsed **/
+	private InputStream input;
+	/** Line end and dashes followed by the boundary, separating the parts **/
+	private byte[] delimiter;
+	/** Read buffer **/
+	private byte[] buffer;
+	/** Position of the next unread byte, two bytes are kept free in front of it **/
+	private int position = 2;
+	/** Position after the last byte read **/
+	private int limit = 2;
+	/** Has the body ended **/
+	private boolean eof;
+
+	/** Was the first delimiter found **/
+	private boolean started;
+	/** Was the last delimiter found **/
+	private boolean finished;
+	/** Was the content of the current part read **/
+	private boolean partRead = true;
+
+	/** Name of the current part **/
+	private String name;
+	/** File name of the current part, null if it is not a file **/
+	private String fileName;
+	/** Content type of the current part, null if not provided **/
+	private String contentType;
+
+	/**
+	 * Constructs a {@link MultipartParser} for the provided body
+	 * @param input - body to parse
+	 * @param boundary - boundary from the <code>Content-Type</code> header
+	 */
+	public MultipartParser(InputStream input, String boundary) {
+		if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+			throw new IllegalArgumentException("Invalid multipart boundary: " + boundary);
+		}
+		this.input = input;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.buffer = new byte[Math.max(BUFFER_SIZE, 2 * delimiter.length)];
+	}
+
+	/**
+	 * Extracts the boundary from the value of the <code>Content-Type</code> header
+	 * @param contentType - value of the header
+	 * @return boundary or null if the header does not contain it
+	 */
+	public static String boundary(String contentType) {
+		return headerParameter(contentType, "boundary");
+	}
+
+	/**
+	 * Moves to the next part, skipping the content of the current one if it was not
+	 * read, and reads its headers
+	 * @return false if there are no more parts, else true
+	 * @throws IOException if the body is not valid or reading fails
+	 */
+	public boolean nextPart() throws IOException {
+		if (finished) return false;
+		if (!started) {
+			// first delimiter is not preceded by a line end
+			if (!fillTo(delimiter.length - 2)) throw new IOException(INVALID_BODY_MESSAGE);
+			position -= 2;
+			buffer[position] = '\r';
+			buffer[position + 1] = '\n';
+			skipPart();
+			started = true;
+		} else if (!partRead) {
+			skipPart();
+		}
+
+		if (!fillTo(2)) throw new IOException(INVALID_BODY_MESSAGE);
+		if (buffer[position] == '-' && buffer[position + 1] == '-') {
+			finished = true;
+			return false;
+		}
+		readLine();
+
+		name = null;
+		fileName = null;
+		contentType = null;
+		String line;
+		while (!(line = readLine()).isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon == -1) continue;
+			String header = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			if (header.equalsIgnoreCase("Content-Disposition")) {
+				name = headerParameter(value, "name");
+				fileName = headerParameter(value, "filename");
+			} else if (header.equalsIgnoreCase("Content-Type")) {
+				contentType = value;
+			}
+		}
+		if (name == null) throw new IOException(INVALID_BODY_MESSAGE);
+		partRead = false;
+		return true;
+	}
+
+	/**
+	 * Copies the content of the current part to the provided stream
+	 * @param out - stream receiving the content
+	 * @param maxLength - maximum length of the content
+	 * @return length of the content
+	 * @throws IOException if the content is longer than allowed, the body is not valid
+	 * or reading fails
+	 */
+	public long readPart(OutputStream out, long maxLength) throws IOException {
+		if (partRead) throw new IllegalStateException("Part already read");
+		long length = 0;
+		while (true) {
+			fillTo(delimiter.length);
+			int found = indexOfDelimiter();
+			int end = found != -1 ? found : Math.max(position, limit - delimiter.length + 1);
+			if (found == -1 && eof) throw new IOException(INVALID_BODY_MESSAGE);
+
+			length += end - position;
+			if (length > maxLength) throw new PartTooLargeException();
+			out.write(buffer, position, end - position);
+			position = end;
+
+			if (found != -1) {
+				position += delimiter.length;
+				partRead = true;
+				return length;
+			}
+			compactAndFill();
+		}
+	}
+
+	/**
+	 * Skips the content of the current part
+	 * @throws IOException if the body is not valid or reading fails
+	 */
+	private void skipPart() throws IOException {
+		partRead = false;
+		readPart(DISCARD, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Finds the delimiter in the unread part of the buffer
+	 * @return position of the delimiter or -1 if the buffer does not contain it
+	 */
+	private int indexOfDelimiter() {
+		int last = limit - delimiter.length;
+		outer: for (int i = position; i <= last; ++i) {
+			for (int j = 0; j < delimiter.length; ++j) {
+				if (buffer[i + j] != delimiter[j]) continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads until the buffer holds at least the provided number of unread bytes
+	 * @param count - number of bytes needed
+	 * @return false if the body ended first, else true
+	 * @throws IOException
+	 */
+	private boolean fillTo(int count) throws IOException {
+		while (limit - position < count) {
+			if (eof) return false;
+			compactAndFill();
+		}
+		return true;
+	}
+
+	/**
+	 * Moves unread bytes to the beginning of the buffer and reads more bytes after them
+	 * @throws IOException
+	 */
+	private void compactAndFill() throws IOException {
+		if (eof) return;
+		// two bytes are kept in front for the line end added before the first delimiter
+		int start = Math.min(2, position);
+		System.arraycopy(buffer, position, buffer, start, limit - position);
+		limit = start + limit - position;
+		position = start;
+		int r = input.read(buffer, limit, buffer.length - limit);
+		if (r == -1) {
+			eof = true;
+		} else {
+			limit += r;
+		}
+	}
+
+	/**
+	 * Reads a line of the part headers, without the line end
+	 * @return line read
+	 * @throws IOException if the body ends or the line is too long
+	 */
+	private String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (!fillTo(1)) throw new IOException(INVALID_BODY_MESSAGE);
+			byte b = buffer[position++];
+			if (b == '\n') break;
+			if (b != '\r') sb.append((char) (b & 0xFF));
+			if (sb.length() > MAX_LINE_LENGTH) throw new IOException(INVALID_BODY_MESSAGE);
+		}
+		return new String(sb.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Extracts the value of the parameter from a header value like
+	 * <code>form-data; name="file"; filename="a.txt"</code>
+	 * @param header - header value
+	 * @param parameter - parameter name
+	 * @return parameter value without quotes or null if the header does not contain it
+	 */
+	private static String headerParameter(String header, String parameter) {
+		if (header == null) return null;
+		int i = header.indexOf(';');
+		while (i != -1 && i < header.length()) {
+			int equals = header.indexOf('=', i + 1);
+			if (equals == -1) return null;
+			String name = header.substring(i + 1, equals).trim();
+
+			int start = equals + 1;
+			while (start < header.length() && header.charAt(start) == ' ') start++;
+			String value;
+			int next;
+			if (start < header.length() && header.charAt(start) == '"') {
+				int end = header.indexOf('"', start + 1);
+				if (end == -1) end = header.length();
+				value = header.substring(start + 1, end);
+				next = header.indexOf(';', end);
+			} else {
+				next = header.indexOf(';', start);
+				value = header.substring(start, next == -1 ? header.length() : next).trim();
+			}
+			if (name.equalsIgnoreCase(parameter)) return value;
+			i = next;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets name of the current part
+	 * @return name of the current part
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets file name of the current part
+	 * @return file name or null if the part is not a file
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Gets content type of the current part
+	 * @return content type or null if not provided
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Thrown when the content of a part is longer than allowed
+	 * @author ltomic
+	 *
+	 */
+	public static class PartTooLargeException extends IOException {
+
+		/** Serial version UID **/
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructs a {@link PartTooLargeException}
+		 */
+		public PartTooLargeException() {
+			super("Multipart part too large");
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Body of a request, read from the connection as it is consumed. Body length is
+ * either given by the <code>Content-Length</code> header or the body is sent in
+ * chunks (<code>Transfer-Encoding: chunked</code>), in which case chunk sizes and
+ * trailers are removed from the returned bytes. Body is never read past its end, so
+ * the connection can be used for the next request once the body is consumed.
+ * Closing the body does not close the connection.
+ * @author ltomic
+ *
+ */
+public class RequestBody extends InputStream {
+
+	/** Message issued when the chunk framing is not valid **/
+	private static final String INVALID_CHUNK_MESSAGE = "Invalid chunk in request body";
+	/** Maximum length of a chunk size line or a trailer line **/
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	/** Connection the body is read from **/
+	private InputStream input;
+	/** Is the body sent in chunks **/
+	private boolean chunked;
+	/** Length of the body, -1 if sent in chunks **/
+	private long length;
+	/** Maximum number of bytes of a chunked body **/
+	private long maxLength;
+	/** Bytes left in the body or the current chunk **/
+	private long remaining;
+	/** Number of bytes of the body read so far **/
+	private long read;
+	/** Was the whole body read **/
+	private boolean finished;
+
+	/**
+	 * Constructs a {@link RequestBody} with provided arguments
+	 * @param input - connection the body is read from
+	 * @param chunked - is the body sent in chunks
+	 * @param length - length of the body, ignored if chunked
+	 * @param maxLength - maximum number of bytes of a chunked body
+	 */
+	private RequestBody(InputStream input, boolean chunked, long length, long maxLength) {
+		this.input = input;
+		this.chunked = chunked;
+		this.length = chunked ? -1 : length;
+		this.maxLength = maxLength;
+		this.remaining = chunked ? 0 : length;
+		this.finished = !chunked && length == 0;
+	}
+
+	/**
+	 * Creates a body of the provided length
+	 * @param input - connection the body is read from
+	 * @param length - length of the body
+	 * @return request body
+	 */
+	public static RequestBody ofLength(InputStream input, long length) {
+		if (length < 0) throw new IllegalArgumentException("Body length cannot be negative");
+		return new RequestBody(input, false, length, length);
+	}
+
+	/**
+	 * Creates a body sent in chunks
+	 * @param input - connection the body is read from
+	 * @param maxLength - maximum number of bytes of the body
+	 * @return request body
+	 */
+	public static RequestBody chunked(InputStream input, long maxLength) {
+		return new RequestBody(input, true, -1, maxLength);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!prepare()) return -1;
+		int b = input.read();
+		if (b == -1) throw new IOException("Request body ended prematurely");
+		consumed(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (!prepare()) return -1;
+		int r = input.read(b, off, (int) Math.min(len, remaining));
+		if (r == -1) throw new IOException("Request body ended prematurely");
+		consumed(r);
+		return r;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		byte[] scratch = new byte[(int) Math.min(8192, Math.max(1, n))];
+		while (skipped < n) {
+			int r = read(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+			if (r == -1) break;
+			skipped += r;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (finished) return 0;
+		return (int) Math.min(input.available(), remaining);
+	}
+
+	/**
+	 * Reads and discards the rest of the body if it is not longer than the limit
+	 * @param limit - maximum number of bytes to discard
+	 * @return true if the whole body was read, else false
+	 * @throws IOException
+	 */
+	public boolean drain(long limit) throws IOException {
+		if (finished) return true;
+		if (!chunked && remaining > limit) return false;
+		skip(limit);
+		return finished || (!chunked && remaining == 0) || !prepare();
+	}
+
+	/**
+	 * Checks if the whole body was read
+	 * @return true if the whole body was read, else false
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Gets length of the body
+	 * @return length of the body, -1 if the body is sent in chunks
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Makes sure there are bytes left in the body, reading the next chunk size if the
+	 * current chunk is consumed
+	 * @return false if the body was read to the end, else true
+	 * @throws IOException if the chunk framing is not valid
+	 */
+	private boolean prepare() throws IOException {
+		if (finished) return false;
+		if (remaining > 0) return true;
+		if (!chunked) {
+			finished = true;
+			return false;
+		}
+
+		if (read > 0) {
+			// data of the previous chunk is followed by a line end
+			if (!readLine().isEmpty()) throw new IOException(INVALID_CHUNK_MESSAGE);
+		}
+		String sizeLine = readLine();
+		int extension = sizeLine.indexOf(';');
+		if (extension != -1) sizeLine = sizeLine.substring(0, extension);
+		try {
+			remaining = Long.parseLong(sizeLine.trim(), 16);
+		} catch (NumberFormatException ex) {
+			throw new IOException(INVALID_CHUNK_MESSAGE);
+		}
+		if (remaining < 0) throw new IOException(INVALID_CHUNK_MESSAGE);
+		if (remaining > maxLength - read) throw new IOException("Request body too large");
+
+		if (remaining == 0) {
+			while (!readLine().isEmpty()) {
+				// trailers are ignored
+			}
+			finished = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the provided number of bytes as read
+	 * @param count - number of bytes read
+	 */
+	private void consumed(long count) {
+		remaining -= count;
+		read += count;
+		if (!chunked && remaining == 0) finished = true;
+	}
+
+	/**
+	 * Reads a line of the chunk framing, without the line end
+	 * @return line read
+	 * @throws IOException if the body ends or the line is too long
+	 */
+	private String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			int b = input.read();
+			if (b == -1) throw new IOException("Request body ended prematurely");
+			if (b == '\n') break;
+			if (b != '\r') sb.append((char) b);
+			if (sb.length() > MAX_LINE_LENGTH) throw new IOException(INVALID_CHUNK_MESSAGE);
+		}
+		return sb.toString();
+	}
+}
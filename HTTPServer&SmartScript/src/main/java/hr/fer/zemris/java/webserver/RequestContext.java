@@ -1,9 +1,17 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,11 +19,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
 
 /**
  * Holds information about the response it provides to the request issuer. Generates
  * the appropriate header describing the message it will transmit to the receiver, but
- * does not generate the message itself.
+ * does not generate the message itself. Message is buffered and sent when the buffer
+ * is full or the response is finished by {@link #finish()}. If compression is set and
+ * the client accepts it, messages of compressible types are compressed as they are
+ * sent.
  * @author ltomic
  *
  */
@@ -24,9 +41,42 @@ public class RequestContext {
 	/** Message issued when it is tried to change the properties defining the header
 	 * of the message when the header is already generated */
 	private static final String HEADER_ALREADY_GENERATED_MESSAGE = "Cannot change header properties. Header already generated";
+	/** Message issued when it is tried to write after the response is finished **/
+	private static final String RESPONSE_FINISHED_MESSAGE = "Cannot write. Response already finished";
+
+	/** Size of the buffer holding the message before it is sent **/
+	private static final int BUFFER_SIZE = 8192;
+	/** Space reserved in front of the buffered message for the header and chunk size **/
+	private static final int BUFFER_HEAD_ROOM = 1024;
+	/** Space reserved after the buffered message for the chunk end and the last chunk **/
+	private static final int BUFFER_TAIL_ROOM = 7;
+	/** Maximum number of buffers kept for reuse **/
+	private static final int BUFFER_POOL_CAPACITY = 256;
+	/** Buffers released by finished responses **/
+	private static final BlockingQueue<byte[]> BUFFER_POOL = new ArrayBlockingQueue<>(BUFFER_POOL_CAPACITY);
+
+	/** Digits of the chunk size **/
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	/** Line end **/
+	private static final byte[] CRLF = { '\r', '\n' };
+	/** Chunk marking the end of the chunked message **/
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	/** Header of the gzip stream: magic, deflate method, no flags, time or extra flags, unknown OS **/
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	/** Header of the zlib stream: deflate with 32K window, default level **/
+	private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+	/** Size of the checksum and length following the compressed data **/
+	private static final int TRAILER_SIZE = 8;
+	/** Maximum number of deflaters kept for reuse **/
+	private static final int DEFLATER_POOL_CAPACITY = 64;
+	/** Deflaters released by finished responses **/
+	private static final BlockingQueue<Deflater> DEFLATER_POOL = new ArrayBlockingQueue<>(DEFLATER_POOL_CAPACITY);
 
 	/** Output stream to the request issuer **/
 	private OutputStream outputStream;
+	/** Channel to the request issuer used for sending files, may be null **/
+	private WritableByteChannel channel;
 	/** Charset used **/
 	private Charset charset;
 
@@ -45,6 +95,48 @@ public class RequestContext {
 
 	/** Header generated flag **/
 	private boolean headerGenerated = false;
+	/** Should the connection stay open after this response **/
+	private boolean keepAlive = false;
+	/** Can chunked transfer encoding be used when the message length is not known **/
+	private boolean chunkedAllowed = false;
+	/** Is the message sent using chunked transfer encoding **/
+	private boolean chunked = false;
+	/** Header sent flag **/
+	private boolean headerSent = false;
+	/** Response finished flag **/
+	private boolean finished = false;
+
+	/** Buffer holding the message not yet sent, with space reserved around it **/
+	private byte[] buffer;
+	/** Number of message bytes in the buffer **/
+	private int buffered;
+
+	/** Compression settings, null if the message is never compressed **/
+	private CompressionPolicy compression;
+	/** Content coding accepted by the client, null if none **/
+	private String acceptedCoding;
+	/** Was it decided whether the message is compressed **/
+	private boolean compressionDecided;
+	/** Deflater compressing the message, null if it is not compressed **/
+	private Deflater deflater;
+	/** Checksum of the uncompressed message **/
+	private Checksum checksum;
+	/** Buffer holding the compressed message not yet sent, laid out like the message buffer **/
+	private byte[] compressed;
+	/** Number of compressed bytes in the buffer **/
+	private int compressedLength;
+	/** Number of bytes sent to the request issuer, including the header **/
+	private long bytesSent;
+	/** Statistics of the server, null if not served by a server **/
+	private ServerMetrics metrics;
+	/** Cache of images generated by workers, null if not served by a server **/
+	private ImageCache imageCache;
+	/** Cache of the output of script fragments, null if not served by a server **/
+	private FragmentCache fragmentCache;
+	/** Captures of the message, the most recently started last, null if none were started **/
+	private List<ByteArrayOutputStream> captures;
+	/** Parsed request, null if not served by a server **/
+	private HttpRequestParser request;
 
 	/** Properties saved **/
 	private Map<String, String> parameters = new HashMap<>();
@@ -54,6 +146,15 @@ public class RequestContext {
 	private Map<String, String> persistentParameters = new HashMap<>();
 	/** Cookies to output **/
 	private List<RCCookie> outputCookies = new ArrayList<>();
+	/** Additional header lines **/
+	private List<String> headers = new ArrayList<>();
+
+	/** Request method **/
+	private String method = "GET";
+	/** Request body, empty if the request has no body or it was decoded into parameters **/
+	private InputStream requestBody = new ByteArrayInputStream(new byte[0]);
+	/** Files uploaded with the request, stored by the form field name **/
+	private Map<String, UploadedFile> uploadedFiles = new HashMap<>();
 
 	/**
 	 * Generates {@link RequestContext} with provided arguments and temporary parameters
@@ -99,11 +200,7 @@ public class RequestContext {
 	 * @throws IOException
 	 */
 	public RequestContext write(byte[] data) throws IOException {
-		if (!headerGenerated) generateHeader();
-		outputStream.write(data);
-		outputStream.flush();
-
-		return this;
+		return write(data, 0, data.length);
 	}
 
 	/**
@@ -114,15 +211,15 @@ public class RequestContext {
 	 */
 	public RequestContext write(String text) throws IOException {
 		if (!headerGenerated) generateHeader();
-		outputStream.write(text.getBytes(charset));
-		outputStream.flush();
-
-		return this;
+		byte[] data = text.getBytes(charset);
+		return write(data, 0, data.length);
 	}
 
 	/**
 	 * Writes the provided bytes to the output stream with offset in the bytes array
-	 * and provided length to write
+	 * and provided length to write. Bytes are kept in a buffer and sent when the
+	 * buffer is full or when the response is finished, so a response written in many
+	 * small parts still reaches the client in few packets.
 	 * @param data - array of bytes used for output
 	 * @param offset - the start offset in data
 	 * @param len - number of bytes to write
@@ -130,16 +227,377 @@ public class RequestContext {
 	 * @throws IOException
 	 */
 	public RequestContext write(byte[] data, int offset, int len) throws IOException {
+		if (finished) throw new RuntimeException(RESPONSE_FINISHED_MESSAGE);
 		if (!headerGenerated) generateHeader();
-		outputStream.write(data, offset, len);
+		if (buffer == null) buffer = acquireBuffer();
+		capture(data, offset, len);
+
+		if (len > BUFFER_SIZE - buffered) {
+			writeBuffer(false);
+			if (len >= BUFFER_SIZE) {
+				if (deflater != null) {
+					deflate(data, offset, len, false, false);
+				} else {
+					writeUnbuffered(data, offset, len);
+				}
+				return this;
+			}
+		}
+		System.arraycopy(data, offset, buffer, BUFFER_HEAD_ROOM + buffered, len);
+		buffered += len;
+
+		return this;
+	}
+
+	/**
+	 * Writes <code>count</code> bytes of the provided file starting at the provided
+	 * position. Parts that fit in the buffer are sent together with the rest of the
+	 * message. Larger parts are, if the channel to the request issuer is set,
+	 * transferred directly from the file to the channel, so the operating system
+	 * can send them without copying the file through the heap.
+	 * @param file - file to write
+	 * @param position - position of the first byte to write
+	 * @param count - number of bytes to write
+	 * @return this context
+	 * @throws IOException
+	 */
+	public RequestContext write(FileChannel file, long position, long count) throws IOException {
+		if (finished) throw new RuntimeException(RESPONSE_FINISHED_MESSAGE);
+		if (!headerGenerated) generateHeader();
+		if (buffer == null) buffer = acquireBuffer();
+
+		long end = position + count;
+		// captured files have to pass through the buffer
+		boolean transfer = channel != null && captures == null && count > BUFFER_SIZE - buffered;
+		if (transfer) {
+			writeBuffer(false);
+			// compressed messages have to pass through the deflater
+			transfer = deflater == null;
+		}
+		if (!transfer) {
+			while (position < end) {
+				if (buffered == BUFFER_SIZE) writeBuffer(false);
+				int len = (int) Math.min(BUFFER_SIZE - buffered, end - position);
+				int r = file.read(ByteBuffer.wrap(buffer, BUFFER_HEAD_ROOM + buffered, len), position);
+				if (r < 0) throw new EOFException("File ended before " + end + " bytes");
+				capture(buffer, BUFFER_HEAD_ROOM + buffered, r);
+				buffered += r;
+				position += r;
+			}
+			return this;
+		}
+
+		if (chunked) send((Long.toHexString(count) + "\r\n").getBytes(HEADER_CHARSET));
 		outputStream.flush();
+		while (position < end) {
+			long transferred = file.transferTo(position, end - position, channel);
+			if (transferred == 0 && position >= file.size()) {
+				throw new EOFException("File ended before " + end + " bytes");
+			}
+			position += transferred;
+			bytesSent += transferred;
+		}
+		if (chunked) send(CRLF);
 
 		return this;
 	}
 
+	/**
+	 * Sends everything written so far to the client. If the length of the message
+	 * is not known the rest of the message is sent using chunked transfer encoding
+	 * or, if that is not allowed, by closing the connection.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (finished) return;
+		if (headerGenerated) {
+			if (buffer == null) buffer = acquireBuffer();
+			writeBuffer(false, true);
+		}
+		outputStream.flush();
+	}
+
+	/**
+	 * Finishes the response. Sends everything written so far and, if the whole
+	 * message fit in the buffer, marks it with its length. If nothing was written
+	 * generates a header for an empty message, so the client always gets a complete
+	 * response.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (finished) return;
+		if (!headerGenerated) generateHeader();
+		if (buffer == null) buffer = acquireBuffer();
+
+		try {
+			writeBuffer(true);
+			outputStream.flush();
+		} finally {
+			finished = true;
+			BUFFER_POOL.offer(buffer);
+			buffer = null;
+			if (deflater != null) {
+				deflater.reset();
+				if (!DEFLATER_POOL.offer(deflater)) deflater.end();
+				deflater = null;
+				BUFFER_POOL.offer(compressed);
+				compressed = null;
+			}
+		}
+	}
+
+	/**
+	 * Starts recording the message written from now on, until the matching call of
+	 * {@link #endCapture()}. Captures can be nested, each recording everything written
+	 * while it is active. Recorded is the message as written, before it is compressed.
+	 */
+	public void startCapture() {
+		if (captures == null) captures = new ArrayList<>(2);
+		captures.add(new ByteArrayOutputStream());
+	}
+
+	/**
+	 * Stops the most recently started capture
+	 * @return message written while the capture was active
+	 * @throws IllegalStateException if no capture is active
+	 */
+	public byte[] endCapture() {
+		if (captures == null) throw new IllegalStateException("No capture is active");
+		ByteArrayOutputStream capture = captures.remove(captures.size() - 1);
+		if (captures.isEmpty()) captures = null;
+		return capture.toByteArray();
+	}
+
+	/**
+	 * Records the written bytes in the active captures
+	 * @param data - written bytes
+	 * @param offset - the start offset in data
+	 * @param len - number of written bytes
+	 */
+	private void capture(byte[] data, int offset, int len) {
+		if (captures == null) return;
+		for (ByteArrayOutputStream capture : captures) {
+			capture.write(data, offset, len);
+		}
+	}
+
+	/**
+	 * Sends the buffered bytes, compressing them first if the message is compressed
+	 * @param last - is this the end of the message
+	 * @throws IOException
+	 */
+	private void writeBuffer(boolean last) throws IOException {
+		writeBuffer(last, false);
+	}
+
+	/**
+	 * Sends the buffered bytes, compressing them first if the message is compressed.
+	 * Compression of the message is decided when the buffer is written the first time.
+	 * @param last - is this the end of the message
+	 * @param flush - should compressed data written so far be sent as well
+	 * @throws IOException
+	 */
+	private void writeBuffer(boolean last, boolean flush) throws IOException {
+		if (!compressionDecided) {
+			compressionDecided = true;
+			startCompression(last);
+		}
+		if (deflater != null) {
+			deflate(buffer, BUFFER_HEAD_ROOM, buffered, last, flush);
+		} else {
+			sendBuffer(buffer, buffered, last);
+		}
+		buffered = 0;
+	}
+
+	/**
+	 * Starts compressing the message if compression is set, the client accepts it and
+	 * the message is of a compressible type and not too small
+	 * @param last - is the whole message in the buffer
+	 */
+	private void startCompression(boolean last) {
+		if (compression == null || contentLength != null || statusCode == 204 || statusCode == 304) return;
+		if (!compression.isCompressible(mimeType)) return;
+
+		headers.add("Vary: Accept-Encoding");
+		if (acceptedCoding == null || (last && buffered < compression.getMinSize())) return;
+		headers.add("Content-Encoding: " + acceptedCoding);
+
+		deflater = DEFLATER_POOL.poll();
+		if (deflater == null) deflater = new Deflater(compression.getLevel(), true);
+		deflater.setLevel(compression.getLevel());
+
+		boolean gzip = acceptedCoding.equals(CompressionPolicy.GZIP);
+		checksum = gzip ? new CRC32() : new Adler32();
+		byte[] header = gzip ? GZIP_HEADER : ZLIB_HEADER;
+		compressed = acquireBuffer();
+		System.arraycopy(header, 0, compressed, BUFFER_HEAD_ROOM, header.length);
+		compressedLength = header.length;
+	}
+
+	/**
+	 * Compresses the provided bytes. Compressed data is sent whenever the compressed
+	 * buffer fills up, when the message ends and when flushing.
+	 * @param data - array of bytes to compress
+	 * @param offset - the start offset in data
+	 * @param len - number of bytes to compress
+	 * @param last - is this the end of the message
+	 * @param flush - should compressed data written so far be sent
+	 * @throws IOException
+	 */
+	private void deflate(byte[] data, int offset, int len, boolean last, boolean flush) throws IOException {
+		deflater.setInput(data, offset, len);
+		checksum.update(data, offset, len);
+		if (last) deflater.finish();
+		int mode = flush && !last ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+
+		while (true) {
+			compressedLength += deflater.deflate(compressed, BUFFER_HEAD_ROOM + compressedLength,
+					BUFFER_SIZE - compressedLength, mode);
+			if (compressedLength == BUFFER_SIZE) {
+				sendBuffer(compressed, compressedLength, false);
+				compressedLength = 0;
+			} else if (last ? deflater.finished() : deflater.needsInput()) {
+				break;
+			}
+		}
+		if (!last && !flush) return;
+
+		if (last) {
+			if (compressedLength + TRAILER_SIZE > BUFFER_SIZE) {
+				sendBuffer(compressed, compressedLength, false);
+				compressedLength = 0;
+			}
+			compressedLength += writeTrailer(compressed, BUFFER_HEAD_ROOM + compressedLength);
+		}
+		sendBuffer(compressed, compressedLength, last);
+		compressedLength = 0;
+	}
+
+	/**
+	 * Writes the checksum, and for gzip the length, of the uncompressed message
+	 * @param data - array to write to
+	 * @param offset - position to write at
+	 * @return number of bytes written
+	 */
+	private int writeTrailer(byte[] data, int offset) {
+		int value = (int) checksum.getValue();
+		if (checksum instanceof Adler32) {
+			for (int i = 0; i < 4; ++i) {
+				data[offset + i] = (byte) (value >>> (24 - 8 * i));
+			}
+			return 4;
+		}
+		int size = (int) deflater.getBytesRead();
+		for (int i = 0; i < 4; ++i) {
+			data[offset + i] = (byte) (value >>> (8 * i));
+			data[offset + 4 + i] = (byte) (size >>> (8 * i));
+		}
+		return TRAILER_SIZE;
+	}
+
+	/**
+	 * Writes the bytes of the provided buffer to the output stream, preceded by the
+	 * header if it is not yet sent and framed as a chunk if chunked transfer encoding
+	 * is used. Header, chunk framing and data are written with a single call whenever
+	 * they fit in the space reserved around the data.
+	 * @param buffer - buffer holding the data after the head room
+	 * @param buffered - number of bytes of data
+	 * @param last - is this the end of the message
+	 * @throws IOException
+	 */
+	private void sendBuffer(byte[] buffer, int buffered, boolean last) throws IOException {
+		int start = BUFFER_HEAD_ROOM;
+		int end = BUFFER_HEAD_ROOM + buffered;
+
+		if (!headerSent) {
+			if (last && contentLength == null) contentLength = (long) buffered;
+			chunked = contentLength == null && keepAlive && chunkedAllowed;
+			// without a known length or chunks the end of the message is marked by closing the connection
+			keepAlive = keepAlive && (contentLength != null || chunked);
+		}
+
+		if (chunked && buffered > 0) {
+			buffer[--start] = '\n';
+			buffer[--start] = '\r';
+			for (int size = buffered; size != 0; size >>>= 4) {
+				buffer[--start] = HEX_DIGITS[size & 0xF];
+			}
+			buffer[end++] = '\r';
+			buffer[end++] = '\n';
+		}
+		if (chunked && last) {
+			System.arraycopy(LAST_CHUNK, 0, buffer, end, LAST_CHUNK.length);
+			end += LAST_CHUNK.length;
+		}
+
+		if (!headerSent) {
+			headerSent = true;
+			byte[] header = headerBytes();
+			if (header.length <= start) {
+				start -= header.length;
+				System.arraycopy(header, 0, buffer, start, header.length);
+			} else {
+				send(header);
+			}
+		}
+
+		if (end > start) send(buffer, start, end - start);
+	}
+
+	/**
+	 * Writes data too large for the buffer directly to the output stream. Buffer
+	 * must be empty and the header sent.
+	 * @param data - array of bytes used for output
+	 * @param offset - the start offset in data
+	 * @param len - number of bytes to write
+	 * @throws IOException
+	 */
+	private void writeUnbuffered(byte[] data, int offset, int len) throws IOException {
+		if (chunked) {
+			send((Integer.toHexString(len) + "\r\n").getBytes(HEADER_CHARSET));
+			send(data, offset, len);
+			send(CRLF);
+		} else {
+			send(data, offset, len);
+		}
+	}
+
+	/**
+	 * Writes the provided bytes to the output stream, counting them
+	 * @param data - bytes to write
+	 * @throws IOException
+	 */
+	private void send(byte[] data) throws IOException {
+		send(data, 0, data.length);
+	}
+
+	/**
+	 * Writes the provided bytes to the output stream, counting them
+	 * @param data - array of bytes to write
+	 * @param offset - the start offset in data
+	 * @param len - number of bytes to write
+	 * @throws IOException
+	 */
+	private void send(byte[] data, int offset, int len) throws IOException {
+		outputStream.write(data, offset, len);
+		bytesSent += len;
+	}
+
+	/**
+	 * Takes a buffer from the pool or creates a new one if the pool is empty
+	 * @return buffer for the response
+	 */
+	private static byte[] acquireBuffer() {
+		byte[] pooled = BUFFER_POOL.poll();
+		return pooled != null ? pooled : new byte[BUFFER_HEAD_ROOM + BUFFER_SIZE + BUFFER_TAIL_ROOM];
+	}
+
 	/** Header start format **/
 	private static final String HEADER_START_FORMAT = "HTTP/1.1 %s %s\r\n"
 			+ "Content-Type: %s%s\r\n";
+	/** Connection header format **/
+	private static final String HEADER_CONNECTION_FORMAT = "Connection: %s\r\n";
 	/** Cookie format in header **/
 	private static final String HEADER_COOKIE_FORMAT = "Set-Cookie: %s%s%s%s";
 	/** Format of the property in the cookie **/
@@ -149,18 +607,27 @@ public class RequestContext {
 	private static final Charset HEADER_CHARSET = StandardCharsets.ISO_8859_1;
 
 	/**
-	 * Generates and outputs the header
-	 * @throws IOException
+	 * Fixes the header properties. Header itself is sent together with the first
+	 * part of the message.
 	 */
-	private void generateHeader() throws IOException {
+	private void generateHeader() {
 		headerGenerated = true;
 		charset = Charset.forName(encoding);
-		
+	}
+
+	/**
+	 * Generates the header
+	 * @return header bytes
+	 */
+	private byte[] headerBytes() {
 		StringBuilder headerBuilder = new StringBuilder(
 				String.format(HEADER_START_FORMAT, statusCode, statusText, mimeType,
 						mimeType.startsWith("text/") ? ("; charset=" + encoding) : ""));
 
-		if (contentLength != null) { headerBuilder.append("Content-Length: " + contentLength); }
+		if (contentLength != null) { headerBuilder.append("Content-Length: " + contentLength + "\r\n"); }
+		if (chunked) { headerBuilder.append("Transfer-Encoding: chunked\r\n"); }
+		headerBuilder.append(String.format(HEADER_CONNECTION_FORMAT, keepAlive ? "keep-alive" : "close"));
+		headers.forEach((header) -> headerBuilder.append(header).append("\r\n"));
 
 		outputCookies.forEach((cookie) -> {
 			headerBuilder.append(generateHeaderCookie(cookie));
@@ -171,7 +638,7 @@ public class RequestContext {
 		});
 		headerBuilder.append("\r\n");
 
-		outputStream.write(headerBuilder.toString().getBytes(HEADER_CHARSET));
+		return headerBuilder.toString().getBytes(HEADER_CHARSET);
 	}
 
 	/**
@@ -299,6 +766,15 @@ public class RequestContext {
 		this.outputStream = outputStream;
 	}
 
+	/**
+	 * Sets the channel to the request issuer used for sending files. Channel must
+	 * write to the same destination as the output stream.
+	 * @param channel - channel to the request issuer, may be null
+	 */
+	public void setChannel(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
 	/**
 	 * Gets charset
 	 * @return charset
@@ -307,6 +783,16 @@ public class RequestContext {
 		return charset;
 	}
 
+	/**
+	 * Gets charset the text of the message is encoded with. Header properties are
+	 * fixed first, as the encoding can change until then.
+	 * @return charset of the message text
+	 */
+	public Charset getBodyCharset() {
+		if (!headerGenerated) generateHeader();
+		return charset;
+	}
+
 	/**
 	 * Sets charset
 	 * @param charset - new charset
@@ -315,6 +801,14 @@ public class RequestContext {
 		this.charset = charset;
 	}
 
+	/**
+	 * Gets encoding the text of the message is encoded with, without fixing the header
+	 * @return encoding
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
 	/**
 	 * Sets encoding.
 	 * @param encoding - new encoding
@@ -335,6 +829,14 @@ public class RequestContext {
 		this.statusCode = statusCode;
 	}
 
+	/**
+	 * Gets status code
+	 * @return status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
 	/**
 	 * Sets status text
 	 * @param statusText - new status text
@@ -355,6 +857,79 @@ public class RequestContext {
 		this.mimeType = mimeType;
 	}
 	
+	/**
+	 * Gets number of bytes sent to the request issuer so far, including the header
+	 * @return number of bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Gets statistics of the server serving the request
+	 * @return server statistics, null if not served by a server
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets statistics of the server serving the request
+	 * @param metrics - server statistics
+	 */
+	public void setMetrics(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets cache of images generated by workers
+	 * @return image cache, null if not served by a server
+	 */
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * Sets cache of images generated by workers
+	 * @param imageCache - image cache
+	 */
+	public void setImageCache(ImageCache imageCache) {
+		this.imageCache = imageCache;
+	}
+
+	/**
+	 * Gets cache of the output of script fragments
+	 * @return fragment cache, null if not served by a server
+	 */
+	public FragmentCache getFragmentCache() {
+		return fragmentCache;
+	}
+
+	/**
+	 * Sets cache of the output of script fragments
+	 * @param fragmentCache - fragment cache
+	 */
+	public void setFragmentCache(FragmentCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	 * Sets the parsed request whose headers are available through {@link #getHeader(String)}
+	 * @param request - parsed request
+	 */
+	public void setRequest(HttpRequestParser request) {
+		this.request = request;
+	}
+
+	/**
+	 * Gets value of the first request header with the provided name, ignoring case of the name
+	 * @param name - header name
+	 * @return header value or null if there is no such header or no request is set
+	 */
+	public String getHeader(String name) {
+		return request == null ? null : request.getHeader(name);
+	}
+
 	/**
 	 * Gets dispatcher
 	 * @return dispatcher
@@ -373,6 +948,59 @@ public class RequestContext {
 		this.contentLength = contentLength;
 	}
 
+	/**
+	 * Checks if the connection can stay open after this response. Once the header
+	 * is sent this also reflects whether the end of the response can be recognized.
+	 * @return true if connection can stay open, else false
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Sets whether the connection should stay open after this response
+	 * @param keepAlive - true if connection should stay open
+	 * @throws RuntimeException if header is already generated
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		if (headerGenerated) throw new RuntimeException(HEADER_ALREADY_GENERATED_MESSAGE);
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Adds a header line with provided name and value
+	 * @param name - name of the header
+	 * @param value - value of the header
+	 * @throws RuntimeException if header is already generated
+	 */
+	public void addHeader(String name, String value) {
+		if (headerGenerated) throw new RuntimeException(HEADER_ALREADY_GENERATED_MESSAGE);
+		headers.add(name + ": " + value);
+	}
+
+	/**
+	 * Sets whether chunked transfer encoding can be used for messages whose length
+	 * is not known, which requires the client to understand HTTP/1.1
+	 * @param chunkedAllowed - true if chunked transfer encoding can be used
+	 * @throws RuntimeException if header is already generated
+	 */
+	public void setChunkedAllowed(boolean chunkedAllowed) {
+		if (headerGenerated) throw new RuntimeException(HEADER_ALREADY_GENERATED_MESSAGE);
+		this.chunkedAllowed = chunkedAllowed;
+	}
+
+	/**
+	 * Sets compression of the message
+	 * @param compression - compression settings, null if the message is not compressed
+	 * @param acceptedCoding - content coding accepted by the client, null if none
+	 * @throws RuntimeException if header is already generated
+	 */
+	public void setCompression(CompressionPolicy compression, String acceptedCoding) {
+		if (headerGenerated) throw new RuntimeException(HEADER_ALREADY_GENERATED_MESSAGE);
+		this.compression = compression;
+		this.acceptedCoding = acceptedCoding;
+	}
+
 	/**
 	 * Gets parameters map
 	 * @return parameters map
@@ -439,6 +1067,128 @@ public class RequestContext {
 		this.outputCookies = outputCookies;
 	}
 
+	/**
+	 * Gets request method
+	 * @return request method, in upper case
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Sets request method
+	 * @param method - request method
+	 */
+	public void setMethod(String method) {
+		this.method = Objects.requireNonNull(method);
+	}
+
+	/**
+	 * Gets the stream reading the request body as it arrives from the client. Bodies of
+	 * forms are already decoded into parameters, so their stream is empty.
+	 * @return request body
+	 */
+	public InputStream getRequestBody() {
+		return requestBody;
+	}
+
+	/**
+	 * Sets the stream reading the request body
+	 * @param requestBody - request body
+	 */
+	public void setRequestBody(InputStream requestBody) {
+		this.requestBody = Objects.requireNonNull(requestBody);
+	}
+
+	/**
+	 * Gets the file uploaded in the form field with provided name
+	 * @param name - form field name
+	 * @return uploaded file or null if there is none
+	 */
+	public UploadedFile getUploadedFile(String name) {
+		return uploadedFiles.get(name);
+	}
+
+	/**
+	 * Gets names of the form fields with uploaded files
+	 * @return read only set of names
+	 */
+	public Set<String> getUploadedFileNames() {
+		return Collections.unmodifiableSet(uploadedFiles.keySet());
+	}
+
+	/**
+	 * Sets uploaded files map
+	 * @param uploadedFiles - new uploaded files map
+	 */
+	public void setUploadedFiles(Map<String, UploadedFile> uploadedFiles) {
+		this.uploadedFiles = uploadedFiles;
+	}
+
+	/**
+	 * File uploaded in a <code>multipart/form-data</code> form. Content of the file is
+	 * stored in a temporary file that is deleted after the request is processed.
+	 * @author ltomic
+	 *
+	 */
+	public static class UploadedFile {
+
+		/** File name sent by the client **/
+		private String fileName;
+		/** Content type sent by the client **/
+		private String contentType;
+		/** Temporary file holding the content **/
+		private Path path;
+		/** Size of the content **/
+		private long size;
+
+		/**
+		 * Constructs a {@link UploadedFile} with provided parameters
+		 * @param fileName - file name sent by the client
+		 * @param contentType - content type sent by the client, may be null
+		 * @param path - temporary file holding the content
+		 * @param size - size of the content
+		 */
+		public UploadedFile(String fileName, String contentType, Path path, long size) {
+			this.fileName = fileName;
+			this.contentType = contentType;
+			this.path = path;
+			this.size = size;
+		}
+
+		/**
+		 * Gets file name sent by the client
+		 * @return file name
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * Gets content type sent by the client
+		 * @return content type or null if not sent
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * Gets temporary file holding the content
+		 * @return path to the content
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Gets size of the content
+		 * @return size of the content
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
 	/**
 	 * Class represening a cookies. 
 	 * @author ltomic
@@ -0,0 +1,251 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps request paths to the workers processing them. Three kinds of routes are
+ * supported:
+ * <ul>
+ * <li>exact routes, like <code>/hello</code>, found with a single hash lookup,</li>
+ * <li>pattern routes, like <code>/users/{name}/posts</code>, stored in a trie of path
+ * segments; values of the <code>{parameter}</code> segments are added to the request
+ * parameters,</li>
+ * <li>dynamic routes under a prefix, like <code>/ext/EchoParams</code>, naming a
+ * worker class in the configured package. Worker is instantiated on the first request
+ * and reused afterwards.</li>
+ * </ul>
+ * Exact routes take precedence over dynamic ones, which take precedence over patterns.
+ * Literal segments of patterns take precedence over parameters. Routes should be
+ * added before the router is used, after that it can be used concurrently from
+ * multiple threads.
+ * @author ltomic
+ *
+ */
+public class Router {
+
+	/** Workers of exact routes **/
+	private Map<String, IWebWorker> exactRoutes = new HashMap<>();
+	/** Root of the pattern trie **/
+	private Node patterns = new Node(null, null);
+
+	/** Prefix of the dynamic routes, null if not supported **/
+	private String dynamicPrefix;
+	/** Package of the dynamic workers **/
+	private String dynamicPackage;
+	/** Class loader used for dynamic workers **/
+	private ClassLoader classLoader;
+	/** Dynamic workers already instantiated, stored by the request path **/
+	private Map<String, IWebWorker> dynamicWorkers = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a {@link Router} without dynamic routes
+	 */
+	public Router() {
+	}
+
+	/**
+	 * Constructs a {@link Router} resolving paths starting with <code>dynamicPrefix</code>
+	 * to workers from the provided package.
+	 * @param dynamicPrefix - prefix of the dynamic routes, like <code>/ext/</code>
+	 * @param dynamicPackage - package of the dynamic workers
+	 * @param classLoader - class loader used for dynamic workers
+	 */
+	public Router(String dynamicPrefix, String dynamicPackage, ClassLoader classLoader) {
+		this.dynamicPrefix = Objects.requireNonNull(dynamicPrefix);
+		this.dynamicPackage = Objects.requireNonNull(dynamicPackage);
+		this.classLoader = Objects.requireNonNull(classLoader);
+	}
+
+	/**
+	 * Adds a route. Paths containing <code>{parameter}</code> segments are added as
+	 * patterns, others as exact routes.
+	 * @param path - path of the route, starting with <code>/</code>
+	 * @param worker - worker processing requests on the route
+	 * @throws IllegalArgumentException if the path is not valid or conflicts with an
+	 * existing pattern
+	 */
+	public void addRoute(String path, IWebWorker worker) {
+		Objects.requireNonNull(worker, "worker cannot be null");
+		if (path == null || !path.startsWith("/")) {
+			throw new IllegalArgumentException("Route must start with /: " + path);
+		}
+		if (!path.contains("{")) {
+			exactRoutes.put(path, worker);
+			return;
+		}
+
+		Node node = patterns;
+		for (String segment : path.substring(1).split("/", -1)) {
+			if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+				String parameter = segment.substring(1, segment.length() - 1);
+				if (node.parameterChild == null) {
+					node.parameterChild = new Node(null, parameter);
+				} else if (!node.parameterChild.parameter.equals(parameter)) {
+					throw new IllegalArgumentException("Parameter {" + parameter + "} of route " + path
+							+ " conflicts with {" + node.parameterChild.parameter + "}");
+				}
+				node = node.parameterChild;
+			} else if (segment.contains("{") || segment.contains("}")) {
+				throw new IllegalArgumentException("Invalid segment " + segment + " in route " + path);
+			} else {
+				node = node.literalChild(segment);
+			}
+		}
+		node.worker = worker;
+	}
+
+	/**
+	 * Finds the worker processing requests on the provided path
+	 * @param path - request path
+	 * @param parameters - map to which values of pattern parameters are added, may be null
+	 * @return worker for the path or null if no route matches
+	 */
+	public IWebWorker route(String path, Map<String, String> parameters) {
+		IWebWorker worker = exactRoutes.get(path);
+		if (worker != null) return worker;
+
+		if (dynamicPrefix != null && path.startsWith(dynamicPrefix)) {
+			worker = dynamicWorker(path);
+			if (worker != null) return worker;
+		}
+
+		if (path.isEmpty() || path.charAt(0) != '/') return null;
+		return match(patterns, path, 1, parameters);
+	}
+
+	/**
+	 * Matches the rest of the path, starting at index <code>start</code>, against the
+	 * subtrie of the provided node
+	 * @param node - node matched so far
+	 * @param path - request path
+	 * @param start - index of the first character of the next segment
+	 * @param parameters - map to which values of pattern parameters are added, may be null
+	 * @return matched worker or null if there is none
+	 */
+	private IWebWorker match(Node node, String path, int start, Map<String, String> parameters) {
+		if (start > path.length()) return node.worker;
+
+		int end = path.indexOf('/', start);
+		if (end == -1) end = path.length();
+		int length = end - start;
+
+		for (Node child : node.children) {
+			if (child.segment.length() == length && path.regionMatches(start, child.segment, 0, length)) {
+				IWebWorker worker = match(child, path, end + 1, parameters);
+				if (worker != null) return worker;
+			}
+		}
+
+		if (node.parameterChild != null && length > 0) {
+			IWebWorker worker = match(node.parameterChild, path, end + 1, parameters);
+			if (worker != null) {
+				if (parameters != null) parameters.put(node.parameterChild.parameter, path.substring(start, end));
+				return worker;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the dynamic worker for the provided path, instantiating it on first use
+	 * @param path - request path starting with the dynamic prefix
+	 * @return worker or null if the path does not name a worker class
+	 */
+	private IWebWorker dynamicWorker(String path) {
+		IWebWorker worker = dynamicWorkers.get(path);
+		if (worker != null) return worker;
+
+		String name = path.substring(dynamicPrefix.length());
+		if (!isClassName(name)) return null;
+		try {
+			worker = loadWorker(dynamicPackage + "." + name, classLoader);
+		} catch (ReflectiveOperationException | ClassCastException | LinkageError ex) {
+			return null;
+		}
+
+		IWebWorker previous = dynamicWorkers.putIfAbsent(path, worker);
+		return previous != null ? previous : worker;
+	}
+
+	/**
+	 * Checks if the provided name is a valid simple name of a class
+	 * @param name - name to check
+	 * @return true if name is a valid class name, else false
+	 */
+	private static boolean isClassName(String name) {
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) return false;
+		for (int i = 1; i < name.length(); ++i) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Instantiates the worker with the provided fully qualified class name
+	 * @param fqcn - fully qualified class name of the worker
+	 * @param classLoader - class loader to use
+	 * @return new worker
+	 * @throws ReflectiveOperationException if the class cannot be instantiated
+	 * @throws ClassCastException if the class is not a worker
+	 */
+	public static IWebWorker loadWorker(String fqcn, ClassLoader classLoader) throws ReflectiveOperationException {
+		Class<?> referenceToClass = classLoader.loadClass(fqcn);
+		Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
+		return (IWebWorker) newObject;
+	}
+
+	/**
+	 * Gets number of exact routes
+	 * @return number of exact routes
+	 */
+	public int size() {
+		return exactRoutes.size();
+	}
+
+	/**
+	 * Node of the pattern trie, representing a single path segment
+	 * @author ltomic
+	 *
+	 */
+	private static class Node {
+		/** Literal segment, null for parameter nodes **/
+		private String segment;
+		/** Parameter name, null for literal nodes **/
+		private String parameter;
+		/** Literal children **/
+		private Node[] children = new Node[0];
+		/** Parameter child **/
+		private Node parameterChild;
+		/** Worker of the route ending in this node **/
+		private IWebWorker worker;
+
+		/**
+		 * Constructs a {@link Node} with provided segment or parameter
+		 * @param segment - literal segment
+		 * @param parameter - parameter name
+		 */
+		public Node(String segment, String parameter) {
+			this.segment = segment;
+			this.parameter = parameter;
+		}
+
+		/**
+		 * Returns the literal child with the provided segment, adding it if necessary
+		 * @param segment - literal segment
+		 * @return child node
+		 */
+		public Node literalChild(String segment) {
+			for (Node child : children) {
+				if (child.segment.equals(segment)) return child;
+			}
+			Node child = new Node(segment, null);
+			children = Arrays.copyOf(children, children.length + 1);
+			children[children.length - 1] = child;
+			return child;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * Bounded cache of parsed SmartScript files. Parsed trees and programs compiled from
+ * them are stored under the resolved path of the script and reused as long as the modification time and size
+ * of the file do not change. When the cache is full the least recently used script
+ * is evicted. Cache can be used concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public class ScriptCache {
+
+	/** Maximum number of cached scripts **/
+	private int capacity;
+	/** Cached scripts **/
+	private Map<Path, CachedScript> scripts = new ConcurrentHashMap<>();
+	/** Logical clock used to track script usage **/
+	private AtomicLong clock = new AtomicLong();
+
+	/** Number of requests answered from the cache **/
+	private LongAdder hits = new LongAdder();
+	/** Number of requests for which the script had to be parsed **/
+	private LongAdder misses = new LongAdder();
+	/** Number of scripts evicted because the cache was full **/
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a {@link ScriptCache} holding at most <code>capacity</code> scripts
+	 * @param capacity - maximum number of cached scripts, 0 disables caching
+	 */
+	public ScriptCache(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the parsed script stored in the provided file. Script is parsed only if it
+	 * is not cached or the file has changed since it was cached.
+	 * @param file - path to the script
+	 * @return head node of the parsed script
+	 * @throws IOException if file cannot be read
+	 */
+	public DocumentNode get(Path file) throws IOException {
+		return lookup(file).document;
+	}
+
+	/**
+	 * Returns the compiled script stored in the provided file. Script is parsed and
+	 * compiled only if it is not cached or the file has changed since it was cached.
+	 * @param file - path to the script
+	 * @return compiled script
+	 * @throws IOException if file cannot be read
+	 */
+	public SmartScriptProgram getProgram(Path file) throws IOException {
+		return lookup(file).program;
+	}
+
+	/**
+	 * Returns the cached script stored in the provided file, parsing it if necessary
+	 * @param file - path to the script
+	 * @return cached script
+	 * @throws IOException if file cannot be read
+	 */
+	private CachedScript lookup(Path file) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+		CachedScript cached = scripts.get(key);
+		if (cached != null && cached.isCurrent(attributes)) {
+			hits.increment();
+			cached.lastUsed = clock.incrementAndGet();
+			return cached;
+		}
+
+		misses.increment();
+		DocumentNode document;
+		try (Reader script = new InputStreamReader(Files.newInputStream(key), StandardCharsets.UTF_8)) {
+			document = new SmartScriptParser(script).getDocumentNode();
+		}
+		cached = new CachedScript(document, SmartScriptCompiler.compile(document), attributes,
+				clock.incrementAndGet());
+		if (capacity == 0) return cached;
+
+		scripts.put(key, cached);
+		while (scripts.size() > capacity) {
+			evictLeastRecentlyUsed();
+		}
+		return cached;
+	}
+
+	/**
+	 * Removes the least recently used script from the cache
+	 */
+	private void evictLeastRecentlyUsed() {
+		Map.Entry<Path, CachedScript> eldest = null;
+		for (Map.Entry<Path, CachedScript> entry : scripts.entrySet()) {
+			if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+				eldest = entry;
+			}
+		}
+		if (eldest != null && scripts.remove(eldest.getKey(), eldest.getValue())) {
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes all scripts from the cache
+	 */
+	public void clear() {
+		scripts.clear();
+	}
+
+	/**
+	 * Gets number of cached scripts
+	 * @return number of cached scripts
+	 */
+	public int size() {
+		return scripts.size();
+	}
+
+	/**
+	 * Gets number of requests answered from the cache
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets number of requests for which the script had to be parsed
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets number of scripts evicted because the cache was full
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Parsed and compiled script together with the file attributes it was parsed from
+	 * @author ltomic
+	 *
+	 */
+	private static class CachedScript {
+		/** Parsed script **/
+		private DocumentNode document;
+		/** Compiled script **/
+		private SmartScriptProgram program;
+		/** Modification time of the parsed file **/
+		private FileTime modified;
+		/** Size of the parsed file **/
+		private long size;
+		/** Logical time of the last use **/
+		private volatile long lastUsed;
+
+		/**
+		 * Constructs a {@link CachedScript} with provided arguments
+		 * @param document - parsed script
+		 * @param program - compiled script
+		 * @param attributes - attributes of the parsed file
+		 * @param lastUsed - logical time of the last use
+		 */
+		public CachedScript(DocumentNode document, SmartScriptProgram program,
+				BasicFileAttributes attributes, long lastUsed) {
+			this.document = document;
+			this.program = program;
+			this.modified = attributes.lastModifiedTime();
+			this.size = attributes.size();
+			this.lastUsed = lastUsed;
+		}
+
+		/**
+		 * Checks if the file was not changed since the script was parsed
+		 * @param attributes - current attributes of the file
+		 * @return true if parsed script is up to date, else false
+		 */
+		public boolean isCurrent(BasicFileAttributes attributes) {
+			return modified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of the {@link SmartHttpServer}: served requests by status code, bytes
+ * sent, open connections, tasks waiting for a worker thread, stored sessions and a
+ * {@link LatencyHistogram} of every route. Requests are grouped into routes by what
+ * served them: <code>worker:</code> followed by the worker class name,
+ * <code>script:</code> followed by the script path, {@value #STATIC_ROUTE} for files
+ * and {@value #REJECTED_ROUTE} for requests refused before they were dispatched.
+ * Counters are updated without locking, so they can be updated by all worker threads.
+ * Statistics can be read as text, see {@link #getReport()}, and through JMX.
+ * @author ltomic
+ *
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+	/** Route of the static files **/
+	public static final String STATIC_ROUTE = "static";
+	/** Route of the requests refused before dispatching **/
+	public static final String REJECTED_ROUTE = "rejected";
+	/** Prefix of the worker routes **/
+	public static final String WORKER_ROUTE_PREFIX = "worker:";
+	/** Prefix of the script routes **/
+	public static final String SCRIPT_ROUTE_PREFIX = "script:";
+
+	/** Quantiles of the latencies included in the report **/
+	private static final double[] REPORTED_QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	/** Prefix of the reported metric names **/
+	private static final String PREFIX = "smarthttpserver_";
+
+	/** Number of served requests **/
+	private LongAdder requests = new LongAdder();
+	/** Number of requests failed with an exception **/
+	private LongAdder failedRequests = new LongAdder();
+	/** Number of requests being processed **/
+	private LongAdder requestsInFlight = new LongAdder();
+	/** Number of bytes sent **/
+	private LongAdder bytesOut = new LongAdder();
+	/** Number of open connections **/
+	private LongAdder activeConnections = new LongAdder();
+	/** Number of accepted connections **/
+	private LongAdder acceptedConnections = new LongAdder();
+	/** Number of connections closed because of an error **/
+	private LongAdder connectionErrors = new LongAdder();
+	/** Number of connections refused because the server was saturated **/
+	private LongAdder rejectedConnections = new LongAdder();
+	/** Number of responses by status code **/
+	private Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+	/** Latencies by route **/
+	private Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+	/** Supplies number of tasks waiting for a worker thread **/
+	private IntSupplier queueDepth;
+	/** Supplies number of stored sessions **/
+	private IntSupplier sessionCount;
+	/** Name the metrics are registered under with JMX, null if not registered **/
+	private ObjectName objectName;
+
+	/**
+	 * Constructs {@link ServerMetrics} reading the gauges from the provided suppliers
+	 * @param queueDepth - supplies number of tasks waiting for a worker thread
+	 * @param sessionCount - supplies number of stored sessions
+	 */
+	public ServerMetrics(IntSupplier queueDepth, IntSupplier sessionCount) {
+		this.queueDepth = Objects.requireNonNull(queueDepth);
+		this.sessionCount = Objects.requireNonNull(sessionCount);
+	}
+
+	/**
+	 * Marks the start of processing of a request
+	 */
+	public void requestStarted() {
+		requestsInFlight.increment();
+	}
+
+	/**
+	 * Records a served request
+	 * @param route - route that served the request
+	 * @param statusCode - status code of the response
+	 * @param bytes - number of bytes sent
+	 * @param nanos - time spent processing the request in nanoseconds
+	 */
+	public void requestCompleted(String route, int statusCode, long bytes, long nanos) {
+		requestsInFlight.decrement();
+		requests.increment();
+		bytesOut.add(bytes);
+		statuses.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+		histogram(route).recordNanos(nanos);
+	}
+
+	/**
+	 * Records a request whose processing failed with an exception
+	 * @param route - route processing the request
+	 * @param bytes - number of bytes sent before the failure
+	 * @param nanos - time spent processing the request in nanoseconds
+	 */
+	public void requestFailed(String route, long bytes, long nanos) {
+		requestsInFlight.decrement();
+		requests.increment();
+		failedRequests.increment();
+		bytesOut.add(bytes);
+		histogram(route).recordNanos(nanos);
+	}
+
+	/**
+	 * Records an accepted connection
+	 */
+	public void connectionOpened() {
+		acceptedConnections.increment();
+		activeConnections.increment();
+	}
+
+	/**
+	 * Records a closed connection
+	 */
+	public void connectionClosed() {
+		activeConnections.decrement();
+	}
+
+	/**
+	 * Records a connection closed because of an error
+	 */
+	public void connectionError() {
+		connectionErrors.increment();
+	}
+
+	/**
+	 * Records a connection refused because the server was saturated
+	 */
+	public void connectionRejected() {
+		rejectedConnections.increment();
+	}
+
+	/**
+	 * Gets the latency histogram of the route, creating it if needed
+	 * @param route - name of the route
+	 * @return latency histogram of the route
+	 */
+	public LatencyHistogram histogram(String route) {
+		LatencyHistogram histogram = latencies.get(route);
+		return histogram != null ? histogram : latencies.computeIfAbsent(route, r -> new LatencyHistogram());
+	}
+
+	/**
+	 * Gets number of responses sent with the provided status code
+	 * @param statusCode - status code
+	 * @return number of responses
+	 */
+	public long getResponses(int statusCode) {
+		LongAdder count = statuses.get(statusCode);
+		return count == null ? 0 : count.sum();
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	@Override
+	public long getFailedRequests() {
+		return failedRequests.sum();
+	}
+
+	@Override
+	public long getRequestsInFlight() {
+		return requestsInFlight.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getActiveConnections() {
+		return activeConnections.sum();
+	}
+
+	@Override
+	public long getAcceptedConnections() {
+		return acceptedConnections.sum();
+	}
+
+	@Override
+	public long getConnectionErrors() {
+		return connectionErrors.sum();
+	}
+
+	@Override
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.getAsInt();
+	}
+
+	@Override
+	public int getSessionCount() {
+		return sessionCount.getAsInt();
+	}
+
+	@Override
+	public String[] getRoutes() {
+		return new TreeMap<>(latencies).keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public double getLatencyMillis(String route, double quantile) {
+		LatencyHistogram histogram = latencies.get(route);
+		return histogram == null ? 0 : histogram.getValueAtQuantile(quantile) / 1000.0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Report is in the Prometheus text format, one <code>name{labels} value</code>
+	 * line per value. Latencies are in microseconds.
+	 */
+	@Override
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		line(sb, "requests_total", null, getRequests());
+		line(sb, "requests_failed_total", null, getFailedRequests());
+		line(sb, "requests_in_flight", null, getRequestsInFlight());
+		for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(statuses).entrySet()) {
+			line(sb, "responses_total", "status=\"" + entry.getKey() + "\"", entry.getValue().sum());
+		}
+		line(sb, "bytes_out_total", null, getBytesOut());
+		line(sb, "connections_active", null, getActiveConnections());
+		line(sb, "connections_accepted_total", null, getAcceptedConnections());
+		line(sb, "connection_errors_total", null, getConnectionErrors());
+		line(sb, "connections_rejected_total", null, getRejectedConnections());
+		line(sb, "executor_queue_depth", null, getQueueDepth());
+		line(sb, "sessions", null, getSessionCount());
+
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+			String route = "route=\"" + escape(entry.getKey()) + "\"";
+			LatencyHistogram histogram = entry.getValue();
+			for (double quantile : REPORTED_QUANTILES) {
+				line(sb, "request_latency_microseconds", route + ",quantile=\"" + quantile + "\"",
+						histogram.getValueAtQuantile(quantile));
+			}
+			line(sb, "request_latency_microseconds_max", route, histogram.getMax());
+			line(sb, "request_latency_microseconds_sum", route, histogram.getSum());
+			line(sb, "request_latency_microseconds_count", route, histogram.getCount());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends a line of the report
+	 * @param sb - report being built
+	 * @param name - name of the value, without the prefix
+	 * @param labels - labels of the value, null if none
+	 * @param value - value
+	 */
+	private static void line(StringBuilder sb, String name, String labels, long value) {
+		sb.append(PREFIX).append(name);
+		if (labels != null) sb.append('{').append(labels).append('}');
+		sb.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Escapes backslashes, quotes and line ends of a label value
+	 * @param value - label value
+	 * @return escaped value
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under the provided name
+	 * @param name - object name, like <code>hr.fer.zemris.java.webserver:type=ServerMetrics</code>
+	 * @throws JMException if the name is not valid or already registered
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		if (objectName != null) return;
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server if they were registered
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName == null) return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(objectName);
+		} catch (JMException ignorable) {
+		}
+		objectName = null;
+	}
+}
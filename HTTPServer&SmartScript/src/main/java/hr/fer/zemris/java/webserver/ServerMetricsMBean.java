@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Management interface of {@link ServerMetrics}, exposing the server statistics
+ * through JMX.
+ * @author ltomic
+ *
+ */
+public interface ServerMetricsMBean {
+
+	/**
+	 * Gets number of requests served
+	 * @return number of requests served
+	 */
+	public long getRequests();
+
+	/**
+	 * Gets number of requests whose processing failed with an exception
+	 * @return number of failed requests
+	 */
+	public long getFailedRequests();
+
+	/**
+	 * Gets number of requests being processed
+	 * @return number of requests being processed
+	 */
+	public long getRequestsInFlight();
+
+	/**
+	 * Gets number of bytes sent to the clients
+	 * @return number of bytes sent
+	 */
+	public long getBytesOut();
+
+	/**
+	 * Gets number of open client connections
+	 * @return number of open connections
+	 */
+	public long getActiveConnections();
+
+	/**
+	 * Gets number of accepted client connections
+	 * @return number of accepted connections
+	 */
+	public long getAcceptedConnections();
+
+	/**
+	 * Gets number of connections closed because of an error
+	 * @return number of connection errors
+	 */
+	public long getConnectionErrors();
+
+	/**
+	 * Gets number of connections refused with 503 because the server was saturated
+	 * @return number of refused connections
+	 */
+	public long getRejectedConnections();
+
+	/**
+	 * Gets number of tasks waiting for a worker thread
+	 * @return number of waiting tasks
+	 */
+	public int getQueueDepth();
+
+	/**
+	 * Gets number of stored sessions
+	 * @return number of stored sessions
+	 */
+	public int getSessionCount();
+
+	/**
+	 * Gets routes with recorded latencies
+	 * @return names of the routes
+	 */
+	public String[] getRoutes();
+
+	/**
+	 * Finds the latency of the route at the provided quantile
+	 * @param route - name of the route
+	 * @param quantile - quantile between 0 and 1, like 0.99
+	 * @return latency in milliseconds, 0 if the route has no recorded latencies
+	 */
+	public double getLatencyMillis(String route, double quantile);
+
+	/**
+	 * Gets all statistics in the text format served by the metrics worker
+	 * @return statistics as text
+	 */
+	public String getReport();
+}
@@ -0,0 +1,135 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Represents a session. Session is renewed atomically, so it can be used by multiple
+ * requests at the same time without locking.
+ * @author ltomic
+ *
+ */
+public class SessionMapEntry {
+
+	/** Updater of the expiry time **/
+	private static final AtomicLongFieldUpdater<SessionMapEntry> VALID_UNTIL =
+			AtomicLongFieldUpdater.newUpdater(SessionMapEntry.class, "validUntil");
+
+	/** ID key **/
+	private String sid;
+	/** Session host **/
+	private String host;
+	/** Session is valid until this time, in seconds **/
+	private volatile long validUntil;
+	/** Cookies stored in this session **/
+	private Map<String, String> map;
+
+	/** Hash of the storage when the session was last saved by a persistent store **/
+	private int savedHash;
+	/** Expiry time when the session was last saved by a persistent store **/
+	private long savedValidUntil;
+
+	/**
+	 * Constructs a {@link SessionMapEntry} with provided arguments and empty storage
+	 * @param sid - ID key
+	 * @param host - session host
+	 * @param validUntil - time in seconds until which the session is valid
+	 */
+	public SessionMapEntry(String sid, String host, long validUntil) {
+		this(sid, host, validUntil, new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * Constructs a {@link SessionMapEntry} with provided arguments
+	 * @param sid - ID key
+	 * @param host - session host
+	 * @param validUntil - time in seconds until which the session is valid
+	 * @param map - storage of the session
+	 */
+	public SessionMapEntry(String sid, String host, long validUntil, Map<String, String> map) {
+		this.sid = sid;
+		this.host = host;
+		this.validUntil = validUntil;
+		this.map = map;
+	}
+
+	/**
+	 * Extends the session unless it has already expired
+	 * @param now - current time in seconds
+	 * @param timeout - new duration of the session in seconds
+	 * @return true if the session was renewed, false if it has expired
+	 */
+	public boolean renew(long now, long timeout) {
+		long newValidUntil = now + timeout;
+		while (true) {
+			long current = validUntil;
+			if (current < now) return false;
+			if (current >= newValidUntil || VALID_UNTIL.compareAndSet(this, current, newValidUntil)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the session has expired
+	 * @param now - current time in seconds
+	 * @return true if the session has expired, else false
+	 */
+	public boolean isExpired(long now) {
+		return validUntil < now;
+	}
+
+	/**
+	 * Checks if the session changed since it was last marked as saved. Renewals
+	 * extending the session by less than the provided precision are not considered
+	 * changes, so sessions used by many requests are not saved after each of them.
+	 * @param renewalPrecision - smallest extension of the session considered a change
+	 * @return true if the session should be saved, else false
+	 */
+	boolean isChanged(long renewalPrecision) {
+		return map.hashCode() != savedHash || validUntil - savedValidUntil >= renewalPrecision;
+	}
+
+	/**
+	 * Marks the session as saved with the provided storage hash and expiry time
+	 * @param hash - hash of the saved storage
+	 * @param validUntil - saved expiry time
+	 */
+	void markSaved(int hash, long validUntil) {
+		this.savedHash = hash;
+		this.savedValidUntil = validUntil;
+	}
+
+	/**
+	 * Gets ID key
+	 * @return ID key
+	 */
+	public String getSid() {
+		return sid;
+	}
+
+	/**
+	 * Gets session host
+	 * @return session host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Gets time in seconds until which the session is valid
+	 * @return expiry time in seconds
+	 */
+	public long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * Gets storage of the session
+	 * @return storage of the session
+	 */
+	public Map<String, String> getMap() {
+		return map;
+	}
+}
@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Storage of the client sessions used by {@link SmartHttpServer}. Implementations
+ * must be usable concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public interface SessionStore extends Closeable {
+
+	/**
+	 * Returns the session with the provided ID belonging to the provided host and
+	 * renews it. Expired sessions are removed.
+	 * @param sid - session ID
+	 * @param host - host of the client
+	 * @param now - current time in seconds
+	 * @return session or null if there is no valid session with the ID for the host
+	 */
+	public SessionMapEntry get(String sid, String host, long now);
+
+	/**
+	 * Creates a new session for the provided host
+	 * @param host - host of the client
+	 * @param now - current time in seconds
+	 * @return new session
+	 */
+	public SessionMapEntry create(String host, long now);
+
+	/**
+	 * Saves the changes made to the session while processing a request. Called after
+	 * each request using the session.
+	 * @param session - session used by the request
+	 */
+	public default void update(SessionMapEntry session) {
+	}
+
+	/**
+	 * Removes sessions expired before the provided time. Called periodically by the
+	 * server.
+	 * @param now - current time in seconds
+	 * @return number of removed sessions
+	 */
+	public int expire(long now);
+
+	/**
+	 * Gets number of stored sessions
+	 * @return number of stored sessions
+	 */
+	public int size();
+
+	/**
+	 * Releases resources held by the store, saving the sessions if it keeps them
+	 * @throws IOException
+	 */
+	@Override
+	public default void close() throws IOException {
+	}
+}
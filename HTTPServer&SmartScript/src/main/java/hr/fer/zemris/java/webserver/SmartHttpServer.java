@@ -1,36 +1,65 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
-import java.net.HttpCookie;
-import java.net.ServerSocket;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.URL;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Optional;
 import java.util.Properties;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram;
+import hr.fer.zemris.java.webserver.MultipartParser.PartTooLargeException;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.RequestContext.UploadedFile;
+import hr.fer.zemris.java.webserver.StaticFileCache.StaticFile;
 
 /**
  * Implements a http server.
@@ -50,6 +79,14 @@ public class SmartHttpServer {
 	private int workerThreads;
 	/** Session timeout time **/
 	private int sessionTimeout;
+	/** Time in seconds an idle persistent connection is kept open **/
+	private int keepAliveTimeout;
+	/** Maximum number of requests served over a single connection **/
+	private int maxKeepAliveRequests;
+	/** Are connections handled by a non-blocking selector instead of a thread each **/
+	private boolean nioMode;
+	/** Kind of executor running client workers **/
+	private String executorMode;
 	/** Mime types supported **/
 	private Map<String, String> mimeTypes = new HashMap<String, String>();
 	/** Main server thread **/
@@ -58,20 +95,60 @@ public class SmartHttpServer {
 	private ExecutorService threadPool;
 	/** Path to root server media folder **/
 	private Path documentRoot;
-	/** Server scripts **/
-	private Map<String, IWebWorker> workersMap;
+	/** Routes to the server workers **/
+	private Router router;
+	/** Parsed SmartScript files **/
+	private ScriptCache scriptCache;
+	/** Static files kept in memory **/
+	private StaticFileCache staticCache;
+	/** Images generated by workers kept in memory **/
+	private ImageCache imageCache;
+	/** Output of script fragments in cache tags kept in memory **/
+	private FragmentCache fragmentCache;
+	/** Size in bytes above which scripts are executed while read instead of cached **/
+	private long scriptStreamingSize;
+	/** Compression of the responses **/
+	private CompressionPolicy compression;
+	/** Maximum size of a request body **/
+	private long maxBodySize;
+	/** Maximum size of the decoded form fields of a request **/
+	private long maxFormSize;
+	/** Directory of the temporary files holding uploaded files **/
+	private Path uploadDirectory;
 	/** Stored sessions **/
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
-	/** Radnom object provider, used to generate SID **/
-	private Random sessionRandom = new Random();
+	private SessionStore sessions;
+	/** Statistics of the served requests **/
+	private ServerMetrics metrics;
+	/** Are the statistics registered with JMX **/
+	private boolean jmxEnabled;
+	/** Maximum number of open client connections **/
+	private int maxConnections;
+	/** Maximum number of tasks waiting for a worker thread of the fixed executor **/
+	private int maxQueuedRequests;
+	/** Time in seconds the server waits for the rest of a started request **/
+	private int readTimeout;
+	/** Time in seconds a request may take, including sending the response, 0 if not limited **/
+	private int requestTimeout;
+	/** Time in seconds the server waits for requests in progress when stopping **/
+	private int shutdownTimeout;
+	/** Number of open client connections **/
+	private AtomicInteger openConnections = new AtomicInteger();
+	/** Workers processing requests or waiting for them **/
+	private Set<ClientWorker> workers = ConcurrentHashMap.newKeySet();
+	/** Number of requests waiting for an asynchronous worker without a thread **/
+	private AtomicInteger suspendedRequests = new AtomicInteger();
+	/** Closes connections of requests taking longer than the request timeout **/
+	private ScheduledThreadPoolExecutor watchdog;
+	/** Set when the server is stopping, connections are closed after their current request **/
+	private volatile boolean draining;
 
-	/** Used to clean expired sessions every 5 min **/
+	/** Used to remove expired sessions every second **/
 	private Thread expiredSessionCleaner;
 	/** Is cleaner working **/
 	private volatile boolean cleanerWorking = false;
 
 	/** Expired session cleaner working activation time **/
-	private static final long CLEANER_DELAY = 60 * 5;
+	private static final long CLEANER_DELAY = 1;
 
 	/* Keys for configuration values */
 	private static final String ADDRESS_KEY = "server.address";
@@ -79,12 +156,99 @@ public class SmartHttpServer {
 	private static final String PORT_KEY = "server.port";
 	private static final String WORKER_THREADS_KEY = "server.workerThreads";
 	private static final String SESSION_TIMEOUT_KEY = "session.timeout";
+	private static final String SESSION_STORE_KEY = "session.store";
+	private static final String SESSION_STORE_DIR_KEY = "session.storeDir";
+	private static final String SESSION_SNAPSHOT_INTERVAL_KEY = "session.snapshotInterval";
+	private static final String KEEP_ALIVE_TIMEOUT_KEY = "server.keepAliveTimeout";
+	private static final String MAX_KEEP_ALIVE_REQUESTS_KEY = "server.maxKeepAliveRequests";
+	private static final String IO_MODE_KEY = "server.ioMode";
+	private static final String EXECUTOR_KEY = "server.executor";
+	private static final String SCRIPT_CACHE_SIZE_KEY = "server.scriptCacheSize";
+	private static final String SCRIPT_STREAMING_SIZE_KEY = "server.scriptStreamingSize";
+	private static final String STATIC_CACHE_SIZE_KEY = "server.staticCacheSize";
+	private static final String IMAGE_CACHE_SIZE_KEY = "server.imageCacheSize";
+	private static final String FRAGMENT_CACHE_SIZE_KEY = "server.fragmentCacheSize";
+	private static final String STATIC_CACHE_MAX_FILE_SIZE_KEY = "server.staticCacheMaxFileSize";
+	private static final String MAX_BODY_SIZE_KEY = "server.maxBodySize";
+	private static final String MAX_FORM_SIZE_KEY = "server.maxFormSize";
+	private static final String UPLOAD_DIRECTORY_KEY = "server.uploadDirectory";
 	private static final String MIME_CONFIG_KEY = "server.mimeConfig";
+	private static final String COMPRESSION_CONFIG_KEY = "server.compressionConfig";
 	private static final String DOCUMENT_ROOT_KEY = "server.documentRoot";
 	private static final String WORKER_DOCUMENT_NAME_KEY = "server.workers";
+	private static final String JMX_KEY = "server.jmx";
+	private static final String MAX_CONNECTIONS_KEY = "server.maxConnections";
+	private static final String MAX_QUEUED_REQUESTS_KEY = "server.maxQueuedRequests";
+	private static final String READ_TIMEOUT_KEY = "server.readTimeout";
+	private static final String REQUEST_TIMEOUT_KEY = "server.requestTimeout";
+	private static final String SHUTDOWN_TIMEOUT_KEY = "server.shutdownTimeout";
+
+	/** Connections are read by blocking worker threads **/
+	private static final String BLOCKING_IO_MODE = "blocking";
+	/** Connections are read by a selector and only complete requests reach workers **/
+	private static final String NIO_IO_MODE = "nio";
+
+	/** Sessions are kept only in memory **/
+	private static final String MEMORY_SESSION_STORE = "memory";
+	/** Sessions are kept in memory and saved to <code>session.storeDir</code> **/
+	private static final String FILE_SESSION_STORE = "file";
+
+	/** Fixed pool of <code>server.workerThreads</code> threads **/
+	private static final String FIXED_EXECUTOR = "fixed";
+	/** Work-stealing pool with <code>server.workerThreads</code> parallelism **/
+	private static final String WORK_STEALING_EXECUTOR = "workStealing";
+	/** Pool creating threads on demand and reusing idle ones **/
+	private static final String CACHED_EXECUTOR = "cached";
+	/** New virtual thread for every task, where supported by the runtime **/
+	private static final String VIRTUAL_EXECUTOR = "virtual";
+
+	/** Default idle timeout of a persistent connection in seconds **/
+	private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5;
+	/** Default maximum number of requests per connection **/
+	private static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 100;
+	/** Default directory of saved sessions **/
+	private static final String DEFAULT_SESSION_STORE_DIR = "sessions";
+	/** Default time between session snapshots in seconds **/
+	private static final long DEFAULT_SESSION_SNAPSHOT_INTERVAL = 60;
+	/** Default maximum number of cached scripts **/
+	private static final int DEFAULT_SCRIPT_CACHE_SIZE = 64;
+	/** Default size in bytes above which scripts are executed while read **/
+	private static final long DEFAULT_SCRIPT_STREAMING_SIZE = 1024 * 1024;
+	/** Default maximum number of bytes of cached static files **/
+	private static final long DEFAULT_STATIC_CACHE_SIZE = 16 * 1024 * 1024;
+	/** Default maximum size of a single cached static file **/
+	private static final long DEFAULT_STATIC_CACHE_MAX_FILE_SIZE = 256 * 1024;
+	/** Default maximum number of bytes of cached images **/
+	private static final long DEFAULT_IMAGE_CACHE_SIZE = 4 * 1024 * 1024;
+	/** Default maximum number of bytes of cached script fragments **/
+	private static final long DEFAULT_FRAGMENT_CACHE_SIZE = 4 * 1024 * 1024;
+	/** Default maximum size of a request body **/
+	private static final long DEFAULT_MAX_BODY_SIZE = 100 * 1024 * 1024;
+	/** Default maximum size of the decoded form fields **/
+	private static final long DEFAULT_MAX_FORM_SIZE = 2 * 1024 * 1024;
+	/** Default maximum number of open client connections **/
+	private static final int DEFAULT_MAX_CONNECTIONS = 1000;
+	/** Default maximum number of tasks waiting for a worker thread **/
+	private static final int DEFAULT_MAX_QUEUED_REQUESTS = 256;
+	/** Default time in seconds the server waits for the rest of a started request **/
+	private static final int DEFAULT_READ_TIMEOUT = 30;
+	/** Default time in seconds a request may take **/
+	private static final int DEFAULT_REQUEST_TIMEOUT = 60;
+	/** Default time in seconds the server waits for requests in progress when stopping **/
+	private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30;
+	/** Largest unread request body discarded to keep the connection open **/
+	private static final long MAX_DRAINED_BODY_SIZE = 64 * 1024;
+	/** Time in milliseconds between checks for suspended requests when stopping **/
+	private static final long SUSPENDED_POLL_INTERVAL = 10;
 	
+	/** Workers scripts package name **/
+	private static final String WORKER_PACKAGE_NAME = "workers";
+	/** Dynamic loaded worker script prefix **/
+	private static final String DYNAMIC_SCRIPT_BEGIN = "/ext/";
 	/** Private media folder path **/
 	private static final String PRIVATE_FOLDER_PATH = "/private/";
+	/** Domain of the JMX name of the server statistics **/
+	private static final String JMX_DOMAIN = "hr.fer.zemris.java.webserver";
 	/** Server configuration file path **/
 	private static final String SERVER_CONGIF_PATH = "/config/server.properties";
 
@@ -94,9 +258,16 @@ public class SmartHttpServer {
 	 * @throws IOException
 	 */
 	public SmartHttpServer(String configFileName) throws IOException {
-		Properties prop = new Properties();
+		this(loadProperties(configFileName));
+	}
+
+	/**
+	 * Constructs a {@link SmartHttpServer} with provided configuration
+	 * @param prop - server configuration
+	 * @throws IOException
+	 */
+	public SmartHttpServer(Properties prop) throws IOException {
 		Properties mimeProp = new Properties();
-		prop.load(new FileReader(configFileName));
 		mimeProp.load(new FileReader((String) prop.get(MIME_CONFIG_KEY)));
 
 		address = prop.getProperty(ADDRESS_KEY);
@@ -104,12 +275,59 @@ public class SmartHttpServer {
 		port = Integer.parseInt(prop.getProperty(PORT_KEY));
 		workerThreads = Integer.parseInt(prop.getProperty(WORKER_THREADS_KEY));
 		sessionTimeout = Integer.parseInt(prop.getProperty(SESSION_TIMEOUT_KEY));
+		sessions = createSessionStore(prop);
+		keepAliveTimeout = Integer.parseInt(prop.getProperty(KEEP_ALIVE_TIMEOUT_KEY,
+				String.valueOf(DEFAULT_KEEP_ALIVE_TIMEOUT)));
+		maxKeepAliveRequests = Integer.parseInt(prop.getProperty(MAX_KEEP_ALIVE_REQUESTS_KEY,
+				String.valueOf(DEFAULT_MAX_KEEP_ALIVE_REQUESTS)));
+		String ioMode = prop.getProperty(IO_MODE_KEY, BLOCKING_IO_MODE).trim();
+		if (!ioMode.equals(BLOCKING_IO_MODE) && !ioMode.equals(NIO_IO_MODE)) {
+			throw new IllegalArgumentException("Unknown " + IO_MODE_KEY + ": " + ioMode);
+		}
+		nioMode = ioMode.equals(NIO_IO_MODE);
+		executorMode = prop.getProperty(EXECUTOR_KEY, FIXED_EXECUTOR).trim();
+		if (!Arrays.asList(FIXED_EXECUTOR, WORK_STEALING_EXECUTOR, CACHED_EXECUTOR, VIRTUAL_EXECUTOR)
+				.contains(executorMode)) {
+			throw new IllegalArgumentException("Unknown " + EXECUTOR_KEY + ": " + executorMode);
+		}
+		scriptCache = new ScriptCache(Integer.parseInt(prop.getProperty(SCRIPT_CACHE_SIZE_KEY,
+				String.valueOf(DEFAULT_SCRIPT_CACHE_SIZE))));
+		staticCache = new StaticFileCache(
+				Long.parseLong(prop.getProperty(STATIC_CACHE_SIZE_KEY, String.valueOf(DEFAULT_STATIC_CACHE_SIZE))),
+				Long.parseLong(prop.getProperty(STATIC_CACHE_MAX_FILE_SIZE_KEY,
+						String.valueOf(DEFAULT_STATIC_CACHE_MAX_FILE_SIZE))));
+		scriptStreamingSize = Long.parseLong(prop.getProperty(SCRIPT_STREAMING_SIZE_KEY,
+				String.valueOf(DEFAULT_SCRIPT_STREAMING_SIZE)).trim());
+		imageCache = new ImageCache(Long.parseLong(prop.getProperty(IMAGE_CACHE_SIZE_KEY,
+				String.valueOf(DEFAULT_IMAGE_CACHE_SIZE)).trim()));
+		fragmentCache = new FragmentCache(Long.parseLong(prop.getProperty(FRAGMENT_CACHE_SIZE_KEY,
+				String.valueOf(DEFAULT_FRAGMENT_CACHE_SIZE)).trim()));
+		compression = loadCompression(prop.getProperty(COMPRESSION_CONFIG_KEY));
+		maxBodySize = Long.parseLong(prop.getProperty(MAX_BODY_SIZE_KEY, String.valueOf(DEFAULT_MAX_BODY_SIZE)));
+		maxFormSize = Long.parseLong(prop.getProperty(MAX_FORM_SIZE_KEY, String.valueOf(DEFAULT_MAX_FORM_SIZE)));
+		uploadDirectory = Paths.get(prop.getProperty(UPLOAD_DIRECTORY_KEY, System.getProperty("java.io.tmpdir")));
+		Files.createDirectories(uploadDirectory);
 		documentRoot = Paths.get(prop.getProperty(DOCUMENT_ROOT_KEY));
+		jmxEnabled = Boolean.parseBoolean(prop.getProperty(JMX_KEY, "true").trim());
+		maxConnections = Integer.parseInt(prop.getProperty(MAX_CONNECTIONS_KEY,
+				String.valueOf(DEFAULT_MAX_CONNECTIONS)).trim());
+		maxQueuedRequests = Integer.parseInt(prop.getProperty(MAX_QUEUED_REQUESTS_KEY,
+				String.valueOf(DEFAULT_MAX_QUEUED_REQUESTS)).trim());
+		readTimeout = Integer.parseInt(prop.getProperty(READ_TIMEOUT_KEY, String.valueOf(DEFAULT_READ_TIMEOUT)).trim());
+		requestTimeout = Integer.parseInt(prop.getProperty(REQUEST_TIMEOUT_KEY,
+				String.valueOf(DEFAULT_REQUEST_TIMEOUT)).trim());
+		shutdownTimeout = Integer.parseInt(prop.getProperty(SHUTDOWN_TIMEOUT_KEY,
+				String.valueOf(DEFAULT_SHUTDOWN_TIMEOUT)).trim());
+		if (maxConnections < 1 || maxQueuedRequests < 1) {
+			throw new IllegalArgumentException(MAX_CONNECTIONS_KEY + " and " + MAX_QUEUED_REQUESTS_KEY
+					+ " must be positive");
+		}
+		metrics = new ServerMetrics(this::queueDepth, () -> sessions.size());
 		for (final String name: mimeProp.stringPropertyNames()) {
 			mimeTypes.put(name, mimeProp.getProperty(name));
 		}
 
-		serverThread = new ServerThread();
+		serverThread = nioMode ? new NioServerThread() : new ServerThread();
 
 		expiredSessionCleaner = new Thread(new Runnable() {
 			@Override
@@ -118,8 +336,7 @@ public class SmartHttpServer {
 					try {
 						Thread.sleep(CLEANER_DELAY * 1000);
 					} catch (InterruptedException ignorable) {}
-					sessions.entrySet().removeIf(entry -> 
-						entry.getValue().validUntil < System.currentTimeMillis() / 1000.0);
+					sessions.expire(System.currentTimeMillis() / 1000);
 				}
 			}
 		});
@@ -127,13 +344,61 @@ public class SmartHttpServer {
 		loadWorkers(prop.getProperty(WORKER_DOCUMENT_NAME_KEY));
 	}
 
+	/**
+	 * Creates the session store as configured by <code>session.store</code>
+	 * @param prop - server properties
+	 * @return session store
+	 * @throws IOException if saved sessions cannot be loaded
+	 */
+	private SessionStore createSessionStore(Properties prop) throws IOException {
+		String store = prop.getProperty(SESSION_STORE_KEY, MEMORY_SESSION_STORE).trim();
+		switch (store) {
+		case MEMORY_SESSION_STORE:
+			return new InMemorySessionStore(sessionTimeout);
+		case FILE_SESSION_STORE:
+			return new FileSessionStore(
+					Paths.get(prop.getProperty(SESSION_STORE_DIR_KEY, DEFAULT_SESSION_STORE_DIR)),
+					sessionTimeout,
+					Long.parseLong(prop.getProperty(SESSION_SNAPSHOT_INTERVAL_KEY,
+							String.valueOf(DEFAULT_SESSION_SNAPSHOT_INTERVAL))));
+		default:
+			throw new IllegalArgumentException("Unknown " + SESSION_STORE_KEY + ": " + store);
+		}
+	}
+
+	/**
+	 * Loads the properties from the provided file
+	 * @param configFileName - path to configuration file
+	 * @return loaded properties
+	 * @throws IOException
+	 */
+	private static Properties loadProperties(String configFileName) throws IOException {
+		Properties prop = new Properties();
+		try (FileReader reader = new FileReader(configFileName)) {
+			prop.load(reader);
+		}
+		return prop;
+	}
+
+	/**
+	 * Loads the compression configuration from the provided file
+	 * @param configFileName - path to compression configuration file, may be null
+	 * @return compression policy, disabled if no configuration file is provided
+	 * @throws IOException
+	 */
+	private static CompressionPolicy loadCompression(String configFileName) throws IOException {
+		if (configFileName == null) return CompressionPolicy.disabled();
+		return new CompressionPolicy(loadProperties(configFileName));
+	}
+
 	/**
 	 * Loadsa all configured worker scripts from the provided worker config file
 	 * @param workerConfigFile - path to worker config file
 	 * @throws IOException
 	 */
 	private void loadWorkers(String workerConfigFile) throws IOException {
-		workersMap = new HashMap<>();
+		router = new Router(DYNAMIC_SCRIPT_BEGIN, getClass().getPackageName() + "." + WORKER_PACKAGE_NAME,
+				getClass().getClassLoader());
 		List<String> lines = Files.readAllLines(Paths.get(workerConfigFile));
 		lines.forEach((line) -> {
 			if (line.trim().startsWith("#")) return;
@@ -143,10 +408,7 @@ public class SmartHttpServer {
 			String path = splitted[0].trim();
 			String fqcn = splitted[1].trim();
 			try {
-				Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-				Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
-				IWebWorker iww = (IWebWorker) newObject;
-				workersMap.put(path, iww);
+				router.addRoute(path, Router.loadWorker(fqcn, getClass().getClassLoader()));
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
@@ -167,23 +429,125 @@ public class SmartHttpServer {
 	/**
 	 * Starts the server
 	 */
-	protected synchronized void start() {
+	public synchronized void start() {
 		if (serverThread.isAlive()) return;
+		threadPool = createThreadPool();
+		watchdog = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "request-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watchdog.setRemoveOnCancelPolicy(true);
 		serverThread.start();
-		threadPool = Executors.newFixedThreadPool(workerThreads);
 		cleanerWorking = true;
 		expiredSessionCleaner.start();
+		if (jmxEnabled) {
+			try {
+				metrics.registerMBean(JMX_DOMAIN + ":type=ServerMetrics,port=" + port);
+			} catch (JMException ex) {
+				System.out.println("Could not register server metrics: " + ex.getMessage());
+			}
+		}
 
 		System.out.println("Server running...");
 	}
 
 	/**
-	 * Stops the server
+	 * Finds the number of tasks waiting for a worker thread
+	 * @return number of waiting tasks, 0 if the executor does not tell
+	 */
+	private int queueDepth() {
+		ExecutorService pool = threadPool;
+		if (pool instanceof ThreadPoolExecutor) return ((ThreadPoolExecutor) pool).getQueue().size();
+		if (pool instanceof ForkJoinPool) return ((ForkJoinPool) pool).getQueuedSubmissionCount();
+		return 0;
+	}
+
+	/**
+	 * Gets statistics of the served requests
+	 * @return server statistics
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Creates the executor running client workers as configured by <code>server.executor</code>.
+	 * Fixed executor keeps at most <code>server.maxQueuedRequests</code> tasks waiting,
+	 * other executors start a thread for every task and are bounded only by the
+	 * maximum number of connections.
+	 * @return executor for client workers
+	 */
+	private ExecutorService createThreadPool() {
+		switch (executorMode) {
+		case WORK_STEALING_EXECUTOR:
+			return Executors.newWorkStealingPool(workerThreads);
+		case CACHED_EXECUTOR:
+			return Executors.newCachedThreadPool();
+		case VIRTUAL_EXECUTOR:
+			return createVirtualThreadPool();
+		default:
+			return new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(maxQueuedRequests));
+		}
+	}
+
+	/**
+	 * Creates an executor starting a new virtual thread for every task. Virtual threads
+	 * are looked up reflectively because they are not part of the Java version the
+	 * server is compiled for; on runtimes without them a cached thread pool is used.
+	 * @return executor for client workers
+	 */
+	private static ExecutorService createVirtualThreadPool() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+			System.out.println("Virtual threads not supported, using cached thread pool");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Stops the server. New connections are no longer accepted and idle ones are
+	 * closed, requests in progress are given <code>server.shutdownTimeout</code>
+	 * seconds to finish and their connections are closed after the response. Requests
+	 * still running after that are interrupted.
 	 */
-	protected synchronized void stop() {
+	public synchronized void stop() {
+		draining = true;
 		serverThread.terminate();
-		threadPool.shutdown();
+		long deadline = System.currentTimeMillis() + shutdownTimeout * 1000L;
+		try {
+			serverThread.join(shutdownTimeout * 1000L);
+			for (ClientWorker worker : workers) {
+				if (worker.idle) worker.abort();
+			}
+			// suspended requests are resumed on the pool, so it is kept running for them
+			while (suspendedRequests.get() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(SUSPENDED_POLL_INTERVAL);
+			}
+			threadPool.shutdown();
+			long remaining = Math.max(0, deadline - System.currentTimeMillis());
+			if (!threadPool.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+				System.out.println("Requests did not finish in time, closing their connections");
+				threadPool.shutdownNow();
+				for (ClientWorker worker : workers) {
+					worker.abort();
+				}
+			}
+		} catch (InterruptedException ex) {
+			threadPool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		watchdog.shutdownNow();
 		cleanerWorking = false;
+		metrics.unregisterMBean();
+		try {
+			sessions.close();
+		} catch (IOException ex) {
+			System.out.println("Could not save sessions: " + ex.getMessage());
+		}
 		System.out.println("Server stopped!");
 	}
 
@@ -196,59 +560,418 @@ public class SmartHttpServer {
 	protected class ServerThread extends Thread {
 
 		/** Is thread running **/
-		private volatile boolean running = true;
+		protected volatile boolean running = true;
+		/** Channel accepting the connections **/
+		private volatile ServerSocketChannel serverChannel;
 
 		/**
-		 * Terminates the thread
+		 * Terminates the thread, closing the server channel so a blocked accept returns
 		 */
 		public void terminate() {
 			running = false;
+			ServerSocketChannel serverChannel = this.serverChannel;
+			if (serverChannel == null) return;
+			try {
+				serverChannel.close();
+			} catch (IOException ignorable) {}
 		}
 
 		@Override
 		public void run() {
-			try (ServerSocket serverSocket = new ServerSocket(port)) {
+			try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				this.serverChannel = serverChannel;
+				serverChannel.bind(new InetSocketAddress(port));
 				while (running) {
-					Socket client = serverSocket.accept();
-					ClientWorker cw = new ClientWorker(client);
-					threadPool.submit(cw);
+					SocketChannel client = serverChannel.accept();
+					client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					if (!acquireConnection()) {
+						reject(client);
+						continue;
+					}
+					try {
+						threadPool.execute(new ClientWorker(client.socket()));
+					} catch (RejectedExecutionException ex) {
+						releaseConnection();
+						reject(client);
+					}
 				}
+			} catch (AsynchronousCloseException stopped) {
+				// server channel closed by terminate
 			} catch (IOException ex) {
-				ex.printStackTrace();
+				if (running) ex.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * Counts a new connection if the maximum number of connections is not reached
+	 * @return true if the connection can be served, else false
+	 */
+	private boolean acquireConnection() {
+		if (openConnections.incrementAndGet() > maxConnections) {
+			openConnections.decrementAndGet();
+			return false;
+		}
+		metrics.connectionOpened();
+		return true;
+	}
+
+	/**
+	 * Counts a closed connection
+	 */
+	private void releaseConnection() {
+		openConnections.decrementAndGet();
+		metrics.connectionClosed();
+	}
+
+	/**
+	 * Refuses a connection the server has no capacity for, telling the client to try
+	 * again later, and closes it
+	 * @param client - refused connection
+	 */
+	private void reject(SocketChannel client) {
+		metrics.connectionRejected();
+		try {
+			client.write(ByteBuffer.wrap(SERVICE_UNAVAILABLE_RESPONSE));
+		} catch (IOException ignorable) {
+		} finally {
+			try {
+				client.close();
+			} catch (IOException ignorable) {}
+		}
+	}
+
+	/**
+	 * Thread accepting new connections and reading requests with a single non-blocking
+	 * {@link Selector}. Request headers are collected from the connection as they
+	 * arrive and only complete requests are handed to the thread pool, so idle or slow
+	 * clients do not occupy worker threads. After the response the connection is
+	 * returned to the selector if it should be kept alive.
+	 * @author ltomic
+	 *
+	 */
+	protected class NioServerThread extends ServerThread {
+
+		/** Selector watching the server channel and all idle connections **/
+		private Selector selector;
+		/** Connections returned by workers that should be watched again **/
+		private ConcurrentLinkedQueue<NioConnection> resumed = new ConcurrentLinkedQueue<>();
+		/** Time of the last check for idle connections **/
+		private long lastIdleCheck = System.currentTimeMillis();
+
+		/** Maximum time in milliseconds selector waits before checking for idle connections **/
+		private static final long SELECT_TIMEOUT = 1000;
+
+		@Override
+		public void terminate() {
+			// server channel is registered with the selector, it is closed by this thread
+			running = false;
+			if (selector != null) selector.wakeup();
+		}
+
+		/**
+		 * Returns the connection to the selector after its response was sent.
+		 * @param connection - connection to watch for the next request
+		 * @throws IOException
+		 */
+		public void resume(NioConnection connection) throws IOException {
+			connection.channel.configureBlocking(false);
+			resumed.add(connection);
+			selector.wakeup();
+			if (!running && resumed.remove(connection)) connection.close();
+		}
+
+		@Override
+		public void run() {
+			try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+					Selector selector = Selector.open()) {
+				this.selector = selector;
+				serverChannel.bind(new InetSocketAddress(port));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+				List<NioConnection> complete = new ArrayList<>();
+				while (running) {
+					selector.select(SELECT_TIMEOUT);
+
+					NioConnection connection;
+					while ((connection = resumed.poll()) != null) {
+						if (connection.hasRequest()) {
+							complete.add(connection);
+						} else {
+							connection.channel.register(selector, SelectionKey.OP_READ, connection);
+						}
+					}
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid()) continue;
+
+						if (key.isAcceptable()) {
+							accept(serverChannel);
+						} else if (key.isReadable()) {
+							read(key, complete);
+						}
+					}
+
+					closeIdleConnections();
+					if (complete.isEmpty()) continue;
+
+					// cancelled keys are deregistered on the next selection, only then
+					// can the channels be switched to blocking mode for the workers
+					selector.selectNow();
+					for (NioConnection c : complete) {
+						c.channel.configureBlocking(true);
+						try {
+							threadPool.execute(new ClientWorker(c, this));
+						} catch (RejectedExecutionException ex) {
+							reject(c.channel);
+							c.close();
+						}
+					}
+					complete.clear();
+				}
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof NioConnection) {
+						((NioConnection) key.attachment()).close();
+					}
+				}
+				NioConnection connection;
+				while ((connection = resumed.poll()) != null) {
+					connection.close();
+				}
+			} catch (IOException ex) {
+				if (running) ex.printStackTrace();
+			}
+		}
+
+		/**
+		 * Accepts all pending connections and registers them with the selector
+		 * @param serverChannel - server channel
+		 * @throws IOException
+		 */
+		private void accept(ServerSocketChannel serverChannel) throws IOException {
+			SocketChannel channel;
+			while ((channel = serverChannel.accept()) != null) {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				if (!acquireConnection()) {
+					reject(channel);
+					continue;
+				}
+				channel.register(selector, SelectionKey.OP_READ, new NioConnection(channel));
+			}
+		}
+
+		/**
+		 * Reads available bytes from the connection. If a complete request was received
+		 * connection stops being watched and is added to the provided list.
+		 * @param key - key of the readable connection
+		 * @param complete - connections with complete requests
+		 */
+		private void read(SelectionKey key, List<NioConnection> complete) {
+			NioConnection connection = (NioConnection) key.attachment();
+			try {
+				if (!connection.read()) {
+					connection.close();
+					return;
+				}
+				if (connection.hasRequest()) {
+					key.cancel();
+					complete.add(connection);
+				}
+			} catch (IOException ex) {
+				connection.close();
+			}
+		}
+
+		/**
+		 * Closes connections that waited for a request longer than the keep-alive timeout
+		 * or started sending a request and did not finish it within the read timeout
+		 */
+		private void closeIdleConnections() {
+			long now = System.currentTimeMillis();
+			if (now - lastIdleCheck < SELECT_TIMEOUT) return;
+			lastIdleCheck = now;
+
+			for (SelectionKey key : selector.keys()) {
+				if (!(key.attachment() instanceof NioConnection)) continue;
+				NioConnection connection = (NioConnection) key.attachment();
+				if (now - connection.lastActive > keepAliveTimeout * 1000L
+						|| (connection.requestStarted != 0 && now - connection.requestStarted > readTimeout * 1000L)) {
+					connection.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Connection handled by the {@link NioServerThread}. Collects bytes read from the
+	 * client and feeds them to the request parser until a complete request header is
+	 * received. Worker processes the request directly from the connection buffer, bytes
+	 * following the header (pipelined requests) stay in the buffer for the next request.
+	 * @author ltomic
+	 *
+	 */
+	private class NioConnection {
+		/** Client channel **/
+		private SocketChannel channel;
+		/** Bytes read from the client and not yet processed **/
+		private ConnectionInput input = new ConnectionInput(new byte[HttpRequestParser.MAX_HEADER_SIZE], null);
+		/** Buffer of the input used for reading from the channel **/
+		private ByteBuffer buffer = ByteBuffer.wrap(input.getBuffer());
+		/** Parser of the request in the buffer **/
+		private HttpRequestParser request = new HttpRequestParser();
+		/** Number of requests served over this connection **/
+		private int served;
+		/** Time of the last activity on the connection **/
+		private long lastActive = System.currentTimeMillis();
+		/** Time the first byte of the current request was received, 0 if none was **/
+		private long requestStarted;
+		/** Is the connection closed **/
+		private AtomicBoolean closed = new AtomicBoolean();
+
+		/**
+		 * Constructs a {@link NioConnection} for provided channel
+		 * @param channel - client channel
+		 */
+		public NioConnection(SocketChannel channel) {
+			this.channel = channel;
+			request.reset(input.getBuffer(), 0);
+		}
+
+		/**
+		 * Reads available bytes from the channel
+		 * @return false if client closed the connection, else true
+		 * @throws IOException if header is too large or reading fails
+		 */
+		public boolean read() throws IOException {
+			if (input.getLimit() == buffer.capacity()) throw new IOException("Request header too large");
+			buffer.limit(buffer.capacity());
+			buffer.position(input.getLimit());
+			int r = channel.read(buffer);
+			lastActive = System.currentTimeMillis();
+			if (input.getLimit() == 0 && r > 0) requestStarted = lastActive;
+			input.setLimit(buffer.position());
+			return r != -1;
+		}
+
+		/**
+		 * Checks if the buffer holds a complete request header. Only bytes read since
+		 * the last check are parsed.
+		 * @return true if buffer holds a complete request header, else false
+		 */
+		public boolean hasRequest() {
+			return request.parse(input.getLimit());
+		}
+
+		/**
+		 * Returns the parser holding the complete request header. Header stays in the
+		 * buffer until {@link #consumeRequest()} is called.
+		 * @return parsed request
+		 */
+		public HttpRequestParser takeRequest() {
+			served++;
+			lastActive = System.currentTimeMillis();
+			return request;
+		}
+
+		/**
+		 * Removes the processed request from the buffer and prepares the parser for the
+		 * next request
+		 */
+		public void consumeRequest() {
+			input.compact();
+			request.reset(input.getBuffer(), 0);
+			requestStarted = input.getLimit() > 0 ? System.currentTimeMillis() : 0;
+		}
+
+		/**
+		 * Closes the connection
+		 */
+		public void close() {
+			if (!closed.compareAndSet(false, true)) return;
+			releaseConnection();
+			try {
+				channel.close();
+			} catch (IOException ignorable) {}
+		}
+	}
+
 	/**
 	 * Thread maintaining connection and processing requests from the connected client.
+	 * Connection is kept open between requests as long as the client asks for it
+	 * (HTTP/1.1 default or <code>Connection: keep-alive</code>), the response length
+	 * is known and the connection has not served the maximum number of requests.
+	 * Pipelined requests are answered in the order they were received.
+	 * In non-blocking mode the worker processes a single request already read by the
+	 * {@link NioServerThread} and returns the connection to it afterwards.
 	 * @author ltomic
 	 *
 	 */
 	private class ClientWorker implements Runnable, IDispatcher {
 		/** Client socket **/
 		private Socket csocket;
-		/** Input stream from the client **/
-		private PushbackInputStream istream;
+		/** Channel of the client socket used for sending files **/
+		private SocketChannel channel;
+		/** Client connection in non-blocking mode **/
+		private NioConnection connection;
+		/** Selector thread owning the connection in non-blocking mode **/
+		private NioServerThread acceptor;
+		/** Buffered input from the client **/
+		private ConnectionInput input;
 		/** Output stream to the client **/
 		private OutputStream ostream;
-		/** HTTP version **/
-		private String version;
-		/** Request method **/
-		private String method;
 		/** Client host **/
 		private String host;
+		/** Parsed request header **/
+		private HttpRequestParser request;
+		/** Request method **/
+		private String method;
+		/** Request body, null if the request has no body **/
+		private RequestBody body;
+		/** Files uploaded with the request **/
+		private Map<String, UploadedFile> uploads;
 		/** Saved parameters **/
-		private Map<String, String> params = new HashMap<String, String>();
+		private Map<String, String> params;
+		/** Were the query parameters added to the parameters **/
+		private boolean paramsParsed;
 		/** Saved temporary parameters **/
-		private Map<String, String> tempParams = new HashMap<String, String>();
+		private Map<String, String> tempParams;
 		/** Saved permanent parameters **/
-		private Map<String, String> permParams = new HashMap<String, String>();
+		private Map<String, String> permParams;
 		/** Output cookies **/
-		private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+		private List<RCCookie> outputCookies;
 		/** SID **/
 		private String SID;
+		/** Session of the current request **/
+		private SessionMapEntry session;
 		/** Context **/
 		private RequestContext context;
+		/** Set when an error response was sent and the connection has to be closed **/
+		private boolean closeConnection;
+		/** Route serving the current request, see {@link ServerMetrics} **/
+		private String route;
+		/** Status code of the error response sent, 0 if none **/
+		private int errorStatus;
+		/** Number of bytes of the error response sent **/
+		private long errorBytes;
+		/** Is the worker waiting for the next request on the connection **/
+		private volatile boolean idle;
+		/** Current read timeout of the client socket in seconds **/
+		private int currentReadTimeout = -1;
+		/** Number of requests served over the connection **/
+		private int served;
+		/** Response to the current request, null between requests **/
+		private CompletableFuture<Boolean> response;
+		/** Completed exceptionally when the current request times out or is aborted **/
+		private volatile CompletableFuture<Void> timedOut;
+		/** Stage of the asynchronous worker the current request waits for, null if none **/
+		private CompletableFuture<?> pending;
+		/** Was the current request resumed outside of the worker pool **/
+		private boolean resumedOutsidePool;
 
 		/**
 		 * Constructs a {@link ClientWorker} with provided connection socket
@@ -259,106 +982,491 @@ public class SmartHttpServer {
 			this.csocket = csocket;
 		}
 
+		/**
+		 * Constructs a {@link ClientWorker} processing the request received over the
+		 * provided non-blocking connection
+		 * @param connection - connection holding a complete request
+		 * @param acceptor - selector thread the connection is returned to
+		 */
+		public ClientWorker(NioConnection connection, NioServerThread acceptor) {
+			super();
+			this.connection = connection;
+			this.acceptor = acceptor;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 * 
-		 * Processes the request
+		 * Processes the request(s) of the client. If an asynchronous worker releases the
+		 * thread, the worker is run again when the response is completed and continues
+		 * where it stopped.
 		 */
 		@Override
 		public void run() {
+			workers.add(this);
+			boolean suspended = false;
 			try {
-				istream = new PushbackInputStream(csocket.getInputStream());
-				ostream = csocket.getOutputStream();
+				if (connection != null) {
+					suspended = serveReceivedRequest();
+				} else {
+					suspended = serveConnection();
+				}
+			} finally {
+				// suspended worker stays registered so stopping can abort it
+				if (!suspended) workers.remove(this);
+			}
+		}
 
-				byte[] request = readRequest(istream);
-				if (request == null) {
-					sendError(ostream, 400, "Bad request");
-					return;
+		/**
+		 * Closes the connection, interrupting reading or writing in progress and
+		 * waiting for an asynchronous worker
+		 */
+		private void abort() {
+			CompletableFuture<Void> timedOut = this.timedOut;
+			if (timedOut != null) timedOut.completeExceptionally(new IOException("Connection aborted"));
+			if (connection != null) {
+				connection.close();
+				return;
+			}
+			try {
+				csocket.close();
+			} catch (IOException ignorable) {}
+		}
+
+		/**
+		 * Processes the request already read by the selector thread and hands the
+		 * connection back to it if it should be kept alive.
+		 * @return true if the request is waiting for an asynchronous worker, else false
+		 */
+		private boolean serveReceivedRequest() {
+			boolean keepAlive = false;
+			boolean suspended = false;
+			try {
+				if (response == null) {
+					channel = connection.channel;
+					ostream = Channels.newOutputStream(channel);
+					request = connection.takeRequest();
+					input = connection.input;
+					// input stream of the socket, unlike the one of the channel, times out
+					channel.socket().setSoTimeout(readTimeout * 1000);
+					input.setSource(channel.socket().getInputStream());
+					response = processRequest(connection.served >= maxKeepAliveRequests);
+					suspended = suspend();
+					if (suspended) return true;
 				}
-				String requestStr = new String(request, StandardCharsets.US_ASCII);
-				List<String> headers = extractHeaders(requestStr);
-				String[] firstLine = headers.isEmpty() ? null : headers.get(0).split(" ");
-				
-				if (!checkFirstHeader(firstLine, ostream)) return;
-				
-				host = extractHost(headers);
-				String requestedPath = firstLine[1];
-				URL dummyURL = new URL("http", "dummyhost", requestedPath);
-				String path = dummyURL.getPath();
-
-				checkSession(headers, host);
-				parseParameters(dummyURL.getQuery());
-				internalDispatchRequest(path, true);
+				keepAlive = takeResponse();
+				connection.consumeRequest();
+				if (keepAlive) acceptor.resume(connection);
 			} catch (Exception ex) {
+				keepAlive = false;
+				metrics.connectionError();
 				System.out.println("Pogreška: " + ex.getMessage());
 			} finally {
-				try {
-					csocket.close();
-				} catch (IOException ignorable) {}
+				if (!keepAlive && !suspended) connection.close();
 			}
+			return false;
 		}
 
-		/** Host header start format **/
-		private static final String HOST_HEADER_START = "host:";
-		/** Host header format **/
-		private final Pattern HOST_HEADER_PATTERN = Pattern.compile("^(.+)(:\\d+)$");
-		
 		/**
-		 * Extracts host name from the headers
-		 * @param headers - request headers 
-		 * @return host name provided in request headers, if there are no provided uses
-		 * 			the domain name provided in server config files
+		 * Processes requests until the client closes the connection, the connection
+		 * stays idle longer than the keep-alive timeout or a response can not be
+		 * followed by another one.
+		 * @return true if a request is waiting for an asynchronous worker, else false
 		 */
-		private String extractHost(List<String> headers) {
-			for (String header: headers) {
-				if (!header.toLowerCase().startsWith(HOST_HEADER_START)) continue;
-				Matcher m = HOST_HEADER_PATTERN.matcher(header.substring(HOST_HEADER_START.length()));
-				if (m.matches()) {
-					return m.group(1).trim();
+		private boolean serveConnection() {
+			boolean suspended = false;
+			try {
+				if (response != null) {
+					if (!takeResponse()) return false;
+				} else {
+					ostream = csocket.getOutputStream();
+					channel = csocket.getChannel();
+					input = new ConnectionInput(new byte[HttpRequestParser.MAX_HEADER_SIZE], csocket.getInputStream());
+					request = new HttpRequestParser();
+				}
+
+				while (served < maxKeepAliveRequests) {
+					boolean received;
+					idle = true;
+					try {
+						// connections waiting in the queue when stopping still get one response
+						if (draining && served > 0) break;
+						received = readRequest();
+					} catch (SocketTimeoutException timeout) {
+						break;
+					} catch (IOException ex) {
+						if (draining) break;
+						throw ex;
+					} finally {
+						idle = false;
+					}
+					if (!received) {
+						if (served == 0) sendError(400, "Bad request");
+						break;
+					}
+					boolean lastAllowed = served + 1 == maxKeepAliveRequests;
+					response = processRequest(lastAllowed);
+					suspended = suspend();
+					if (suspended) return true;
+					if (!takeResponse()) break;
+				}
+			} catch (Exception ex) {
+				metrics.connectionError();
+				System.out.println("Pogreška: " + ex.getMessage());
+			} finally {
+				if (!suspended) {
+					releaseConnection();
+					try {
+						csocket.close();
+					} catch (IOException ignorable) {}
 				}
 			}
-			return domainName;
+			return false;
 		}
 
 		/**
-		 * Checks if a valid session already exists for this client. If a session
-		 * already exists it renews it, else it creates a new session. 
-		 * @param headers
-		 * @param host
+		 * Releases the thread if the response to the current request is not complete,
+		 * running the worker again once it is.
+		 * @return true if the thread was released, false if the response is complete
+		 */
+		private boolean suspend() {
+			if (response.isDone()) return false;
+			suspendedRequests.incrementAndGet();
+			response.whenComplete((keepAlive, ex) -> {
+				suspendedRequests.decrementAndGet();
+				run();
+			});
+			return true;
+		}
+
+		/**
+		 * Takes the result of the completed response to the current request
+		 * @return true if the connection can be used for the next request, else false
+		 * @throws Exception if processing of the request failed
+		 */
+		private boolean takeResponse() throws Exception {
+			CompletableFuture<Boolean> completed = response;
+			response = null;
+			++served;
+			return await(completed);
+		}
+
+		/**
+		 * Reads from the client until the input buffer holds a complete request header.
+		 * Bytes following the previous request are kept. Client may stay idle for the
+		 * keep-alive timeout before it starts sending the request, after that each read
+		 * of the request, including its body, has to complete within the read timeout.
+		 * @return true if a request header was received, false if the client closed the
+		 * connection before sending it
+		 * @throws IOException if header is too large or reading fails
 		 */
-		private void checkSession(List<String> headers, String host) {
-			String sidCandidate = null;
+		private boolean readRequest() throws IOException {
+			input.compact();
+			request.reset(input.getBuffer(), 0);
+			setReadTimeout(input.getLimit() == 0 ? keepAliveTimeout : readTimeout);
+			while (!request.parse(input.getLimit())) {
+				if (!input.fill()) return false;
+				setReadTimeout(readTimeout);
+			}
+			setReadTimeout(readTimeout);
+			return true;
+		}
 
-			for (String header : headers) {
-				if (!header.startsWith("Cookie:")) continue;
-				header = "Set-Cookie:" + header.substring("Cookie:".length());
-				List<HttpCookie> cookies = HttpCookie.parse(header);
+		/**
+		 * Sets the read timeout of the client socket if it differs from the current one
+		 * @param seconds - timeout in seconds
+		 * @throws IOException
+		 */
+		private void setReadTimeout(int seconds) throws IOException {
+			if (seconds == currentReadTimeout) return;
+			csocket.setSoTimeout(seconds * 1000);
+			currentReadTimeout = seconds;
+		}
 
-				for (HttpCookie cookie : cookies) {
-					if (cookie.getName().equals("sid")) {
-						sidCandidate = cookie.getValue();
+		/**
+		 * Starts processing a single request parsed by the request parser and records it
+		 * in the server statistics once it completes. Connection is closed if the request
+		 * takes longer than the request timeout, which also covers clients that stop
+		 * reading the response, as writing to a socket can not time out.
+		 * @param lastAllowed - is this the last request allowed on the connection
+		 * @return response completed with true if the connection can be used for the
+		 * next request, already completed unless an asynchronous worker is still working
+		 */
+		private CompletableFuture<Boolean> processRequest(boolean lastAllowed) {
+			resetRequestState();
+			long start = System.nanoTime();
+			metrics.requestStarted();
+			CompletableFuture<Void> timedOut = new CompletableFuture<>();
+			this.timedOut = timedOut;
+			ScheduledFuture<?> timeout = requestTimeout > 0
+					? watchdog.schedule(() -> {
+						timedOut.completeExceptionally(new TimeoutException("Request timed out"));
+						abort();
+					}, requestTimeout, TimeUnit.SECONDS)
+					: null;
+
+			CompletableFuture<Boolean> response;
+			try {
+				response = respond(lastAllowed);
+			} catch (Exception ex) {
+				response = new CompletableFuture<>();
+				response.completeExceptionally(ex);
+			}
+			return response.whenComplete((keepAlive, ex) -> {
+				if (timeout != null) timeout.cancel(false);
+				long bytes = errorBytes + (context == null ? 0 : context.getBytesSent());
+				long nanos = System.nanoTime() - start;
+				if (ex == null) {
+					int status = errorStatus != 0 ? errorStatus : context != null ? context.getStatusCode() : 0;
+					metrics.requestCompleted(route, status, bytes, nanos);
+				} else {
+					metrics.requestFailed(route, bytes, nanos);
+				}
+			});
+		}
+
+		/**
+		 * Sends the response to the request parsed by the request parser. If the worker
+		 * completes its response asynchronously, the rest of the response is sent on
+		 * the worker pool once it does.
+		 * @param lastAllowed - is this the last request allowed on the connection
+		 * @return response completed with true if the connection can be used for the
+		 * next request
+		 * @throws Exception
+		 */
+		private CompletableFuture<Boolean> respond(boolean lastAllowed) throws Exception {
+			if (!checkFirstHeader()) return CompletableFuture.completedFuture(false);
+			method = request.getMethod().toUpperCase();
+			input.skipHeader(request.getEnd());
+			if (!prepareBody()) return CompletableFuture.completedFuture(false);
+
+			host = extractHost();
+			String path = request.getPath();
+
+			try {
+				checkSession(host);
+				context.setKeepAlive(!lastAllowed && !draining && isKeepAliveRequested(request));
+				context.setChunkedAllowed(request.isVersion("HTTP/1.1"));
+				internalDispatchRequest(path, true);
+			} catch (Exception ex) {
+				deleteUploads();
+				throw ex;
+			}
+
+			if (pending == null) {
+				try {
+					return CompletableFuture.completedFuture(finishResponse());
+				} finally {
+					deleteUploads();
+				}
+			}
+			CompletableFuture<Boolean> response = new CompletableFuture<>();
+			pending.whenCompleteAsync((result, failure) -> {
+				try {
+					if (failure != null) {
+						response.completeExceptionally(failure);
+					} else {
+						response.complete(finishResponse());
 					}
+				} catch (Exception ex) {
+					response.completeExceptionally(ex);
+				} finally {
+					deleteUploads();
 				}
+			}, this::executeContinuation);
+			return response;
+		}
+
+		/**
+		 * Runs the continuation of a request resumed by an asynchronous worker on the
+		 * worker pool. If the pool refuses it, because it is full or shut down, the
+		 * continuation runs in the thread that resumed the request, which is not the
+		 * server's to keep, so the connection is closed after the response.
+		 * @param continuation - continuation of the request
+		 */
+		private void executeContinuation(Runnable continuation) {
+			try {
+				threadPool.execute(continuation);
+			} catch (RejectedExecutionException ex) {
+				resumedOutsidePool = true;
+				continuation.run();
 			}
-			synchronized (SmartHttpServer.this) {
-				if (sidCandidate == null) {
-					newClient(host);
-					return;
+		}
+
+		/**
+		 * Completes the response after the request was dispatched and saves the session
+		 * @return true if the connection can be used for the next request, else false
+		 * @throws IOException
+		 */
+		private boolean finishResponse() throws IOException {
+			if (!closeConnection) context.finish();
+			if (session != null) sessions.update(session);
+			if (closeConnection) return false;
+			boolean bodyRead = body == null || body.drain(MAX_DRAINED_BODY_SIZE);
+			return bodyRead && context.isKeepAlive() && !resumedOutsidePool;
+		}
+
+		/**
+		 * Waits for the stage completed by a worker, or until the request times out
+		 * @param stage - stage to wait for
+		 * @return result of the stage
+		 * @throws Exception if the stage failed or the request timed out
+		 */
+		private <T> T await(CompletableFuture<T> stage) throws Exception {
+			try {
+				if (!stage.isDone() && timedOut != null) CompletableFuture.anyOf(stage, timedOut).join();
+				return stage.join();
+			} catch (CompletionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof Exception) throw (Exception) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				throw ex;
+			}
+		}
+
+		/**
+		 * Prepares reading of the request body described by the <code>Content-Length</code>
+		 * or <code>Transfer-Encoding</code> header. If the client waits for permission to
+		 * send the body it is given.
+		 * @return false if the body can not be accepted and an error was sent, else true
+		 * @throws IOException
+		 */
+		private boolean prepareBody() throws IOException {
+			String transferEncoding = request.getHeader(TRANSFER_ENCODING_HEADER);
+			String contentLength = request.getHeader(CONTENT_LENGTH_HEADER);
+			if (transferEncoding != null) {
+				if (!request.hasHeaderToken(TRANSFER_ENCODING_HEADER, "chunked")) {
+					sendError(501, "Not Implemented");
+					return false;
 				}
-				SessionMapEntry session = sessions.get(sidCandidate);
-				if (session == null || !host.equals(session.host)) {
-					newClient(host);
-					return;
+				body = RequestBody.chunked(input, maxBodySize);
+			} else if (contentLength != null) {
+				long length;
+				try {
+					length = Long.parseLong(contentLength);
+				} catch (NumberFormatException ex) {
+					length = -1;
 				}
-				if (session.validUntil < System.currentTimeMillis() / 1000.0) {
-					sessions.remove(sidCandidate);
-					newClient(host);
-					return;
+				if (length < 0) {
+					sendError(400, "Bad request");
+					return false;
 				}
-				session.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
-				this.permParams = session.map;
-				checkContextInitialized();
+				if (length > maxBodySize) {
+					sendError(413, "Payload Too Large");
+					return false;
+				}
+				if (length > 0) body = RequestBody.ofLength(input, length);
 			}
+
+			if (body != null && request.isVersion("HTTP/1.1") && request.hasHeaderToken(EXPECT_HEADER, "100-continue")) {
+				ostream.write(CONTINUE_RESPONSE);
+				ostream.flush();
+			}
+			return true;
+		}
+
+		/**
+		 * Deletes the temporary files of the files uploaded with the request
+		 */
+		private void deleteUploads() {
+			for (UploadedFile file : uploads.values()) {
+				try {
+					Files.deleteIfExists(file.getPath());
+				} catch (IOException ex) {
+					System.err.println("Could not delete uploaded file: " + ex.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Clears the state left by the previous request on this connection
+		 */
+		private void resetRequestState() {
+			params = new HashMap<String, String>();
+			paramsParsed = false;
+			body = null;
+			uploads = new HashMap<String, UploadedFile>();
+			tempParams = new HashMap<String, String>();
+			permParams = new HashMap<String, String>();
+			outputCookies = new ArrayList<RequestContext.RCCookie>();
+			SID = null;
+			session = null;
+			context = null;
+			closeConnection = false;
+			pending = null;
+			resumedOutsidePool = false;
+			route = ServerMetrics.REJECTED_ROUTE;
+			errorStatus = 0;
+			errorBytes = 0;
+		}
+
+		/**
+		 * Sends a error message to the client and marks the connection for closing
+		 * @param statusCode - error status code
+		 * @param statusText - error status text
+		 * @throws IOException
+		 */
+		private void sendError(int statusCode, String statusText) throws IOException {
+			closeConnection = true;
+			errorStatus = statusCode;
+			errorBytes += SmartHttpServer.sendError(ostream, statusCode, statusText);
+		}
+
+		/**
+		 * Checks if request line is valid. If it is not valid returns false and sends a
+		 * error to the client.
+		 * @return true if valid, else false
+		 * @throws IOException
+		 */
+		private boolean checkFirstHeader() throws IOException {
+			if (!request.isRequestLineValid()) {
+				sendError(400, "Bad request");
+				return false;
+			}
+			if (!request.isMethod("GET") && !request.isMethod("POST") && !request.isMethod("PUT")) {
+				sendError(400, "Method Not Allowed");
+				return false;
+			}
+			if (!request.isVersion("HTTP/1.1") && !request.isVersion("HTTP/1.0")) {
+				sendError(400, "HTTP Version Not Supported");
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Extracts host name from the <code>Host</code> header
+		 * @return host name provided in request headers, if there are no provided uses
+		 * 			the domain name provided in server config files
+		 */
+		private String extractHost() {
+			String header = request.getHeader(HOST_HEADER);
+			if (header == null) return domainName;
+
+			int colon = header.lastIndexOf(':');
+			if (colon <= 0 || colon == header.length() - 1) return domainName;
+			for (int i = colon + 1; i < header.length(); ++i) {
+				char c = header.charAt(i);
+				if (c < '0' || c > '9') return domainName;
+			}
+			return header.substring(0, colon).trim();
+		}
+
+		/**
+		 * Checks if a valid session already exists for this client. If a session
+		 * already exists it renews it, else it creates a new session. 
+		 * @param host - client host
+		 */
+		private void checkSession(String host) {
+			String sidCandidate = request.getCookie("sid");
+			long now = System.currentTimeMillis() / 1000;
+			session = sidCandidate == null ? null : sessions.get(sidCandidate, host, now);
+			if (session == null) {
+				newClient(host, now);
+				return;
+			}
+			this.permParams = session.getMap();
+			checkContextInitialized();
 		}
 		
 		/**
@@ -367,36 +1475,32 @@ public class SmartHttpServer {
 		private void checkContextInitialized() {
 			if (this.context != null) return;
 			this.context = new RequestContext(ostream, params, permParams, outputCookies, tempParams, this);
+			context.setChannel(channel);
+			context.setMethod(method);
+			context.setCompression(compression, compression.negotiate(request.getHeader(ACCEPT_ENCODING_HEADER)));
+			context.setUploadedFiles(uploads);
+			context.setMetrics(metrics);
+			context.setImageCache(imageCache);
+			context.setFragmentCache(fragmentCache);
+			context.setRequest(request);
+			if (body != null) context.setRequestBody(body);
 		}
 
 		/**
 		 * Creates a new session associated with provied host 
 		 * @param host - host with whom new session should be associated
+		 * @param now - current time in seconds
 		 */
-		private void newClient(String host) {
-			SessionMapEntry newSession = new SessionMapEntry();
-			StringBuilder sidBuilder = new StringBuilder();
-			
-			for (int i = 0; i < 20; ++i) {
-				sidBuilder.append((char) (sessionRandom.nextInt(26)) + 'A');
-			}
-			newSession.host = host;
-			newSession.sid = sidBuilder.toString();
-			newSession.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
-			newSession.map = new ConcurrentHashMap<>();
+		private void newClient(String host, long now) {
+			SessionMapEntry newSession = sessions.create(host, now);
+			session = newSession;
 
-			sessions.put(newSession.sid, newSession);
 			checkContextInitialized();
-			context.addRCCookie(new RCCookie("sid", newSession.sid, null, host, "/"));
-			this.permParams = newSession.map;
+			context.addRCCookie(new RCCookie("sid", newSession.getSid(), null, host, "/"));
+			this.permParams = newSession.getMap();
 			context.setPersistentParameters(permParams);
 		}
 
-		/** Workers scripts package name **/
-		private static final String WORKER_PACKAGE_NAME = "workers";
-		/** Dynamic loaded worker script prefix **/
-		private static final String DYNAMIC_SCRIPT_BEGIN = "/ext/";
-
 		/**
 		 * Dispatches the request determining is it valid and what content should be returned to
 		 * the client
@@ -406,39 +1510,33 @@ public class SmartHttpServer {
 		 */
 		public void internalDispatchRequest(String urlPath, boolean directCall) throws Exception {
 			if (directCall == true && urlPath.startsWith(PRIVATE_FOLDER_PATH)) {
-				sendError(ostream, 403, "Forbidden path");
+				sendError(403, "Forbidden path");
 				return;
 			}
 
-			if (urlPath.startsWith(DYNAMIC_SCRIPT_BEGIN)) {
-				int index = urlPath.lastIndexOf("?");
-				if (index == -1) index = urlPath.length();
-				String workerName = urlPath.substring(DYNAMIC_SCRIPT_BEGIN.length(), index);
-				Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(
-						this.getClass().getPackageName() + "." + WORKER_PACKAGE_NAME + "." + workerName);
-				Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
-				IWebWorker iww = (IWebWorker) newObject;
-
-				checkContextInitialized();
-				iww.processRequest(context);
-				return;
-			}
-			Optional<Entry<String, IWebWorker>> worker = workersMap.entrySet().stream()
-					.filter(entry -> entry.getKey().equals(urlPath)).findAny();
-			if (worker.isPresent()) {
+			IWebWorker worker = router.route(urlPath, params);
+			if (worker != null) {
+				if (directCall) route = ServerMetrics.WORKER_ROUTE_PREFIX + worker.getClass().getSimpleName();
+				if (!ensureParameters()) return;
 				checkContextInitialized();
-				worker.get().getValue().processRequest(context);
+				CompletableFuture<Void> stage = worker.processRequestAsync(context).toCompletableFuture();
+				if (directCall && !stage.isDone()) {
+					pending = CompletableFuture.anyOf(stage, timedOut);
+					return;
+				}
+				await(stage);
 				return;
 			}
 
+			if (directCall) route = ServerMetrics.STATIC_ROUTE;
 			Path requestedFile = documentRoot.resolve(urlPath.substring(1));
 
 			if (!requestedFile.startsWith(documentRoot)) {
-				sendError(ostream, 403, "Forbidden path");
+				sendError(403, "Forbidden path");
 				return;
 			}
 			if (!Files.isReadable(requestedFile) || !Files.isRegularFile(requestedFile)) {
-				sendError(ostream, 404, "File not found");
+				sendError(404, "File not found");
 				return;
 			}
 
@@ -446,31 +1544,118 @@ public class SmartHttpServer {
 			String fileExtension = ind == -1 ? "" : requestedFile.toString().substring(ind + 1);
 
 			if (fileExtension.equals("smscr")) {
-				String script = new String(Files.readAllBytes(requestedFile), StandardCharsets.UTF_8);
+				if (directCall) route = ServerMetrics.SCRIPT_ROUTE_PREFIX + urlPath;
+				if (Files.size(requestedFile) > scriptStreamingSize) {
+					if (!ensureParameters()) return;
+					checkContextInitialized();
+					context.setTemporaryParameters(tempParams);
+					try (Reader script = new InputStreamReader(Files.newInputStream(requestedFile),
+							StandardCharsets.UTF_8)) {
+						new SmartScriptEngine(script, context).execute();
+					}
+					return;
+				}
+				SmartScriptProgram program = scriptCache.getProgram(requestedFile);
+				if (!ensureParameters()) return;
 				checkContextInitialized();
 				context.setTemporaryParameters(tempParams);
-				SmartScriptEngine engine = new SmartScriptEngine(
-						(new SmartScriptParser(script)).getDocumentNode(), context);
+				SmartScriptEngine engine = new SmartScriptEngine(program, context);
 				engine.execute();
 				return;
 			}
+			if (!method.equals("GET")) {
+				sendError(405, "Method Not Allowed");
+				return;
+			}
 			checkContextInitialized();
 			String mimeType = mimeTypes.get(fileExtension);
 			if (mimeType == null) mimeType = "application/octet-stream";
 
 			context.setMimeType(mimeType);
-			context.setStatusCode(200);
-			long size = requestedFile.toFile().length();
-			context.setContentLength(size);
-
-			try (InputStream is = Files.newInputStream(requestedFile)) {
-				byte[] buf = new byte[1024];
-				while (true) {
-					int r = is.read(buf);
-					if (r < 1) break;
-					context.write(buf, 0, r);
+			serveFile(requestedFile, mimeType);
+		}
+
+		/**
+		 * Sends the requested file, or the part of it requested by the <code>Range</code>
+		 * header, to the client. If the client already has the current version of the file
+		 * only the header is sent. Small files are sent from the memory, larger ones are
+		 * transferred directly from the disk to the client channel. Files of compressible
+		 * types are sent gzip compressed to clients accepting it.
+		 * @param requestedFile - file to send
+		 * @param mimeType - mime type of the file
+		 * @throws IOException
+		 */
+		private void serveFile(Path requestedFile, String mimeType) throws IOException {
+			StaticFile file = staticCache.get(requestedFile);
+			if (compression.isCompressible(mimeType)) {
+				context.addHeader("Vary", "Accept-Encoding");
+				StaticFile gzipped = gzippedFile(requestedFile, file);
+				if (gzipped != null) {
+					file = gzipped;
+					context.addHeader("Content-Encoding", CompressionPolicy.GZIP);
 				}
 			}
+			long size = file.getSize();
+			context.addHeader("Accept-Ranges", "bytes");
+			context.addHeader("ETag", file.getETag());
+			context.addHeader("Last-Modified", file.getLastModified());
+
+			if (file.isNotModified(request.getHeader(IF_NONE_MATCH_HEADER),
+					request.getHeader(IF_MODIFIED_SINCE_HEADER))) {
+				context.setStatusCode(304);
+				context.setStatusText("Not Modified");
+				context.setContentLength(size);
+				return;
+			}
+
+			ByteRange range = ByteRange.parse(request.getHeader(RANGE_HEADER), size);
+			long start = 0;
+			long length = size;
+			if (range == null) {
+				context.setStatusCode(200);
+			} else if (range == ByteRange.UNSATISFIABLE) {
+				context.setStatusCode(416);
+				context.setStatusText("Range Not Satisfiable");
+				context.addHeader("Content-Range", range.toContentRange(size));
+				context.setContentLength(0L);
+				return;
+			} else {
+				context.setStatusCode(206);
+				context.setStatusText("Partial Content");
+				context.addHeader("Content-Range", range.toContentRange(size));
+				start = range.getStart();
+				length = range.length();
+			}
+			context.setContentLength(length);
+
+			if (file.getBody() != null) {
+				context.write(file.getBody(), (int) start, (int) length);
+				return;
+			}
+			try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+				context.write(channel, start, length);
+			}
+		}
+
+		/**
+		 * Finds the gzip compressed version of the file if the client accepts it. A
+		 * precompressed <code>.gz</code> file next to the requested one is used if it is
+		 * not older than it, otherwise the cached content of the file is compressed.
+		 * @param requestedFile - requested file
+		 * @param file - requested file from the cache
+		 * @return compressed file or null if the file should be sent uncompressed
+		 * @throws IOException
+		 */
+		private StaticFile gzippedFile(Path requestedFile, StaticFile file) throws IOException {
+			if (!compression.accepts(request.getHeader(ACCEPT_ENCODING_HEADER), CompressionPolicy.GZIP)) return null;
+
+			Path sibling = requestedFile.resolveSibling(requestedFile.getFileName() + GZIP_EXTENSION);
+			if (Files.isRegularFile(sibling)) {
+				StaticFile precompressed = staticCache.get(sibling);
+				if (precompressed.getModifiedTime().compareTo(file.getModifiedTime()) >= 0) return precompressed;
+			}
+			if (file.getSize() < compression.getMinSize()) return null;
+			return file.getGzipped(compression.getLevel());
 		}
 
 		@Override
@@ -479,115 +1664,171 @@ public class SmartHttpServer {
 		}
 
 		/**
-		 * Parses the provided cookies from the request
-		 * @param query - request recived
+		 * Adds the query parameters and the fields of a form sent in the body to the
+		 * request parameters. Parameters are parsed only for requests processed by
+		 * workers and scripts, static files do not need them.
+		 * @return false if parameters are not valid and an error was sent, else true
+		 * @throws IOException
 		 */
-		private void parseParameters(String query) {
-			if (query == null) return;
+		private boolean ensureParameters() throws IOException {
+			if (paramsParsed) return true;
+			paramsParsed = true;
+			if (!parseParameters(request.getQuery())) {
+				sendError(400, "Bad request");
+				return false;
+			}
+			if (body == null) return true;
 
-			String[] splittedParameters = query.split("&");
-			for (String i : splittedParameters) {
-				String[] splittedParameter = i.split("=");
-				params.put(splittedParameter[0], splittedParameter[1]);
+			String contentType = request.getHeader(CONTENT_TYPE_HEADER);
+			if (contentType == null) return true;
+			int separator = contentType.indexOf(';');
+			String mimeType = (separator == -1 ? contentType : contentType.substring(0, separator)).trim();
+			if (mimeType.equalsIgnoreCase(FORM_URLENCODED_TYPE)) {
+				return readUrlEncodedForm();
 			}
+			if (mimeType.equalsIgnoreCase(MULTIPART_FORM_TYPE)) {
+				return readMultipartForm(contentType);
+			}
+			return true;
 		}
-	}
 
-	/**
-	 * Represents a session
-	 * @author ltomic
-	 *
-	 */
-	private static class SessionMapEntry {
-		/** ID key **/
-		String sid;
-		/** Session host **/
-		String host;
-		/** Session is valid until this time **/
-		long validUntil;
-		/** Cookies stored in this session **/
-		Map<String, String> map;
-	}
-
-	/**
-	 * Checks if first header is valid. If it is not valid returns false and sends a error to the
-	 * client.
-	 * @param firstLine - first header 
-	 * @param cos - output stream to client
-	 * @return true if valid, else false
-	 * @throws IOException
-	 */
-	private static boolean checkFirstHeader(String[] firstLine, OutputStream cos)
-			throws IOException {
-		if (firstLine == null || firstLine.length != 3) {
-			sendError(cos, 400, "Bad request");
-			return false;
+		/**
+		 * Reads the <code>application/x-www-form-urlencoded</code> body into the parameters
+		 * @return false if the body is not valid and an error was sent, else true
+		 * @throws IOException
+		 */
+		private boolean readUrlEncodedForm() throws IOException {
+			ByteArrayOutputStream form = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int r;
+			while ((r = body.read(chunk)) != -1) {
+				if (form.size() + r > maxFormSize) {
+					sendError(413, "Payload Too Large");
+					return false;
+				}
+				form.write(chunk, 0, r);
+			}
+			if (!parseParameters(new String(form.toByteArray(), StandardCharsets.UTF_8))) {
+				sendError(400, "Bad request");
+				return false;
+			}
+			return true;
 		}
 
-		String method = firstLine[0].toUpperCase();
-		if (!method.equals("GET")) {
-			sendError(cos, 400, "Method Not Allowed");
-			return false;
+		/**
+		 * Reads the <code>multipart/form-data</code> body. Fields are added to the
+		 * parameters and files are written to temporary files as they arrive.
+		 * @param contentType - value of the <code>Content-Type</code> header
+		 * @return false if the body is not valid and an error was sent, else true
+		 * @throws IOException
+		 */
+		private boolean readMultipartForm(String contentType) throws IOException {
+			String boundary = MultipartParser.boundary(contentType);
+			try {
+				MultipartParser parts = new MultipartParser(body, boundary);
+				long fieldsSize = 0;
+				while (parts.nextPart()) {
+					String name = parts.getName();
+					String fileName = parts.getFileName();
+					if (fileName == null) {
+						ByteArrayOutputStream value = new ByteArrayOutputStream();
+						fieldsSize += parts.readPart(value, maxFormSize - fieldsSize);
+						params.put(name, new String(value.toByteArray(), StandardCharsets.UTF_8));
+						continue;
+					}
+					if (fileName.isEmpty()) continue;
+
+					Path file = Files.createTempFile(uploadDirectory, "upload", ".tmp");
+					uploads.put(name, new UploadedFile(fileName, parts.getContentType(), file, 0));
+					long size;
+					try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+						size = parts.readPart(out, maxBodySize);
+					}
+					uploads.put(name, new UploadedFile(fileName, parts.getContentType(), file, size));
+				}
+			} catch (PartTooLargeException ex) {
+				sendError(413, "Payload Too Large");
+				return false;
+			} catch (IllegalArgumentException | IOException ex) {
+				sendError(400, "Bad request");
+				return false;
+			}
+			return true;
 		}
 
-		String version = firstLine[2].toUpperCase();
-		if (!version.equals("HTTP/1.1") && !version.equals("HTTP/1.0")) {
-			sendError(cos, 400, "HTTP Version Not Supported");
-			return false;
+		/**
+		 * Parses the parameters of a query or a form body. Names and values are
+		 * URL-decoded, parameters without a value get an empty one.
+		 * @param query - query or form body, may be null
+		 * @return false if the query is not properly encoded, else true
+		 * @throws UnsupportedEncodingException
+		 */
+		private boolean parseParameters(String query) throws UnsupportedEncodingException {
+			if (query == null) return true;
+
+			try {
+				for (String parameter : query.split("&")) {
+					if (parameter.isEmpty()) continue;
+					int equals = parameter.indexOf('=');
+					String name = equals == -1 ? parameter : parameter.substring(0, equals);
+					String value = equals == -1 ? "" : parameter.substring(equals + 1);
+					params.put(URLDecoder.decode(name, PARAMETER_CHARSET), URLDecoder.decode(value, PARAMETER_CHARSET));
+				}
+			} catch (IllegalArgumentException ex) {
+				return false;
+			}
+			return true;
 		}
-		return true;
 	}
 
-	/**
-	 * Reads the request from the input stream 
-	 * @param is - input stream from the client
-	 * @return request read as bytes
-	 * @throws IOException
-	 */
-	private static byte[] readRequest(InputStream is) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		int state = 0;
-		l: while (true) {
-			int b = is.read();
-			if (b == -1) return null;
-			if (b != 13) {
-				bos.write(b);
-			}
-			switch (state) {
-			case 0:	if (b == 13) { state = 1; } else if (b == 10) state = 4; break;
-			case 1: if (b == 10) { state = 2; } else state = 0; break;
-			case 2:	if (b == 13) { state = 3; } else state = 0; break;
-			case 3: if (b == 10) { break l; } else state = 0; break;
-			case 4: if (b == 10) { break l; } else state = 0; break;
-			}
-		}
-		return bos.toByteArray();
-	}
+	/** Connection header name **/
+	private static final String CONNECTION_HEADER = "Connection";
+	/** Host header name **/
+	private static final String HOST_HEADER = "Host";
+
+	/** Content-Length header name **/
+	private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+	/** Content-Type header name **/
+	private static final String CONTENT_TYPE_HEADER = "Content-Type";
+	/** Transfer-Encoding header name **/
+	private static final String TRANSFER_ENCODING_HEADER = "Transfer-Encoding";
+	/** Accept-Encoding header name **/
+	private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+	/** Extension of the precompressed static files **/
+	private static final String GZIP_EXTENSION = ".gz";
+	/** Expect header name **/
+	private static final String EXPECT_HEADER = "Expect";
+	/** Response refusing a connection the server has no capacity for **/
+	private static final byte[] SERVICE_UNAVAILABLE_RESPONSE = ("HTTP/1.1 503 Service Unavailable\r\n"
+			+ "Server: simple java server\r\n" + "Content-Type: text/plain;charset=UTF-8\r\n"
+			+ "Content-Length: 0\r\n" + "Retry-After: 1\r\n" + "Connection: close\r\n" + "\r\n")
+			.getBytes(StandardCharsets.US_ASCII);
+	/** Interim response allowing the client to send the body **/
+	private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	/** Content type of URL-encoded forms **/
+	private static final String FORM_URLENCODED_TYPE = "application/x-www-form-urlencoded";
+	/** Content type of multipart forms **/
+	private static final String MULTIPART_FORM_TYPE = "multipart/form-data";
+	/** Charset of the encoded parameters **/
+	private static final String PARAMETER_CHARSET = "UTF-8";
+	/** Range header name **/
+	private static final String RANGE_HEADER = "Range";
+	/** If-None-Match header name **/
+	private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	/** If-Modified-Since header name **/
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
 
 	/**
-	 * Extracts headers from the string
-	 * @param requestHeader - headers to be parsed
-	 * @return list of headers
+	 * Checks if the client wants the connection to stay open after the response.
+	 * HTTP/1.1 connections are persistent unless the client sends
+	 * <code>Connection: close</code>, HTTP/1.0 connections only if the client sends
+	 * <code>Connection: keep-alive</code>.
+	 * @param request - parsed request
+	 * @return true if connection should be kept open, else false
 	 */
-	private static List<String> extractHeaders(String requestHeader) {
-		List<String> headers = new ArrayList<String>();
-		String currentLine = null;
-		for (String s : requestHeader.split("\n")) {
-			if (s.isEmpty()) break;
-			char c = s.charAt(0);
-			if (c == 9 || c == 32) {
-				currentLine += s;
-			} else {
-				if (currentLine != null) {
-					headers.add(currentLine);
-				}
-				currentLine = s;
-			}
-		}
-		if (!currentLine.isEmpty()) {
-			headers.add(currentLine);
-		}
-		return headers;
+	private static boolean isKeepAliveRequested(HttpRequestParser request) {
+		if (request.hasHeaderToken(CONNECTION_HEADER, "close")) return false;
+		return request.isVersion("HTTP/1.1") || request.hasHeaderToken(CONNECTION_HEADER, "keep-alive");
 	}
 
 	/**
@@ -595,15 +1836,18 @@ public class SmartHttpServer {
 	 * @param cos output stream to the client
 	 * @param statusCode - error status code 
 	 * @param statusText - error status text 
+	 * @return number of bytes sent
 	 * @throws IOException
 	 */
-	private static void sendError(OutputStream cos, int statusCode, String statusText)
+	private static int sendError(OutputStream cos, int statusCode, String statusText)
 			throws IOException {
 		String errorHeader = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n"
 				+ "Server: simple java server\r\n" + "Content-Type: text/plain;charset=UTF-8\r\n"
 				+ "Content-Length: 0\r\n" + "Connection: close\r\n" + "\r\n";
-		cos.write(errorHeader.getBytes(StandardCharsets.US_ASCII));
+		byte[] bytes = errorHeader.getBytes(StandardCharsets.US_ASCII);
+		cos.write(bytes);
 		cos.flush();
+		return bytes.length;
 	}
 
 }
\ No newline at end of file
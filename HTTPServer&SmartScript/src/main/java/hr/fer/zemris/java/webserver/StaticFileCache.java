@@ -0,0 +1,355 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of static files bounded by the total number of cached bytes. Content of files
+ * not larger than the configured limit is kept in memory and reused as long as the
+ * modification time and size of the file do not change. When the cache is full the
+ * least recently used files are evicted. Every returned file carries validators
+ * (<code>ETag</code> and <code>Last-Modified</code>) used for conditional requests.
+ * Cached files can also be provided gzip compressed; compressed content is created on
+ * first use and kept with the file, outside of the capacity limit.
+ * Cache can be used concurrently from multiple threads.
+ * @author ltomic
+ *
+ */
+public class StaticFileCache {
+
+	/** Format of dates in the HTTP headers **/
+	private static final DateTimeFormatter HTTP_DATE_FORMAT =
+			DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	/** Maximum number of cached bytes **/
+	private long capacity;
+	/** Maximum size of a single cached file **/
+	private long maxFileSize;
+	/** Cached files **/
+	private Map<Path, StaticFile> files = new ConcurrentHashMap<>();
+	/** Number of cached bytes **/
+	private AtomicLong bytes = new AtomicLong();
+	/** Logical clock used to track file usage **/
+	private AtomicLong clock = new AtomicLong();
+
+	/** Number of requests answered from the cache **/
+	private LongAdder hits = new LongAdder();
+	/** Number of requests for which the file had to be read **/
+	private LongAdder misses = new LongAdder();
+	/** Number of files evicted because the cache was full **/
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructs a {@link StaticFileCache} holding at most <code>capacity</code> bytes
+	 * @param capacity - maximum number of cached bytes, 0 disables caching
+	 * @param maxFileSize - maximum size of a single cached file
+	 */
+	public StaticFileCache(long capacity, long maxFileSize) {
+		if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+		if (maxFileSize < 0) throw new IllegalArgumentException("Maximum file size cannot be negative");
+		this.capacity = capacity;
+		this.maxFileSize = Math.min(maxFileSize, capacity);
+	}
+
+	/**
+	 * Returns the provided file. Content of the file is read only if it is small enough
+	 * to be cached and it is not cached or the file has changed since it was cached.
+	 * Content of larger files is not read and should be sent from the disk.
+	 * @param file - path to the file
+	 * @return file with its validators and, if cached, content
+	 * @throws IOException if file cannot be read
+	 */
+	public StaticFile get(Path file) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+		StaticFile cached = files.get(key);
+		if (cached != null && cached.isCurrent(attributes)) {
+			hits.increment();
+			cached.lastUsed = clock.incrementAndGet();
+			return cached;
+		}
+
+		misses.increment();
+		if (cached != null && files.remove(key, cached)) {
+			bytes.addAndGet(-cached.size);
+		}
+		if (attributes.size() > maxFileSize) {
+			return new StaticFile(key, attributes, null, 0);
+		}
+
+		byte[] body = Files.readAllBytes(key);
+		if (body.length != attributes.size()) {
+			// file changed while it was read
+			return new StaticFile(key, attributes, null, 0);
+		}
+		cached = new StaticFile(key, attributes, body, clock.incrementAndGet());
+
+		StaticFile previous = files.put(key, cached);
+		if (previous != null) bytes.addAndGet(-previous.size);
+		bytes.addAndGet(cached.size);
+		while (bytes.get() > capacity) {
+			evictLeastRecentlyUsed();
+		}
+		return cached;
+	}
+
+	/**
+	 * Removes the least recently used file from the cache
+	 */
+	private void evictLeastRecentlyUsed() {
+		Map.Entry<Path, StaticFile> eldest = null;
+		for (Map.Entry<Path, StaticFile> entry : files.entrySet()) {
+			if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+				eldest = entry;
+			}
+		}
+		if (eldest == null) {
+			bytes.set(0);
+		} else if (files.remove(eldest.getKey(), eldest.getValue())) {
+			bytes.addAndGet(-eldest.getValue().size);
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Checks if the entity tag is listed in the <code>If-None-Match</code> header. Weak
+	 * tags are compared as strong ones.
+	 * @param ifNoneMatch - value of the header, may be null
+	 * @param eTag - entity tag
+	 * @return true if the tag is listed or the header is <code>*</code>, else false
+	 */
+	public static boolean matchesETag(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) tag = tag.substring(2);
+			if (tag.equals("*") || tag.equals(eTag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all files from the cache
+	 */
+	public void clear() {
+		files.clear();
+		bytes.set(0);
+	}
+
+	/**
+	 * Gets number of cached files
+	 * @return number of cached files
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * Gets number of cached bytes
+	 * @return number of cached bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Gets number of requests answered from the cache
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets number of requests for which the file had to be read
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets number of files evicted because the cache was full
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Static file with its validators and, if cached, content
+	 * @author ltomic
+	 *
+	 */
+	public static class StaticFile {
+		/** Path to the file **/
+		private Path path;
+		/** Content of the file, null if not cached **/
+		private byte[] body;
+		/** Modification time of the file **/
+		private FileTime modified;
+		/** Size of the file **/
+		private long size;
+		/** Entity tag of the file **/
+		private String eTag;
+		/** Modification time formatted for the header **/
+		private String lastModified;
+		/** Logical time of the last use **/
+		private volatile long lastUsed;
+		/** Gzip compressed version of the file, created on first use **/
+		private volatile StaticFile gzipped;
+
+		/**
+		 * Constructs a {@link StaticFile} with provided arguments
+		 * @param path - path to the file
+		 * @param attributes - attributes of the file
+		 * @param body - content of the file, may be null
+		 * @param lastUsed - logical time of the last use
+		 */
+		public StaticFile(Path path, BasicFileAttributes attributes, byte[] body, long lastUsed) {
+			this.path = path;
+			this.body = body;
+			this.modified = attributes.lastModifiedTime();
+			this.size = attributes.size();
+			this.lastUsed = lastUsed;
+
+			long millis = modified.toMillis();
+			this.eTag = "\"" + Long.toHexString(millis) + "-" + Long.toHexString(size) + "\"";
+			this.lastModified = HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+		}
+
+		/**
+		 * Constructs the gzip compressed version of the provided file
+		 * @param original - file that was compressed
+		 * @param body - compressed content
+		 */
+		private StaticFile(StaticFile original, byte[] body) {
+			this.path = original.path;
+			this.body = body;
+			this.modified = original.modified;
+			this.size = body.length;
+			this.eTag = original.eTag.substring(0, original.eTag.length() - 1) + "-gzip\"";
+			this.lastModified = original.lastModified;
+		}
+
+		/**
+		 * Returns the gzip compressed version of the file, with its own entity tag. The
+		 * file is compressed on the first call and the result is reused afterwards.
+		 * @param level - compression level
+		 * @return compressed version or null if the content of the file is not cached
+		 */
+		public StaticFile getGzipped(int level) {
+			if (body == null) return null;
+			StaticFile result = gzipped;
+			if (result != null) return result;
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(body.length / 2 + 32);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(bos) {
+				{
+					def.setLevel(level);
+				}
+			}) {
+				gzip.write(body);
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+			result = new StaticFile(this, bos.toByteArray());
+			gzipped = result;
+			return result;
+		}
+
+		/**
+		 * Gets modification time of the file
+		 * @return modification time
+		 */
+		public FileTime getModifiedTime() {
+			return modified;
+		}
+
+		/**
+		 * Checks if the file was not changed since it was read
+		 * @param attributes - current attributes of the file
+		 * @return true if the file is up to date, else false
+		 */
+		public boolean isCurrent(BasicFileAttributes attributes) {
+			return modified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+		}
+
+		/**
+		 * Checks if the client already has this version of the file. Entity tags are
+		 * compared if the client sent them, otherwise modification times are compared.
+		 * @param ifNoneMatch - value of the <code>If-None-Match</code> header, may be null
+		 * @param ifModifiedSince - value of the <code>If-Modified-Since</code> header, may be null
+		 * @return true if the file was not modified, else false
+		 */
+		public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+			if (ifNoneMatch != null) return matchesETag(ifNoneMatch, eTag);
+			if (ifModifiedSince != null) {
+				try {
+					long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+							.toEpochSecond();
+					return modified.toMillis() / 1000 <= since;
+				} catch (DateTimeParseException ex) {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Gets path to the file
+		 * @return path to the file
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Gets content of the file
+		 * @return content of the file, null if not cached
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets size of the file
+		 * @return size of the file
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets entity tag of the file
+		 * @return entity tag
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Gets modification time formatted for the <code>Last-Modified</code> header
+		 * @return modification time
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP/1.1 client used to generate load. Keeps the connection open between
+ * requests while the server allows it, sends back the session cookie it received and
+ * reads every response completely so the server can continue with the next request.
+ * @author ltomic
+ *
+ */
+public class BenchmarkClient implements Closeable {
+
+	/** Server host **/
+	private String host;
+	/** Server port **/
+	private int port;
+	/** Connection to the server, null if not connected **/
+	private Socket socket;
+	/** Input stream from the server **/
+	private InputStream in;
+	/** Output stream to the server **/
+	private OutputStream out;
+	/** Session cookie value received from the server **/
+	private String sid;
+
+	/** Set cookie header start format **/
+	private static final String SET_COOKIE_SID_START = "set-cookie: sid=";
+
+	/**
+	 * Constructs a {@link BenchmarkClient} for the server on provided address
+	 * @param host - server host
+	 * @param port - server port
+	 */
+	public BenchmarkClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Sends a GET request for the provided path and reads the whole response.
+	 * If a reused connection was closed by the server the request is repeated
+	 * over a new connection.
+	 * @param path - requested path
+	 * @return response status code
+	 * @throws IOException if request fails
+	 */
+	public int get(String path) throws IOException {
+		boolean reused = socket != null;
+		try {
+			return send(path);
+		} catch (IOException ex) {
+			close();
+			if (!reused) throw ex;
+			return send(path);
+		}
+	}
+
+	/**
+	 * Sends a single request and reads the response
+	 * @param path - requested path
+	 * @return response status code
+	 * @throws IOException if request fails
+	 */
+	private int send(String path) throws IOException {
+		if (socket == null) connect();
+
+		StringBuilder request = new StringBuilder();
+		request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+		if (sid != null) request.append("Cookie: sid=").append(sid).append("\r\n");
+		request.append("\r\n");
+		out.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+
+		String statusLine = readLine();
+		if (statusLine == null) throw new IOException("Connection closed by server");
+		String[] status = statusLine.split(" ");
+		if (status.length < 2) throw new IOException("Invalid status line: " + statusLine);
+
+		long contentLength = -1;
+		boolean chunked = false;
+		boolean close = false;
+		while (true) {
+			String header = readLine();
+			if (header == null) throw new IOException("Connection closed by server");
+			if (header.isEmpty()) break;
+
+			String lower = header.toLowerCase();
+			if (lower.startsWith("content-length:")) {
+				contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+			} else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+				chunked = true;
+			} else if (lower.startsWith("connection:") && lower.contains("close")) {
+				close = true;
+			} else if (lower.startsWith(SET_COOKIE_SID_START)) {
+				String value = header.substring(SET_COOKIE_SID_START.length());
+				int end = value.indexOf(';');
+				sid = end == -1 ? value : value.substring(0, end);
+			}
+		}
+
+		if (chunked) {
+			readChunkedBody();
+		} else if (contentLength >= 0) {
+			skip(contentLength);
+		} else {
+			skip(Long.MAX_VALUE);
+			close = true;
+		}
+		if (close) close();
+
+		return Integer.parseInt(status[1]);
+	}
+
+	/**
+	 * Opens a new connection to the server
+	 * @throws IOException
+	 */
+	private void connect() throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new BufferedInputStream(socket.getInputStream());
+		out = socket.getOutputStream();
+	}
+
+	/**
+	 * Reads a body sent with chunked transfer encoding
+	 * @throws IOException
+	 */
+	private void readChunkedBody() throws IOException {
+		while (true) {
+			String sizeLine = readLine();
+			if (sizeLine == null) throw new IOException("Connection closed by server");
+			int extension = sizeLine.indexOf(';');
+			if (extension != -1) sizeLine = sizeLine.substring(0, extension);
+			long size = Long.parseLong(sizeLine.trim(), 16);
+			if (size == 0) break;
+			skip(size);
+			readLine();
+		}
+		String trailer;
+		while ((trailer = readLine()) != null && !trailer.isEmpty());
+	}
+
+	/**
+	 * Skips provided number of bytes or until the end of stream
+	 * @param count - number of bytes to skip
+	 * @throws IOException
+	 */
+	private void skip(long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					if (count == Long.MAX_VALUE) return;
+					throw new IOException("Connection closed by server");
+				}
+				skipped = 1;
+			}
+			if (count != Long.MAX_VALUE) count -= skipped;
+		}
+	}
+
+	/**
+	 * Reads a single line terminated by CRLF or LF
+	 * @return line without the terminator, null if the stream ended
+	 * @throws IOException
+	 */
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			int b = in.read();
+			if (b == -1) return line.size() == 0 ? null : line.toString("US-ASCII");
+			if (b == '\n') break;
+			if (b != '\r') line.write(b);
+		}
+		return line.toString("US-ASCII");
+	}
+
+	@Override
+	public void close() {
+		if (socket == null) return;
+		try {
+			socket.close();
+		} catch (IOException ignorable) {
+		} finally {
+			socket = null;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Compares executors available for running client workers (<code>server.executor</code>).
+ * For each executor a server is started with the provided configuration and closed-loop
+ * load is generated on <code>/hello</code>, <code>/cw</code> and every script in the
+ * <code>scripts</code> folder of the document root.
+ * Arguments (all optional): path to server config file, number of connections,
+ * duration of each measurement in seconds.
+ * @author ltomic
+ *
+ */
+public class ExecutorBenchmark {
+
+	/** Compared executors **/
+	private static final String[] EXECUTORS = { "fixed", "workStealing", "cached", "virtual" };
+	/** Workers included in the benchmark **/
+	private static final String[] WORKER_PATHS = { "/hello", "/cw" };
+
+	/**
+	 * Method called at the beginning of the program.
+	 * @param args - config file, connections, seconds per measurement
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String configFile = args.length > 0 ? args[0] : "config/server.properties";
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		long durationMillis = (args.length > 2 ? Long.parseLong(args[2]) : 5) * 1000;
+
+		Properties prop = new Properties();
+		try (FileReader reader = new FileReader(configFile)) {
+			prop.load(reader);
+		}
+		String host = prop.getProperty("server.address");
+		int basePort = Integer.parseInt(prop.getProperty("server.port"));
+		List<String> paths = benchmarkPaths(Paths.get(prop.getProperty("server.documentRoot")));
+
+		System.out.printf("%d connections, %d s per route%n", connections, durationMillis / 1000);
+		for (int i = 0; i < EXECUTORS.length; ++i) {
+			int port = basePort + i;
+			prop.setProperty("server.executor", EXECUTORS[i]);
+			prop.setProperty("server.port", String.valueOf(port));
+			SmartHttpServer server = new SmartHttpServer(prop);
+			server.start();
+			Thread.sleep(200);
+
+			System.out.println("Executor " + EXECUTORS[i]);
+			new LoadGenerator(host, port, paths, connections).run(durationMillis);
+			for (String path : paths) {
+				LoadResult result = new LoadGenerator(host, port, Collections.singletonList(path),
+						connections).run(durationMillis);
+				System.out.printf("  %-30s %s%n", path, result);
+			}
+			server.stop();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Returns paths of the workers and scripts the benchmark requests
+	 * @param documentRoot - server document root
+	 * @return requested paths
+	 * @throws IOException
+	 */
+	private static List<String> benchmarkPaths(Path documentRoot) throws IOException {
+		List<String> paths = new ArrayList<>();
+		Collections.addAll(paths, WORKER_PATHS);
+		try (DirectoryStream<Path> scripts = Files.newDirectoryStream(
+				documentRoot.resolve("scripts"), "*.smscr")) {
+			for (Path script : scripts) {
+				paths.add("/scripts/" + script.getFileName());
+			}
+		}
+		Collections.sort(paths.subList(WORKER_PATHS.length, paths.size()));
+		return paths;
+	}
+}
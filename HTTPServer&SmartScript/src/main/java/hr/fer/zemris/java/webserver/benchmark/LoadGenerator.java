@@ -0,0 +1,125 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import hr.fer.zemris.java.webserver.LatencyHistogram;
+
+/**
+ * Generates load on a HTTP server over the configured number of connections, each
+ * cycling through the provided paths. Load is generated in one of two ways:
+ * <ul>
+ * <li>closed loop - each connection sends its next request as soon as the previous
+ * response was read, so the server sets the pace,</li>
+ * <li>open loop - requests are sent at a fixed rate regardless of how fast the server
+ * answers. Latency is measured from the time the request was due, not the time it was
+ * sent, so a stalled server is charged for all the requests that waited behind it
+ * instead of hiding them (coordinated omission).</li>
+ * </ul>
+ * @author ltomic
+ *
+ */
+public class LoadGenerator {
+
+	/** Server host **/
+	private String host;
+	/** Server port **/
+	private int port;
+	/** Requested paths **/
+	private List<String> paths;
+	/** Number of concurrent connections **/
+	private int connections;
+
+	/**
+	 * Constructs a {@link LoadGenerator} with provided arguments
+	 * @param host - server host
+	 * @param port - server port
+	 * @param paths - paths requested in turn by every connection
+	 * @param connections - number of concurrent connections
+	 */
+	public LoadGenerator(String host, int port, List<String> paths, int connections) {
+		this.host = Objects.requireNonNull(host);
+		this.port = port;
+		this.paths = new ArrayList<>(paths);
+		this.connections = connections;
+		if (this.paths.isEmpty()) throw new IllegalArgumentException("No paths to request");
+		if (connections < 1) throw new IllegalArgumentException("At least one connection is needed");
+	}
+
+	/**
+	 * Generates closed-loop load for the provided duration
+	 * @param durationMillis - duration of the run in milliseconds
+	 * @return measured results
+	 * @throws InterruptedException
+	 */
+	public LoadResult run(long durationMillis) throws InterruptedException {
+		return run(durationMillis, 0);
+	}
+
+	/**
+	 * Generates load for the provided duration. Requests are spread evenly over the
+	 * connections; a connection still waiting for a response sends its overdue
+	 * requests right after it, so the rate is kept as long as enough connections are
+	 * provided.
+	 * @param durationMillis - duration of the run in milliseconds
+	 * @param requestsPerSecond - rate of the open-loop load, 0 for closed-loop load
+	 * @return measured results
+	 * @throws InterruptedException
+	 */
+	public LoadResult run(long durationMillis, double requestsPerSecond) throws InterruptedException {
+		if (requestsPerSecond < 0) throw new IllegalArgumentException("Rate cannot be negative");
+		LongAdder requests = new LongAdder();
+		LongAdder errors = new LongAdder();
+		LatencyHistogram latencies = new LatencyHistogram();
+
+		long interval = requestsPerSecond == 0 ? 0 : (long) (connections * 1e9 / requestsPerSecond);
+		long start = System.nanoTime();
+		long deadline = start + durationMillis * 1_000_000;
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < connections; ++i) {
+			int offset = i;
+			// connections start staggered so the requests are spread over the interval
+			long first = start + interval * i / connections;
+			Thread thread = new Thread(() -> {
+				try (BenchmarkClient client = new BenchmarkClient(host, port)) {
+					long due = first;
+					for (int j = offset; ; ++j) {
+						long sent;
+						if (interval == 0) {
+							sent = System.nanoTime();
+						} else {
+							long now;
+							while ((now = System.nanoTime()) < due) {
+								LockSupport.parkNanos(due - now);
+							}
+							sent = due;
+							due += interval;
+						}
+						if (sent >= deadline) break;
+
+						try {
+							int status = client.get(paths.get(j % paths.size()));
+							if (status >= 400) errors.increment();
+						} catch (IOException ex) {
+							errors.increment();
+							continue;
+						}
+						latencies.recordNanos(System.nanoTime() - sent);
+						requests.increment();
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		return new LoadResult(requests.sum(), errors.sum(), System.nanoTime() - start, latencies);
+	}
+}
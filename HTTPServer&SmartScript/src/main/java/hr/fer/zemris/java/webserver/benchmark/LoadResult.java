@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import hr.fer.zemris.java.webserver.LatencyHistogram;
+
+/**
+ * Results of a single load generation run.
+ * @author ltomic
+ *
+ */
+public class LoadResult {
+
+	/** Number of completed requests **/
+	private long requests;
+	/** Number of failed requests or requests answered with an error status **/
+	private long errors;
+	/** Duration of the run in nanoseconds **/
+	private long elapsedNanos;
+	/** Latencies of the completed requests **/
+	private LatencyHistogram latencies;
+
+	/**
+	 * Constructs {@link LoadResult} with provided measurements
+	 * @param requests - number of completed requests
+	 * @param errors - number of failed requests
+	 * @param elapsedNanos - duration of the run in nanoseconds
+	 * @param latencies - latencies of the completed requests
+	 */
+	public LoadResult(long requests, long errors, long elapsedNanos, LatencyHistogram latencies) {
+		this.requests = requests;
+		this.errors = errors;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Gets number of completed requests
+	 * @return number of completed requests
+	 */
+	public long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Gets number of failed requests
+	 * @return number of failed requests
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Gets completed requests per second
+	 * @return completed requests per second
+	 */
+	public double getThroughput() {
+		return requests * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Gets mean request latency in milliseconds
+	 * @return mean request latency in milliseconds
+	 */
+	public double getMeanLatencyMillis() {
+		return latencies.getCount() == 0 ? 0 : latencies.getSum() / 1e3 / latencies.getCount();
+	}
+
+	/**
+	 * Gets request latency at the provided quantile in milliseconds
+	 * @param quantile - quantile between 0 and 1, like 0.99
+	 * @return request latency at the quantile in milliseconds
+	 */
+	public double getLatencyMillis(double quantile) {
+		return latencies.getValueAtQuantile(quantile) / 1e3;
+	}
+
+	/**
+	 * Gets largest request latency in milliseconds
+	 * @return largest request latency in milliseconds
+	 */
+	public double getMaxLatencyMillis() {
+		return latencies.getMax() / 1e3;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%10.1f req/s %9.3f ms mean %9.3f p50 %9.3f p99 %9.3f p999 %9.3f max %8d requests %6d errors",
+				getThroughput(), getMeanLatencyMillis(), getLatencyMillis(0.5), getLatencyMillis(0.99),
+				getLatencyMillis(0.999), getMaxLatencyMillis(), requests, errors);
+	}
+}
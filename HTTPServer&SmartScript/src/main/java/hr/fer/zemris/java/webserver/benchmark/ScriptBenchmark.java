@@ -0,0 +1,98 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Measures how many times per second SmartScript files can be executed, without the
+ * server and the network. Each script is compiled once and then executed repeatedly
+ * into a discarding output stream, first for a warm-up period and then for the
+ * measured period.
+ * Arguments (all optional): seconds per measurement followed by paths to scripts.
+ * @author ltomic
+ *
+ */
+public class ScriptBenchmark {
+
+	/** Scripts executed when none are provided **/
+	private static final String[] DEFAULT_SCRIPTS = {
+			"webroot/scripts/fibonacci.smscr", "webroot/scripts/osnovni.smscr" };
+
+	/** Output stream discarding everything written to it **/
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	/** Prevents the result of the measured work from being optimized away **/
+	private static volatile long sink;
+
+	/**
+	 * Method called at the beginning of the program.
+	 * @param args - seconds per measurement, paths to scripts
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		long durationNanos = (args.length > 0 ? Long.parseLong(args[0]) : 5) * 1_000_000_000L;
+		String[] scripts = DEFAULT_SCRIPTS;
+		if (args.length > 1) {
+			scripts = new String[args.length - 1];
+			System.arraycopy(args, 1, scripts, 0, scripts.length);
+		}
+
+		for (String script : scripts) {
+			String body = new String(Files.readAllBytes(Paths.get(script)), StandardCharsets.UTF_8);
+			SmartScriptProgram program = SmartScriptCompiler.compile(
+					new SmartScriptParser(body).getDocumentNode());
+
+			run(program, durationNanos / 2);
+			long start = System.nanoTime();
+			long executions = run(program, durationNanos);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-40s %12.1f executions/s %10.3f us/execution%n", script,
+					executions / seconds, seconds * 1e6 / executions);
+		}
+	}
+
+	/**
+	 * Executes the program repeatedly for the provided time
+	 * @param program - program to execute
+	 * @param durationNanos - duration in nanoseconds
+	 * @return number of executions
+	 * @throws IOException
+	 */
+	private static long run(SmartScriptProgram program, long durationNanos) throws IOException {
+		long deadline = System.nanoTime() + durationNanos;
+		long executions = 0;
+		while (System.nanoTime() < deadline) {
+			for (int i = 0; i < 100; ++i) {
+				Map<String, String> parameters = new HashMap<>();
+				RequestContext context = new RequestContext(DISCARD, parameters,
+						new HashMap<String, String>(), new ArrayList<RequestContext.RCCookie>(),
+						new HashMap<String, String>(), null);
+				new SmartScriptEngine(program, context).execute();
+				context.finish();
+				sink += context.getTemporaryParameters().size();
+			}
+			executions += 100;
+		}
+		return executions;
+	}
+}
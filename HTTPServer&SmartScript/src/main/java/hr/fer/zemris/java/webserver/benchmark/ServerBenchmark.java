@@ -0,0 +1,109 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Measures throughput and latency of the {@link SmartHttpServer} serving its document
+ * root. Server is started in this process with the provided configuration and load is
+ * generated on every static file at the top of the document root, <code>/cw</code>
+ * (image generation), <code>/calc</code> (dispatching to a script) and every script in
+ * the <code>scripts</code> folder, one path at a time after a warm-up on all of them.
+ * For each path throughput and the mean, median, 99th and 99.9th percentile and the
+ * largest latency are reported, giving a baseline changes of the server can be
+ * compared against.
+ * Arguments (all optional): path to server config file, number of connections,
+ * duration of each measurement in seconds and rate in requests per second; without a
+ * rate, or with rate 0, load is generated in a closed loop, otherwise in an open loop.
+ * @author ltomic
+ *
+ */
+public class ServerBenchmark {
+
+	/** Workers included in the benchmark **/
+	private static final String[] WORKER_PATHS = { "/cw", "/calc?a=3&b=4" };
+
+	/**
+	 * Method called at the beginning of the program.
+	 * @param args - config file, connections, seconds per measurement, requests per second
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String configFile = args.length > 0 ? args[0] : "config/server.properties";
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		long durationMillis = (args.length > 2 ? Long.parseLong(args[2]) : 5) * 1000;
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+
+		Properties prop = new Properties();
+		try (FileReader reader = new FileReader(configFile)) {
+			prop.load(reader);
+		}
+		String host = prop.getProperty("server.address");
+		int port = Integer.parseInt(prop.getProperty("server.port"));
+		Map<String, String> paths = benchmarkPaths(Paths.get(prop.getProperty("server.documentRoot")));
+
+		SmartHttpServer server = new SmartHttpServer(prop);
+		server.start();
+		Thread.sleep(200);
+
+		System.out.printf("Java %s, %s I/O, %s executor, %s worker threads%n",
+				System.getProperty("java.version"), prop.getProperty("server.ioMode", "blocking"),
+				prop.getProperty("server.executor", "fixed"), prop.getProperty("server.workerThreads"));
+		System.out.printf("%d connections, %d s per path, %s%n", connections, durationMillis / 1000,
+				rate == 0 ? "closed loop" : String.format("open loop at %.1f req/s", rate));
+
+		new LoadGenerator(host, port, new ArrayList<>(paths.keySet()), connections).run(durationMillis, rate);
+		for (Map.Entry<String, String> path : paths.entrySet()) {
+			LoadResult result = new LoadGenerator(host, port, Collections.singletonList(path.getKey()),
+					connections).run(durationMillis, rate);
+			System.out.printf("  %-6s %-30s %s%n", path.getValue(), path.getKey(), result);
+		}
+
+		server.stop();
+		System.exit(0);
+	}
+
+	/**
+	 * Returns paths the benchmark requests with their kind: <code>static</code>,
+	 * <code>worker</code> or <code>script</code>
+	 * @param documentRoot - server document root
+	 * @return kinds of the requested paths, in the order they are measured
+	 * @throws IOException
+	 */
+	private static Map<String, String> benchmarkPaths(Path documentRoot) throws IOException {
+		List<String> files = new ArrayList<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(documentRoot)) {
+			for (Path entry : entries) {
+				if (Files.isRegularFile(entry)) files.add("/" + entry.getFileName());
+			}
+		}
+		List<String> scripts = new ArrayList<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(documentRoot.resolve("scripts"), "*.smscr")) {
+			for (Path entry : entries) {
+				scripts.add("/scripts/" + entry.getFileName());
+			}
+		}
+		Collections.sort(files);
+		Collections.sort(scripts);
+
+		Map<String, String> paths = new LinkedHashMap<>();
+		files.forEach(file -> paths.put(file, "static"));
+		for (String worker : WORKER_PATHS) {
+			paths.put(worker, "worker");
+		}
+		scripts.forEach(script -> paths.put(script, "script"));
+		return paths;
+	}
+}
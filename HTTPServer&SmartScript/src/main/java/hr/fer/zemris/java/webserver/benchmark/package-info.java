@@ -0,0 +1,7 @@
+/**
+ * Contains tools generating load on {@link hr.fer.zemris.java.webserver.SmartHttpServer}
+ * and measuring its performance.
+ * @author ltomic
+ *
+ */
+package hr.fer.zemris.java.webserver.benchmark;
@@ -3,32 +3,25 @@ package hr.fer.zemris.java.webserver.workers;
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 
-import javax.imageio.ImageIO;
-
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.ImageWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
-public class CircleWorker implements IWebWorker {
+public class CircleWorker extends ImageWorker {
 
 	@Override
-	public void processRequest(RequestContext context) throws Exception {
+	protected BufferedImage render(RequestContext context) {
 		BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
 		Graphics2D g2d = bim.createGraphics();
 
 		g2d.fill(new Ellipse2D.Float(0, 0, 200, 200));
 
 		g2d.dispose();
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		context.setMimeType("png");
-		try {
-			ImageIO.write(bim, "png", bos);
-			context.write(bos.toByteArray());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		return bim;
 	}
 
+	@Override
+	protected String cacheKey(RequestContext context) {
+		return "";
+	}
 }
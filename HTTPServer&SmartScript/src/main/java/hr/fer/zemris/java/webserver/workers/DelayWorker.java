@@ -0,0 +1,66 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Responds after the number of milliseconds given by the parameter <code>ms</code>
+ * (100 by default, at most 10 seconds), standing in for a call to a slow service.
+ * Waiting does not occupy a server thread, so any number of delayed requests can be in
+ * progress at once. Available at <code>/ext/DelayWorker</code>.
+ * @author ltomic
+ *
+ */
+public class DelayWorker implements IWebWorker {
+
+	/** Default delay in milliseconds **/
+	private static final long DEFAULT_DELAY = 100;
+	/** Maximum delay in milliseconds **/
+	private static final long MAX_DELAY = 10_000;
+	/** Completes the delayed responses **/
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread thread = new Thread(r, "delay-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		processRequestAsync(context).toCompletableFuture().get();
+	}
+
+	@Override
+	public CompletionStage<Void> processRequestAsync(RequestContext context) {
+		long delay = parseDelay(context.getParameter("ms"));
+		CompletableFuture<Void> response = new CompletableFuture<>();
+		TIMER.schedule(() -> {
+			try {
+				context.setMimeType("text/plain");
+				context.write("Delayed " + delay + " ms\n");
+				response.complete(null);
+			} catch (Exception ex) {
+				response.completeExceptionally(ex);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return response;
+	}
+
+	/**
+	 * Parses the delay, falling back to the default one if it is not a number
+	 * @param ms - delay in milliseconds
+	 * @return delay between 0 and the maximum delay
+	 */
+	private static long parseDelay(String ms) {
+		try {
+			return Math.max(0, Math.min(MAX_DELAY, Long.parseLong(ms)));
+		} catch (NumberFormatException ex) {
+			return DEFAULT_DELAY;
+		}
+	}
+}
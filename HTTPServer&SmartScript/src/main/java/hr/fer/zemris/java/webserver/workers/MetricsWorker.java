@@ -0,0 +1,27 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ServerMetrics;
+
+/**
+ * Sends the statistics of the server as text, one value per line. Available at
+ * <code>/ext/MetricsWorker</code>.
+ * @author ltomic
+ *
+ */
+public class MetricsWorker implements IWebWorker {
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		ServerMetrics metrics = context.getMetrics();
+		if (metrics == null) {
+			context.setStatusCode(404);
+			context.setStatusText("Metrics not available");
+			return;
+		}
+		context.setMimeType("text/plain");
+		context.addHeader("Cache-Control", "no-store");
+		context.write(metrics.getReport());
+	}
+}
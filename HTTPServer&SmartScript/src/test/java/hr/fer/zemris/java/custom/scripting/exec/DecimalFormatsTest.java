@@ -0,0 +1,77 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.DecimalFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DecimalFormatsTest {
+
+	private static final String[] PATTERNS = { "0", "0.0", "0.00", "0.000", "0.000000", "0.000000000" };
+
+	private void assertSameAsDecimalFormat(String pattern, Object value) {
+		assertEquals(pattern + " " + value, new DecimalFormat(pattern).format(value),
+				DecimalFormats.format(pattern, value));
+	}
+
+	@Test
+	public void fixedDecimals() {
+		assertEquals(0, DecimalFormats.fixedDecimals("0"));
+		assertEquals(3, DecimalFormats.fixedDecimals("0.000"));
+		assertEquals(-1, DecimalFormats.fixedDecimals("0."));
+		assertEquals(-1, DecimalFormats.fixedDecimals("#.000"));
+		assertEquals(-1, DecimalFormats.fixedDecimals("0.00#"));
+		assertEquals(-1, DecimalFormats.fixedDecimals("0.0000000000"));
+	}
+
+	@Test
+	public void randomValuesMatchDecimalFormat() {
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; ++i) {
+			double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14) - 4);
+			assertSameAsDecimalFormat(PATTERNS[i % PATTERNS.length], value);
+		}
+	}
+
+	@Test
+	public void tiesAndEdgeValuesMatchDecimalFormat() {
+		double[] values = { 0, -0.0, 0.5, 1.5, 2.5, -2.5, 0.0005, 0.0015, 0.125, 1.005, 2.675,
+				-0.0001, 999999.9995, 1e9, 1e12 + 0.5, Double.NaN, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Math.sin(100) };
+		for (String pattern : PATTERNS) {
+			for (double value : values) {
+				assertSameAsDecimalFormat(pattern, value);
+			}
+			assertSameAsDecimalFormat(pattern, Integer.valueOf(-17));
+			assertSameAsDecimalFormat(pattern, Integer.MAX_VALUE);
+		}
+	}
+
+	@Test
+	public void otherPatternsUseDecimalFormat() {
+		assertSameAsDecimalFormat("#,##0.00", 1234567.891);
+		assertSameAsDecimalFormat("0.00%", 0.1234);
+		assertSameAsDecimalFormat("#.##", 0.5);
+	}
+
+	@Test
+	public void defaultLocaleIsUsed() {
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		try {
+			Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+			assertEquals("-3,142", DecimalFormats.format("0.000", -Math.PI));
+			assertSameAsDecimalFormat("#,##0.00", 1234567.891);
+		} finally {
+			Locale.setDefault(Locale.Category.FORMAT, locale);
+		}
+		assertEquals("3.142", DecimalFormats.format("0.000", Math.PI));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void textIsNotFormatted() {
+		DecimalFormats.format("0.000", "1.5");
+	}
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptProgram.Text;
+import hr.fer.zemris.java.custom.scripting.lexer.SmartScriptLexer;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+public class SmartScriptCompilerTest {
+
+	private SmartScriptProgram compile(String script) {
+		return SmartScriptCompiler.compile(new SmartScriptParser(script).getDocumentNode());
+	}
+
+	@Test
+	public void adjacentTextNodesBecomeOneInstruction() {
+		DocumentNode document = new DocumentNode();
+		document.addChildNode(new TextNode("a"));
+		document.addChildNode(new TextNode("b"));
+		document.addChildNode(new TextNode("c"));
+
+		SmartScriptProgram program = SmartScriptCompiler.compile(document);
+		assertEquals(1, program.size());
+		assertEquals("   0 EMIT_TEXT      abc\n", program.toString());
+	}
+
+	@Test
+	public void textLongerThanOneTokenBecomesOneInstruction() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3 * SmartScriptLexer.MAX_TEXT_LENGTH; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+
+		assertEquals(1, compile(sb.toString()).size());
+	}
+
+	@Test
+	public void textIsNotMergedAcrossTags() {
+		// EMIT_TEXT, LOOP_BEGIN, EMIT_TEXT, LOOP_END, EMIT_TEXT
+		assertEquals(5, compile("a{$FOR i 1 2 1$}b{$END$}c").size());
+		// EMIT_TEXT, PUSH_CONST, EMIT_STACK, EMIT_TEXT
+		assertEquals(4, compile("a{$= 1 $}b").size());
+	}
+
+	@Test
+	public void textIsEncodedOncePerCharset() {
+		Text text = new Text("\u010D\u0107\u017E");
+
+		assertArrayEquals("\u010D\u0107\u017E".getBytes(StandardCharsets.UTF_8), text.encode(StandardCharsets.UTF_8));
+		assertArrayEquals("\u010D\u0107\u017E".getBytes(StandardCharsets.UTF_16), text.encode(StandardCharsets.UTF_16));
+		assertSame(text.encode(StandardCharsets.UTF_8), text.encode(StandardCharsets.UTF_8));
+		assertSame(text.encode(StandardCharsets.UTF_16), text.encode(StandardCharsets.UTF_16));
+	}
+}
@@ -0,0 +1,231 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.FragmentCache;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+public class SmartScriptEngineTest {
+
+	private Map<String, String> parameters = new HashMap<>();
+	private Map<String, String> persistentParameters = new HashMap<>();
+	private Map<String, String> temporaryParameters = new HashMap<>();
+
+	private String execute(String script) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, persistentParameters,
+				new ArrayList<RequestContext.RCCookie>(), temporaryParameters, null);
+		new SmartScriptEngine(new SmartScriptParser(script).getDocumentNode(), context).execute();
+		context.finish();
+
+		String response = new String(os.toByteArray(), StandardCharsets.UTF_8);
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private String execute(String script, FragmentCache cache) throws IOException {
+		String response = executeResponse(script, cache);
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private String executeResponse(String script, FragmentCache cache) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, persistentParameters,
+				new ArrayList<RequestContext.RCCookie>(), temporaryParameters, null);
+		context.setFragmentCache(cache);
+		new SmartScriptEngine(new SmartScriptParser(script).getDocumentNode(), context).execute();
+		context.finish();
+
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String executeStreaming(String script) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, persistentParameters,
+				new ArrayList<RequestContext.RCCookie>(), temporaryParameters, null);
+		new SmartScriptEngine(new StringReader(script), context).execute();
+		context.finish();
+
+		String response = new String(os.toByteArray(), StandardCharsets.UTF_8);
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private String executeFile(String name) throws IOException {
+		return execute(new String(Files.readAllBytes(Paths.get("webroot/scripts", name)),
+				StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void textOnly() throws IOException {
+		assertEquals("plain text", execute("plain text"));
+	}
+
+	@Test
+	public void operatorsUseTopmostValueAsLeftOperand() throws IOException {
+		assertEquals("-2", execute("{$= 5 3 - $}"));
+		assertEquals("15", execute("{$= 5 3 * $}"));
+		assertEquals("4.5", execute("{$= 1 3.5 + $}"));
+	}
+
+	@Test
+	public void echoWritesWholeStack() throws IOException {
+		assertEquals("a1b", execute("{$= \"a\" 1 \"b\" $}"));
+	}
+
+	@Test
+	public void nestedLoops() throws IOException {
+		assertEquals("1:1 1:2 2:1 2:2 ",
+				execute("{$FOR i 1 2 1$}{$FOR j 1 2$}{$= i \":\" j \" \" $}{$END$}{$END$}"));
+	}
+
+	@Test
+	public void loopThatNeverRuns() throws IOException {
+		assertEquals("ab", execute("a{$FOR i 5 1 1$}x{$END$}b"));
+	}
+
+	@Test
+	public void fibonacci() throws IOException {
+		assertEquals("Prvih 10 fibonaccijevih brojeva je:\n0\r\n1\r\n1\r\n2\r\n3\r\n5\r\n8\r\n13\r\n21\r\n34\r\n",
+				executeFile("fibonacci.smscr"));
+	}
+
+	@Test
+	public void parameters() throws IOException {
+		parameters.put("a", "4");
+		parameters.put("b", "5");
+		assertEquals("\nRačunam sumu brojeva:\na=4, b=5, rezultat=9", executeFile("zbrajanje.smscr"));
+	}
+
+	@Test
+	public void persistentParameters() throws IOException {
+		executeFile("brojPoziva.smscr");
+		executeFile("brojPoziva.smscr");
+		assertEquals("3", persistentParameters.get("brojPoziva"));
+	}
+
+	@Test
+	public void functionsInLoops() throws IOException {
+		String output = executeFile("osnovni.smscr");
+		assertTrue(output.contains(" This is 10-th time this message is generated."));
+		assertTrue(output.contains(" sin(10^2) = " + new DecimalFormat("0.000").format(Math.sin(100))));
+	}
+
+	@Test
+	public void streamingExecutionMatchesCompiledProgram() throws IOException {
+		parameters.put("a", "4");
+		parameters.put("b", "5");
+		for (String name : new String[] { "osnovni.smscr", "fibonacci.smscr", "zbrajanje.smscr" }) {
+			String script = new String(Files.readAllBytes(Paths.get("webroot/scripts", name)),
+					StandardCharsets.UTF_8);
+			assertEquals(name, execute(script), executeStreaming(script));
+		}
+		assertEquals("1 2 3 ", executeStreaming("{$ for i 1 3 $}{$= i \" \" $}{$end$}"));
+	}
+
+	@Test
+	public void textIsWrittenInEncodingOfResponse() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, persistentParameters,
+				new ArrayList<RequestContext.RCCookie>(), temporaryParameters, null);
+		context.setEncoding("ISO-8859-1");
+		new SmartScriptEngine(new SmartScriptParser("\u010Da\u0161a \u00E9").getDocumentNode(), context).execute();
+		context.finish();
+
+		String response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+		assertEquals("?a?a \u00E9", response.substring(response.indexOf("\r\n\r\n") + 4));
+	}
+
+	@Test
+	public void mathFunctions() throws IOException {
+		assertEquals("1024", execute("{$= 2 10 @pow $}"));
+		assertEquals("0.25", execute("{$= 2 -2 @pow $}"));
+		assertEquals("3", execute("{$= 9 @sqrt \"0\" @decfmt $}"));
+		assertEquals("5 2.5", execute("{$= -5 @abs \" \" -2.5 @abs $}"));
+		assertEquals("3 2 3", execute("{$= 2.6 @round \" \" 2.6 @floor \" \" 2.1 @ceil $}"));
+		assertEquals("2 7.5", execute("{$= 2 7.5 @min \" \" 2 7.5 @max $}"));
+		assertEquals("1.000", execute("{$= 0 @cos \"0.000\" @decfmt $}"));
+	}
+
+	@Test
+	public void textFunctions() throws IOException {
+		assertEquals("ABC abc", execute("{$= \"abC\" @upper \" \" \"ABc\" @lower $}"));
+		assertEquals("[x] 5", execute("{$= \"[\" \"  x \" @trim @concat \"]\" @concat \" \" \"hello\" @length $}"));
+		assertEquals("007", execute("{$= 7 \"%03d\" @format $}"));
+		assertEquals("&lt;a href=&quot;x&quot;&gt;Tom &amp; Jerry&#39;s&lt;/a&gt;",
+				execute("{$= \"<a href=\\\"x\\\">Tom & Jerry's</a>\" @htmlEscape $}"));
+	}
+
+	@Test
+	public void cachedFragmentOutputIsReused() throws IOException {
+		FragmentCache cache = new FragmentCache(1024);
+		String script = "[{$CACHE 60 \"k\" \"key\" \"\" @paramGet $}{$= \"n\" \"?\" @pparamGet $}{$END$}]";
+
+		persistentParameters.put("n", "1");
+		assertEquals("[1]", execute(script, cache));
+		persistentParameters.put("n", "2");
+		assertEquals("[1]", execute(script, cache));
+		parameters.put("key", "other");
+		assertEquals("[2]", execute(script, cache));
+		assertEquals(2, cache.size());
+		assertEquals("[2]", execute(script, null));
+
+		// a changed fragment does not reuse the output of the old one
+		assertEquals("[2!]", execute(script.replace("{$END$}", "!{$END$}"), cache));
+	}
+
+	@Test
+	public void cachedFragmentsCanBeNestedAndLooped() throws IOException {
+		FragmentCache cache = new FragmentCache(1024);
+		String script = "{$FOR i 1 3$}{$CACHE 60 i$}<{$= i $}{$CACHE 60$}{$= \"n\" \"?\" @pparamGet $}{$END$}>{$END$}{$END$}";
+
+		persistentParameters.put("n", "a");
+		assertEquals("<1a><2a><3a>", execute(script, cache));
+		persistentParameters.put("n", "b");
+		assertEquals("<1a><2a><3a>", execute(script, cache));
+		assertEquals("<1b><2b><3b>", execute(script, null));
+		assertEquals("<1b><2b><3b>", executeStreaming(script));
+	}
+
+	@Test
+	public void cachedFragmentExpires() throws Exception {
+		FragmentCache cache = new FragmentCache(1024);
+		String script = "{$CACHE 0.01$}{$= \"n\" \"?\" @pparamGet $}{$END$}";
+
+		persistentParameters.put("n", "1");
+		assertEquals("1", execute(script, cache));
+		persistentParameters.put("n", "2");
+		Thread.sleep(50);
+		assertEquals("2", execute(script, cache));
+	}
+
+	@Test
+	public void cachedFragmentCanChangeHeader() throws IOException {
+		FragmentCache cache = new FragmentCache(1024);
+		String script = "{$CACHE 60$}{$= \"text/plain\" @setMimeType $}<b>x</b>{$END$}";
+
+		String miss = executeResponse(script, cache);
+		String hit = executeResponse(script, cache);
+
+		assertTrue(miss.endsWith("\r\n\r\n<b>x</b>"));
+		assertTrue(miss.contains("text/plain"));
+		// side effects are not replayed when the output is reused
+		assertTrue(hit.endsWith("\r\n\r\n<b>x</b>"));
+		assertFalse(hit.contains("text/plain"));
+		assertEquals(1, cache.getHits());
+	}
+}
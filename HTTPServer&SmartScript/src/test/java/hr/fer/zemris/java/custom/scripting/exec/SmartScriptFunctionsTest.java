@@ -0,0 +1,96 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+public class SmartScriptFunctionsTest {
+
+	public static class Reverse implements SmartScriptFunction {
+
+		@Override
+		public String getName() {
+			return "reverse";
+		}
+
+		@Override
+		public void execute(OperandStack stack, RequestContext context) {
+			stack.push(new StringBuilder(stack.popString()).reverse().toString());
+		}
+	}
+
+	private String execute(String script, SmartScriptFunctions functions) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, new HashMap<>(), new HashMap<>(),
+				new ArrayList<RequestContext.RCCookie>(), new HashMap<>(), null);
+		SmartScriptProgram program = SmartScriptCompiler.compile(
+				new SmartScriptParser(script).getDocumentNode(), functions);
+		new SmartScriptEngine(program, context).execute();
+		try {
+			context.finish();
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+
+		String response = new String(os.toByteArray(), StandardCharsets.UTF_8);
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	@Test
+	public void defaultRegistryHoldsBuiltinFunctions() {
+		SmartScriptFunctions functions = SmartScriptFunctions.getDefault();
+		for (BuiltinFunction function : BuiltinFunction.values()) {
+			assertSame(function, functions.get(function.getName()));
+		}
+		assertNull(functions.get("noSuchFunction"));
+	}
+
+	@Test
+	public void functionsAreLoadedAsServices() {
+		assertTrue(SmartScriptFunctions.getDefault().get("reverse") instanceof Reverse);
+		assertEquals("cba", execute("{$= \"abc\" @reverse $}", SmartScriptFunctions.getDefault()));
+	}
+
+	@Test
+	public void registeredFunctionReplacesFunctionOfSameName() {
+		SmartScriptFunctions functions = SmartScriptFunctions.load(getClass().getClassLoader());
+		functions.register(new SmartScriptFunction() {
+			@Override
+			public String getName() {
+				return "upper";
+			}
+
+			@Override
+			public void execute(OperandStack stack, RequestContext context) {
+				stack.push("<" + stack.popString() + ">");
+			}
+		});
+
+		assertEquals("<a>", execute("{$= \"a\" @upper $}", functions));
+		assertEquals("A", execute("{$= \"a\" @upper $}", SmartScriptFunctions.getDefault()));
+	}
+
+	@Test
+	public void functionsAreResolvedWhenCompiled() {
+		SmartScriptProgram program = SmartScriptCompiler.compile(
+				new SmartScriptParser("{$= 1 @sin $}").getDocumentNode());
+		assertTrue(program.toString().contains("CALL_FUNCTION  @sin"));
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void unknownFunctionFailsCompilation() {
+		execute("text {$= 1 @noSuchFunction $}", new SmartScriptFunctions());
+	}
+}
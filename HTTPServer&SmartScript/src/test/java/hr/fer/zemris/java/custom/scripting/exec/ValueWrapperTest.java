@@ -0,0 +1,78 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ValueWrapperTest {
+
+	@Test
+	public void integerArithmeticStaysInteger() {
+		ValueWrapper value = new ValueWrapper("12");
+		value.add(3);
+		value.mul("2");
+		value.sub(Integer.valueOf(10));
+
+		assertTrue(value.isInteger());
+		assertEquals(Integer.valueOf(20), value.getValue());
+	}
+
+	@Test
+	public void doubleOperandPromotesResult() {
+		ValueWrapper value = new ValueWrapper(1);
+		value.add("1.5");
+
+		assertFalse(value.isInteger());
+		assertEquals(Double.valueOf(2.5), value.getValue());
+
+		value = new ValueWrapper("1E2");
+		value.div(4);
+		assertEquals(Double.valueOf(25), value.getValue());
+	}
+
+	@Test
+	public void nullIsTreatedAsZero() {
+		ValueWrapper value = new ValueWrapper(null);
+		value.add(null);
+
+		assertEquals(Integer.valueOf(0), value.getValue());
+		assertEquals(0, new ValueWrapper(null).numCompare(0));
+	}
+
+	@Test
+	public void unchangedValueIsReturnedAsGiven() {
+		String number = "42";
+		ValueWrapper value = new ValueWrapper(number);
+
+		assertEquals(-1, value.numCompare(43));
+		assertSame(number, value.getValue());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void invalidStringIsRejected() {
+		new ValueWrapper("4a").add(1);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void divisionByZeroIsRejected() {
+		new ValueWrapper(1).div(0);
+	}
+
+	@Test
+	public void discardedValuesAreReused() {
+		ObjectMultistack multistack = new ObjectMultistack();
+		multistack.push("i", new ValueWrapper(1));
+
+		ValueWrapper first = multistack.pushValue("i", 5);
+		assertEquals(Integer.valueOf(5), multistack.peek("i").getValue());
+		multistack.discard("i");
+		assertEquals(Integer.valueOf(1), multistack.peek("i").getValue());
+
+		ValueWrapper second = multistack.pushValue("j", "7");
+		assertSame(first, second);
+		assertEquals("7", multistack.peek("j").getValue());
+	}
+}
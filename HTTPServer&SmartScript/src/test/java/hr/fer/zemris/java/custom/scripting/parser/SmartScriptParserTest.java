@@ -0,0 +1,163 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.lexer.SmartScriptLexer;
+import hr.fer.zemris.java.custom.scripting.nodes.CacheNode;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+public class SmartScriptParserTest {
+
+	private static final String SCRIPT = "Header {$= \"a\\\"b\" -2 3.25 @sin $}\n"
+			+ "{$ FOR i 1 10 2 $} x{$= i i * $}{$ for j -1 i $}\\{$ y {$END$}{$end$}\\\\tail";
+
+	/** Reader returning one character per read, to cross every window boundary **/
+	private static Reader trickle(String text) {
+		return new StringReader(text) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return super.read(cbuf, off, Math.min(1, len));
+			}
+		};
+	}
+
+	/** Describes the tree, as text nodes with escapes are not equal to themselves **/
+	private static String describe(Node node) {
+		StringBuilder sb = new StringBuilder(node.getClass().getSimpleName());
+		if (node instanceof TextNode) sb.append(((TextNode) node).getText());
+		if (node instanceof EchoNode || node instanceof ForLoopNode) sb.append(node);
+		sb.append('(');
+		for (int i = 0; i < node.numberOfChildren(); ++i) {
+			sb.append(describe(node.getChild(i)));
+		}
+		return sb.append(')').toString();
+	}
+
+	@Test
+	public void readerGivesSameDocumentAsString() {
+		DocumentNode expected = new SmartScriptParser(SCRIPT).getDocumentNode();
+
+		assertEquals(5, expected.numberOfChildren());
+		assertEquals(describe(expected), describe(new SmartScriptParser(new StringReader(SCRIPT)).getDocumentNode()));
+		assertEquals(describe(expected), describe(new SmartScriptParser(trickle(SCRIPT)).getDocumentNode()));
+	}
+
+	@Test
+	public void scriptsOfDocumentRootParseFromReader() throws IOException {
+		try (DirectoryStream<Path> scripts = Files.newDirectoryStream(Paths.get("webroot/scripts"), "*.smscr")) {
+			for (Path script : scripts) {
+				String text = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+				try (Reader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+					assertEquals(describe(new SmartScriptParser(text).getDocumentNode()),
+							describe(new SmartScriptParser(reader).getDocumentNode()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void incrementalParserReturnsCompleteTopLevelNodes() {
+		SmartScriptParser parser = SmartScriptParser.incremental(trickle(SCRIPT));
+
+		assertTrue(parser.nextNode() instanceof TextNode);
+		assertTrue(parser.nextNode() instanceof EchoNode);
+		assertTrue(parser.nextNode() instanceof TextNode);
+		Node loop = parser.nextNode();
+		assertTrue(loop instanceof ForLoopNode);
+		assertEquals(3, loop.numberOfChildren());
+		assertEquals(1, loop.getChild(2).numberOfChildren());
+		assertTrue(parser.nextNode() instanceof TextNode);
+		assertNull(parser.nextNode());
+		assertEquals(0, parser.getDocumentNode().numberOfChildren());
+	}
+
+	@Test
+	public void longTextIsSplitIntoBoundedNodes() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 3 * SmartScriptLexer.MAX_TEXT_LENGTH; ++i) {
+			text.append((char) ('a' + i % 26));
+		}
+		SmartScriptParser parser = SmartScriptParser.incremental(new StringReader(text + "{$= 1 $}"));
+
+		StringBuilder parsed = new StringBuilder();
+		Node node;
+		while ((node = parser.nextNode()) instanceof TextNode) {
+			String part = ((TextNode) node).getText();
+			assertTrue(part.length() <= SmartScriptLexer.MAX_TEXT_LENGTH);
+			parsed.append(part);
+		}
+		assertTrue(node instanceof EchoNode);
+		assertEquals(text.toString(), parsed.toString());
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void unclosedLoopIsReportedAtEnd() {
+		SmartScriptParser parser = SmartScriptParser.incremental(new StringReader("a{$for i 1 2$}b"));
+		assertTrue(parser.nextNode() instanceof TextNode);
+		parser.nextNode();
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void extraEndTagIsReported() {
+		new SmartScriptParser(new StringReader("a{$end$}"));
+	}
+
+	@Test
+	public void cacheTagEnclosesFragment() {
+		DocumentNode document = new SmartScriptParser(
+				"a{$ CACHE 60 \"k\" x @upper $}b{$= x $}{$ for i 1 2 $}c{$end$}{$END$}d").getDocumentNode();
+
+		assertEquals(3, document.numberOfChildren());
+		CacheNode cache = (CacheNode) document.getChild(1);
+		assertEquals("60", cache.getTimeToLive().toString());
+		assertEquals(3, cache.getKeyElements().length);
+		assertEquals(3, cache.numberOfChildren());
+		assertTrue(cache.getChild(2) instanceof ForLoopNode);
+
+		SmartScriptParser parser = SmartScriptParser.incremental(new StringReader("{$cache 0.5$}x{$end$}"));
+		assertTrue(parser.nextNode() instanceof CacheNode);
+		assertNull(parser.nextNode());
+	}
+
+	@Test
+	public void equalCacheNodesHaveEqualHashCodes() {
+		String text = "{$CACHE 0.5 \"k\" x @upper $}{$= x $}{$END$}";
+		Node first = new SmartScriptParser(text).getDocumentNode().getChild(0);
+		Node second = new SmartScriptParser(text).getDocumentNode().getChild(0);
+
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void cacheTagNeedsPositiveTimeToLive() {
+		new SmartScriptParser("{$CACHE 0 \"k\"$}x{$END$}");
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void cacheTagNeedsNumericTimeToLive() {
+		new SmartScriptParser("{$CACHE \"k\"$}x{$END$}");
+	}
+
+	@Test(expected = SmartScriptParserException.class)
+	public void unclosedCacheTagIsReported() {
+		new SmartScriptParser("{$CACHE 10$}x");
+	}
+}
@@ -0,0 +1,58 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void closedRange() {
+		ByteRange range = ByteRange.parse("bytes=100-199", 1000);
+		assertEquals(100, range.getStart());
+		assertEquals(199, range.getEnd());
+		assertEquals(100, range.length());
+		assertEquals("bytes 100-199/1000", range.toContentRange(1000));
+	}
+
+	@Test
+	public void openRangeEndsWithContent() {
+		ByteRange range = ByteRange.parse("bytes=990-", 1000);
+		assertEquals(990, range.getStart());
+		assertEquals(999, range.getEnd());
+	}
+
+	@Test
+	public void endIsLimitedToContent() {
+		assertEquals(999, ByteRange.parse("bytes=0-5000", 1000).getEnd());
+	}
+
+	@Test
+	public void suffixRange() {
+		ByteRange range = ByteRange.parse("bytes=-50", 1000);
+		assertEquals(950, range.getStart());
+		assertEquals(999, range.getEnd());
+
+		assertEquals(0, ByteRange.parse("bytes=-5000", 1000).getStart());
+	}
+
+	@Test
+	public void rangeOutsideOfContent() {
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=5000-6000", 1000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+		assertEquals("bytes */1000", ByteRange.UNSATISFIABLE.toContentRange(1000));
+	}
+
+	@Test
+	public void unsupportedRangesAreIgnored() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-1", 1000));
+		assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+		assertNull(ByteRange.parse("bytes=5-1", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+		assertNull(ByteRange.parse("bytes=-", 1000));
+	}
+}
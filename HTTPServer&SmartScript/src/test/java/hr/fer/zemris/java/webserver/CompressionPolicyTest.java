@@ -0,0 +1,65 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class CompressionPolicyTest {
+
+	private static CompressionPolicy policy(String types) {
+		Properties prop = new Properties();
+		if (types != null) prop.setProperty("types", types);
+		return new CompressionPolicy(prop);
+	}
+
+	@Test
+	public void negotiation() {
+		CompressionPolicy policy = policy(null);
+		assertEquals("gzip", policy.negotiate("gzip, deflate, br"));
+		assertEquals("deflate", policy.negotiate("gzip;q=0.5, deflate"));
+		assertEquals("gzip", policy.negotiate("*"));
+		assertEquals("deflate", policy.negotiate("gzip;q=0, *;q=0.1"));
+		assertNull(policy.negotiate("identity"));
+		assertNull(policy.negotiate("gzip;q=0, deflate;q=0"));
+		assertNull(policy.negotiate(null));
+	}
+
+	@Test
+	public void acceptedCoding() {
+		CompressionPolicy policy = policy(null);
+		assertTrue(policy.accepts("deflate, GZIP;q=0.2", "gzip"));
+		assertFalse(policy.accepts("deflate", "gzip"));
+		assertFalse(policy.accepts(null, "gzip"));
+	}
+
+	@Test
+	public void compressibleTypes() {
+		CompressionPolicy policy = policy("text/*, application/json");
+		assertTrue(policy.isCompressible("text/html"));
+		assertTrue(policy.isCompressible("Text/Plain; charset=UTF-8"));
+		assertTrue(policy.isCompressible("application/json"));
+		assertFalse(policy.isCompressible("application/javascript"));
+		assertFalse(policy.isCompressible("image/png"));
+		assertFalse(policy.isCompressible(null));
+	}
+
+	@Test
+	public void disabledPolicyNeverCompresses() {
+		CompressionPolicy policy = CompressionPolicy.disabled();
+		assertNull(policy.negotiate("gzip"));
+		assertFalse(policy.accepts("gzip", "gzip"));
+		assertFalse(policy.isCompressible("text/html"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidLevel() {
+		Properties prop = new Properties();
+		prop.setProperty("level", "12");
+		new CompressionPolicy(prop);
+	}
+}
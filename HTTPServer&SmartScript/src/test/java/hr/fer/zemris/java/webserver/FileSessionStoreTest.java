@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSessionStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	@Test
+	public void sessionsSurviveClose() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		SessionMapEntry session = store.create("localhost", now());
+		session.getMap().put("brojPoziva", "3");
+		store.update(session);
+		store.close();
+
+		FileSessionStore reopened = new FileSessionStore(dir, 600);
+		SessionMapEntry loaded = reopened.get(session.getSid(), "localhost", now());
+		assertNotNull(loaded);
+		assertEquals("3", loaded.getMap().get("brojPoziva"));
+		assertEquals(1, reopened.size());
+		reopened.close();
+	}
+
+	@Test
+	public void logIsReplayedWithoutClose() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		SessionMapEntry session = store.create("localhost", now());
+		session.getMap().put("a", "1");
+		store.update(session);
+		session.getMap().put("a", "2");
+		session.getMap().put("b", "č");
+		store.update(session);
+
+		FileSessionStore reopened = new FileSessionStore(folder.newFolder().toPath(), 600);
+		assertEquals(0, reopened.size());
+		reopened.close();
+
+		reopened = new FileSessionStore(dir, 600);
+		SessionMapEntry loaded = reopened.get(session.getSid(), "localhost", now());
+		assertEquals("2", loaded.getMap().get("a"));
+		assertEquals("č", loaded.getMap().get("b"));
+		reopened.close();
+		store.close();
+	}
+
+	@Test
+	public void expiredSessionsAreNotLoaded() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		SessionMapEntry old = store.create("localhost", now() - 1000);
+		SessionMapEntry current = store.create("localhost", now());
+		store.update(old);
+		store.update(current);
+		store.close();
+
+		FileSessionStore reopened = new FileSessionStore(dir, 600);
+		assertEquals(1, reopened.size());
+		assertNull(reopened.get(old.getSid(), "localhost", now()));
+		assertNotNull(reopened.get(current.getSid(), "localhost", now()));
+		reopened.close();
+	}
+
+	@Test
+	public void incompleteLogRecordIsIgnored() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		SessionMapEntry session = store.create("localhost", now());
+		store.update(session);
+		Files.write(dir.resolve("sessions.log"), new byte[] { 0, 0, 1, 0, 5, 'a' },
+				StandardOpenOption.APPEND);
+
+		FileSessionStore reopened = new FileSessionStore(dir, 600);
+		assertEquals(1, reopened.size());
+		assertNotNull(reopened.get(session.getSid(), "localhost", now()));
+		reopened.close();
+		store.close();
+	}
+
+	@Test
+	public void unchangedSessionIsNotLoggedAgain() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		SessionMapEntry session = store.create("localhost", now());
+		store.update(session);
+		long size = Files.size(dir.resolve("sessions.log"));
+
+		store.get(session.getSid(), "localhost", now() + 1);
+		store.update(session);
+		assertEquals(size, Files.size(dir.resolve("sessions.log")));
+
+		session.getMap().put("a", "1");
+		store.update(session);
+		assertEquals(true, Files.size(dir.resolve("sessions.log")) > size);
+		store.close();
+	}
+
+	@Test
+	public void valuesLongerThan64KiBAreSaved() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		FileSessionStore store = new FileSessionStore(dir, 600);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 70000; ++i) {
+			sb.append(i % 2 == 0 ? 'a' : '\u010d');
+		}
+		String value = sb.toString();
+		SessionMapEntry large = store.create("localhost", now());
+		large.getMap().put("text", value);
+		store.update(large);
+		SessionMapEntry small = store.create("localhost", now());
+		small.getMap().put("a", "1");
+		store.update(small);
+		store.close();
+
+		FileSessionStore reopened = new FileSessionStore(dir, 600);
+		assertEquals(2, reopened.size());
+		assertEquals(value, reopened.get(large.getSid(), "localhost", now()).getMap().get("text"));
+		assertEquals("1", reopened.get(small.getSid(), "localhost", now()).getMap().get("a"));
+		reopened.close();
+	}
+}
@@ -0,0 +1,111 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+	private static final long ENTRY = FragmentCache.sizeOf("a", 4);
+
+	@Test
+	public void outputIsReusedUntilItExpires() throws InterruptedException {
+		FragmentCache cache = new FragmentCache(1000);
+		byte[] body = { 1, 2, 3 };
+		cache.put("a", body, 1, TimeUnit.HOURS);
+		cache.put("b", body, 100, TimeUnit.MILLISECONDS);
+
+		assertArrayEquals(body, cache.get("a"));
+		assertArrayEquals(body, cache.get("b"));
+		Thread.sleep(150);
+		assertArrayEquals(body, cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNull(cache.get("c"));
+
+		assertEquals(1, cache.size());
+		assertEquals(FragmentCache.sizeOf("a", 3), cache.getBytes());
+		assertEquals(3, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void leastRecentlyUsedOutputIsEvicted() {
+		FragmentCache cache = new FragmentCache(2 * ENTRY + 2);
+		cache.put("a", new byte[4], 1, TimeUnit.HOURS);
+		cache.put("b", new byte[4], 1, TimeUnit.HOURS);
+		cache.get("a");
+		cache.put("c", new byte[4], 1, TimeUnit.HOURS);
+
+		assertNull(cache.get("b"));
+		assertEquals(4, cache.get("a").length);
+		assertEquals(4, cache.get("c").length);
+		assertEquals(2 * ENTRY, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void expiredOutputIsEvictedFirst() throws InterruptedException {
+		FragmentCache cache = new FragmentCache(2 * ENTRY + 2);
+		cache.put("a", new byte[4], 1, TimeUnit.HOURS);
+		cache.put("b", new byte[4], 1, TimeUnit.MILLISECONDS);
+		Thread.sleep(10);
+		cache.put("c", new byte[4], 1, TimeUnit.HOURS);
+
+		assertEquals(4, cache.get("a").length);
+		assertEquals(4, cache.get("c").length);
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void replacedAndOversizedOutput() {
+		FragmentCache cache = new FragmentCache(FragmentCache.sizeOf("a", 10));
+		cache.put("a", new byte[4], 1, TimeUnit.HOURS);
+		cache.put("a", new byte[6], 1, TimeUnit.HOURS);
+		cache.put("b", new byte[11], 1, TimeUnit.HOURS);
+
+		assertEquals(6, cache.get("a").length);
+		assertNull(cache.get("b"));
+		assertEquals(FragmentCache.sizeOf("a", 6), cache.getBytes());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void zeroCapacityCachesNothing() {
+		FragmentCache cache = new FragmentCache(0);
+		cache.put("a", new byte[1], 1, TimeUnit.HOURS);
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void keysCountTowardsCapacity() {
+		long capacity = 10 * FragmentCache.sizeOf("key-0000", 0);
+		FragmentCache cache = new FragmentCache(capacity);
+		for (int i = 0; i < 1000; ++i) {
+			cache.put(String.format("key-%04d", i), new byte[0], 1, TimeUnit.HOURS);
+		}
+
+		assertEquals(10, cache.size());
+		assertEquals(capacity, cache.getBytes());
+		assertEquals(990, cache.getEvictions());
+	}
+
+	@Test
+	public void expiredOutputIsRemovedWhenStoring() throws InterruptedException {
+		FragmentCache cache = new FragmentCache(1000);
+		cache.put("a", new byte[4], 1, TimeUnit.MILLISECONDS);
+		cache.put("b", new byte[4], 1, TimeUnit.MILLISECONDS);
+		Thread.sleep(150);
+		cache.put("c", new byte[4], 1, TimeUnit.HOURS);
+
+		assertEquals(1, cache.size());
+		assertEquals(ENTRY, cache.getBytes());
+		assertEquals(0, cache.getEvictions());
+	}
+}
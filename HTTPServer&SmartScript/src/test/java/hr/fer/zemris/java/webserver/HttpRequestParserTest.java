@@ -0,0 +1,83 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpRequestParserTest {
+
+	private static HttpRequestParser parse(String request) {
+		byte[] data = request.getBytes(StandardCharsets.ISO_8859_1);
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.reset(data, 0);
+		assertTrue(parser.parse(data.length));
+		return parser;
+	}
+
+	@Test
+	public void requestLineAndHeaders() {
+		HttpRequestParser parser = parse("GET /scripts/osnovni.smscr?a=1&b=2#top HTTP/1.1\r\n"
+				+ "Host: localhost:5721\r\n" + "Accept:  text/html \r\n" + "\r\n");
+		assertTrue(parser.isRequestLineValid());
+		assertTrue(parser.isMethod("get"));
+		assertTrue(parser.isVersion("HTTP/1.1"));
+		assertEquals("/scripts/osnovni.smscr", parser.getPath());
+		assertEquals("a=1&b=2", parser.getQuery());
+		assertEquals(2, parser.getHeaderCount());
+		assertEquals("localhost:5721", parser.getHeader("host"));
+		assertEquals("text/html", parser.getHeader("ACCEPT"));
+		assertNull(parser.getHeader("Range"));
+	}
+
+	@Test
+	public void incrementalParsing() {
+		byte[] data = "\r\nGET / HTTP/1.0\nHost: a\n\nGET /next HTTP/1.1".getBytes(StandardCharsets.ISO_8859_1);
+		HttpRequestParser parser = new HttpRequestParser();
+		parser.reset(data, 0);
+		for (int i = 0; i < 26; ++i) {
+			assertFalse(parser.parse(i));
+		}
+		assertTrue(parser.parse(data.length));
+		assertEquals(26, parser.getEnd());
+		assertEquals("/", parser.getPath());
+		assertNull(parser.getQuery());
+		assertEquals("a", parser.getHeader("Host"));
+	}
+
+	@Test
+	public void invalidRequestLine() {
+		assertFalse(parse("GET  / HTTP/1.1\r\n\r\n").isRequestLineValid());
+		assertFalse(parse("GET /\r\n\r\n").isRequestLineValid());
+		assertFalse(parse("GET / HTTP/1.1 x\r\n\r\n").isMethod("GET"));
+	}
+
+	@Test
+	public void foldedHeaderContinuesValue() {
+		HttpRequestParser parser = parse("GET / HTTP/1.1\r\nX-Long: first\r\n\tsecond\r\nNoColon\r\n\r\n");
+		assertEquals(1, parser.getHeaderCount());
+		assertEquals("first\tsecond", parser.getHeader("X-Long"));
+	}
+
+	@Test
+	public void headerTokens() {
+		HttpRequestParser parser = parse("GET / HTTP/1.0\r\nConnection: Upgrade, Keep-Alive\r\n\r\n");
+		assertTrue(parser.hasHeaderToken("connection", "keep-alive"));
+		assertFalse(parser.hasHeaderToken("connection", "close"));
+		assertFalse(parser.hasHeaderToken("Upgrade", "keep-alive"));
+	}
+
+	@Test
+	public void cookies() {
+		HttpRequestParser parser = parse("GET / HTTP/1.1\r\nCookie: a=1; sid=\"ABC\"\r\n"
+				+ "cookie: x=y;sidx=2\r\n\r\n");
+		assertEquals("ABC", parser.getCookie("sid"));
+		assertEquals("1", parser.getCookie("a"));
+		assertEquals("2", parser.getCookie("sidx"));
+		assertNull(parser.getCookie("b"));
+	}
+}
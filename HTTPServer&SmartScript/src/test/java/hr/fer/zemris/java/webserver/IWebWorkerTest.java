@@ -0,0 +1,52 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class IWebWorkerTest {
+
+	private static RequestContext context(ByteArrayOutputStream os) {
+		return new RequestContext(os, new HashMap<>(), new HashMap<>(), new ArrayList<>());
+	}
+
+	@Test
+	public void defaultAsyncProcessingCompletesAfterWriting() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		IWebWorker worker = context -> context.write("hi");
+
+		RequestContext context = context(os);
+		CompletableFuture<Void> response = worker.processRequestAsync(context).toCompletableFuture();
+
+		assertTrue(response.isDone());
+		response.get();
+		context.finish();
+		assertTrue(os.toString("UTF-8").endsWith("hi"));
+	}
+
+	@Test
+	public void defaultAsyncProcessingReportsFailure() throws InterruptedException {
+		IOException failure = new IOException("broken");
+		IWebWorker worker = context -> { throw failure; };
+
+		CompletableFuture<Void> response = worker.processRequestAsync(context(new ByteArrayOutputStream()))
+				.toCompletableFuture();
+
+		assertTrue(response.isCompletedExceptionally());
+		try {
+			response.get();
+			fail("Failure expected");
+		} catch (ExecutionException ex) {
+			assertSame(failure, ex.getCause());
+		}
+	}
+}
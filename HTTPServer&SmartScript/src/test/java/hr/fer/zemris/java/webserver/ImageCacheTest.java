@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.ImageCache.CachedImage;
+
+public class ImageCacheTest {
+
+	private static BufferedImage image(int size, int rgb) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, rgb);
+		return image;
+	}
+
+	@Test
+	public void encodedImageCanBeDecoded() throws Exception {
+		CachedImage encoded = ImageCache.encode(image(20, 0xff0000), "png");
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoded.getBody()));
+
+		assertEquals("image/png", encoded.getMimeType());
+		assertEquals(20, decoded.getWidth());
+		assertEquals(0xff0000, decoded.getRGB(0, 0) & 0xffffff);
+		assertEquals(encoded.getETag(), ImageCache.encode(image(20, 0xff0000), "png").getETag());
+		assertNotEquals(encoded.getETag(), ImageCache.encode(image(20, 0x00ff00), "png").getETag());
+	}
+
+	@Test
+	public void imageIsRenderedOncePerKey() throws Exception {
+		ImageCache cache = new ImageCache(100000);
+		AtomicInteger renders = new AtomicInteger();
+
+		CachedImage first = cache.get("a", "png", () -> { renders.incrementAndGet(); return image(10, 1); });
+		CachedImage second = cache.get("a", "png", () -> { renders.incrementAndGet(); return image(10, 1); });
+
+		assertSame(first, second);
+		assertEquals(1, renders.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(first.getBody().length, cache.getBytes());
+	}
+
+	@Test
+	public void leastRecentlyUsedImageIsEvicted() throws Exception {
+		long size = ImageCache.encode(image(10, 1), "png").getBody().length;
+		ImageCache cache = new ImageCache(size * 2 + size / 2);
+
+		cache.get("a", "png", () -> image(10, 1));
+		cache.get("b", "png", () -> image(10, 1));
+		cache.get("a", "png", () -> image(10, 1));
+		cache.get("c", "png", () -> image(10, 1));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get("a", "png", () -> image(10, 1));
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void imageLargerThanCapacityIsNotCached() throws Exception {
+		ImageCache cache = new ImageCache(0);
+
+		cache.get("a", "png", () -> image(10, 1));
+
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void notModifiedMatchesEntityTag() throws Exception {
+		CachedImage image = ImageCache.encode(image(10, 1), "png");
+
+		assertTrue(image.isNotModified(image.getETag()));
+		assertTrue(image.isNotModified("\"x\", W/" + image.getETag()));
+		assertTrue(image.isNotModified("*"));
+		assertFalse(image.isNotModified("\"x\""));
+		assertFalse(image.isNotModified(null));
+	}
+}
@@ -0,0 +1,71 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class InMemorySessionStoreTest {
+
+	@Test
+	public void createdSessionIsFound() {
+		InMemorySessionStore store = new InMemorySessionStore(100);
+		SessionMapEntry session = store.create("localhost", 1000);
+
+		assertEquals(20, session.getSid().length());
+		assertSame(session, store.get(session.getSid(), "localhost", 1050));
+		assertNull(store.get(session.getSid(), "otherhost", 1050));
+		assertNull(store.get("unknown", "localhost", 1050));
+	}
+
+	@Test
+	public void lookupRenewsSession() {
+		InMemorySessionStore store = new InMemorySessionStore(100);
+		SessionMapEntry session = store.create("localhost", 1000);
+
+		store.get(session.getSid(), "localhost", 1080);
+		assertEquals(1180, session.getValidUntil());
+		assertSame(session, store.get(session.getSid(), "localhost", 1150));
+	}
+
+	@Test
+	public void expiredSessionIsRemovedOnLookup() {
+		InMemorySessionStore store = new InMemorySessionStore(100);
+		SessionMapEntry session = store.create("localhost", 1000);
+
+		assertNull(store.get(session.getSid(), "localhost", 1101));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void wheelRemovesOnlyExpiredSessions() {
+		InMemorySessionStore store = new InMemorySessionStore(10, 8);
+		store.expire(1000);
+		SessionMapEntry kept = store.create("localhost", 1000);
+		SessionMapEntry dropped = store.create("localhost", 1000);
+		assertNotEquals(kept.getSid(), dropped.getSid());
+
+		for (long now = 1001; now <= 1020; ++now) {
+			if (now % 5 == 0) store.get(kept.getSid(), "localhost", now);
+			store.expire(now);
+		}
+
+		assertEquals(1, store.size());
+		assertSame(kept, store.get(kept.getSid(), "localhost", 1020));
+		assertNull(store.get(dropped.getSid(), "localhost", 1020));
+	}
+
+	@Test
+	public void wheelCatchesUpAfterLongPause() {
+		InMemorySessionStore store = new InMemorySessionStore(10, 8);
+		store.expire(1000);
+		for (int i = 0; i < 50; ++i) {
+			store.create("localhost", 1000 + i % 5);
+		}
+
+		assertEquals(50, store.expire(5000));
+		assertEquals(0, store.size());
+	}
+}
@@ -0,0 +1,56 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverAllValuesInOrder() {
+		long previousUpper = -1;
+		for (int i = 0; i <= LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE); ++i) {
+			long upper = LatencyHistogram.bucketUpperBound(i);
+			assertEquals(i, LatencyHistogram.bucketIndex(previousUpper + 1));
+			assertEquals(i, LatencyHistogram.bucketIndex(upper));
+			previousUpper = upper;
+		}
+		assertEquals(LatencyHistogram.MAX_VALUE, previousUpper);
+	}
+
+	@Test
+	public void relativeErrorIsSmall() {
+		for (long value = 1; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+			long upper = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+			assertTrue(upper >= value);
+			assertTrue(upper - value <= value / 16);
+		}
+	}
+
+	@Test
+	public void quantiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; ++i) {
+			histogram.record(i);
+		}
+		histogram.recordNanos(50_000_000);
+
+		assertEquals(1001, histogram.getCount());
+		assertEquals(500500 + 50000, histogram.getSum());
+		assertEquals(50000, histogram.getMax());
+		assertEquals(1, histogram.getValueAtQuantile(0));
+		long median = histogram.getValueAtQuantile(0.5);
+		assertTrue(median >= 501 && median <= 501 + 501 / 16);
+		long p99 = histogram.getValueAtQuantile(0.99);
+		assertTrue(p99 >= 991 && p99 <= 991 + 991 / 16);
+		assertEquals(50000, histogram.getValueAtQuantile(1));
+	}
+
+	@Test
+	public void emptyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtQuantile(0.99));
+		assertEquals(0, histogram.getCount());
+	}
+}
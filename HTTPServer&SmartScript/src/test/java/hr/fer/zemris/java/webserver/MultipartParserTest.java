@@ -0,0 +1,99 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.MultipartParser.PartTooLargeException;
+
+public class MultipartParserTest {
+
+	private static final String BODY = "preamble\r\n"
+			+ "--XyZ\r\n"
+			+ "Content-Disposition: form-data; name=\"title\"\r\n"
+			+ "\r\n"
+			+ "Čaša\r\n"
+			+ "--XyZ\r\n"
+			+ "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+			+ "Content-Type: text/plain\r\n"
+			+ "\r\n"
+			+ "line one\r\n--XyNot a boundary\r\n"
+			+ "--XyZ\r\n"
+			+ "Content-Disposition: form-data; name=\"skipped\"\r\n"
+			+ "\r\n"
+			+ "ignored\r\n"
+			+ "--XyZ--\r\n";
+
+	private static MultipartParser parser(String body) {
+		return new MultipartParser(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "XyZ");
+	}
+
+	@Test
+	public void boundaryFromContentType() {
+		assertEquals("XyZ", MultipartParser.boundary("multipart/form-data; boundary=XyZ"));
+		assertEquals("a b", MultipartParser.boundary("multipart/form-data; charset=x; boundary=\"a b\""));
+		assertNull(MultipartParser.boundary("multipart/form-data"));
+	}
+
+	@Test
+	public void partsAreReadInOrder() throws IOException {
+		MultipartParser parser = parser(BODY);
+
+		assertTrue(parser.nextPart());
+		assertEquals("title", parser.getName());
+		assertNull(parser.getFileName());
+		ByteArrayOutputStream value = new ByteArrayOutputStream();
+		parser.readPart(value, 100);
+		assertEquals("Čaša", new String(value.toByteArray(), StandardCharsets.UTF_8));
+
+		assertTrue(parser.nextPart());
+		assertEquals("file", parser.getName());
+		assertEquals("a.txt", parser.getFileName());
+		assertEquals("text/plain", parser.getContentType());
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		assertEquals(28, parser.readPart(file, 100));
+		assertEquals("line one\r\n--XyNot a boundary", new String(file.toByteArray(), StandardCharsets.UTF_8));
+
+		assertTrue(parser.nextPart());
+		assertEquals("skipped", parser.getName());
+		assertFalse(parser.nextPart());
+		assertFalse(parser.nextPart());
+	}
+
+	@Test
+	public void largePartIsStreamed() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 50000; ++i) {
+			content.append((char) ('a' + i % 26));
+		}
+		MultipartParser parser = parser("--XyZ\r\nContent-Disposition: form-data; name=\"f\"; filename=\"f\"\r\n\r\n"
+				+ content + "\r\n--XyZ--");
+		assertTrue(parser.nextPart());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(50000, parser.readPart(out, Long.MAX_VALUE));
+		assertEquals(content.toString(), new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+		assertFalse(parser.nextPart());
+	}
+
+	@Test(expected = PartTooLargeException.class)
+	public void partLongerThanAllowed() throws IOException {
+		MultipartParser parser = parser(BODY);
+		parser.nextPart();
+		parser.readPart(new ByteArrayOutputStream(), 3);
+	}
+
+	@Test(expected = IOException.class)
+	public void missingClosingBoundary() throws IOException {
+		MultipartParser parser = parser("--XyZ\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nvalue");
+		parser.nextPart();
+		parser.readPart(new ByteArrayOutputStream(), 100);
+	}
+}
@@ -0,0 +1,87 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RequestBodyTest {
+
+	private static ConnectionInput input(String data, int bufferSize) {
+		byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+		return new ConnectionInput(new byte[bufferSize], new ByteArrayInputStream(bytes));
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] chunk = new byte[3];
+		int r;
+		while ((r = in.read(chunk)) != -1) {
+			bos.write(chunk, 0, r);
+		}
+		return new String(bos.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	public void lengthBodyStopsAtItsEnd() throws IOException {
+		ConnectionInput input = input("hello worldNEXT", 64);
+		input.fill();
+		RequestBody body = RequestBody.ofLength(input, 11);
+		assertEquals("hello world", readAll(body));
+		assertTrue(body.isFinished());
+		assertEquals(11, body.getLength());
+		assertEquals('N', input.read());
+	}
+
+	@Test
+	public void chunkedBody() throws IOException {
+		ConnectionInput input = input("5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\nTrailer: x\r\n\r\nNEXT", 8);
+		RequestBody body = RequestBody.chunked(input, 100);
+		assertEquals("hello world", readAll(body));
+		assertTrue(body.isFinished());
+		assertEquals(-1, body.getLength());
+		assertEquals('N', input.read());
+	}
+
+	@Test(expected = IOException.class)
+	public void chunkedBodyLongerThanAllowed() throws IOException {
+		readAll(RequestBody.chunked(input("a\r\n0123456789\r\n0\r\n\r\n", 8), 5));
+	}
+
+	@Test(expected = IOException.class)
+	public void invalidChunkSize() throws IOException {
+		readAll(RequestBody.chunked(input("xyz\r\nabc\r\n0\r\n\r\n", 8), 100));
+	}
+
+	@Test(expected = IOException.class)
+	public void prematureEnd() throws IOException {
+		readAll(RequestBody.ofLength(input("abc", 8), 10));
+	}
+
+	@Test
+	public void drainRespectsLimit() throws IOException {
+		assertTrue(RequestBody.ofLength(input("0123456789", 8), 10).drain(10));
+		assertFalse(RequestBody.ofLength(input("0123456789", 8), 10).drain(5));
+		assertTrue(RequestBody.chunked(input("3\r\nabc\r\n0\r\n\r\n", 8), 100).drain(10));
+	}
+
+	@Test
+	public void headerIsKeptWhileBodyIsRead() throws IOException {
+		byte[] buffer = new byte[16];
+		ConnectionInput input = new ConnectionInput(buffer,
+				new ByteArrayInputStream("HEAD0123456789abcdefghij".getBytes(StandardCharsets.ISO_8859_1)));
+		while (input.getLimit() < 4) input.fill();
+		input.skipHeader(4);
+		assertEquals("0123456789abcdefghij", readAll(RequestBody.ofLength(input, 20)));
+		assertArrayEquals("HEAD".getBytes(StandardCharsets.ISO_8859_1), Arrays.copyOf(buffer, 4));
+	}
+}
@@ -0,0 +1,291 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class RequestContextTest {
+
+	/** Counts calls to write so tests can check that output is coalesced **/
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+		private int writes;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			writes++;
+			super.write(b);
+		}
+	}
+
+	private static RequestContext context(OutputStream os, boolean keepAlive, boolean chunkedAllowed) {
+		RequestContext context = new RequestContext(os, new HashMap<>(), new HashMap<>(),
+				new ArrayList<>());
+		context.setKeepAlive(keepAlive);
+		context.setChunkedAllowed(chunkedAllowed);
+		return context;
+	}
+
+	private static String headers(String response) {
+		return response.substring(0, response.indexOf("\r\n\r\n") + 2);
+	}
+
+	private static String body(String response) {
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private static String dechunk(String body) {
+		StringBuilder decoded = new StringBuilder();
+		int pos = 0;
+		while (true) {
+			int lineEnd = body.indexOf("\r\n", pos);
+			int size = Integer.parseInt(body.substring(pos, lineEnd), 16);
+			pos = lineEnd + 2;
+			if (size == 0) break;
+			decoded.append(body, pos, pos + size);
+			pos += size + 2;
+		}
+		return decoded.toString();
+	}
+
+	private static String inflate(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int r;
+		while ((r = in.read(chunk)) != -1) {
+			out.write(chunk, 0, r);
+		}
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static RequestContext compressed(OutputStream os, String coding) {
+		RequestContext context = context(os, true, true);
+		context.setCompression(new CompressionPolicy(new Properties()), coding);
+		return context;
+	}
+
+	private static String text(int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < length; ++i) {
+			sb.append("line ").append(i).append('\n');
+		}
+		return sb.substring(0, length);
+	}
+
+	@Test
+	public void smallResponseIsSentOnceWithLength() throws IOException {
+		CountingOutputStream os = new CountingOutputStream();
+		RequestContext context = context(os, true, true);
+		for (int i = 0; i < 100; ++i) {
+			context.write("x");
+		}
+		assertEquals(0, os.writes);
+
+		context.finish();
+		String response = os.toString("ISO-8859-1");
+
+		assertEquals(1, os.writes);
+		assertTrue(headers(response).contains("Content-Length: 100\r\n"));
+		assertTrue(headers(response).contains("Connection: keep-alive\r\n"));
+		assertEquals(100, body(response).length());
+		assertTrue(context.isKeepAlive());
+	}
+
+	@Test
+	public void emptyResponseHasZeroLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, true, true);
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		assertTrue(response.contains("Content-Length: 0\r\n"));
+		assertEquals("", body(response));
+	}
+
+	@Test
+	public void largeResponseIsChunked() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, true, true);
+		byte[] part = new byte[3000];
+		Arrays.fill(part, (byte) 'a');
+		for (int i = 0; i < 10; ++i) {
+			context.write(part);
+		}
+		context.write(new byte[20000]);
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		assertTrue(headers(response).contains("Transfer-Encoding: chunked\r\n"));
+		assertFalse(headers(response).contains("Content-Length"));
+		assertTrue(context.isKeepAlive());
+
+		String body = body(response);
+		StringBuilder decoded = new StringBuilder();
+		int pos = 0;
+		while (true) {
+			int lineEnd = body.indexOf("\r\n", pos);
+			int size = Integer.parseInt(body.substring(pos, lineEnd), 16);
+			pos = lineEnd + 2;
+			if (size == 0) break;
+			decoded.append(body, pos, pos + size);
+			pos += size + 2;
+		}
+		assertEquals(body.length(), pos + 2);
+		assertEquals(50000, decoded.length());
+		assertEquals(30000, decoded.toString().lastIndexOf('a') + 1);
+	}
+
+	@Test
+	public void largeResponseWithoutChunkingClosesConnection() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, true, false);
+		context.write(new byte[20000]);
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		assertTrue(headers(response).contains("Connection: close\r\n"));
+		assertEquals(20000, body(response).length());
+		assertFalse(context.isKeepAlive());
+	}
+
+	@Test
+	public void knownLengthIsKept() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, true, true);
+		context.setContentLength(20000L);
+		context.write(new byte[20000]);
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		assertTrue(headers(response).contains("Content-Length: 20000\r\n"));
+		assertEquals(20000, body(response).length());
+	}
+
+	@Test
+	public void textUsesEncoding() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, false, false);
+		context.setEncoding("UTF-8");
+		context.write("Čevapčići");
+		context.finish();
+
+		byte[] expected = "Čevapčići".getBytes(StandardCharsets.UTF_8);
+		String response = os.toString("ISO-8859-1");
+		assertTrue(response.contains("Content-Length: " + expected.length + "\r\n"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void headerCannotChangeAfterWrite() throws IOException {
+		RequestContext context = context(new ByteArrayOutputStream(), false, false);
+		context.write("a");
+		context.setStatusCode(404);
+	}
+
+	@Test
+	public void smallCompressedResponseHasLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = compressed(os, CompressionPolicy.GZIP);
+		String text = text(5000);
+		context.write(text);
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		String body = body(response);
+		assertTrue(headers(response).contains("Content-Encoding: gzip\r\n"));
+		assertTrue(headers(response).contains("Vary: Accept-Encoding\r\n"));
+		assertTrue(headers(response).contains("Content-Length: " + body.length() + "\r\n"));
+		assertTrue(body.length() < text.length() / 2);
+		assertEquals(text, inflate(new GZIPInputStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)))));
+	}
+
+	@Test
+	public void largeCompressedResponseIsStreamed() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = compressed(os, CompressionPolicy.DEFLATE);
+		String text = text(200000);
+		for (int i = 0; i < text.length(); i += 1000) {
+			context.write(text.substring(i, i + 1000));
+			if (i == 100000) context.flush();
+		}
+		context.write(text(30000).getBytes(StandardCharsets.ISO_8859_1));
+		context.finish();
+
+		String response = os.toString("ISO-8859-1");
+		assertTrue(headers(response).contains("Content-Encoding: deflate\r\n"));
+		assertTrue(headers(response).contains("Transfer-Encoding: chunked\r\n"));
+		String body = dechunk(body(response));
+		assertEquals(text + text(30000), inflate(new InflaterInputStream(
+				new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)))));
+	}
+
+	@Test
+	public void smallOrIncompressibleResponseIsNotCompressed() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = compressed(os, CompressionPolicy.GZIP);
+		context.write("short");
+		context.finish();
+		String response = os.toString("ISO-8859-1");
+		assertFalse(response.contains("Content-Encoding"));
+		assertTrue(response.contains("Vary: Accept-Encoding\r\n"));
+		assertEquals("short", body(response));
+
+		os = new ByteArrayOutputStream();
+		context = compressed(os, CompressionPolicy.GZIP);
+		context.setMimeType("image/png");
+		context.write(new byte[5000]);
+		context.finish();
+		response = os.toString("ISO-8859-1");
+		assertFalse(response.contains("Content-Encoding"));
+		assertFalse(response.contains("Vary"));
+	}
+
+	@Test
+	public void capturesRecordUncompressedMessage() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = compressed(os, "gzip");
+		String large = text(100000);
+		context.write("a");
+		context.startCapture();
+		context.write("b");
+		context.startCapture();
+		context.write(large);
+		byte[] inner = context.endCapture();
+		context.write("c");
+		byte[] outer = context.endCapture();
+		context.write("d");
+		context.finish();
+
+		assertEquals(large, new String(inner, StandardCharsets.UTF_8));
+		assertEquals("b" + large + "c", new String(outer, StandardCharsets.UTF_8));
+		String response = os.toString("ISO-8859-1");
+		String body = body(response);
+		if (headers(response).contains("Transfer-Encoding: chunked")) body = dechunk(body);
+		assertEquals("ab" + large + "cd", inflate(new GZIPInputStream(
+				new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)))));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void captureMustBeStarted() {
+		context(new ByteArrayOutputStream(), false, false).endCapture();
+	}
+}
@@ -0,0 +1,86 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.workers.EchoParams;
+
+public class RouterTest {
+
+	private static IWebWorker worker() {
+		return (context) -> {};
+	}
+
+	@Test
+	public void exactRoute() {
+		Router router = new Router();
+		IWebWorker hello = worker();
+		router.addRoute("/hello", hello);
+
+		assertSame(hello, router.route("/hello", null));
+		assertNull(router.route("/hello/", null));
+		assertNull(router.route("/hell", null));
+	}
+
+	@Test
+	public void patternRouteCapturesParameters() {
+		Router router = new Router();
+		IWebWorker posts = worker();
+		router.addRoute("/users/{name}/posts/{id}", posts);
+
+		Map<String, String> parameters = new HashMap<>();
+		assertSame(posts, router.route("/users/ana/posts/42", parameters));
+		assertEquals("ana", parameters.get("name"));
+		assertEquals("42", parameters.get("id"));
+
+		assertNull(router.route("/users//posts/42", null));
+		assertNull(router.route("/users/ana/posts", null));
+		assertNull(router.route("/users/ana/posts/42/x", null));
+	}
+
+	@Test
+	public void literalSegmentIsPreferred() {
+		Router router = new Router();
+		IWebWorker me = worker();
+		IWebWorker user = worker();
+		IWebWorker settings = worker();
+		router.addRoute("/users/me", me);
+		router.addRoute("/users/{name}", user);
+		router.addRoute("/users/{name}/settings", settings);
+
+		Map<String, String> parameters = new HashMap<>();
+		assertSame(me, router.route("/users/me", parameters));
+		assertTrue(parameters.isEmpty());
+		assertSame(user, router.route("/users/ivo", parameters));
+		assertSame(settings, router.route("/users/me/settings", parameters));
+		assertEquals("me", parameters.get("name"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void conflictingParametersAreRejected() {
+		Router router = new Router();
+		router.addRoute("/users/{name}", worker());
+		router.addRoute("/users/{id}/posts", worker());
+	}
+
+	@Test
+	public void dynamicWorkerIsInstantiatedOnce() {
+		Router router = new Router("/ext/", "hr.fer.zemris.java.webserver.workers",
+				getClass().getClassLoader());
+
+		IWebWorker first = router.route("/ext/EchoParams", null);
+		assertTrue(first instanceof EchoParams);
+		assertSame(first, router.route("/ext/EchoParams", null));
+
+		assertNull(router.route("/ext/Missing", null));
+		assertNull(router.route("/ext/../EchoParams", null));
+		assertNull(router.route("/ext/", null));
+	}
+}
@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+
+public class ScriptCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path script(String name, String body) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, body.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@Test
+	public void repeatedRequestIsHit() throws IOException {
+		ScriptCache cache = new ScriptCache(4);
+		Path file = script("a.smscr", "text {$= 1 $}");
+
+		DocumentNode first = cache.get(file);
+		DocumentNode second = cache.get(file);
+
+		assertSame(first, second);
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void modifiedFileIsParsedAgain() throws IOException {
+		ScriptCache cache = new ScriptCache(4);
+		Path file = script("a.smscr", "text {$= 1 $}");
+		DocumentNode first = cache.get(file);
+
+		script("a.smscr", "other text {$= 2 $}");
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+		DocumentNode second = cache.get(file);
+
+		assertNotSame(first, second);
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, second.numberOfChildren());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws IOException {
+		ScriptCache cache = new ScriptCache(2);
+		Path a = script("a.smscr", "a");
+		Path b = script("b.smscr", "b");
+		Path c = script("c.smscr", "c");
+
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+		cache.get(c);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get(a);
+		assertEquals(2, cache.getHits());
+		cache.get(b);
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void zeroCapacityDisablesCaching() throws IOException {
+		ScriptCache cache = new ScriptCache(0);
+		Path file = script("a.smscr", "a");
+
+		cache.get(file);
+		cache.get(file);
+
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getMisses());
+	}
+}
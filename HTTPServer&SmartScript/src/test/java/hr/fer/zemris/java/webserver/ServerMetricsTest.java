@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class ServerMetricsTest {
+
+	private static ServerMetrics metrics() {
+		return new ServerMetrics(() -> 3, () -> 7);
+	}
+
+	@Test
+	public void requestsAreCounted() {
+		ServerMetrics metrics = metrics();
+		metrics.requestStarted();
+		metrics.requestCompleted("static", 200, 100, 2_000_000);
+		metrics.requestStarted();
+		metrics.requestCompleted("static", 404, 50, 1_000_000);
+		metrics.requestStarted();
+		metrics.requestFailed("worker:HelloWorker", 10, 3_000_000);
+		metrics.requestStarted();
+
+		assertEquals(3, metrics.getRequests());
+		assertEquals(1, metrics.getFailedRequests());
+		assertEquals(1, metrics.getRequestsInFlight());
+		assertEquals(160, metrics.getBytesOut());
+		assertEquals(1, metrics.getResponses(200));
+		assertEquals(1, metrics.getResponses(404));
+		assertEquals(0, metrics.getResponses(500));
+		assertArrayEquals(new String[] { "static", "worker:HelloWorker" }, metrics.getRoutes());
+		assertEquals(2, metrics.histogram("static").getCount());
+		assertEquals(2.0, metrics.getLatencyMillis("static", 1), 0.1);
+		assertEquals(0, metrics.getLatencyMillis("unknown", 0.5), 0);
+	}
+
+	@Test
+	public void connectionsAreCounted() {
+		ServerMetrics metrics = metrics();
+		metrics.connectionOpened();
+		metrics.connectionOpened();
+		metrics.connectionClosed();
+		metrics.connectionError();
+		metrics.connectionRejected();
+		assertEquals(2, metrics.getAcceptedConnections());
+		assertEquals(1, metrics.getActiveConnections());
+		assertEquals(1, metrics.getConnectionErrors());
+		assertEquals(1, metrics.getRejectedConnections());
+	}
+
+	@Test
+	public void report() {
+		ServerMetrics metrics = metrics();
+		metrics.requestStarted();
+		metrics.requestCompleted("script:/a \"b\".smscr", 200, 5, 1_000);
+		String report = metrics.getReport();
+		assertTrue(report.contains("smarthttpserver_requests_total 1\n"));
+		assertTrue(report.contains("smarthttpserver_responses_total{status=\"200\"} 1\n"));
+		assertTrue(report.contains("smarthttpserver_executor_queue_depth 3\n"));
+		assertTrue(report.contains("smarthttpserver_sessions 7\n"));
+		assertTrue(report.contains("smarthttpserver_request_latency_microseconds"
+				+ "{route=\"script:/a \\\"b\\\".smscr\",quantile=\"0.99\"} 1\n"));
+		assertTrue(report.contains("smarthttpserver_request_latency_microseconds_count"
+				+ "{route=\"script:/a \\\"b\\\".smscr\"} 1\n"));
+	}
+
+	@Test
+	public void jmxRegistration() throws JMException {
+		ServerMetrics metrics = metrics();
+		String name = "hr.fer.zemris.java.webserver:type=ServerMetrics,name=test";
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		metrics.registerMBean(name);
+		try {
+			assertEquals(7, server.getAttribute(new ObjectName(name), "SessionCount"));
+		} finally {
+			metrics.unregisterMBean();
+		}
+		assertFalse(server.isRegistered(new ObjectName(name)));
+	}
+}
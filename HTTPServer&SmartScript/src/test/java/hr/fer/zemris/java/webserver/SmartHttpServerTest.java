@@ -0,0 +1,279 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class SmartHttpServerTest {
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> ioModes() {
+		return Arrays.asList(new Object[][] { { "blocking" }, { "nio" } });
+	}
+
+	private String ioMode;
+	private int port;
+	private SmartHttpServer server;
+	private boolean stopped;
+	private String sample;
+
+	public SmartHttpServerTest(String ioMode) {
+		this.ioMode = ioMode;
+	}
+
+	private static class Response {
+		private String status;
+		private Map<String, String> headers = new HashMap<>();
+		private String body;
+	}
+
+	private void start(Properties overrides) throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		Properties prop = new Properties();
+		prop.setProperty("server.address", "127.0.0.1");
+		prop.setProperty("server.domainName", "localhost");
+		prop.setProperty("server.port", String.valueOf(port));
+		prop.setProperty("server.workerThreads", "4");
+		prop.setProperty("server.documentRoot", "webroot");
+		prop.setProperty("server.mimeConfig", "config/mime.properties");
+		prop.setProperty("server.workers", "config/workers.properties");
+		prop.setProperty("server.jmx", "false");
+		prop.setProperty("server.shutdownTimeout", "10");
+		prop.setProperty("session.timeout", "600");
+		prop.setProperty("server.ioMode", ioMode);
+		prop.putAll(overrides);
+		sample = new String(Files.readAllBytes(Paths.get("webroot/sample.txt")), StandardCharsets.UTF_8);
+
+		server = new SmartHttpServer(prop);
+		server.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true) {
+			try {
+				new Socket("127.0.0.1", port).close();
+				break;
+			} catch (ConnectException ex) {
+				if (System.currentTimeMillis() > deadline) throw ex;
+				sleep(20);
+			}
+		}
+		// connection checking the server is up must not count against the maximum
+		ServerMetrics metrics = server.getMetrics();
+		while ((metrics.getAcceptedConnections() == 0 || metrics.getActiveConnections() > 0)
+				&& System.currentTimeMillis() < deadline) {
+			sleep(20);
+		}
+	}
+
+	private void start() throws IOException {
+		start(new Properties());
+	}
+
+	@After
+	public void stop() {
+		if (server != null && !stopped) server.stop();
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket("127.0.0.1", port);
+		socket.setSoTimeout(5000);
+		return socket;
+	}
+
+	private static void send(Socket socket, String request) throws IOException {
+		OutputStream os = socket.getOutputStream();
+		os.write(request.getBytes(StandardCharsets.US_ASCII));
+		os.flush();
+	}
+
+	private static String get(String path, String... headers) {
+		StringBuilder sb = new StringBuilder("GET ").append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+		for (String header : headers) {
+			sb.append(header).append("\r\n");
+		}
+		return sb.append("\r\n").toString();
+	}
+
+	private static Response read(InputStream is) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		int matched = 0;
+		while (matched < 4) {
+			int b = is.read();
+			if (b == -1) throw new IOException("Connection closed before the header ended");
+			header.write(b);
+			matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+		String[] lines = header.toString("US-ASCII").split("\r\n");
+		Response response = new Response();
+		response.status = lines[0];
+		for (int i = 1; i < lines.length; ++i) {
+			int colon = lines[i].indexOf(':');
+			response.headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+		}
+		String length = response.headers.get("content-length");
+		assertTrue("Response is framed by Content-Length: " + response.status, length != null);
+		byte[] body = new byte[Integer.parseInt(length)];
+		for (int read = 0; read < body.length; ) {
+			int n = is.read(body, read, body.length - read);
+			if (n == -1) throw new IOException("Connection closed before the body ended");
+			read += n;
+		}
+		response.body = new String(body, StandardCharsets.UTF_8);
+		return response;
+	}
+
+	private static void assertClosed(Socket socket) throws IOException {
+		assertEquals(-1, socket.getInputStream().read());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+		start();
+		try (Socket socket = connect()) {
+			send(socket, get("/sample.txt")
+					+ "POST /ext/EchoParams HTTP/1.1\r\nHost: localhost\r\n"
+					+ "Content-Type: application/x-www-form-urlencoded\r\nTransfer-Encoding: chunked\r\n\r\n"
+					+ "3\r\nx=7\r\n0\r\n\r\n"
+					+ get("/calc?a=3&b=4"));
+
+			InputStream is = socket.getInputStream();
+			Response first = read(is);
+			assertEquals("HTTP/1.1 200 OK", first.status);
+			assertEquals(sample, first.body);
+
+			Response second = read(is);
+			assertEquals("HTTP/1.1 200 OK", second.status);
+			assertTrue(second.body, second.body.contains("<td>x</td><td>7</tr>"));
+
+			Response third = read(is);
+			assertEquals("HTTP/1.1 200 OK", third.status);
+			assertTrue(third.body, third.body.contains("7"));
+			assertEquals("keep-alive", third.headers.get("connection"));
+		}
+	}
+
+	@Test
+	public void headerSplitAcrossPacketsIsRead() throws IOException {
+		start();
+		try (Socket socket = connect()) {
+			String request = get("/sample.txt");
+			send(socket, request.substring(0, 10));
+			sleep(100);
+			send(socket, request.substring(10));
+
+			Response response = read(socket.getInputStream());
+			assertEquals("HTTP/1.1 200 OK", response.status);
+			assertEquals(sample, response.body);
+		}
+	}
+
+	@Test
+	public void connectionCloseIsHonored() throws IOException {
+		start();
+		try (Socket socket = connect()) {
+			send(socket, get("/sample.txt", "Connection: close"));
+
+			Response response = read(socket.getInputStream());
+			assertEquals("HTTP/1.1 200 OK", response.status);
+			assertEquals("close", response.headers.get("connection"));
+			assertClosed(socket);
+		}
+	}
+
+	@Test
+	public void connectionIsClosedAfterMaxKeepAliveRequests() throws IOException {
+		Properties prop = new Properties();
+		prop.setProperty("server.maxKeepAliveRequests", "2");
+		start(prop);
+		try (Socket socket = connect()) {
+			send(socket, get("/sample.txt") + get("/sample.txt") + get("/sample.txt"));
+
+			InputStream is = socket.getInputStream();
+			Response first = read(is);
+			assertEquals("keep-alive", first.headers.get("connection"));
+			Response second = read(is);
+			assertEquals("HTTP/1.1 200 OK", second.status);
+			assertEquals("close", second.headers.get("connection"));
+			assertClosed(socket);
+		}
+	}
+
+	@Test
+	public void connectionsPastMaximumAreRefused() throws IOException {
+		Properties prop = new Properties();
+		prop.setProperty("server.maxConnections", "1");
+		start(prop);
+		try (Socket open = connect()) {
+			send(open, get("/sample.txt"));
+			assertEquals("HTTP/1.1 200 OK", read(open.getInputStream()).status);
+
+			try (Socket refused = connect()) {
+				Response response = read(refused.getInputStream());
+				assertEquals("HTTP/1.1 503 Service Unavailable", response.status);
+				assertEquals("close", response.headers.get("connection"));
+				assertClosed(refused);
+			}
+
+			send(open, get("/sample.txt"));
+			assertEquals("HTTP/1.1 200 OK", read(open.getInputStream()).status);
+		}
+	}
+
+	@Test
+	public void stopFinishesRequestInProgress() throws Exception {
+		start();
+		try (Socket socket = connect()) {
+			send(socket, get("/ext/DelayWorker?ms=500"));
+			sleep(150);
+
+			stopped = true;
+			CompletableFuture<Void> stopping = CompletableFuture.runAsync(server::stop);
+
+			Response response = read(socket.getInputStream());
+			assertEquals("HTTP/1.1 200 OK", response.status);
+			assertEquals("Delayed 500 ms", response.body.trim());
+			assertClosed(socket);
+			stopping.get(10, TimeUnit.SECONDS);
+		}
+
+		try {
+			new Socket("127.0.0.1", port).close();
+			fail("Stopped server accepted a connection");
+		} catch (ConnectException expected) {
+		}
+	}
+}
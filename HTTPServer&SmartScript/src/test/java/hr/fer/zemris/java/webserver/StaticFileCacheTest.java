@@ -0,0 +1,120 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hr.fer.zemris.java.webserver.StaticFileCache.StaticFile;
+
+public class StaticFileCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file(String name, int size) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, new byte[size]);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(1500000000000L));
+		return file;
+	}
+
+	@Test
+	public void smallFileIsCached() throws IOException {
+		StaticFileCache cache = new StaticFileCache(1000, 100);
+		Path path = file("a.txt", 10);
+
+		StaticFile first = cache.get(path);
+		StaticFile second = cache.get(path);
+
+		assertSame(first, second);
+		assertArrayEquals(new byte[10], first.getBody());
+		assertEquals(1, cache.getHits());
+		assertEquals(10, cache.getBytes());
+	}
+
+	@Test
+	public void largeFileIsNotCached() throws IOException {
+		StaticFileCache cache = new StaticFileCache(1000, 100);
+		StaticFile file = cache.get(file("a.bin", 200));
+
+		assertNull(file.getBody());
+		assertEquals(200, file.getSize());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void modifiedFileIsReadAgain() throws IOException {
+		StaticFileCache cache = new StaticFileCache(1000, 100);
+		Path path = file("a.txt", 10);
+		StaticFile first = cache.get(path);
+
+		Files.write(path, new byte[20]);
+		StaticFile second = cache.get(path);
+
+		assertEquals(20, second.getBody().length);
+		assertNotEquals(first.getETag(), second.getETag());
+		assertEquals(20, cache.getBytes());
+	}
+
+	@Test
+	public void cacheIsBoundedByBytes() throws IOException {
+		StaticFileCache cache = new StaticFileCache(100, 100);
+		Path a = file("a.txt", 40);
+		Path b = file("b.txt", 40);
+		Path c = file("c.txt", 40);
+
+		cache.get(a);
+		cache.get(b);
+		cache.get(a);
+		cache.get(c);
+
+		assertEquals(2, cache.size());
+		assertEquals(80, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+		cache.get(a);
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void validators() throws IOException {
+		StaticFile file = new StaticFileCache(1000, 100).get(file("a.txt", 10));
+
+		assertEquals("Fri, 14 Jul 2017 02:40:00 GMT", file.getLastModified());
+		assertTrue(file.isNotModified(file.getETag(), null));
+		assertTrue(file.isNotModified("\"x\", W/" + file.getETag(), null));
+		assertTrue(file.isNotModified("*", null));
+		assertFalse(file.isNotModified("\"x\"", file.getLastModified()));
+		assertTrue(file.isNotModified(null, file.getLastModified()));
+		assertTrue(file.isNotModified(null, "Sat, 15 Jul 2017 00:00:00 GMT"));
+		assertFalse(file.isNotModified(null, "Thu, 13 Jul 2017 00:00:00 GMT"));
+		assertFalse(file.isNotModified(null, "yesterday"));
+		assertFalse(file.isNotModified(null, null));
+	}
+
+	@Test
+	public void gzippedVersionIsCreatedOnce() throws IOException {
+		StaticFileCache cache = new StaticFileCache(10000, 5000);
+		StaticFile file = cache.get(file("a.txt", 4000));
+		StaticFile gzipped = file.getGzipped(6);
+
+		assertSame(gzipped, file.getGzipped(6));
+		assertTrue(gzipped.getSize() < 100);
+		assertEquals(gzipped.getBody().length, gzipped.getSize());
+		assertNotEquals(file.getETag(), gzipped.getETag());
+		assertEquals(file.getLastModified(), gzipped.getLastModified());
+		assertNull(new StaticFileCache(10000, 10).get(file("b.txt", 4000)).getGzipped(6));
+	}
+}